@@ -0,0 +1,43 @@
+package org.insightlab.akka.samples.iot.jmh;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+//Runs the benchmarks with the JMH command line options. Unless they say
+//otherwise, the results are saved as JSON and the GC profiler gives the
+//bytes allocated per operation, so two builds can be compared
+public class BenchmarkMain {
+	
+	static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+	
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		
+		//Help and listings are left to the default JMH entry point
+		if(commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+				|| commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()){
+			Main.main(args);
+			return;
+		}
+		
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+		if(!commandLine.getResultFormat().hasValue()){
+			options.resultFormat(ResultFormatType.JSON);
+			if(!commandLine.getResult().hasValue()){
+				options.result(DEFAULT_RESULT_FILE);
+			}
+		}
+		if(commandLine.getProfilers().isEmpty()){
+			options.addProfiler(GCProfiler.class);
+		}
+		
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,52 @@
+package org.insightlab.akka.samples.iot.jmh;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+
+//Helpers shared by the benchmarks
+final class BenchmarkSupport {
+	
+	private BenchmarkSupport(){
+	}
+	
+	//The actors log at info for every message, which would be measured
+	//instead of the actors, so only warnings are logged
+	static ActorSystem createSystem(String name){
+		return ActorSystem.create(name, ConfigFactory.parseString("akka.loglevel = WARNING")
+				.withFallback(ConfigFactory.load()));
+	}
+	
+	//Waits until the given number of answers arrived
+	static void await(Semaphore answered, int answers) throws InterruptedException {
+		if(!answered.tryAcquire(answers, 1, TimeUnit.MINUTES)){
+			throw new IllegalStateException("Answers didn't arrive in time");
+		}
+	}
+	
+	//Actor that releases a permit for each answer it receives, so the
+	//benchmark thread can wait for the answers of the messages it sent
+	public static final class Replies extends AbstractActor {
+		final Semaphore answered;
+		
+		public Replies(Semaphore answered){
+			this.answered = answered;
+		}
+		
+		static Props props(Semaphore answered){
+			return Props.create(Replies.class, answered);
+		}
+		
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder()
+					.matchAny(m -> answered.release())
+					.build();
+		}
+	}
+}
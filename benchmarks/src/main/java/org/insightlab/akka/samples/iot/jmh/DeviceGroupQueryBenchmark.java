@@ -0,0 +1,102 @@
+package org.insightlab.akka.samples.iot.jmh;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.insightlab.akka.samples.iot.actors.DeviceGroupQuery;
+import org.insightlab.akka.samples.iot.actors.DeviceGroupQueryOptions;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperature;
+import org.insightlab.akka.samples.iot.registry.RegistrySnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.TestKit;
+import scala.concurrent.duration.FiniteDuration;
+
+//Latency of a single query over devices that always answer, for the
+//copying query (before) and the in-place DeviceGroupQuery (after). The
+//queries are started directly, so the group isn't part of the measure.
+//The copying query is quadratic, so the groups stop at 20k devices
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeviceGroupQueryBenchmark {
+	
+	static final FiniteDuration TIMEOUT = new FiniteDuration(10, TimeUnit.MINUTES);
+	
+	@Param({"copying", "in-place"})
+	String query;
+	
+	@Param({"1000", "5000", "10000", "20000"})
+	int devices;
+	
+	ActorSystem system;
+	Map<ActorRef,String> actorToDevice;
+	RegistrySnapshot snapshot;
+	Semaphore answered;
+	ActorRef replies;
+	
+	//Fake device that always answers with the same temperature
+	public static final class RespondingDevice extends AbstractActor {
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder()
+					.match(ReadTemperature.class, r ->
+						getSender().tell(new RespondTemperature(r.requestId, Optional.of(20.0)), getSelf()))
+					.build();
+		}
+	}
+	
+	@Setup(Level.Trial)
+	public void setUp(){
+		system = BenchmarkSupport.createSystem("query-benchmark");
+		answered = new Semaphore(0);
+		replies = system.actorOf(BenchmarkSupport.Replies.props(answered));
+		
+		actorToDevice = new HashMap<>();
+		for(int i = 0; i < devices; i++){
+			actorToDevice.put(system.actorOf(Props.create(RespondingDevice.class)), "device"+i);
+		}
+		snapshot = RegistrySnapshot.of(actorToDevice);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		TestKit.shutdownActorSystem(system, TestKit.shutdownActorSystem$default$2(), true);
+	}
+	
+	@Benchmark
+	public void queryAllDevices() throws InterruptedException {
+		if(query.equals("copying")){
+			system.actorOf(CopyingDeviceGroupQuery.props(actorToDevice, 0L, replies, TIMEOUT));
+		}
+		else{
+			system.actorOf(DeviceGroupQuery.props(snapshot, Collections.emptyMap(), 0L, replies,
+					DeviceGroupQueryOptions.all(TIMEOUT)));
+		}
+		BenchmarkSupport.await(answered, 1);
+	}
+}
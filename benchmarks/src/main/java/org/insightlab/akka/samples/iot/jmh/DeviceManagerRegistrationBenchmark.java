@@ -0,0 +1,104 @@
+package org.insightlab.akka.samples.iot.jmh;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.insightlab.akka.samples.iot.actors.DeviceGroupSettings;
+import org.insightlab.akka.samples.iot.actors.DeviceManager;
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.TestKit;
+
+//RequestTrackDevice registrations per second through the DeviceManager,
+//for a growing number of shards. Each invocation sends every registration
+//of 2000 groups with 50 devices at once and waits for all the answers.
+//The new devices are a registration storm on an empty manager, created
+//for each invocation, and the known devices register again on a manager
+//that already has them
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeviceManagerRegistrationBenchmark {
+	
+	static final int GROUPS = 2000;
+	static final int DEVICES_PER_GROUP = 50;
+	static final int REGISTRATIONS = GROUPS * DEVICES_PER_GROUP;
+	
+	@Param({"1", "2", "4", "8"})
+	int shards;
+	
+	@Param({"new", "known"})
+	String devices;
+	
+	ActorSystem system;
+	ActorRef manager;
+	Semaphore answered;
+	ActorRef replies;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws InterruptedException {
+		system = BenchmarkSupport.createSystem("registration-benchmark");
+		answered = new Semaphore(0);
+		replies = system.actorOf(BenchmarkSupport.Replies.props(answered));
+		
+		if(devices.equals("known")){
+			manager = system.actorOf(DeviceManager.props(DeviceGroupSettings.create(), shards));
+			registerAll();
+		}
+	}
+	
+	//The storm needs a manager without groups for each invocation
+	@Setup(Level.Invocation)
+	public void createManager(){
+		if(devices.equals("new")){
+			manager = system.actorOf(DeviceManager.props(DeviceGroupSettings.create(), shards));
+		}
+	}
+	
+	@TearDown(Level.Invocation)
+	public void stopManager(){
+		if(devices.equals("new")){
+			manager.tell(PoisonPill.getInstance(), ActorRef.noSender());
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		TestKit.shutdownActorSystem(system, TestKit.shutdownActorSystem$default$2(), true);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(REGISTRATIONS)
+	public void registerDevices() throws InterruptedException {
+		registerAll();
+	}
+	
+	private void registerAll() throws InterruptedException {
+		for(int d = 0; d < DEVICES_PER_GROUP; d++){
+			for(int g = 0; g < GROUPS; g++){
+				manager.tell(new RequestTrackDevice("group"+g, "device"+d), replies);
+			}
+		}
+		BenchmarkSupport.await(answered, REGISTRATIONS);
+	}
+}
@@ -0,0 +1,68 @@
+package org.insightlab.akka.samples.iot.jmh;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.insightlab.akka.samples.iot.actors.DeviceGroup;
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllTemperatures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.TestKit;
+
+//Latency of a RequestAllTemperatures, from the request to the
+//RespondAllTemperatures, for groups of different sizes
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupQueryBenchmark {
+	
+	@Param({"10", "100", "1000", "10000", "100000"})
+	int devices;
+	
+	ActorSystem system;
+	ActorRef groupActor;
+	Semaphore answered;
+	ActorRef replies;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws InterruptedException {
+		system = BenchmarkSupport.createSystem("query-benchmark");
+		groupActor = system.actorOf(DeviceGroup.props("group"));
+		answered = new Semaphore(0);
+		replies = system.actorOf(BenchmarkSupport.Replies.props(answered));
+		
+		for(int i = 0; i < devices; i++){
+			groupActor.tell(new RequestTrackDevice("group", "device"+i), replies);
+		}
+		BenchmarkSupport.await(answered, devices);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		TestKit.shutdownActorSystem(system, TestKit.shutdownActorSystem$default$2(), true);
+	}
+	
+	@Benchmark
+	public void queryAllTemperatures() throws InterruptedException {
+		groupActor.tell(new RequestAllTemperatures(0L), replies);
+		BenchmarkSupport.await(answered, 1);
+	}
+}
@@ -0,0 +1,90 @@
+package org.insightlab.akka.samples.iot.jmh;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.insightlab.akka.samples.iot.actors.DeviceGroup;
+import org.insightlab.akka.samples.iot.messages.registration.DeviceRegistred;
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.TestKit;
+
+//RecordTemperature messages per second, all sent to one device or spread
+//over the devices of a group. Each invocation sends a burst of messages
+//and waits for every TemperatureRecorded
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordTemperatureBenchmark {
+	
+	static final int MESSAGES = 1000;
+	
+	@Param({"1000"})
+	int groupSize;
+	
+	ActorSystem system;
+	ActorRef[] deviceActors;
+	Semaphore answered;
+	ActorRef replies;
+	
+	@Setup(Level.Trial)
+	public void setUp(){
+		system = BenchmarkSupport.createSystem("record-benchmark");
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		
+		TestKit probe = new TestKit(system);
+		deviceActors = new ActorRef[groupSize];
+		for(int i = 0; i < groupSize; i++){
+			groupActor.tell(new RequestTrackDevice("group", "device"+i), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+			deviceActors[i] = probe.lastSender();
+		}
+		
+		answered = new Semaphore(0);
+		replies = system.actorOf(BenchmarkSupport.Replies.props(answered));
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		TestKit.shutdownActorSystem(system, TestKit.shutdownActorSystem$default$2(), true);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public void recordOnOneDevice() throws InterruptedException {
+		ActorRef deviceActor = deviceActors[0];
+		for(int i = 0; i < MESSAGES; i++){
+			deviceActor.tell(new RecordTemperature(i, 20.0), replies);
+		}
+		BenchmarkSupport.await(answered, MESSAGES);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public void recordOnGroup() throws InterruptedException {
+		for(int i = 0; i < MESSAGES; i++){
+			deviceActors[i % deviceActors.length].tell(new RecordTemperature(i, 20.0), replies);
+		}
+		BenchmarkSupport.await(answered, MESSAGES);
+	}
+}
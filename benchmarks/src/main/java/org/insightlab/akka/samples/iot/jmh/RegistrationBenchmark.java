@@ -0,0 +1,84 @@
+package org.insightlab.akka.samples.iot.jmh;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.insightlab.akka.samples.iot.actors.DeviceGroupSettings;
+import org.insightlab.akka.samples.iot.actors.DeviceManager;
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.TestKit;
+
+//RequestTrackDevice registrations per second through the DeviceManager.
+//Every registration is of a new device, spread over a fixed number of
+//groups, and each iteration starts with an empty manager
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistrationBenchmark {
+	
+	static final int MESSAGES = 1000;
+	static final int GROUPS = 100;
+	
+	@Param({"1", "4"})
+	int shards;
+	
+	ActorSystem system;
+	ActorRef manager;
+	Semaphore answered;
+	ActorRef replies;
+	long nextDevice;
+	
+	@Setup(Level.Trial)
+	public void setUp(){
+		system = BenchmarkSupport.createSystem("registration-benchmark");
+		answered = new Semaphore(0);
+		replies = system.actorOf(BenchmarkSupport.Replies.props(answered));
+	}
+	
+	@Setup(Level.Iteration)
+	public void createManager(){
+		manager = system.actorOf(DeviceManager.props(DeviceGroupSettings.create(), shards));
+		nextDevice = 0;
+	}
+	
+	@TearDown(Level.Iteration)
+	public void stopManager(){
+		manager.tell(PoisonPill.getInstance(), ActorRef.noSender());
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		TestKit.shutdownActorSystem(system, TestKit.shutdownActorSystem$default$2(), true);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public void registerNewDevices() throws InterruptedException {
+		for(int i = 0; i < MESSAGES; i++){
+			long device = nextDevice++;
+			manager.tell(new RequestTrackDevice("group"+(device % GROUPS), "device"+device), replies);
+		}
+		BenchmarkSupport.await(answered, MESSAGES);
+	}
+}
@@ -0,0 +1,112 @@
+package org.insightlab.akka.samples.iot.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperatureBatch;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllTemperatures;
+import org.insightlab.akka.samples.iot.serialization.IotSerializer;
+import org.insightlab.akka.samples.iot.states.temperature.DeviceTimedOut;
+import org.insightlab.akka.samples.iot.states.temperature.Temperature;
+import org.insightlab.akka.samples.iot.states.temperature.TemperatureReading;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//Time of a round trip (to bytes and back) of a message with the IotSerializer
+//and with Java serialization. The messages don't implement Serializable, so
+//Java serialization gets their fields as standard Java objects, which is
+//the least it would have to write. The sizes are printed at the setup
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+	
+	static final int ENTRIES = 100;
+	static final long NOW = 1514764800000L;
+	
+	@Param({"record", "batch", "all-temperatures"})
+	String message;
+	
+	IotSerializer serializer;
+	Object iotMessage;
+	String manifest;
+	Object javaMessage;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		serializer = new IotSerializer();
+		String[] deviceIds = new String[ENTRIES];
+		double[] values = new double[ENTRIES];
+		long[] timestamps = new long[ENTRIES];
+		for(int i = 0; i < ENTRIES; i++){
+			deviceIds[i] = "device"+i;
+			values[i] = 20.0 + i / 10.0;
+			timestamps[i] = NOW + i * 1000L;
+		}
+		
+		switch(message){
+			case "record":
+				iotMessage = new RecordTemperature(1L, 21.5, NOW);
+				javaMessage = new Object[]{1L, 21.5, NOW};
+				break;
+			case "batch":
+				iotMessage = new RecordTemperatureBatch(1L, deviceIds, values, timestamps);
+				javaMessage = new Object[]{1L, deviceIds, values, timestamps};
+				break;
+			default:
+				Map<String, TemperatureReading> readings = new HashMap<>();
+				HashMap<String, Double> javaReadings = new HashMap<>();
+				for(int i = 0; i < ENTRIES; i++){
+					readings.put(deviceIds[i], i % 10 == 0 ? new DeviceTimedOut() : new Temperature(values[i]));
+					javaReadings.put(deviceIds[i], i % 10 == 0 ? null : values[i]);
+				}
+				iotMessage = new RespondAllTemperatures(1L, readings);
+				javaMessage = new Object[]{1L, javaReadings};
+		}
+		manifest = serializer.manifest(iotMessage);
+		
+		System.out.printf("%n%s: IotSerializer %d bytes, Java serialization %d bytes%n", message,
+				serializer.toBinary(iotMessage).length, javaBytes(javaMessage).length);
+	}
+	
+	@Benchmark
+	public Object iotSerializer() throws NotSerializableException {
+		return serializer.fromBinary(serializer.toBinary(iotMessage), manifest);
+	}
+	
+	@Benchmark
+	public Object javaSerialization() throws IOException, ClassNotFoundException {
+		try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBytes(javaMessage)))){
+			return in.readObject();
+		}
+	}
+	
+	private static byte[] javaBytes(Object o) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(ObjectOutputStream out = new ObjectOutputStream(bytes)){
+			out.writeObject(o);
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,168 @@
+package org.insightlab.akka.samples.iot.actors;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.routing.GroupEnvelope;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsTemperatures;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.cluster.sharding.ShardRegion;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
+
+//This class is the entry point of the groups when they are spread over the
+//nodes of an Akka Cluster. Each group is an entity of the cluster sharding,
+//placed on a node by the hash of its id, and the shards move to other nodes
+//when nodes join or leave. There must be a ClusterDeviceManager on every node
+//that runs groups, and any of them routes RequestTrackDevice, DeviceEnvelope
+//and GroupEnvelope to the node of the group. The answers come from the groups
+//and devices, so they are the same as without the cluster. The queries over
+//many groups ask the regions of every node for the groups they are running.
+//A group that moves to another node starts empty, unless the persistence is
+//enabled with a directory shared by the nodes
+public final class ClusterDeviceManager extends AbstractActor {
+	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+	
+	//Name of the groups in the cluster sharding
+	public static final String GROUP_TYPE = "DeviceGroup";
+	//Around ten shards for each node of the largest cluster expected
+	public static final int DEFAULT_SHARDS = 100;
+	
+	//Deadline to find the groups of every node, before they are queried
+	static final FiniteDuration LOOKUP_TIMEOUT = new FiniteDuration(2, TimeUnit.SECONDS);
+	
+	//Configuration given to every group started on this node
+	private final DeviceGroupSettings settings;
+	private final int shards;
+	//Local shard region, which knows the node of every shard
+	private ActorRef region;
+	//Group filter of the request of each lookup in progress
+	private final Map<ActorRef, Optional<Set<String>>> filters = new HashMap<>();
+	
+	public ClusterDeviceManager(DeviceGroupSettings settings, int shards){
+		if(shards <= 0)
+			throw new IllegalArgumentException("shards must be positive");
+		
+		this.settings = settings;
+		this.shards = shards;
+	}
+	
+	//This static method is used to create an actor indirectly
+	public static Props props(DeviceGroupSettings settings){
+		return props(settings, DEFAULT_SHARDS);
+	}
+	
+	//Every node of the cluster must use the same number of shards
+	public static Props props(DeviceGroupSettings settings, int shards){
+		return Props.create(ClusterDeviceManager.class, settings, shards);
+	}
+	
+	//Configuration of a node listening on the given address. The port 0
+	//takes any free port. The seed nodes are joined with akka.cluster.Cluster
+	public static Config nodeConfig(String hostname, int port){
+		return ConfigFactory.parseString(
+				"akka.actor.provider = cluster\n"
+				+ "akka.remote.netty.tcp.hostname = \"" + hostname + "\"\n"
+				+ "akka.remote.netty.tcp.port = " + port + "\n"
+				//The shards are coordinated without a persistence journal
+				+ "akka.cluster.sharding.state-store-mode = ddata\n")
+				.withFallback(ConfigFactory.load());
+	}
+	
+	//Finds the group of each message. A GroupEnvelope is opened,
+	//so the group receives the message it carries
+	static final class GroupMessageExtractor extends ShardRegion.HashCodeMessageExtractor {
+		
+		GroupMessageExtractor(int shards){
+			super(shards);
+		}
+		
+		@Override
+		public String entityId(Object message){
+			if(message instanceof RequestTrackDevice) return ((RequestTrackDevice) message).groupId;
+			if(message instanceof DeviceEnvelope) return ((DeviceEnvelope) message).groupId;
+			if(message instanceof GroupEnvelope) return ((GroupEnvelope) message).groupId;
+			return null;
+		}
+		
+		@Override
+		public Object entityMessage(Object message){
+			if(message instanceof GroupEnvelope) return ((GroupEnvelope) message).message;
+			return message;
+		}
+	}
+	
+	//Method to start the query of the temperatures of many groups. No node
+	//knows every group, so they are looked up first
+	private void onAllGroupsTemperatures(RequestAllGroupsTemperatures r){
+		lookupGroups(r.requestId, false, r.groupIds);
+	}
+	
+	private void onAllGroupsStatistics(RequestAllGroupsStatistics r){
+		lookupGroups(r.requestId, true, r.groupIds);
+	}
+	
+	//Method to find the running groups. The filter of the request, if any,
+	//is kept until they are found, since unknown group ids are ignored
+	private void lookupGroups(long requestId, boolean statistics, Optional<Set<String>> filter){
+		ActorRef lookup = getContext().actorOf(
+				ClusterGroupsLookup.props(region, requestId, getSender(), statistics, LOOKUP_TIMEOUT));
+		filters.put(lookup, filter);
+	}
+	
+	//Method to create the DeviceManagerQuery, which sends the requests to the
+	//groups found through the shard region and merges their answers
+	private void onGroupsFound(ClusterGroupsLookup.GroupsFound f){
+		Optional<Set<String>> filter = filters.remove(getSender());
+		Set<String> groupIds = f.groupIds;
+		if(filter != null && filter.isPresent()){
+			groupIds = new HashSet<>(f.groupIds);
+			groupIds.retainAll(filter.get());
+		}
+		getContext().actorOf(DeviceManagerQuery.routedProps(
+				groupIds, region, f.requestId, f.requester, DeviceManager.GROUPS_QUERY_TIMEOUT, f.statistics));
+	}
+	
+	//This method executes when the actor starts
+	@Override
+	public void preStart() {
+		region = ClusterSharding.get(getContext().getSystem()).start(GROUP_TYPE, DeviceGroup.entityProps(settings),
+				ClusterShardingSettings.create(getContext().getSystem()), new GroupMessageExtractor(shards));
+		log.info("ClusterDeviceManager started");
+	}
+	
+	//This method executes when the actor stops
+	@Override
+	public void postStop() {
+		log.info("ClusterDeviceManager stopped");
+	}
+	
+	//At this method we define, for each message pattern, the behavior of the actor
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(RequestTrackDevice.class, m -> region.forward(m, getContext()))
+				.match(DeviceEnvelope.class, m -> region.forward(m, getContext()))
+				.match(GroupEnvelope.class, m -> region.forward(m, getContext()))
+				.match(RequestAllGroupsTemperatures.class, this::onAllGroupsTemperatures)
+				.match(RequestAllGroupsStatistics.class, this::onAllGroupsStatistics)
+				.match(ClusterGroupsLookup.GroupsFound.class, this::onGroupsFound)
+				.build();
+	}
+}
@@ -0,0 +1,116 @@
+package org.insightlab.akka.samples.iot.actors;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Address;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.cluster.sharding.ShardRegion;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
+
+//This class finds the ids of the groups running on every node of the
+//cluster. The local shard region knows the regions of the other nodes, and
+//each region knows the groups of its shards. The ids are sent to the parent
+//in a GroupsFound, which tells the request they were found for
+public class ClusterGroupsLookup extends AbstractActor {
+	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+	
+	//This is an auxiliary class to help trigger a timeout
+	public static final class LookupTimeout{
+	}
+	
+	//Helper message class sent to the parent with the ids of the groups found
+	public static final class GroupsFound{
+		final long requestId;
+		final ActorRef requester;
+		final boolean statistics;
+		final Set<String> groupIds;
+		
+		public GroupsFound(long requestId, ActorRef requester, boolean statistics, Set<String> groupIds){
+			this.requestId = requestId;
+			this.requester = requester;
+			this.statistics = statistics;
+			this.groupIds = groupIds;
+		}
+	}
+	
+	final ActorRef region;
+	//The request the groups are looked up for, given back with the ids
+	final long requestId;
+	final ActorRef requester;
+	final boolean statistics;
+	
+	final Set<String> groupIds = new HashSet<>();
+	//Number of regions that hasn't answered yet
+	int remaining;
+	
+	Cancellable lookupTimeoutTimer;
+	
+	public ClusterGroupsLookup(ActorRef region, long requestId, ActorRef requester, boolean statistics,
+			FiniteDuration timeout){
+		this.region = region;
+		this.requestId = requestId;
+		this.requester = requester;
+		this.statistics = statistics;
+		
+		//Given a duration, this will trigger a LookupTimeout message
+		lookupTimeoutTimer = getContext().getSystem().scheduler().scheduleOnce(
+				timeout, getSelf(), new LookupTimeout(), getContext().dispatcher(), getSelf());
+	}
+	
+	//This static method is used to create an actor indirectly
+	public static Props props(ActorRef region, long requestId, ActorRef requester, boolean statistics,
+			FiniteDuration timeout){
+		return Props.create(ClusterGroupsLookup.class, region, requestId, requester, statistics, timeout);
+	}
+	
+	//This method executes when the actor starts
+	@Override
+	public void preStart(){
+		region.tell(ShardRegion.getCurrentRegionsInstance(), getSelf());
+	}
+	
+	//This method executes when the actor stops
+	@Override
+	public void postStop(){
+		lookupTimeoutTimer.cancel();
+	}
+	
+	//At this method we define, for each message pattern, the behavior of the actor
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				//Every region is asked for the groups of its shards. The regions
+				//have the same path on every node
+				.match(ShardRegion.CurrentRegions.class, r -> {
+					remaining = r.getRegions().size();
+					for(Address address : r.getRegions()){
+						getContext().actorSelection(region.path().toStringWithAddress(address))
+								.tell(ShardRegion.getShardRegionStateInstance(), getSelf());
+					}
+					if(remaining == 0) finish();
+				})
+				.match(ShardRegion.CurrentShardRegionState.class, s -> {
+					for(ShardRegion.ShardState shard : s.getShards()){
+						groupIds.addAll(shard.getEntityIds());
+					}
+					if(--remaining == 0) finish();
+				})
+				//When timeout happens, the groups found so far are reported
+				.match(LookupTimeout.class, t -> {
+					log.warning("Looking up the groups timed out with {} regions missing", remaining);
+					finish();
+				})
+				.build();
+	}
+	
+	private void finish(){
+		getContext().getParent().tell(new GroupsFound(requestId, requester, statistics, groupIds), getSelf());
+		getContext().stop(getSelf());
+	}
+}
@@ -2,44 +2,173 @@ package org.insightlab.akka.samples.iot.actors;
 
 import java.util.Optional;
 
+import org.insightlab.akka.samples.iot.alerting.AlertRule;
+import org.insightlab.akka.samples.iot.alerting.DeviceAlerts;
+import org.insightlab.akka.samples.iot.cache.LastValueTable;
+import org.insightlab.akka.samples.iot.history.TemperatureHistory;
+import org.insightlab.akka.samples.iot.history.TemperatureRollups;
 import org.insightlab.akka.samples.iot.messages.registration.DeviceRegistred;
 import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscribeDevice;
+import org.insightlab.akka.samples.iot.messages.subscription.Subscribed;
+import org.insightlab.akka.samples.iot.messages.subscription.Unsubscribe;
+import org.insightlab.akka.samples.iot.messages.temperature.PushTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadRollups;
 import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperatureRange;
 import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondRollups;
 import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperatureRange;
 import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRecorded;
+import org.insightlab.akka.samples.iot.metrics.ActorMetrics;
+import org.insightlab.akka.samples.iot.metrics.IotMetrics;
+import org.insightlab.akka.samples.iot.subscription.Subscribers;
 
 import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
+import akka.actor.Terminated;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
 
 //This class represents an IoT device that register temperature
 public class Device extends AbstractActor {
 	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+	//Time spent on each message type, kept by the metrics of the system
+	private final ActorMetrics handlingTimes = IotMetrics.get(getContext().getSystem()).actor("device");
 	
 	//Every device has an group
 	final String groupId;
 	//Every device has its id
 	final String deviceId;
 	
-	//The device may or not have a temperature reading, so we use an Optional object
-	Optional<Double> lastTemperatureReading = Optional.empty();
+	//The device may or not have a temperature reading. The reading is kept in
+	//primitive fields, so storing it doesn't allocate, and an Optional is
+	//created only when it is read
+	boolean hasReading = false;
+	double lastValue;
+	//Timestamp of the last reading, handed to the group on passivation
+	long lastTimestamp = LastValueTable.NO_READING;
 	
-	public Device(String groupId, String deviceId){
+	//The most recent readings, used to answer range queries
+	TemperatureHistory history;
+	//Per-minute and per-hour aggregates of the readings, used to answer
+	//rollup queries over longer periods than the history. Like the history,
+	//they are replaced by the ones handed over when the device was passivated
+	TemperatureRollups minuteRollups;
+	TemperatureRollups hourRollups;
+	//When true, every new reading is pushed to the group. Besides the
+	//settings, the group asks for them while it has subscribers
+	boolean publishToGroup;
+	//Subscribers to the readings of this device
+	final Subscribers subscribers;
+	//Alert rules of the group evaluated on each reading of this device
+	final DeviceAlerts alerts;
+	//Configuration of the group, which tells when the device is idle
+	final DeviceGroupSettings settings;
+	
+	public Device(String groupId, String deviceId, DeviceGroupSettings settings){
 		this.groupId = groupId;
 		this.deviceId = deviceId;
+		this.history = new TemperatureHistory(settings.historyCapacity);
+		this.minuteRollups = new TemperatureRollups(ReadRollups.Resolution.MINUTE.millis, settings.rollupMinutes);
+		this.hourRollups = new TemperatureRollups(ReadRollups.Resolution.HOUR.millis, settings.rollupHours);
+		this.publishToGroup = settings.devicesPublish();
+		this.settings = settings;
+		this.subscribers = new Subscribers(groupId, getSelf(), getContext().getSystem().scheduler(), getContext().dispatcher());
+		this.alerts = new DeviceAlerts(groupId, deviceId, getContext().getParent(), getSelf());
 	}
 	
 	//This static method is used to create an actor indirectly
 	public static Props props(String groupId, String deviceId){
-		return Props.create(Device.class, groupId, deviceId);
+		return props(groupId, deviceId, DeviceGroupSettings.create());
+	}
+	
+	public static Props props(String groupId, String deviceId, DeviceGroupSettings settings){
+		return settings.applyMailbox(Props.create(Device.class, groupId, deviceId, settings));
+	}
+	
+	//Helper message class used by the group to deliver, at once, all the
+	//readings of a RecordTemperatureBatch that belong to this device.
+	//No answer is sent, since the group already acknowledged the batch,
+	//and nothing is pushed back, since the group already knows the readings
+	public static final class RecordReadings{
+		final double[] values;
+		final long[] timestamps;
+		
+		public RecordReadings(double[] values, long[] timestamps){
+			this.values = values;
+			this.timestamps = timestamps;
+		}
+	}
+	
+	//Helper message class sent by the group, after the device reported
+	//itself idle, to hand over the last reading and stop
+	public static final class Passivate{
+	}
+	
+	//Helper class with what a device recorded besides its last reading.
+	//A passivated device hands it over to the group, which gives it back
+	//when the device starts again. The device has stopped, so it isn't copied
+	public static final class RecordedState{
+		final TemperatureHistory history;
+		final TemperatureRollups minuteRollups;
+		final TemperatureRollups hourRollups;
+		
+		RecordedState(TemperatureHistory history, TemperatureRollups minuteRollups, TemperatureRollups hourRollups){
+			this.history = history;
+			this.minuteRollups = minuteRollups;
+			this.hourRollups = hourRollups;
+		}
+		
+		//True when there is nothing worth keeping
+		boolean isEmpty(){
+			return history.size() == 0 && minuteRollups.size() == 0 && hourRollups.size() == 0;
+		}
+	}
+	
+	//Helper message class sent by the group to start, or stop, pushing the
+	//readings it would not receive otherwise, for the subscribers of the group
+	public static final class PublishReadings{
+		final boolean publish;
+		
+		public PublishReadings(boolean publish){
+			this.publish = publish;
+		}
 	}
 	
 	//This method executes when the actor starts
 	@Override
 	public void preStart(){
 		log.info("Device actor {}-{} started", groupId, deviceId);
+		
+		//Without messages for this long, the actor receives a ReceiveTimeout
+		if(settings.passivationTimeout.isPresent()){
+			getContext().setReceiveTimeout(settings.passivationTimeout.get());
+		}
+	}
+	
+	//This method executes on the old instance, before a restart. Its
+	//subscribers would be lost silently, so their subscriptions are ended
+	@Override
+	public void preRestart(Throwable reason, Optional<Object> message) throws Exception {
+		for(ActorRef subscriber : subscribers.endAll()){
+			getContext().unwatch(subscriber);
+		}
+		super.preRestart(reason, message);
+	}
+	
+	//This method executes when the actor restarts after a failure. The
+	//readings, the alert rules and whether the group wants the readings were
+	//lost with the old instance, so we ask the group for them
+	@Override
+	public void postRestart(Throwable reason){
+		preStart();
+		getContext().getParent().tell(new DeviceGroup.RequestDeviceState(deviceId), getSelf());
 	}
 	
 	//This method executes when the actor stops
@@ -48,6 +177,82 @@ public class Device extends AbstractActor {
 		log.info("Device actor {}-{} stopped", groupId, deviceId);
 	}
 	
+	//Helper message class sent by the group with every alert rule that a
+	//device evaluates by itself. It replaces the rules the device had
+	public static final class SetAlertRules{
+		final AlertRule[] rules;
+		
+		public SetAlertRules(AlertRule[] rules){
+			this.rules = rules;
+		}
+	}
+	
+	//Helper message class used by the group to give back the last reading
+	//of the device, after a recovery, a restart or a passivation. After a
+	//passivation, it also gives back the state the device handed over, if any
+	public static final class RestoreReading{
+		final double value;
+		final long timestamp;
+		final RecordedState recorded;
+		
+		public RestoreReading(double value, long timestamp){
+			this(value, timestamp, null);
+		}
+		
+		public RestoreReading(double value, long timestamp, RecordedState recorded){
+			this.value = value;
+			this.timestamp = timestamp;
+			this.recorded = recorded;
+		}
+	}
+	
+	//This method wraps the handling of every message, to measure its time
+	@Override
+	public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object msg){
+		long start = System.nanoTime();
+		try{
+			super.aroundReceive(receive, msg);
+		}
+		finally{
+			handlingTimes.handled(msg, System.nanoTime() - start);
+		}
+	}
+	
+	//This method stores a new reading. Unless the device pushes its readings
+	//to the group, has subscribers or an alert changes, nothing is allocated
+	private void record(double value, long timestamp){
+		hasReading = true;
+		lastValue = value;
+		lastTimestamp = timestamp;
+		keep(timestamp, value);
+		if(publishToGroup){
+			getContext().getParent().tell(new DeviceGroup.TemperatureUpdated(deviceId, value, timestamp), getSelf());
+		}
+		subscribers.changed(deviceId, value, timestamp);
+		alerts.record(value, timestamp);
+	}
+	
+	//Method to add a reading to the history and the rollups
+	private void keep(long timestamp, double value){
+		history.record(timestamp, value);
+		minuteRollups.record(timestamp, value);
+		hourRollups.record(timestamp, value);
+	}
+	
+	//Method to add a subscriber of this device, which is watched so it is removed when it stops
+	private void onSubscribe(SubscribeDevice s){
+		if(!this.deviceId.equals(s.deviceId)){
+			log.warning("Ignoring SubscribeDevice for {}. This actor is responsible for {}-{}.",
+					s.deviceId, this.groupId, this.deviceId);
+			return;
+		}
+		
+		if(subscribers.add(getSender(), s.requestId, s.conflation)){
+			getContext().watch(getSender());
+		}
+		getSender().tell(new Subscribed(s.requestId), getSelf());
+	}
+	
 	//At this method we define, for each message pattern, the behavior of the actor 
 	@Override
 	public Receive createReceive(){
@@ -67,14 +272,84 @@ public class Device extends AbstractActor {
 				//The RecordTemperature message is for store a new temperature reading on the device
 				.match(RecordTemperature.class, r -> {
 					log.info("Recorded temperature reading {} with {}", r.value, r.requestId);
-					lastTemperatureReading = Optional.of(r.value);
+					record(r.value, r.timestamp);
 					//A TemperatureRecorded is sent as an answer
 					getSender().tell(new TemperatureRecorded(r.requestId), getSelf());
 				})
+				//The PushTemperature message stores a reading without answer nor log
+				.match(PushTemperature.class, p -> record(p.value, p.timestamp))
+				//The RecordReadings message stores many readings at once, keeping the last one
+				.match(RecordReadings.class, r -> {
+					log.debug("Recorded {} temperature readings from a batch", r.values.length);
+					hasReading = true;
+					lastValue = r.values[r.values.length-1];
+					lastTimestamp = r.timestamps[r.timestamps.length-1];
+					for(int i = 0; i < r.values.length; i++){
+						keep(r.timestamps[i], r.values[i]);
+						subscribers.changed(deviceId, r.values[i], r.timestamps[i]);
+						alerts.record(r.values[i], r.timestamps[i]);
+					}
+				})
+				//The RestoreReading message gives back a reading the device already had,
+				//unless a newer one arrived in the meantime. A handed over state
+				//already has the reading, so it replaces the empty one
+				.match(RestoreReading.class, r -> {
+					if(!hasReading){
+						hasReading = true;
+						lastValue = r.value;
+						lastTimestamp = r.timestamp;
+						if(r.recorded != null){
+							history = r.recorded.history;
+							minuteRollups = r.recorded.minuteRollups;
+							hourRollups = r.recorded.hourRollups;
+						}
+						else{
+							keep(r.timestamp, r.value);
+						}
+					}
+				})
 				//The ReadTemperature message is for send the device's temperature reading 
 				.match(ReadTemperature.class, r ->
-					getSender().tell(new RespondTemperature(r.requestId, lastTemperatureReading), getSelf())
-				).build();
+					getSender().tell(new RespondTemperature(r.requestId,
+							hasReading ? Optional.of(lastValue) : Optional.empty()), getSelf())
+				)
+				//The ReadTemperatureRange message is for send the readings of a time range
+				.match(ReadTemperatureRange.class, r -> {
+					TemperatureHistory.Slice slice = history.range(r.from, r.to);
+					getSender().tell(new RespondTemperatureRange(r.requestId, slice.timestamps, slice.values), getSelf());
+				})
+				//The ReadRollups message is for send the aggregates of a time range
+				.match(ReadRollups.class, r -> {
+					TemperatureRollups rollups = r.resolution == ReadRollups.Resolution.MINUTE ? minuteRollups : hourRollups;
+					TemperatureRollups.Slice slice = rollups.range(r.from, r.to);
+					getSender().tell(new RespondRollups(r.requestId, slice.starts, slice.counts,
+							slice.mins, slice.maxs, slice.means), getSelf());
+				})
+				//The ReceiveTimeout message means the device is idle, so the group is told.
+				//The device keeps working until the group answers with a Passivate.
+				//A device with subscribers or a raised alert is never idle, since they would be lost
+				.match(ReceiveTimeout.class, t -> {
+					if(subscribers.isEmpty() && !alerts.anyRaised()){
+						getContext().getParent().tell(new DeviceGroup.DeviceIdle(
+								deviceId, lastValue, lastTimestamp), getSelf());
+					}
+				})
+				.match(SubscribeDevice.class, this::onSubscribe)
+				.match(Unsubscribe.class, u -> {
+					if(subscribers.remove(getSender())) getContext().unwatch(getSender());
+				})
+				//A subscriber that stops is removed
+				.match(Terminated.class, t -> subscribers.remove(t.getActor()))
+				.match(Subscribers.Flush.class, subscribers::flush)
+				.match(PublishReadings.class, p -> publishToGroup = settings.devicesPublish() || p.publish)
+				.match(SetAlertRules.class, s -> alerts.setRules(s.rules))
+				//The Passivate message hands the last reading and the recorded state
+				//over to the group and stops the device
+				.match(Passivate.class, p -> {
+					getContext().getParent().tell(new DeviceGroup.DevicePassivated(deviceId, lastValue, lastTimestamp,
+							new RecordedState(history, minuteRollups, hourRollups)), getSelf());
+					getContext().stop(getSelf());
+				}).build();
 	}
 	
 }
@@ -1,13 +1,55 @@
 package org.insightlab.akka.samples.iot.actors;
 
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.insightlab.akka.samples.iot.alerting.GroupAlerts;
+import org.insightlab.akka.samples.iot.cache.LastValueTable;
+import org.insightlab.akka.samples.iot.history.TemperatureHistory;
+import org.insightlab.akka.samples.iot.messages.alerting.AddAlertRule;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertCleared;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertRaised;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertRulesUpdated;
+import org.insightlab.akka.samples.iot.messages.alerting.RemoveAlertRule;
+import org.insightlab.akka.samples.iot.messages.alerting.SubscribeAlerts;
 import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscribeDevice;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscribeGroup;
+import org.insightlab.akka.samples.iot.messages.subscription.Subscribed;
+import org.insightlab.akka.samples.iot.messages.subscription.Unsubscribe;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperatureHistory;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperatureBatch;
 import org.insightlab.akka.samples.iot.messages.temperature.RequestAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestCachedTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestGroupStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestTemperatureStream;
 import org.insightlab.akka.samples.iot.messages.temperature.RespondAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondCachedTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondGroupStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperatureRange;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureBatchRecorded;
+import org.insightlab.akka.samples.iot.metrics.ActorMetrics;
+import org.insightlab.akka.samples.iot.metrics.IotMetrics;
+import org.insightlab.akka.samples.iot.persistence.GroupJournal;
+import org.insightlab.akka.samples.iot.registry.ActorRegistry;
+import org.insightlab.akka.samples.iot.registry.RegistrySnapshot;
+import org.insightlab.akka.samples.iot.states.temperature.DeviceTimedOut;
+import org.insightlab.akka.samples.iot.states.temperature.Temperature;
+import org.insightlab.akka.samples.iot.states.temperature.TemperatureNotAvailable;
+import org.insightlab.akka.samples.iot.states.temperature.TemperatureReading;
+import org.insightlab.akka.samples.iot.statistics.TemperatureStatistics;
+import org.insightlab.akka.samples.iot.storage.HistoryStore;
+import org.insightlab.akka.samples.iot.subscription.Subscribers;
 
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
@@ -15,36 +57,103 @@ import akka.actor.Props;
 import akka.actor.Terminated;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
-import scala.concurrent.duration.FiniteDuration;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
 
 //This class represents a  IoT device group.
 //It will be responsible for manage the devices of that group
 public class DeviceGroup extends AbstractActor {
 	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+	//Time spent on each message type, kept by the metrics of the system
+	private final ActorMetrics handlingTimes = IotMetrics.get(getContext().getSystem()).actor("group");
+	//RequestAllTemperatures answered without a collection of their own
+	private final LongAdder coalescedQueries = IotMetrics.get(getContext().getSystem()).counter("group.coalesced-queries");
 	
 	//Each group have an id
 	public final String groupId;
+	//Configuration of the group, also used by its devices
+	private final DeviceGroupSettings settings;
 	
-	//The actor must know the reference of each device
-	private final Map<String,ActorRef> deviceActors;
-	//The actor must also know the device for each reference
-	private final Map<ActorRef,String> actorsIds;
+	//The actor must know the reference of each device, and the device
+	//for each reference. Both are kept by the registry, without boxing
+	private final ActorRegistry devices = new ActorRegistry();
+	//Last reading pushed by each device, used only if the cache,
+	//the persistence, the history store or the passivation are enabled
+	private final LastValueTable lastValues = new LastValueTable();
+	//Devices being stopped for passivation, with the messages that
+	//arrived for them meanwhile
+	private final Map<String,List<PendingMessage>> passivating = new HashMap<>();
+	//Devices without an actor, whose last reading is kept by lastValues
+	private final Set<String> passivated = new HashSet<>();
+	//State handed over by the passivated devices that recorded any, given
+	//back to each device when it starts again
+	private final Map<String,Device.RecordedState> recordedStates = new HashMap<>();
+	//Queries in progress, told about the devices passivated while they run.
+	//They are tracked only if the passivation is enabled
+	private final Set<ActorRef> queries = new HashSet<>();
+	//Durable state of the group, used only if the persistence is enabled
+	private GroupJournal journal;
+	//Every reading of the group, used only if the history store is enabled
+	private HistoryStore historyStore;
 	
-	public DeviceGroup(String groupId) {
+	//Requests of all temperatures waiting for each collection in progress. The
+	//requests with the same deadline and completeness target wait for the same
+	//collection, so the devices are asked once, however many requesters there are
+	private final Map<Long,List<PendingMessage>> waitingQueries = new HashMap<>();
+	private long collectionId = 0L;
+	//The query of each collection in progress, always watched, so the
+	//requests still waiting are answered if it stops without a result
+	private final Map<ActorRef,Long> collectionQueries = new HashMap<>();
+	//Result of the last collection, kept only if the settings give it a TTL,
+	//the request it answered and when it was collected
+	private Map<String,TemperatureReading> lastCollection;
+	private RequestAllTemperatures lastCollectionRequest;
+	private long lastCollectionNanos;
+	
+	//Subscribers to the readings of every device of the group
+	private final Subscribers subscribers;
+	//Alert rules of the group and subscribers to its alerts
+	private final GroupAlerts alerts;
+	
+	public DeviceGroup(String groupId, DeviceGroupSettings settings) {
 		this.groupId = groupId;
-		deviceActors = new HashMap<>();
-		actorsIds = new HashMap<>();
+		this.settings = settings;
+		this.subscribers = createSubscribers();
+		this.alerts = new GroupAlerts(groupId, getSelf());
+	}
+	
+	//Constructor of a group started by the cluster sharding, which
+	//names each actor with its encoded group id
+	public DeviceGroup(DeviceGroupSettings settings) throws UnsupportedEncodingException {
+		this.groupId = URLDecoder.decode(getSelf().path().name(), "UTF-8");
+		this.settings = settings;
+		this.subscribers = createSubscribers();
+		this.alerts = new GroupAlerts(groupId, getSelf());
+	}
+	
+	private Subscribers createSubscribers(){
+		return new Subscribers(groupId, getSelf(), getContext().getSystem().scheduler(), getContext().dispatcher());
 	}
 	
 	//This static method is used to create an actor indirectly
 	public static Props props(String groupId){
-		return Props.create(DeviceGroup.class, groupId);
+		return props(groupId, DeviceGroupSettings.create());
+	}
+	
+	public static Props props(String groupId, DeviceGroupSettings settings){
+		return settings.applyMailbox(Props.create(DeviceGroup.class, groupId, settings));
+	}
+	
+	//Props of the groups started by the cluster sharding, where
+	//every group is created with the same Props
+	public static Props entityProps(DeviceGroupSettings settings){
+		return settings.applyMailbox(Props.create(DeviceGroup.class, settings));
 	}
 	
 	//Helper message class just to request the list of devices
 	//from that group
 	public static final class RequestDeviceList{
-		final long requestId;
+		public final long requestId;
 		
 		public RequestDeviceList(long requestId){
 			this.requestId = requestId;
@@ -54,8 +163,8 @@ public class DeviceGroup extends AbstractActor {
 	//Helper message class just to request the list of devices
 	//from that group
 	public static final class ReplyDeviceList{
-		final long requestId;
-		final Set<String> ids;
+		public final long requestId;
+		public final Set<String> ids;
 		
 		public ReplyDeviceList(long requestId, Set<String> ids){
 			this.requestId = requestId;
@@ -63,35 +172,428 @@ public class DeviceGroup extends AbstractActor {
 		}
 	}
 	
-	//Method to create the DeviceGroupQuery, which will handle the
-	//request of all temperatures
+	//Helper message class sent by a device to its group for every
+	//new reading, when the cache is enabled or the group has subscribers
+	public static final class TemperatureUpdated{
+		final String deviceId;
+		final double value;
+		final long timestamp;
+		
+		public TemperatureUpdated(String deviceId, double value, long timestamp){
+			this.deviceId = deviceId;
+			this.value = value;
+			this.timestamp = timestamp;
+		}
+	}
+	
+	//Helper message class sent by a restarted device to get back the state
+	//lost with the old instance: its last reading, the alert rules and
+	//whether it must push its readings
+	public static final class RequestDeviceState{
+		final String deviceId;
+		
+		public RequestDeviceState(String deviceId){
+			this.deviceId = deviceId;
+		}
+	}
+	
+	//Helper message class sent by a device that received nothing for the
+	//passivation timeout, with its last reading
+	public static final class DeviceIdle{
+		final String deviceId;
+		final double value;
+		final long timestamp;
+		
+		public DeviceIdle(String deviceId, double value, long timestamp){
+			this.deviceId = deviceId;
+			this.value = value;
+			this.timestamp = timestamp;
+		}
+	}
+	
+	//Helper message class sent by a device right before it stops for
+	//passivation, with its last reading and the state it recorded
+	public static final class DevicePassivated{
+		final String deviceId;
+		final double value;
+		final long timestamp;
+		final Device.RecordedState recorded;
+		
+		public DevicePassivated(String deviceId, double value, long timestamp, Device.RecordedState recorded){
+			this.deviceId = deviceId;
+			this.value = value;
+			this.timestamp = timestamp;
+			this.recorded = recorded;
+		}
+	}
+	
+	//A message kept, with its sender, until it can be handled
+	private static final class PendingMessage{
+		final Object message;
+		final ActorRef sender;
+		
+		PendingMessage(Object message, ActorRef sender){
+			this.message = message;
+			this.sender = sender;
+		}
+	}
+	
+	//Method to handle the request of all temperatures. A recent result is
+	//reused and, if a collection with the same target is in progress, the
+	//request waits for it. Otherwise, a DeviceGroupQuery collects the
+	//temperatures for the group within the deadline of the request
 	private void onAllTemperatures(RequestAllTemperatures r){
-		getContext().actorOf(DeviceGroupQuery.props(
-				actorsIds, r.requestId, getSender(), new FiniteDuration(3, TimeUnit.SECONDS)));
+		if(lastCollection != null && lastCollectionRequest.sameTarget(r)
+				&& System.nanoTime() - lastCollectionNanos <= settings.queryResultTtl.get().toNanos()){
+			coalescedQueries.increment();
+			getSender().tell(new RespondAllTemperatures(r.requestId, lastCollection), getSelf());
+			return;
+		}
+		
+		//There are few collections in progress, usually one
+		for(List<PendingMessage> waiting : waitingQueries.values()){
+			if(((RequestAllTemperatures) waiting.get(0).message).sameTarget(r)){
+				waiting.add(new PendingMessage(r, getSender()));
+				coalescedQueries.increment();
+				return;
+			}
+		}
+		
+		List<PendingMessage> waiting = new ArrayList<>();
+		waiting.add(new PendingMessage(r, getSender()));
+		collectionId++;
+		waitingQueries.put(collectionId, waiting);
+		
+		RegistrySnapshot active = activeDevices();
+		Map<String,TemperatureReading> known = knownReadings();
+		int requiredAnswers = r.requiredAnswers(active.size() + known.size());
+		ActorRef query = startQuery(DeviceGroupQuery.props(active, known, collectionId, getSelf(),
+				DeviceGroupQueryOptions.all(r.timeout).withRequiredAnswers(requiredAnswers)));
+		getContext().watch(query);
+		collectionQueries.put(query, collectionId);
+	}
+	
+	//Method to start a query. With the passivation enabled, the group watches
+	//it, since it must know the queries that may ask a device being passivated
+	private ActorRef startQuery(Props props){
+		ActorRef query = getContext().actorOf(props);
+		if(settings.passivationTimeout.isPresent()){
+			getContext().watch(query);
+			queries.add(query);
+		}
+		return query;
+	}
+	
+	//Method to share the result of a collection with every request waiting for it.
+	//The map isn't copied, so it can't be changed by the requesters
+	private void onCollected(RespondAllTemperatures c){
+		List<PendingMessage> waiting = waitingQueries.remove(c.requestId);
+		if(waiting == null) return;
+		
+		Map<String,TemperatureReading> temperatures = Collections.unmodifiableMap(c.temperatures);
+		for(PendingMessage query : waiting){
+			long requestId = ((RequestAllTemperatures) query.message).requestId;
+			query.sender.tell(new RespondAllTemperatures(requestId, temperatures), getSelf());
+		}
+		
+		if(settings.queryResultTtl.isPresent()){
+			lastCollection = temperatures;
+			lastCollectionRequest = (RequestAllTemperatures) waiting.get(0).message;
+			lastCollectionNanos = System.nanoTime();
+		}
+	}
+	
+	//Method to answer the requests of a collection whose query stopped
+	//without a result. The known readings are kept and the active devices
+	//are marked DeviceTimedOut, as if the deadline had passed
+	private void onCollectionStopped(long stoppedId){
+		List<PendingMessage> waiting = waitingQueries.remove(stoppedId);
+		if(waiting == null) return;
+		
+		log.warning("Collection {} of group {} stopped before answering", stoppedId, groupId);
+		Map<String,TemperatureReading> temperatures = knownReadings();
+		RegistrySnapshot active = activeDevices();
+		for(int i = 0; i < active.size(); i++){
+			temperatures.put(active.idAt(i), new DeviceTimedOut());
+		}
+		temperatures = Collections.unmodifiableMap(temperatures);
+		for(PendingMessage query : waiting){
+			long requestId = ((RequestAllTemperatures) query.message).requestId;
+			query.sender.tell(new RespondAllTemperatures(requestId, temperatures), getSelf());
+		}
+	}
+	
+	//Method to stream the temperatures of the group. Each request has its
+	//own query, since the chunks go straight to the requester
+	private void onTemperatureStream(RequestTemperatureStream r){
+		startQuery(DeviceGroupQuery.props(activeDevices(), knownReadings(), r.requestId, getSender(),
+				DeviceGroupQueryOptions.stream(r.timeout, r.chunkSize)));
+	}
+	
+	//The devices whose actor can answer a query. The snapshot is immutable,
+	//since the query reads it while the group keeps changing its registry
+	private RegistrySnapshot activeDevices(){
+		return devices.snapshot(passivating.keySet());
+	}
+	
+	//The readings of the devices without an actor, or about to lose it
+	private Map<String,TemperatureReading> knownReadings(){
+		Map<String,TemperatureReading> known = new HashMap<>();
+		for(String deviceId : passivated){
+			known.put(deviceId, lastReading(deviceId));
+		}
+		for(String deviceId : passivating.keySet()){
+			known.put(deviceId, lastReading(deviceId));
+		}
+		return known;
+	}
+	
+	private TemperatureReading lastReading(String deviceId){
+		if(lastValues.hasReading(deviceId)) return new Temperature(lastValues.value(deviceId));
+		return new TemperatureNotAvailable();
+	}
+	
+	//Method to summarize the temperatures of the group. When the devices
+	//push their readings, the summary comes from the last values. Otherwise, the devices are
+	//queried and the query sends the summary
+	private void onGroupStatistics(RequestGroupStatistics r){
+		if(settings.devicesPublish()){
+			double[] values = lastValues.values();
+			long[] timestamps = lastValues.timestamps();
+			int count = 0;
+			for(int i = 0; i < values.length; i++){
+				if(timestamps[i] != LastValueTable.NO_READING) values[count++] = values[i];
+			}
+			
+			getSender().tell(new RespondGroupStatistics(r.requestId, TemperatureStatistics.of(values, count)), getSelf());
+		}
+		else{
+			startQuery(DeviceGroupQuery.props(activeDevices(), knownReadings(), r.requestId, getSender(),
+					DeviceGroupQueryOptions.statistics(r.timeout)));
+		}
+	}
+	
+	//Method to answer with the last readings pushed by the devices
+	private void onCachedTemperatures(RequestCachedTemperatures r){
+		if(settings.lastValueCache){
+			getSender().tell(new RespondCachedTemperatures(r.requestId,
+					lastValues.deviceIds(), lastValues.values(), lastValues.timestamps()), getSelf());
+		}
+		else{
+			log.warning("Ignoring RequestCachedTemperatures for {}. The last value cache is disabled.", groupId);
+		}
+	}
+	
+	//Method to store a reading pushed by a device, tell the subscribers
+	//and evaluate the alert rules over many devices
+	private void onTemperatureUpdated(TemperatureUpdated u) throws IOException {
+		subscribers.changed(u.deviceId, u.value, u.timestamp);
+		alerts.recorded(u.deviceId, u.value, u.timestamp);
+		if(stored(u.deviceId, u.value, u.timestamp) && journal != null){
+			persisted();
+		}
+	}
+	
+	//Method to add a subscriber of the group. While there are subscribers,
+	//the devices push every reading to the group, even if the settings don't ask for it
+	private void onSubscribeGroup(SubscribeGroup s){
+		boolean wanted = readingsWanted();
+		if(subscribers.add(getSender(), s.requestId, s.conflation)){
+			getContext().watch(getSender());
+		}
+		publishingChanged(wanted);
+		getSender().tell(new Subscribed(s.requestId), getSelf());
+	}
+	
+	//Method to route the subscription of a device, which answers it
+	private void onSubscribeDevice(SubscribeDevice s){
+		if(isTracked(s.deviceId)){
+			deliver(s.deviceId, s, getSender());
+		}
+		else{
+			log.warning("Ignoring SubscribeDevice for {}. This device isn't tracked by {}.", s.deviceId, groupId);
+		}
+	}
+	
+	//Method to remove a subscriber of the readings or of the alerts, after
+	//an Unsubscribe or when it stops. Returns false if it wasn't subscribed
+	private boolean removeSubscriber(ActorRef subscriber){
+		boolean wanted = readingsWanted();
+		boolean removed = subscribers.remove(subscriber);
+		removed |= alerts.unsubscribe(subscriber);
+		if(!removed) return false;
+		
+		getContext().unwatch(subscriber);
+		publishingChanged(wanted);
+		return true;
+	}
+	
+	//True when the devices must push every reading to the group, for its
+	//subscribers or its alert rules over many devices
+	private boolean readingsWanted(){
+		return !subscribers.isEmpty() || alerts.hasGroupRules();
+	}
+	
+	//Method to tell the devices to start, or stop, pushing their readings,
+	//when they are wanted for the first time or no longer wanted
+	private void publishingChanged(boolean wantedBefore){
+		boolean wanted = readingsWanted();
+		if(wanted != wantedBefore && !settings.devicesPublish()){
+			tellDevices(new Device.PublishReadings(wanted));
+		}
+	}
+	
+	//Method to add, or replace, an alert rule. The devices get the rules
+	//they evaluate by themselves, without being restarted
+	private void onAddAlertRule(AddAlertRule a){
+		boolean wanted = readingsWanted();
+		alerts.add(a.rule, System.currentTimeMillis());
+		tellDevices(new Device.SetAlertRules(alerts.deviceRules()));
+		publishingChanged(wanted);
+		getSender().tell(new AlertRulesUpdated(a.requestId, alerts.size()), getSelf());
+	}
+	
+	//Method to remove an alert rule. Its raised alerts are cleared
+	private void onRemoveAlertRule(RemoveAlertRule r){
+		boolean wanted = readingsWanted();
+		if(alerts.remove(r.ruleId, System.currentTimeMillis())){
+			tellDevices(new Device.SetAlertRules(alerts.deviceRules()));
+			publishingChanged(wanted);
+		}
+		getSender().tell(new AlertRulesUpdated(r.requestId, alerts.size()), getSelf());
+	}
+	
+	//Method to add a subscriber of the alerts, which is watched so it is removed when it stops
+	private void onSubscribeAlerts(SubscribeAlerts s){
+		if(alerts.subscribe(getSender())){
+			getContext().watch(getSender());
+		}
+		getSender().tell(new Subscribed(s.requestId), getSelf());
+	}
+	
+	private void tellDevices(Object message){
+		for(int slot = 0; slot < devices.slots(); slot++){
+			ActorRef deviceActor = devices.refAt(slot);
+			if(deviceActor != null) deviceActor.tell(message, getSelf());
+		}
+	}
+	
+	//Method to keep a reading of a known device in the last value table, the
+	//journal and the history store, as enabled. Returns false for unknown devices
+	private boolean stored(String deviceId, double value, long timestamp) throws IOException {
+		if(!lastValues.update(deviceId, value, timestamp)) return false;
+		
+		if(journal != null){
+			journal.recorded(deviceId, value, timestamp);
+		}
+		if(historyStore != null){
+			historyStore.append(deviceId, timestamp, value);
+		}
+		return true;
+	}
+	
+	//Method to answer with the readings of a device kept by the history store
+	private void onTemperatureHistory(ReadTemperatureHistory r){
+		if(historyStore != null){
+			TemperatureHistory.Slice slice = historyStore.range(r.deviceId, r.from, r.to);
+			getSender().tell(new RespondTemperatureRange(r.requestId, slice.timestamps, slice.values), getSelf());
+		}
+		else{
+			log.warning("Ignoring ReadTemperatureHistory for {}. The history store is disabled.", groupId);
+		}
+	}
+	
+	//Method to give back to a restarted device its last reading, the alert
+	//rules and, while the group wants them, the request to push its readings
+	private void onDeviceState(RequestDeviceState r){
+		if(!getSender().equals(devices.get(r.deviceId))) return;
+		
+		if(lastValues.hasReading(r.deviceId)){
+			getSender().tell(new Device.RestoreReading(
+					lastValues.value(r.deviceId), lastValues.timestamp(r.deviceId)), getSelf());
+		}
+		if(alerts.size() > 0){
+			getSender().tell(new Device.SetAlertRules(alerts.deviceRules()), getSelf());
+		}
+		if(readingsWanted() && !settings.devicesPublish()){
+			getSender().tell(new Device.PublishReadings(true), getSelf());
+		}
+	}
+	
+	//Method to split a batch of readings between the devices of the group.
+	//Each device receives a single message with all its readings and
+	//the sender receives a single answer with the outcome of each entry
+	private void onRecordBatch(RecordTemperatureBatch batch) throws IOException {
+		int size = batch.size();
+		byte[] outcomes = new byte[size];
+		
+		//First, we check each entry and count the entries per device
+		Map<String,int[]> entriesPerDevice = new HashMap<>();
+		for(int i = 0; i < size; i++){
+			String deviceId = batch.deviceIds[i];
+			if(!isTracked(deviceId)){
+				outcomes[i] = TemperatureBatchRecorded.UNKNOWN_DEVICE;
+			}
+			else{
+				outcomes[i] = TemperatureBatchRecorded.RECORDED;
+				if(settings.devicesPublish()){
+					stored(deviceId, batch.values[i], batch.timestamps[i]);
+				}
+				subscribers.changed(deviceId, batch.values[i], batch.timestamps[i]);
+				alerts.recorded(deviceId, batch.values[i], batch.timestamps[i]);
+				entriesPerDevice.computeIfAbsent(deviceId, d -> new int[1])[0]++;
+			}
+		}
+		
+		//Then, we copy the entries of each device. The batch is walked backwards,
+		//so the counters give the position of each entry and the order is kept
+		Map<String,Device.RecordReadings> readings = new HashMap<>();
+		for(int i = size-1; i >= 0; i--){
+			if(outcomes[i] != TemperatureBatchRecorded.RECORDED) continue;
+			
+			String deviceId = batch.deviceIds[i];
+			int[] remaining = entriesPerDevice.get(deviceId);
+			Device.RecordReadings r = readings.get(deviceId);
+			if(r == null){
+				r = new Device.RecordReadings(new double[remaining[0]], new long[remaining[0]]);
+				readings.put(deviceId, r);
+			}
+			int position = --remaining[0];
+			r.values[position] = batch.values[i];
+			r.timestamps[position] = batch.timestamps[i];
+		}
+		
+		for(Map.Entry<String,Device.RecordReadings> entry : readings.entrySet()){
+			deliver(entry.getKey(), entry.getValue(), getSelf());
+		}
+		
+		if(journal != null){
+			persisted();
+		}
+		getSender().tell(new TemperatureBatchRecorded(batch.requestId, outcomes), getSelf());
 	}
 	
 	//Method to add a new device
-	private void onTrackDevice(RequestTrackDevice trackMsg){
+	private void onTrackDevice(RequestTrackDevice trackMsg) throws IOException {
 		if(this.groupId.equals(trackMsg.groupId)){
 			//If the group is correct, we proceed
-			ActorRef deviceActor = deviceActors.get(trackMsg.deviceId);
-			
-			//If the device actor already exists, we just forward the message
-			if(deviceActor != null){
-				deviceActor.forward(trackMsg, getContext());
+			//If the device is already tracked, we just deliver the message,
+			//which starts the device again if it was passivated
+			if(isTracked(trackMsg.deviceId)){
+				deliver(trackMsg.deviceId, trackMsg, getSender());
 			}
 			else{
 				//Otherwise, we must create a new one and forward the message
 				log.info("Creating device actor for {}", trackMsg.deviceId);
-				deviceActor = getContext().actorOf(Device.props(groupId, trackMsg.deviceId),"device-"+trackMsg.deviceId);
-				
-				//The group actor must watch every device to, if they shutdown,
-				//it must be removed from the group
-				getContext().watch(deviceActor);
-				
-				//Then, the new actor is stored on the maps
-				deviceActors.put(trackMsg.deviceId, deviceActor);
-				actorsIds.put(deviceActor, trackMsg.deviceId);
+				ActorRef deviceActor = createDevice(trackMsg.deviceId);
+				lastCollection = null;
+				if(settings.keepsLastValues()){
+					lastValues.add(trackMsg.deviceId);
+				}
+				if(journal != null){
+					journal.registered(trackMsg.deviceId);
+					persisted();
+				}
 				deviceActor.forward(trackMsg, getContext());
 			}
 			
@@ -102,35 +604,244 @@ public class DeviceGroup extends AbstractActor {
 		}
 	}
 	
+	//Method to deliver a message to a tracked device on behalf of the sender.
+	//A passivated device is started again, with its last reading, and the
+	//messages for a device being passivated wait until it has stopped
+	private void deliver(String deviceId, Object message, ActorRef sender){
+		ActorRef deviceActor = devices.get(deviceId);
+		List<PendingMessage> pending = passivating.get(deviceId);
+		
+		if(pending != null){
+			pending.add(new PendingMessage(message, sender));
+		}
+		else if(deviceActor != null){
+			deviceActor.tell(message, sender);
+		}
+		else if(passivated.remove(deviceId)){
+			activate(deviceId).tell(message, sender);
+		}
+		else{
+			log.warning("Ignoring message for {}. This device isn't tracked by {}.", deviceId, groupId);
+		}
+	}
+	
+	//Method to route a message sent to a device through the group
+	private void onDeviceEnvelope(DeviceEnvelope envelope){
+		if(this.groupId.equals(envelope.groupId)){
+			deliver(envelope.deviceId, envelope.message, getSender());
+		}
+		else{
+			log.warning("Ignoring DeviceEnvelope for {}. This actor is responsible for {}.", envelope.groupId, groupId);
+		}
+	}
+	
+	//True when the device has an actor or is passivated
+	private boolean isTracked(String deviceId){
+		return devices.contains(deviceId) || passivated.contains(deviceId);
+	}
+	
+	//Method to start the actor of a passivated device, giving back its last
+	//reading and the state it handed over
+	private ActorRef activate(String deviceId){
+		log.debug("Activating passivated device {}", deviceId);
+		
+		ActorRef deviceActor = createDevice(deviceId);
+		Device.RecordedState recorded = recordedStates.remove(deviceId);
+		if(lastValues.hasReading(deviceId)){
+			deviceActor.tell(new Device.RestoreReading(
+					lastValues.value(deviceId), lastValues.timestamp(deviceId), recorded), getSelf());
+		}
+		return deviceActor;
+	}
+	
+	//Method to start passivating an idle device. From now on, its messages
+	//wait in the group, so the Passivate is the last one it receives.
+	//A query in progress may still ask the device directly, and find it
+	//stopped, so every query is first given the last reading to answer with
+	private void onDeviceIdle(DeviceIdle idle){
+		if(!getSender().equals(devices.get(idle.deviceId)) || passivating.containsKey(idle.deviceId)) return;
+		
+		keepReading(idle.deviceId, idle.value, idle.timestamp);
+		passivating.put(idle.deviceId, new ArrayList<>());
+		if(!queries.isEmpty()){
+			DeviceGroupQuery.DevicePassivating reading = new DeviceGroupQuery.DevicePassivating(
+					getSender(), lastReading(idle.deviceId));
+			for(ActorRef query : queries){
+				query.tell(reading, getSelf());
+			}
+		}
+		getSender().tell(new Device.Passivate(), getSelf());
+	}
+	
+	//Method to keep the final reading and the recorded state of a passivated
+	//device. The passivation ends when its Terminated arrives
+	private void onDevicePassivated(DevicePassivated p){
+		if(passivating.containsKey(p.deviceId)){
+			keepReading(p.deviceId, p.value, p.timestamp);
+			if(!p.recorded.isEmpty()) recordedStates.put(p.deviceId, p.recorded);
+		}
+	}
+	
+	//The readings handed over by a device are kept only in the table, since
+	//the journal and the history store already got them when they were pushed
+	private void keepReading(String deviceId, double value, long timestamp){
+		if(timestamp != LastValueTable.NO_READING){
+			lastValues.update(deviceId, value, timestamp);
+		}
+	}
+	
+	//Method to create the actor of a device and store it on the registry
+	private ActorRef createDevice(String deviceId){
+		ActorRef deviceActor = getContext().actorOf(Device.props(groupId, deviceId, settings),"device-"+deviceId);
+		
+		//The group actor must watch every device to, if they shutdown,
+		//it must be removed from the group
+		getContext().watch(deviceActor);
+		
+		//Then, the new actor is stored on the registry
+		devices.put(deviceId, deviceActor);
+		
+		//The device evaluates the alert rules of the group and, while the
+		//group wants them, pushes its readings
+		if(alerts.size() > 0){
+			deviceActor.tell(new Device.SetAlertRules(alerts.deviceRules()), getSelf());
+		}
+		if(readingsWanted() && !settings.devicesPublish()){
+			deviceActor.tell(new Device.PublishReadings(true), getSelf());
+		}
+		return deviceActor;
+	}
+	
+	//Method to call after new journal records. The records are flushed and,
+	//from time to time, a snapshot replaces them
+	private void persisted() throws IOException {
+		if(journal.recordsSinceSnapshot() >= settings.snapshotInterval){
+			journal.snapshot(lastValues);
+		}
+		else{
+			journal.flush();
+		}
+	}
+	
 	//Method to handle a device shutdown
-	private void onTerminate(Terminated t){
+	private void onTerminate(Terminated t) throws IOException {
+		//A subscriber or a query that stops is removed. A collection query
+		//that stops before its result leaves its requests to be answered here
+		Long stoppedCollection = collectionQueries.remove(t.getActor());
+		if(stoppedCollection != null){
+			queries.remove(t.getActor());
+			onCollectionStopped(stoppedCollection);
+			return;
+		}
+		if(removeSubscriber(t.getActor()) || queries.remove(t.getActor())) return;
+		
 		//If a device stops, we must remove it from the group
 		ActorRef deviceActor = t.getActor();
-		String deviceId = actorsIds.get(deviceActor);
+		String deviceId = devices.remove(deviceActor);
 		
 		log.info("Device actor {} has been terminated",deviceId);
 		
-		actorsIds.remove(deviceActor);
-		deviceActors.remove(deviceId);
+		//A passivated device is still part of the group. If messages arrived
+		//while it was stopping, it starts again right away to handle them
+		List<PendingMessage> pending = passivating.remove(deviceId);
+		if(pending != null){
+			if(pending.isEmpty()){
+				passivated.add(deviceId);
+			}
+			else{
+				ActorRef activated = activate(deviceId);
+				for(PendingMessage m : pending){
+					activated.tell(m.message, m.sender);
+				}
+			}
+			return;
+		}
 		
+		lastValues.remove(deviceId);
+		alerts.removed(deviceId, System.currentTimeMillis());
+		lastCollection = null;
+		if(journal != null){
+			journal.removed(deviceId);
+			persisted();
+		}
 	}
 	
 	//Method to handle devices list request
 	private void onDeviceList(RequestDeviceList r){
-		//Answer the request with the list of devices from the group
-		getSender().tell(new ReplyDeviceList(r.requestId, deviceActors.keySet()), getSelf());
+		//Answer the request with the list of devices from the group,
+		//including the passivated ones
+		Set<String> ids = new HashSet<>(passivated);
+		for(int slot = 0; slot < devices.slots(); slot++){
+			if(devices.refAt(slot) != null) ids.add(devices.idAt(slot));
+		}
+		getSender().tell(new ReplyDeviceList(r.requestId, ids), getSelf());
 	}
 	
 	//This method executes when the actor starts
 	@Override
-	public void preStart() {
+	public void preStart() throws IOException {
 		log.info("DeviceGroup {} started", groupId);
+		
+		if(settings.persistenceDirectory.isPresent()){
+			recover();
+		}
+		if(settings.historyStore.isPresent()){
+			historyStore = new HistoryStore(HistoryStore.directoryOf(settings.historyStore.get(), groupId),
+					settings.historyStore.get());
+		}
+	}
+	
+	//Method to rebuild the devices from the newest snapshot and the journal.
+	//Each group recovers by itself, so many groups recover in parallel
+	private void recover() throws IOException {
+		journal = new GroupJournal(GroupJournal.directoryOf(settings.persistenceDirectory.get(), groupId));
+		journal.recover(lastValues);
+		
+		//With the passivation enabled, the devices start passivated and
+		//each actor is created when the first message for it arrives
+		String[] deviceIds = lastValues.deviceIds();
+		for(String deviceId : deviceIds){
+			if(settings.passivationTimeout.isPresent()){
+				passivated.add(deviceId);
+				continue;
+			}
+			ActorRef deviceActor = createDevice(deviceId);
+			if(lastValues.hasReading(deviceId)){
+				deviceActor.tell(new Device.RestoreReading(
+						lastValues.value(deviceId), lastValues.timestamp(deviceId)), getSelf());
+			}
+		}
+		
+		//The recovered state becomes the new snapshot, so the next recovery starts from it
+		if(journal.recordsSinceSnapshot() > 0){
+			journal.snapshot(lastValues);
+		}
+		log.info("DeviceGroup {} recovered {} devices", groupId, deviceIds.length);
 	}
 	
 	//This method executes when the actor stops
 	@Override
-	public void postStop() {
+	public void postStop() throws IOException {
 		log.info("DeviceGroup {} stopped", groupId);
+		
+		if(journal != null){
+			journal.close();
+		}
+		if(historyStore != null){
+			historyStore.close();
+		}
+	}
+	
+	//This method wraps the handling of every message, to measure its time
+	@Override
+	public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object msg){
+		long start = System.nanoTime();
+		try{
+			super.aroundReceive(receive, msg);
+		}
+		finally{
+			handlingTimes.handled(msg, System.nanoTime() - start);
+		}
 	}
 	
 	//At this method we define, for each message pattern, the behavior of the actor
@@ -141,6 +852,27 @@ public class DeviceGroup extends AbstractActor {
 				.match(Terminated.class, this::onTerminate)
 				.match(RequestDeviceList.class, this::onDeviceList)
 				.match(RequestAllTemperatures.class, this::onAllTemperatures)
+				.match(RespondAllTemperatures.class, this::onCollected)
+				.match(RequestTemperatureStream.class, this::onTemperatureStream)
+				.match(RecordTemperatureBatch.class, this::onRecordBatch)
+				.match(RequestCachedTemperatures.class, this::onCachedTemperatures)
+				.match(RequestGroupStatistics.class, this::onGroupStatistics)
+				.match(TemperatureUpdated.class, this::onTemperatureUpdated)
+				.match(RequestDeviceState.class, this::onDeviceState)
+				.match(ReadTemperatureHistory.class, this::onTemperatureHistory)
+				.match(DeviceEnvelope.class, this::onDeviceEnvelope)
+				.match(DeviceIdle.class, this::onDeviceIdle)
+				.match(DevicePassivated.class, this::onDevicePassivated)
+				.match(SubscribeGroup.class, this::onSubscribeGroup)
+				.match(SubscribeDevice.class, this::onSubscribeDevice)
+				.match(Unsubscribe.class, u -> removeSubscriber(getSender()))
+				.match(Subscribers.Flush.class, subscribers::flush)
+				.match(AddAlertRule.class, this::onAddAlertRule)
+				.match(RemoveAlertRule.class, this::onRemoveAlertRule)
+				.match(SubscribeAlerts.class, this::onSubscribeAlerts)
+				//The alerts raised and cleared by the devices go to the subscribers
+				.match(AlertRaised.class, alerts::publish)
+				.match(AlertCleared.class, alerts::publish)
 				.build();
 	}
 
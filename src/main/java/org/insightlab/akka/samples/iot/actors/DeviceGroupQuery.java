@@ -7,12 +7,20 @@ import java.util.Set;
 
 import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperature;
 import org.insightlab.akka.samples.iot.messages.temperature.RespondAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondGroupStatistics;
 import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureChunk;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureStreamCompleted;
+import org.insightlab.akka.samples.iot.metrics.ActorMetrics;
+import org.insightlab.akka.samples.iot.metrics.IotMetrics;
+import org.insightlab.akka.samples.iot.registry.ActorRegistry;
+import org.insightlab.akka.samples.iot.registry.RegistrySnapshot;
 import org.insightlab.akka.samples.iot.states.temperature.DeviceNotAvailable;
 import org.insightlab.akka.samples.iot.states.temperature.DeviceTimedOut;
 import org.insightlab.akka.samples.iot.states.temperature.Temperature;
 import org.insightlab.akka.samples.iot.states.temperature.TemperatureNotAvailable;
 import org.insightlab.akka.samples.iot.states.temperature.TemperatureReading;
+import org.insightlab.akka.samples.iot.statistics.TemperatureStatistics;
 
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
@@ -21,7 +29,8 @@ import akka.actor.Props;
 import akka.actor.Terminated;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
-import scala.concurrent.duration.FiniteDuration;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
 
 //This class is responsible to query the temperature from all devices
 //from a group
@@ -31,38 +40,111 @@ public class DeviceGroupQuery extends AbstractActor {
 	public static final class CollectionTimeout{
 	}
 	
+	//Helper message class sent by the group when a device starts its
+	//passivation, with the reading to use if it stops before answering
+	public static final class DevicePassivating{
+		final ActorRef device;
+		final TemperatureReading reading;
+		
+		public DevicePassivating(ActorRef device, TemperatureReading reading){
+			this.device = device;
+			this.reading = reading;
+		}
+	}
+	
 	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+	//Time spent on each message type, kept by the metrics of the system
+	private final ActorMetrics handlingTimes = IotMetrics.get(getContext().getSystem()).actor("group-query");
 	
-	//We must know the id of a givend actor device
-	final Map<ActorRef,String> actorToDevice;
 	final long requestId;
 	//We must know who made the temperatures request
 	final ActorRef requester;
+	//What the requester receives: every temperature, a summary or a stream of chunks
+	final DeviceGroupQueryOptions.Mode mode;
+	//Number of readings of each chunk, when streaming
+	final int chunkSize;
+	//Readings waiting for the next chunk, and the number of chunks sent
+	Map<String,TemperatureReading> chunk;
+	int chunksSent = 0;
+	
+	//We must know the id of a given actor device. Each device gets the
+	//position it has in the snapshot, followed by the known readings.
+	//The arrays are allocated once and updated in place as the answers arrive
+	final RegistrySnapshot devices;
+	final String[] deviceIds;
+	final TemperatureReading[] readings;
+	//Number of answers still needed to finish the query. It starts below the
+	//number of devices when the requester accepts an incomplete answer
+	int remaining;
+	//Readings given by the group for the devices being passivated, only
+	//created when one is
+	Map<ActorRef,TemperatureReading> passivatingReadings;
 	
 	Cancellable queryTimeoutTimer;
+	//Time the query started, for its latency
+	final long startNanos = System.nanoTime();
 	
-	public DeviceGroupQuery(Map<ActorRef,String> actorToDevice, long requestId, ActorRef requester, FiniteDuration timeout){
-		this.actorToDevice = actorToDevice;
+	//The snapshot is the immutable view of the devices the group handed to the query.
+	//The known readings belong to devices without an actor, such as the
+	//passivated ones. They are part of the answer but nobody is asked for them
+	public DeviceGroupQuery(RegistrySnapshot devices, Map<String,TemperatureReading> knownReadings,
+			long requestId, ActorRef requester, DeviceGroupQueryOptions options){
+		this.devices = devices;
 		this.requestId = requestId;
 		this.requester = requester;
+		this.mode = options.mode;
+		this.chunkSize = options.chunkSize;
+		
+		int size = devices.size();
+		int known = knownReadings.size();
+		deviceIds = new String[size + known];
+		readings = new TemperatureReading[size + known];
+		
+		int index = 0;
+		for(; index < size; index++){
+			deviceIds[index] = devices.idAt(index);
+		}
+		for(Map.Entry<String,TemperatureReading> entry : knownReadings.entrySet()){
+			deviceIds[index] = entry.getKey();
+			readings[index] = entry.getValue();
+			index++;
+		}
+		remaining = Math.max(0, Math.min(size, options.requiredAnswers - known));
 		
 		//Given a duration, this will trigger a CollectionTimeout message
 		queryTimeoutTimer = getContext().getSystem().scheduler().scheduleOnce(
-				timeout, getSelf(), new CollectionTimeout(), getContext().dispatcher(), getSelf());
+				options.timeout, getSelf(), new CollectionTimeout(), getContext().dispatcher(), getSelf());
 	}
 	
 	//This static method is used to create an actor indirectly
-	public static Props props(Map<ActorRef,String> actorToDevice, long requestId, ActorRef requester, FiniteDuration timeout){
-		return Props.create(DeviceGroupQuery.class, actorToDevice, requestId, requester, timeout);
+	public static Props props(RegistrySnapshot devices, Map<String,TemperatureReading> knownReadings,
+			long requestId, ActorRef requester, DeviceGroupQueryOptions options){
+		return Props.create(DeviceGroupQuery.class, devices, knownReadings, requestId, requester, options);
 	}
 	
 	//This method executes when the actor starts
 	@Override
 	public void preStart(){
+		//The known readings are streamed right away
+		if(mode == DeviceGroupQueryOptions.Mode.STREAM){
+			for(int i = devices.size(); i < readings.length; i++){
+				streamed(deviceIds[i], readings[i]);
+			}
+		}
+		
+		//A group without devices, or a requester that needs no answer, has nothing to wait for
+		if(remaining == 0){
+			finish();
+			return;
+		}
+		
 		//A ReadTemperature message is sent to each device actor
-		for (ActorRef deviceActor : actorToDevice.keySet()){
+		ReadTemperature read = new ReadTemperature(0L);
+		IotMetrics.get(getContext().getSystem()).histogram("group-query.fan-out").record(devices.size());
+		for (int i = 0; i < devices.size(); i++){
+			ActorRef deviceActor = devices.refAt(i);
 			getContext().watch(deviceActor);
-			deviceActor.tell(new ReadTemperature(0L), getSelf());
+			deviceActor.tell(read, getSelf());
 		}
 	}
 	
@@ -72,81 +154,153 @@ public class DeviceGroupQuery extends AbstractActor {
 		queryTimeoutTimer.cancel();
 	}
 	
-	//At this method we define, for each message pattern, the behavior of the actor
+	//This method wraps the handling of every message, to measure its time
 	@Override
-	public Receive createReceive() {
-		//The creation of the Receive is delegated to another method,
-		//allowing the actor to change it's strategy of the actor for each
-		//answer given by the devices
-		return waitingForReplies(new HashMap<>(), actorToDevice.keySet());
+	public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object msg){
+		long start = System.nanoTime();
+		try{
+			super.aroundReceive(receive, msg);
+		}
+		finally{
+			handlingTimes.handled(msg, System.nanoTime() - start);
+		}
 	}
 	
-	//This method returns a Recieve that is buit according to the
-	//remaining actors that hasn't answered yet and the responses
-	public Receive waitingForReplies(Map<String,TemperatureReading> repliesSoFar, Set<ActorRef> stillWaiting){
-		//For each message that is received (excepted by the CollectionTimeout,
-		//the answer will be sent to a function that will map the answer and
-		//change the strategy of message treatment
+	//At this method we define, for each message pattern, the behavior of the actor.
+	//The answers are stored in place, so the behavior never changes
+	@Override
+	public Receive createReceive() {
 		return receiveBuilder()
 				
 				//When a temperature is answered, it will be stored
 				.match(RespondTemperature.class, r -> {
-					ActorRef deviceActor = getSender();
 					TemperatureReading reading = r.value.map(v -> (TemperatureReading) new Temperature(v))
 													.orElse(new TemperatureNotAvailable());
 					
-					receivedResponse(deviceActor, reading, stillWaiting, repliesSoFar);
+					receivedResponse(getSender(), reading);
 				})
 				
 				//When an actor finish its execution before answers,
-				//a DeviceNotAvailable is stored
-				.match(Terminated.class, t -> receivedResponse(t.getActor(), new DeviceNotAvailable(), stillWaiting, repliesSoFar))
-				
-				//When timeout happens, all devices that hasn't answered, a
-				//DeviceTimedOut is stored and the result is sent to the requester
-				.match(CollectionTimeout.class,  t -> {
-					Map<String, TemperatureReading> replies = new HashMap<>(repliesSoFar);
-					for(ActorRef deviceActor : stillWaiting){
-						String deviceId = actorToDevice.get(deviceActor);
-						replies.put(deviceId, new DeviceTimedOut());
-					}
-					
-					requester.tell(new RespondAllTemperatures(requestId, replies), getSelf());
-					getContext().stop(getSelf());
+				//a DeviceNotAvailable is stored. A passivated device is
+				//answered with the reading the group gave for it
+				.match(Terminated.class, t -> {
+					TemperatureReading reading = passivatingReadings == null ? null : passivatingReadings.remove(t.getActor());
+					receivedResponse(t.getActor(), reading != null ? reading : new DeviceNotAvailable());
+				})
+				.match(DevicePassivating.class, p -> {
+					if(passivatingReadings == null) passivatingReadings = new HashMap<>();
+					passivatingReadings.put(p.device, p.reading);
 				})
+				
+				//When timeout happens, the result is sent to the requester
+				.match(CollectionTimeout.class,  t -> finish())
 				.build();
 	}
 	
-	//This method process a TemperatureReading from the message received and changes
-	//the actor strategy
-	private void receivedResponse(ActorRef deviceActor, TemperatureReading reading, Set<ActorRef> stillWaiting,
-			Map<String, TemperatureReading> repliesSoFar) {
+	//This method stores a TemperatureReading from the message received
+	private void receivedResponse(ActorRef deviceActor, TemperatureReading reading) {
+		int index = devices.indexOf(deviceActor);
+		
+		//Answers from unknown actors, or repeated ones, are ignored
+		if(index == ActorRegistry.NO_SLOT || readings[index] != null) return;
 		
 		//Since we collected an answer from some actor, we don't need
 		//to watch it anymore
 		getContext().unwatch(deviceActor);
 		
-		//We get the device id
-		String deviceId = actorToDevice.get(deviceActor);
+		readings[index] = reading;
+		remaining--;
+		if(mode == DeviceGroupQueryOptions.Mode.STREAM && !(reading instanceof DeviceNotAvailable)){
+			streamed(deviceIds[index], reading);
+		}
 		
-		//We create a new set of actors that hasn't answered yet
-		Set<ActorRef> newStillWaiting = new HashSet<>(stillWaiting);
-		newStillWaiting.remove(deviceActor);
+		//If enough actors have answered, the result will be sent to the requester
+		if(remaining == 0){
+			finish();
+		}
+	}
+	
+	//This method sends the result to the requester and stops the query.
+	//All devices that hasn't answered receive a DeviceTimedOut
+	private void finish(){
+		TemperatureReading timedOut = new DeviceTimedOut();
+		for(int i = 0; i < readings.length; i++){
+			if(readings[i] == null) readings[i] = timedOut;
+		}
+		
+		recordMetrics();
 		
-		//We update the map of temperatures
-		Map<String, TemperatureReading> newRepliesSoFar = new HashMap<>(repliesSoFar);
-		newRepliesSoFar.put(deviceId, reading);
+		if(mode == DeviceGroupQueryOptions.Mode.STREAM){
+			completeStream();
+			getContext().stop(getSelf());
+			return;
+		}
 		
-		//If every actor has answered, the result will be sent to the requester
-		if(newStillWaiting.isEmpty()){
-			requester.tell(new RespondAllTemperatures(requestId, newRepliesSoFar), getSelf());
+		if(mode == DeviceGroupQueryOptions.Mode.STATISTICS){
+			//Only the devices with a temperature are part of the summary
+			double[] values = new double[readings.length];
+			int count = 0;
+			for(TemperatureReading reading : readings){
+				if(reading instanceof Temperature) values[count++] = ((Temperature) reading).value;
+			}
+			
+			requester.tell(new RespondGroupStatistics(requestId, TemperatureStatistics.of(values, count)), getSelf());
 			getContext().stop(getSelf());
+			return;
 		}
-		//Otherwise, we change the message strategy, now with the new list of
-		//remaining actors
-		else{
-			getContext().become(waitingForReplies(newRepliesSoFar, newStillWaiting));
+		
+		Map<String, TemperatureReading> replies = new HashMap<>(capacityFor(readings.length));
+		for(int i = 0; i < readings.length; i++){
+			replies.put(deviceIds[i], readings[i]);
 		}
+		
+		requester.tell(new RespondAllTemperatures(requestId, replies), getSelf());
+		getContext().stop(getSelf());
+	}
+	
+	//This method adds a reading to the next chunk, which is sent once it is full
+	private void streamed(String deviceId, TemperatureReading reading){
+		if(chunk == null) chunk = new HashMap<>(capacityFor(chunkSize));
+		chunk.put(deviceId, reading);
+		if(chunk.size() == chunkSize) sendChunk();
+	}
+	
+	private void sendChunk(){
+		requester.tell(new TemperatureChunk(requestId, chunksSent++, chunk), getSelf());
+		chunk = null;
+	}
+	
+	//This method sends the last chunk, if it has readings, and the devices missing from the stream
+	private void completeStream(){
+		if(chunk != null) sendChunk();
+		
+		Set<String> timedOut = new HashSet<>();
+		Set<String> notAvailable = new HashSet<>();
+		for(int i = 0; i < readings.length; i++){
+			if(readings[i] instanceof DeviceTimedOut) timedOut.add(deviceIds[i]);
+			else if(readings[i] instanceof DeviceNotAvailable) notAvailable.add(deviceIds[i]);
+		}
+		requester.tell(new TemperatureStreamCompleted(requestId, chunksSent, timedOut, notAvailable), getSelf());
+	}
+	
+	//This method records the latency of the query and the devices that didn't answer
+	private void recordMetrics(){
+		IotMetrics metrics = IotMetrics.get(getContext().getSystem());
+		metrics.histogram("group-query.latency").record(System.nanoTime() - startNanos);
+		
+		int timedOut = 0;
+		int notAvailable = 0;
+		for(TemperatureReading reading : readings){
+			if(reading instanceof DeviceTimedOut) timedOut++;
+			else if(reading instanceof DeviceNotAvailable) notAvailable++;
+		}
+		metrics.counter("group-query.timed-out-devices").add(timedOut);
+		metrics.counter("group-query.unavailable-devices").add(notAvailable);
+	}
+	
+	//Initial capacity that holds the given number of entries without rehashing
+	private static int capacityFor(int entries){
+		return (int) (entries / 0.75f) + 1;
 	}
 	
 }
@@ -0,0 +1,60 @@
+package org.insightlab.akka.samples.iot.actors;
+
+import scala.concurrent.duration.FiniteDuration;
+
+//Immutable options of a DeviceGroupQuery: what it answers, how many devices
+//it waits for and for how long. Each with* method returns a copy with one option changed
+public final class DeviceGroupQueryOptions {
+	//What the requester receives when the query finishes
+	public enum Mode {
+		//A RespondAllTemperatures with the reading of every device
+		ALL,
+		//A RespondGroupStatistics with the summary of the temperatures
+		STATISTICS,
+		//TemperatureChunk messages as the readings arrive, then a TemperatureStreamCompleted
+		STREAM
+	}
+	
+	//Number of answers that waits for every device
+	public static final int ALL_DEVICES = Integer.MAX_VALUE;
+	
+	public final Mode mode;
+	//The query finishes as soon as this number of devices, known readings
+	//included, has an answer. The others are marked DeviceTimedOut
+	public final int requiredAnswers;
+	//Number of readings of each chunk, only used by the STREAM mode
+	public final int chunkSize;
+	public final FiniteDuration timeout;
+	
+	private DeviceGroupQueryOptions(Mode mode, int requiredAnswers, int chunkSize, FiniteDuration timeout){
+		this.mode = mode;
+		this.requiredAnswers = requiredAnswers;
+		this.chunkSize = chunkSize;
+		this.timeout = timeout;
+	}
+	
+	//Options of a query that answers with every temperature
+	public static DeviceGroupQueryOptions all(FiniteDuration timeout){
+		return new DeviceGroupQueryOptions(Mode.ALL, ALL_DEVICES, 0, timeout);
+	}
+	
+	//Options of a query that answers with a RespondGroupStatistics
+	public static DeviceGroupQueryOptions statistics(FiniteDuration timeout){
+		return new DeviceGroupQueryOptions(Mode.STATISTICS, ALL_DEVICES, 0, timeout);
+	}
+	
+	//Options of a query that streams the readings in chunks of the given size
+	public static DeviceGroupQueryOptions stream(FiniteDuration timeout, int chunkSize){
+		if(chunkSize <= 0)
+			throw new IllegalArgumentException("chunkSize must be positive");
+		
+		return new DeviceGroupQueryOptions(Mode.STREAM, ALL_DEVICES, chunkSize, timeout);
+	}
+	
+	public DeviceGroupQueryOptions withRequiredAnswers(int requiredAnswers){
+		if(requiredAnswers < 0)
+			throw new IllegalArgumentException("requiredAnswers must not be negative");
+		
+		return new DeviceGroupQueryOptions(mode, requiredAnswers, chunkSize, timeout);
+	}
+}
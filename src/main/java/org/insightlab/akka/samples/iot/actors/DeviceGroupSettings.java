@@ -0,0 +1,146 @@
+package org.insightlab.akka.samples.iot.actors;
+
+import java.io.File;
+import java.util.Optional;
+
+import org.insightlab.akka.samples.iot.storage.HistoryStoreSettings;
+
+import akka.actor.Props;
+import scala.concurrent.duration.FiniteDuration;
+
+//Immutable configuration shared by a group and its devices.
+//Each with* method returns a copy with one option changed
+public final class DeviceGroupSettings {
+	//Number of readings each device keeps in its history
+	public static final int DEFAULT_HISTORY_CAPACITY = 64;
+	//Number of journal records between two snapshots
+	public static final int DEFAULT_SNAPSHOT_INTERVAL = 100000;
+	//Path of the configuration of the priority mailbox
+	public static final String PRIORITY_MAILBOX = "iot.priority-mailbox";
+	
+	public final int historyCapacity;
+	//When enabled, devices push every new reading to their group, which
+	//answers RequestCachedTemperatures without asking the devices
+	public final boolean lastValueCache;
+	//When present, the manager and its groups journal registrations and
+	//readings in this directory and recover them when they start again
+	public final Optional<File> persistenceDirectory;
+	public final int snapshotInterval;
+	//When present, the groups write every reading through to a
+	//memory-mapped history store, which answers ReadTemperatureHistory
+	public final Optional<HistoryStoreSettings> historyStore;
+	//When present, devices that receive no message for this long are
+	//stopped and their last reading is kept by the group until they are needed
+	public final Optional<FiniteDuration> passivationTimeout;
+	//When enabled, groups and devices use the priority mailbox, which handles
+	//reads and queries before the writes and bounds the writes waiting
+	public final boolean priorityMailbox;
+	//When present, the result of a RequestAllTemperatures is reused, for
+	//this long, by the requests that arrive after it was collected
+	public final Optional<FiniteDuration> queryResultTtl;
+	//Number of per-minute and per-hour aggregates each device keeps, which
+	//answer ReadRollups. None are kept by default
+	public final int rollupMinutes;
+	public final int rollupHours;
+	
+	private DeviceGroupSettings(int historyCapacity, boolean lastValueCache, Optional<File> persistenceDirectory,
+			int snapshotInterval, Optional<HistoryStoreSettings> historyStore, Optional<FiniteDuration> passivationTimeout,
+			boolean priorityMailbox, Optional<FiniteDuration> queryResultTtl, int rollupMinutes, int rollupHours){
+		this.historyCapacity = historyCapacity;
+		this.lastValueCache = lastValueCache;
+		this.persistenceDirectory = persistenceDirectory;
+		this.snapshotInterval = snapshotInterval;
+		this.historyStore = historyStore;
+		this.passivationTimeout = passivationTimeout;
+		this.priorityMailbox = priorityMailbox;
+		this.queryResultTtl = queryResultTtl;
+		this.rollupMinutes = rollupMinutes;
+		this.rollupHours = rollupHours;
+	}
+	
+	//Settings with the default value of each option
+	public static DeviceGroupSettings create(){
+		return new DeviceGroupSettings(DEFAULT_HISTORY_CAPACITY, false, Optional.empty(), DEFAULT_SNAPSHOT_INTERVAL,
+				Optional.empty(), Optional.empty(), false, Optional.empty(), 0, 0);
+	}
+	
+	public DeviceGroupSettings withHistoryCapacity(int historyCapacity){
+		if(historyCapacity < 0)
+			throw new IllegalArgumentException("historyCapacity must not be negative");
+		
+		return new DeviceGroupSettings(historyCapacity, lastValueCache, persistenceDirectory, snapshotInterval, historyStore,
+				passivationTimeout, priorityMailbox, queryResultTtl, rollupMinutes, rollupHours);
+	}
+	
+	public DeviceGroupSettings withLastValueCache(boolean lastValueCache){
+		return new DeviceGroupSettings(historyCapacity, lastValueCache, persistenceDirectory, snapshotInterval, historyStore,
+				passivationTimeout, priorityMailbox, queryResultTtl, rollupMinutes, rollupHours);
+	}
+	
+	public DeviceGroupSettings withPersistence(File directory){
+		return new DeviceGroupSettings(historyCapacity, lastValueCache, Optional.of(directory), snapshotInterval, historyStore,
+				passivationTimeout, priorityMailbox, queryResultTtl, rollupMinutes, rollupHours);
+	}
+	
+	public DeviceGroupSettings withSnapshotInterval(int snapshotInterval){
+		if(snapshotInterval <= 0)
+			throw new IllegalArgumentException("snapshotInterval must be positive");
+		
+		return new DeviceGroupSettings(historyCapacity, lastValueCache, persistenceDirectory, snapshotInterval, historyStore,
+				passivationTimeout, priorityMailbox, queryResultTtl, rollupMinutes, rollupHours);
+	}
+	
+	public DeviceGroupSettings withHistoryStore(HistoryStoreSettings historyStore){
+		return new DeviceGroupSettings(historyCapacity, lastValueCache, persistenceDirectory, snapshotInterval,
+				Optional.of(historyStore), passivationTimeout, priorityMailbox, queryResultTtl, rollupMinutes, rollupHours);
+	}
+	
+	//Devices idle for the timeout are stopped and started again by the next
+	//message. The ActorRef of a stopped device isn't valid anymore, so the
+	//clients must send through a DeviceEnvelope to the group
+	public DeviceGroupSettings withPassivation(FiniteDuration idleTimeout){
+		if(idleTimeout.length() <= 0)
+			throw new IllegalArgumentException("idleTimeout must be positive");
+		
+		return new DeviceGroupSettings(historyCapacity, lastValueCache, persistenceDirectory, snapshotInterval, historyStore,
+				Optional.of(idleTimeout), priorityMailbox, queryResultTtl, rollupMinutes, rollupHours);
+	}
+	
+	public DeviceGroupSettings withPriorityMailbox(boolean priorityMailbox){
+		return new DeviceGroupSettings(historyCapacity, lastValueCache, persistenceDirectory, snapshotInterval, historyStore,
+				passivationTimeout, priorityMailbox, queryResultTtl, rollupMinutes, rollupHours);
+	}
+	
+	public DeviceGroupSettings withQueryResultTtl(FiniteDuration ttl){
+		if(ttl.length() <= 0)
+			throw new IllegalArgumentException("ttl must be positive");
+		
+		return new DeviceGroupSettings(historyCapacity, lastValueCache, persistenceDirectory, snapshotInterval, historyStore,
+				passivationTimeout, priorityMailbox, Optional.of(ttl), rollupMinutes, rollupHours);
+	}
+	
+	public DeviceGroupSettings withRollups(int minutes, int hours){
+		if(minutes < 0 || hours < 0)
+			throw new IllegalArgumentException("minutes and hours must not be negative");
+		
+		return new DeviceGroupSettings(historyCapacity, lastValueCache, persistenceDirectory, snapshotInterval, historyStore,
+				passivationTimeout, priorityMailbox, queryResultTtl, minutes, hours);
+	}
+	
+	//Props with the mailbox chosen by these settings
+	Props applyMailbox(Props props){
+		return priorityMailbox ? props.withMailbox(PRIORITY_MAILBOX) : props;
+	}
+	
+	//True when the devices must push their readings to the group, which
+	//happens for the cache, the persistence and the history store
+	public boolean devicesPublish(){
+		return lastValueCache || persistenceDirectory.isPresent() || historyStore.isPresent();
+	}
+	
+	//True when the group must keep the last reading of each device, which
+	//also happens for the passivation, since stopped devices can't answer
+	public boolean keepsLastValues(){
+		return devicesPublish() || passivationTimeout.isPresent();
+	}
+}
@@ -1,72 +1,307 @@
 package org.insightlab.akka.samples.iot.actors;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.routing.GroupEnvelope;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllTemperatures;
+import org.insightlab.akka.samples.iot.metrics.ActorMetrics;
+import org.insightlab.akka.samples.iot.metrics.IotMetrics;
+import org.insightlab.akka.samples.iot.persistence.GroupJournal;
+import org.insightlab.akka.samples.iot.registry.ActorRegistry;
 
-import akka.actor.AbstractActor;
+import akka.actor.AbstractActorWithStash;
 import akka.actor.ActorRef;
 import akka.actor.Props;
-import akka.actor.Terminated;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import scala.PartialFunction;
+import scala.concurrent.duration.FiniteDuration;
+import scala.runtime.BoxedUnit;
 
-//This class is responsible to manage the group actors
-public final class DeviceManager extends AbstractActor {
+//This class is responsible to manage the group actors. The groups are
+//created by shards, each one owning a hash partition of the group ids,
+//and this actor only routes the messages to them
+public final class DeviceManager extends AbstractActorWithStash {
 	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+	//Time spent on each message type, kept by the metrics of the system
+	private final ActorMetrics handlingTimes = IotMetrics.get(getContext().getSystem()).actor("manager");
 	
-	//The actor must know the reference of each group
-	private final Map<String, ActorRef> groupToActor = new HashMap<>();
-	//The actor must also know the group for each reference
-	private final Map<ActorRef, String> actorToGroup = new HashMap<>();
+	//Deadline of the queries over many groups. It is longer than the
+	//deadline of each group query, so the groups can report their own timeouts
+	static final FiniteDuration GROUPS_QUERY_TIMEOUT =
+			RequestAllTemperatures.DEFAULT_TIMEOUT.plus(new FiniteDuration(2, TimeUnit.SECONDS));
 	
-	//This static method is used to create an actor indirectly
+	//The actor must know the reference of each group, reported by the
+	//shards, to query the groups and to change the partitions, and
+	//the group for each reference. Both are kept by the registry
+	private final ActorRegistry groups = new ActorRegistry();
+	
+	//Configuration given to every group created by the shards
+	private final DeviceGroupSettings settings;
+	//The shards that own a partition. Removed shards stay alive, as
+	//parents of the groups they created, but receive no more messages
+	private List<ActorRef> shards;
+	private final int initialShards;
+	private int createdShards = 0;
+	
+	//State of a change of the partitions. Meanwhile, the other messages are stashed
+	private List<ActorRef> nextShards;
+	private int drainsPending;
+	private ActorRef shardsRequester;
+	private long shardsRequestId;
+	
+	public DeviceManager(DeviceGroupSettings settings, int shards){
+		if(shards <= 0)
+			throw new IllegalArgumentException("shards must be positive");
+		
+		this.settings = settings;
+		this.initialShards = shards;
+	}
+	
+	//This static method is used to create an actor indirectly.
+	//By default, there is a shard for each processor
 	public static Props props(){
-		return Props.create(DeviceManager.class);
+		return props(DeviceGroupSettings.create());
 	}
 	
-	//Method to add a new device or group
-	private void onTrackDevice(RequestTrackDevice trackMsg){
-		String groupId = trackMsg.groupId;
-		ActorRef ref = groupToActor.get(groupId);
+	public static Props props(DeviceGroupSettings settings){
+		return props(settings, Runtime.getRuntime().availableProcessors());
+	}
+	
+	public static Props props(DeviceGroupSettings settings, int shards){
+		return Props.create(DeviceManager.class, settings, shards);
+	}
+	
+	//Helper message class to add a shard. The groups are spread again
+	//between the shards and a ShardsUpdated is sent as an answer
+	public static final class AddShard{
+		final long requestId;
+		
+		public AddShard(long requestId){
+			this.requestId = requestId;
+		}
+	}
+	
+	//Helper message class to remove the newest shard. The last shard is never removed
+	public static final class RemoveShard{
+		final long requestId;
+		
+		public RemoveShard(long requestId){
+			this.requestId = requestId;
+		}
+	}
+	
+	public static final class ShardsUpdated{
+		final long requestId;
+		final int shards;
+		
+		public ShardsUpdated(long requestId, int shards){
+			this.requestId = requestId;
+			this.shards = shards;
+		}
+	}
+	
+	//Helper message class sent by a shard when it creates a group
+	public static final class GroupCreated{
+		final String groupId;
+		final ActorRef groupActor;
+		
+		public GroupCreated(String groupId, ActorRef groupActor){
+			this.groupId = groupId;
+			this.groupActor = groupActor;
+		}
+	}
+	
+	//Helper message class sent by a shard when one of its groups stops
+	public static final class GroupTerminated{
+		final String groupId;
+		final ActorRef groupActor;
 		
-		//If the group already exists, we just forward the message
-		if(ref!=null){
-			ref.forward(trackMsg, getContext());
+		public GroupTerminated(String groupId, ActorRef groupActor){
+			this.groupId = groupId;
+			this.groupActor = groupActor;
+		}
+	}
+	
+	//Helper message class sent by a shard to answer a DrainShard
+	public static final class ShardDrained{
+	}
+	
+	//Method to add a new device or group. The shard of the group is
+	//found by the hash of its id, so no map is read here
+	private void onTrackDevice(RequestTrackDevice trackMsg){
+		shardOf(trackMsg.groupId, shards).forward(trackMsg, getContext());
+	}
+	
+	//Method to route a message sent to a device through its group
+	private void onDeviceEnvelope(DeviceEnvelope envelope){
+		shardOf(envelope.groupId, shards).forward(envelope, getContext());
+	}
+	
+	//Method to route a message sent to a group
+	private void onGroupEnvelope(GroupEnvelope envelope){
+		shardOf(envelope.groupId, shards).forward(envelope, getContext());
+	}
+	
+	private static ActorRef shardOf(String groupId, List<ActorRef> shards){
+		return shards.get(Math.floorMod(groupId.hashCode(), shards.size()));
+	}
+	
+	private ActorRef createShard(){
+		return getContext().actorOf(DeviceManagerShard.props(settings), "shard-"+(createdShards++));
+	}
+	
+	private void onGroupCreated(GroupCreated c){
+		groups.put(c.groupId, c.groupActor);
+	}
+	
+	private void onAddShard(AddShard a){
+		List<ActorRef> next = new ArrayList<>(shards);
+		next.add(createShard());
+		changeShards(next, a.requestId);
+	}
+	
+	private void onRemoveShard(RemoveShard r){
+		if(shards.size() == 1){
+			log.warning("Ignoring RemoveShard request. The last shard can't be removed.");
+			getSender().tell(new ShardsUpdated(r.requestId, shards.size()), getSelf());
+			return;
+		}
+		changeShards(new ArrayList<>(shards.subList(0, shards.size()-1)), r.requestId);
+	}
+	
+	//Method to start a change of the partitions. Every shard is drained
+	//first, so the groups they created are all known before the change
+	private void changeShards(List<ActorRef> next, long requestId){
+		nextShards = next;
+		shardsRequester = getSender();
+		shardsRequestId = requestId;
+		drainShards();
+	}
+	
+	private void drainShards(){
+		drainsPending = shards.size();
+		for(ActorRef shard : shards){
+			shard.tell(new DeviceManagerShard.DrainShard(), getSelf());
 		}
-		//Otherwise, we create an actor for the group and forward the message 
-		else{
-			log.info("Creating device group actor for {}", groupId);
-			ActorRef groupActor = getContext().actorOf(DeviceGroup.props(groupId),"group-"+groupId);
-			getContext().watch(groupActor);
+		getContext().become(draining(), false);
+	}
+	
+	//Behavior while the shards are drained. Only the reports of the shards are handled
+	private Receive draining(){
+		return receiveBuilder()
+				.match(GroupCreated.class, this::onGroupCreated)
+				.match(GroupTerminated.class, this::onGroupTerminated)
+				.match(ShardDrained.class, d -> {
+					if(--drainsPending == 0) shardsDrained();
+				})
+				.matchAny(m -> stash())
+				.build();
+	}
+	
+	//Method to finish the drain. When the partitions change, every shard,
+	//including the removed ones, gets the groups it must route from now on
+	private void shardsDrained(){
+		if(nextShards != null){
+			Map<ActorRef, Map<String, ActorRef>> assignments = new HashMap<>();
+			for(ActorRef shard : shards) assignments.put(shard, new HashMap<>());
+			for(ActorRef shard : nextShards) assignments.put(shard, new HashMap<>());
 			
-			//The manage actor must watch every group to, if they shutdown,
-			//it must be removed
-			groupActor.forward(trackMsg, getContext());
+			for(int slot = 0; slot < groups.slots(); slot++){
+				ActorRef groupActor = groups.refAt(slot);
+				if(groupActor == null) continue;
+				String groupId = groups.idAt(slot);
+				assignments.get(shardOf(groupId, nextShards)).put(groupId, groupActor);
+			}
+			for(Map.Entry<ActorRef, Map<String, ActorRef>> entry : assignments.entrySet()){
+				entry.getKey().tell(new DeviceManagerShard.AssignGroups(entry.getValue()), getSelf());
+			}
 			
-			//Then, the new actor is stored on the maps
-			groupToActor.put(groupId, groupActor);
-			actorToGroup.put(groupActor, groupId);
+			log.info("DeviceManager changed from {} to {} shards", shards.size(), nextShards.size());
+			shards = nextShards;
+			nextShards = null;
+			shardsRequester.tell(new ShardsUpdated(shardsRequestId, shards.size()), getSelf());
+			shardsRequester = null;
 		}
+		
+		getContext().unbecome();
+		unstashAll();
 	}
 	
-	//Method to handle a group shutdown
-	private void onTerminated(Terminated t){
-		//If a group stops, we must remove it
-		ActorRef groupActor = t.getActor();
-		String groupId = actorToGroup.get(groupActor);
-		
-		log.info("Device group {} has been terminated",groupId);
+	//Method to create the DeviceManagerQuery, which will ask
+	//the selected groups for their temperatures in parallel
+	private void onAllGroupsTemperatures(RequestAllGroupsTemperatures r){
+		getContext().actorOf(DeviceManagerQuery.props(
+				selectGroups(r.groupIds), r.requestId, getSender(), GROUPS_QUERY_TIMEOUT));
+	}
+	
+	//Method to create the DeviceManagerQuery that merges
+	//the summaries of the selected groups
+	private void onAllGroupsStatistics(RequestAllGroupsStatistics r){
+		getContext().actorOf(DeviceManagerQuery.statisticsProps(
+				selectGroups(r.groupIds), r.requestId, getSender(), GROUPS_QUERY_TIMEOUT));
+	}
+	
+	//Copy of the groups that pass the filter. Unknown group ids are ignored
+	private Map<ActorRef, String> selectGroups(Optional<Set<String>> groupIds){
+		Map<ActorRef, String> selected = new HashMap<>();
+		if(!groupIds.isPresent()){
+			for(int slot = 0; slot < groups.slots(); slot++){
+				if(groups.refAt(slot) != null) selected.put(groups.refAt(slot), groups.idAt(slot));
+			}
+			return selected;
+		}
 		
-		actorToGroup.remove(groupActor);
-		groupToActor.remove(groupId);
+		for(String groupId : groupIds.get()){
+			ActorRef groupActor = groups.get(groupId);
+			if(groupActor != null) selected.put(groupActor, groupId);
+		}
+		return selected;
+	}
+	
+	//Method to handle a group shutdown, reported by the shard that created it
+	private void onGroupTerminated(GroupTerminated t){
+		//If a group stops, we must remove it
+		if(t.groupActor.equals(groups.get(t.groupId))){
+			groups.remove(t.groupId);
+		}
 	}
 	
 	//This method executes when the actor starts
 	@Override
 	public void preStart() {
 		log.info("DeviceManager started");
+		
+		shards = new ArrayList<>(initialShards);
+		for(int i = 0; i < initialShards; i++){
+			shards.add(createShard());
+		}
+		
+		//With persistence, every group found in the directory is created again.
+		//The groups recover their devices by themselves, in parallel, and the
+		//shards are drained, so the recovered groups are known before any query
+		if(settings.persistenceDirectory.isPresent()){
+			File[] groupDirectories = settings.persistenceDirectory.get().listFiles(File::isDirectory);
+			if(groupDirectories != null){
+				for(File groupDirectory : groupDirectories){
+					String groupId = GroupJournal.groupIdOf(groupDirectory);
+					shardOf(groupId, shards).tell(new DeviceManagerShard.CreateGroup(groupId), getSelf());
+				}
+				log.info("DeviceManager recovered {} groups", groupDirectories.length);
+				drainShards();
+			}
+		}
 	}
 
 	//This method executes when the actor stops
@@ -75,12 +310,31 @@ public final class DeviceManager extends AbstractActor {
 	  log.info("DeviceManager stopped");
 	}
 	
+	//This method wraps the handling of every message, to measure its time
+	@Override
+	public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object msg){
+		long start = System.nanoTime();
+		try{
+			super.aroundReceive(receive, msg);
+		}
+		finally{
+			handlingTimes.handled(msg, System.nanoTime() - start);
+		}
+	}
+	
 	//At this method we define, for each message pattern, the behavior of the actor
 	@Override
 	public Receive createReceive() {
 		return receiveBuilder()
 				.match(RequestTrackDevice.class, this::onTrackDevice)
-				.match(Terminated.class, this::onTerminated)
+				.match(DeviceEnvelope.class, this::onDeviceEnvelope)
+				.match(GroupEnvelope.class, this::onGroupEnvelope)
+				.match(GroupCreated.class, this::onGroupCreated)
+				.match(GroupTerminated.class, this::onGroupTerminated)
+				.match(RequestAllGroupsTemperatures.class, this::onAllGroupsTemperatures)
+				.match(RequestAllGroupsStatistics.class, this::onAllGroupsStatistics)
+				.match(AddShard.class, this::onAddShard)
+				.match(RemoveShard.class, this::onRemoveShard)
 				.build();
 	}
 }
@@ -0,0 +1,233 @@
+package org.insightlab.akka.samples.iot.actors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.insightlab.akka.samples.iot.messages.routing.GroupEnvelope;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestGroupStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondGroupStatistics;
+import org.insightlab.akka.samples.iot.metrics.IotMetrics;
+import org.insightlab.akka.samples.iot.states.temperature.TemperatureReading;
+import org.insightlab.akka.samples.iot.statistics.TemperatureStatistics;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import scala.concurrent.duration.FiniteDuration;
+
+//This class is responsible to query the temperatures, or their summaries,
+//from many groups in parallel, merging the answers under a single deadline
+public class DeviceManagerQuery extends AbstractActor {
+	
+	//This is an auxiliary class to help trigger a timeout
+	public static final class CollectionTimeout{
+	}
+	
+	final long requestId;
+	//We must know who made the temperatures request
+	final ActorRef requester;
+	//When true, the groups are asked for summaries, which are merged into one
+	final boolean statistics;
+	
+	//Each group gets a position in the query, like the devices of a DeviceGroupQuery.
+	//The actors are unknown when the requests are routed by group id
+	final ActorRef[] groupActors;
+	final String[] groupIds;
+	final Map<ActorRef,Integer> actorToIndex;
+	final List<Map<String, TemperatureReading>> replies;
+	TemperatureStatistics mergedStatistics = TemperatureStatistics.EMPTY;
+	//Groups that answered or stopped, and groups that answered
+	final boolean[] done;
+	final boolean[] answered;
+	//Number of groups that hasn't answered yet
+	int remaining;
+	//When present, the requests are sent to it in a GroupEnvelope, such as
+	//to the shard region of a cluster. The groups aren't watched, so the
+	//ones that stop are reported when the deadline passes
+	final ActorRef router;
+	
+	Cancellable queryTimeoutTimer;
+	//Time the query started, for its latency
+	final long startNanos = System.nanoTime();
+	
+	public DeviceManagerQuery(Map<ActorRef,String> actorToGroup, long requestId, ActorRef requester, FiniteDuration timeout){
+		this(actorToGroup, requestId, requester, timeout, false);
+	}
+	
+	public DeviceManagerQuery(Map<ActorRef,String> actorToGroup, long requestId, ActorRef requester, FiniteDuration timeout,
+			boolean statistics){
+		this(actorToGroup.size(), null, requestId, requester, timeout, statistics);
+		
+		int index = 0;
+		for(Map.Entry<ActorRef,String> entry : actorToGroup.entrySet()){
+			groupActors[index] = entry.getKey();
+			groupIds[index] = entry.getValue();
+			actorToIndex.put(entry.getKey(), index);
+			index++;
+		}
+	}
+	
+	//The groups are known only by their ids, and the router delivers the requests to them
+	public DeviceManagerQuery(Set<String> groupIds, ActorRef router, long requestId, ActorRef requester, FiniteDuration timeout,
+			boolean statistics){
+		this(groupIds.size(), router, requestId, requester, timeout, statistics);
+		
+		int index = 0;
+		for(String groupId : groupIds){
+			this.groupIds[index++] = groupId;
+		}
+	}
+	
+	private DeviceManagerQuery(int size, ActorRef router, long requestId, ActorRef requester, FiniteDuration timeout,
+			boolean statistics){
+		this.requestId = requestId;
+		this.requester = requester;
+		this.statistics = statistics;
+		this.router = router;
+		
+		groupActors = new ActorRef[size];
+		groupIds = new String[size];
+		replies = new ArrayList<>(Collections.nCopies(size, null));
+		done = new boolean[size];
+		answered = new boolean[size];
+		actorToIndex = new HashMap<>();
+		remaining = size;
+		
+		//Given a duration, this will trigger a CollectionTimeout message
+		queryTimeoutTimer = getContext().getSystem().scheduler().scheduleOnce(
+				timeout, getSelf(), new CollectionTimeout(), getContext().dispatcher(), getSelf());
+	}
+	
+	//This static method is used to create an actor indirectly
+	public static Props props(Map<ActorRef,String> actorToGroup, long requestId, ActorRef requester, FiniteDuration timeout){
+		return Props.create(DeviceManagerQuery.class, actorToGroup, requestId, requester, timeout);
+	}
+	
+	//Creates a query that answers with a RespondAllGroupsStatistics
+	public static Props statisticsProps(Map<ActorRef,String> actorToGroup, long requestId, ActorRef requester, FiniteDuration timeout){
+		return Props.create(DeviceManagerQuery.class, actorToGroup, requestId, requester, timeout, true);
+	}
+	
+	//Creates a query that sends its requests to the groups through the router.
+	//It answers with a RespondAllGroupsStatistics when statistics is true
+	public static Props routedProps(Set<String> groupIds, ActorRef router, long requestId, ActorRef requester,
+			FiniteDuration timeout, boolean statistics){
+		return Props.create(DeviceManagerQuery.class, groupIds, router, requestId, requester, timeout, statistics);
+	}
+	
+	//This method executes when the actor starts
+	@Override
+	public void preStart(){
+		//A RequestAllTemperatures (or RequestGroupStatistics) message is sent to every group at once.
+		//The answers come from the query actors of the groups, so the
+		//position of the group is used as the id of its request
+		IotMetrics.get(getContext().getSystem()).histogram("manager-query.fan-out").record(groupActors.length);
+		for(int i = 0; i < groupActors.length; i++){
+			Object request = statistics ? new RequestGroupStatistics(i) : new RequestAllTemperatures(i);
+			if(router != null){
+				router.tell(new GroupEnvelope(groupIds[i], request), getSelf());
+				continue;
+			}
+			getContext().watch(groupActors[i]);
+			groupActors[i].tell(request, getSelf());
+		}
+		
+		if(remaining == 0){
+			finish();
+		}
+	}
+	
+	//This method executes when the actor stops
+	@Override
+	public void postStop(){
+		queryTimeoutTimer.cancel();
+	}
+	
+	//At this method we define, for each message pattern, the behavior of the actor
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				//When a group answers, its temperatures are stored
+				.match(RespondAllTemperatures.class, r -> {
+					if(received(r.requestId)){
+						replies.set((int) r.requestId, r.temperatures);
+						finishIfComplete();
+					}
+				})
+				//When a group answers with a summary, it is merged with the others
+				.match(RespondGroupStatistics.class, r -> {
+					if(received(r.requestId)){
+						mergedStatistics = TemperatureStatistics.merge(mergedStatistics, r.statistics);
+						finishIfComplete();
+					}
+				})
+				//A group that stops before answering is reported as missing
+				.match(Terminated.class, t -> {
+					Integer index = actorToIndex.get(t.getActor());
+					if(index == null || done[index]) return;
+					
+					done[index] = true;
+					remaining--;
+					finishIfComplete();
+				})
+				//When timeout happens, the groups that hasn't answered are reported as missing
+				.match(CollectionTimeout.class, t -> finish())
+				.build();
+	}
+	
+	//This method marks the group of an answer as done. It returns false
+	//for answers that are unknown or repeated
+	private boolean received(long groupRequestId){
+		int index = (int) groupRequestId;
+		if(index < 0 || index >= done.length || done[index]) return false;
+		
+		if(groupActors[index] != null) getContext().unwatch(groupActors[index]);
+		done[index] = true;
+		answered[index] = true;
+		remaining--;
+		return true;
+	}
+	
+	private void finishIfComplete(){
+		if(remaining == 0){
+			finish();
+		}
+	}
+	
+	//This method sends the merged result to the requester and stops the query
+	private void finish(){
+		Map<String, Map<String, TemperatureReading>> temperatures = new HashMap<>();
+		Set<String> missingGroups = new HashSet<>();
+		for(int i = 0; i < groupIds.length; i++){
+			if(!answered[i]){
+				missingGroups.add(groupIds[i]);
+			}
+			else if(!statistics){
+				temperatures.put(groupIds[i], replies.get(i));
+			}
+		}
+		
+		IotMetrics metrics = IotMetrics.get(getContext().getSystem());
+		metrics.histogram("manager-query.latency").record(System.nanoTime() - startNanos);
+		metrics.counter("manager-query.missing-groups").add(missingGroups.size());
+		
+		if(statistics){
+			requester.tell(new RespondAllGroupsStatistics(requestId, mergedStatistics, missingGroups), getSelf());
+		}
+		else{
+			requester.tell(new RespondAllGroupsTemperatures(requestId, temperatures, missingGroups), getSelf());
+		}
+		getContext().stop(getSelf());
+	}
+}
@@ -0,0 +1,202 @@
+package org.insightlab.akka.samples.iot.actors;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.routing.GroupEnvelope;
+import org.insightlab.akka.samples.iot.metrics.ActorMetrics;
+import org.insightlab.akka.samples.iot.metrics.IotMetrics;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.PartialFunction;
+import scala.runtime.BoxedUnit;
+
+//This class manages the groups of one partition of the group ids.
+//The DeviceManager routes each message to the shard of its group, so
+//many shards create groups and forward registrations in parallel
+public final class DeviceManagerShard extends AbstractActor {
+	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+	//Time spent on each message type, kept by the metrics of the system
+	private final ActorMetrics handlingTimes = IotMetrics.get(getContext().getSystem()).actor("manager-shard");
+	
+	//The groups of the partition, created here or handed over by other
+	//shards when the partitions changed
+	private final Map<String, ActorRef> groupToActor = new HashMap<>();
+	//Every watched group: the ones in the partition and the children
+	//that were handed over to other shards
+	private final Map<ActorRef, String> actorToGroup = new HashMap<>();
+	
+	//Configuration given to every group created by this actor
+	private final DeviceGroupSettings settings;
+	
+	public DeviceManagerShard(DeviceGroupSettings settings){
+		this.settings = settings;
+	}
+	
+	//This static method is used to create an actor indirectly
+	public static Props props(DeviceGroupSettings settings){
+		return Props.create(DeviceManagerShard.class, settings);
+	}
+	
+	//Helper message class sent by the manager to create a recovered group
+	public static final class CreateGroup{
+		final String groupId;
+		
+		public CreateGroup(String groupId){
+			this.groupId = groupId;
+		}
+	}
+	
+	//Helper message class sent by the manager after the partitions changed,
+	//with every group that now belongs to this shard
+	public static final class AssignGroups{
+		final Map<String, ActorRef> groups;
+		
+		public AssignGroups(Map<String, ActorRef> groups){
+			this.groups = groups;
+		}
+	}
+	
+	//Helper message class sent by the manager before the partitions change.
+	//The answer comes after every group the shard created was reported
+	public static final class DrainShard{
+	}
+	
+	//Method to add a new device or group
+	private void onTrackDevice(RequestTrackDevice trackMsg){
+		ActorRef ref = groupToActor.get(trackMsg.groupId);
+		
+		//If the group already exists, we just forward the message
+		if(ref!=null){
+			ref.forward(trackMsg, getContext());
+		}
+		//Otherwise, we create an actor for the group and forward the message.
+		//The group is reported to the manager before the message is forwarded,
+		//so the report is in the mailbox of the manager before the group can
+		//answer, and a query sent after the DeviceRegistred finds the group
+		else{
+			log.info("Creating device group actor for {}", trackMsg.groupId);
+			ActorRef groupActor = createGroup(trackMsg.groupId);
+			groupActor.forward(trackMsg, getContext());
+		}
+	}
+	
+	//Method to route a message sent to a device of an existing group
+	private void onDeviceEnvelope(DeviceEnvelope envelope){
+		ActorRef ref = groupToActor.get(envelope.groupId);
+		if(ref!=null){
+			ref.forward(envelope, getContext());
+		}
+		else{
+			log.warning("Ignoring DeviceEnvelope for {}. The group isn't tracked.", envelope.groupId);
+		}
+	}
+	
+	//Method to deliver a message to an existing group, which answers the original sender
+	private void onGroupEnvelope(GroupEnvelope envelope){
+		ActorRef ref = groupToActor.get(envelope.groupId);
+		if(ref!=null){
+			ref.forward(envelope.message, getContext());
+		}
+		else{
+			log.warning("Ignoring GroupEnvelope for {}. The group isn't tracked.", envelope.groupId);
+		}
+	}
+	
+	private void onCreateGroup(CreateGroup c){
+		if(!groupToActor.containsKey(c.groupId)){
+			createGroup(c.groupId);
+		}
+	}
+	
+	//Method to create the actor of a group, store it on the maps
+	//and report it to the manager
+	private ActorRef createGroup(String groupId){
+		ActorRef groupActor = getContext().actorOf(DeviceGroup.props(groupId, settings),"group-"+groupId);
+		
+		//The shard actor must watch every group to, if they shutdown,
+		//it must be removed
+		getContext().watch(groupActor);
+		
+		//Then, the new actor is stored on the maps
+		groupToActor.put(groupId, groupActor);
+		actorToGroup.put(groupActor, groupId);
+		getContext().getParent().tell(new DeviceManager.GroupCreated(groupId, groupActor), getSelf());
+		return groupActor;
+	}
+	
+	//Method to replace the partition of the shard. The groups stay with
+	//the shard that created them, only the routing changes
+	private void onAssignGroups(AssignGroups a){
+		for(Map.Entry<String, ActorRef> entry : groupToActor.entrySet()){
+			ActorRef groupActor = entry.getValue();
+			if(!a.groups.containsKey(entry.getKey()) && !isChild(groupActor)){
+				getContext().unwatch(groupActor);
+				actorToGroup.remove(groupActor);
+			}
+		}
+		groupToActor.clear();
+		
+		for(Map.Entry<String, ActorRef> entry : a.groups.entrySet()){
+			if(!actorToGroup.containsKey(entry.getValue())){
+				getContext().watch(entry.getValue());
+				actorToGroup.put(entry.getValue(), entry.getKey());
+			}
+			groupToActor.put(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	private boolean isChild(ActorRef actor){
+		return actor.path().parent().equals(getSelf().path());
+	}
+	
+	//Method to handle a group shutdown
+	private void onTerminated(Terminated t){
+		//If a group stops, we must remove it
+		ActorRef groupActor = t.getActor();
+		String groupId = actorToGroup.remove(groupActor);
+		
+		log.info("Device group {} has been terminated",groupId);
+		
+		if(groupActor.equals(groupToActor.get(groupId))){
+			groupToActor.remove(groupId);
+		}
+		//Only the shard that created the group reports it
+		if(isChild(groupActor)){
+			getContext().getParent().tell(new DeviceManager.GroupTerminated(groupId, groupActor), getSelf());
+		}
+	}
+	
+	//This method wraps the handling of every message, to measure its time
+	@Override
+	public void aroundReceive(PartialFunction<Object, BoxedUnit> receive, Object msg){
+		long start = System.nanoTime();
+		try{
+			super.aroundReceive(receive, msg);
+		}
+		finally{
+			handlingTimes.handled(msg, System.nanoTime() - start);
+		}
+	}
+	
+	//At this method we define, for each message pattern, the behavior of the actor
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(RequestTrackDevice.class, this::onTrackDevice)
+				.match(DeviceEnvelope.class, this::onDeviceEnvelope)
+				.match(GroupEnvelope.class, this::onGroupEnvelope)
+				.match(Terminated.class, this::onTerminated)
+				.match(CreateGroup.class, this::onCreateGroup)
+				.match(AssignGroups.class, this::onAssignGroups)
+				.match(DrainShard.class, d -> getSender().tell(new DeviceManager.ShardDrained(), getSelf()))
+				.build();
+	}
+}
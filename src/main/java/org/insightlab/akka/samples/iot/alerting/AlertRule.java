@@ -0,0 +1,80 @@
+package org.insightlab.akka.samples.iot.alerting;
+
+//Definition of an alert, identified by its rule id. An alert is raised when
+//the measured value crosses the threshold and cleared only when it comes
+//back past the hysteresis, so a value around the threshold doesn't flap.
+//The rules of a single device are evaluated by each Device, with its
+//readings, and the rules over many devices by the DeviceGroup
+public final class AlertRule {
+	
+	public enum Kind {
+		//The reading is above the threshold
+		ABOVE,
+		//The reading is below the threshold
+		BELOW,
+		//The reading changes faster than the threshold, in degrees per second
+		RATE_OF_CHANGE,
+		//At least minDevices devices of the group have a reading above the threshold
+		DEVICES_ABOVE
+	}
+	
+	public final String ruleId;
+	public final Kind kind;
+	public final double threshold;
+	public final double hysteresis;
+	//Number of devices of a DEVICES_ABOVE rule
+	public final int minDevices;
+	
+	private AlertRule(String ruleId, Kind kind, double threshold, double hysteresis, int minDevices){
+		if(hysteresis < 0)
+			throw new IllegalArgumentException("hysteresis must not be negative");
+		
+		this.ruleId = ruleId;
+		this.kind = kind;
+		this.threshold = threshold;
+		this.hysteresis = hysteresis;
+		this.minDevices = minDevices;
+	}
+	
+	public static AlertRule above(String ruleId, double threshold, double hysteresis){
+		return new AlertRule(ruleId, Kind.ABOVE, threshold, hysteresis, 0);
+	}
+	
+	public static AlertRule below(String ruleId, double threshold, double hysteresis){
+		return new AlertRule(ruleId, Kind.BELOW, threshold, hysteresis, 0);
+	}
+	
+	//Rule on the absolute change between two readings, per second
+	public static AlertRule rateOfChange(String ruleId, double maxPerSecond, double hysteresis){
+		return new AlertRule(ruleId, Kind.RATE_OF_CHANGE, maxPerSecond, hysteresis, 0);
+	}
+	
+	//Rule on the number of devices above the threshold. A device stops
+	//counting only when its reading comes back past the hysteresis
+	public static AlertRule devicesAbove(String ruleId, double threshold, double hysteresis, int minDevices){
+		if(minDevices < 1)
+			throw new IllegalArgumentException("minDevices must be positive");
+		
+		return new AlertRule(ruleId, Kind.DEVICES_ABOVE, threshold, hysteresis, minDevices);
+	}
+	
+	//Used by the serialization, which knows every field
+	public static AlertRule restore(String ruleId, Kind kind, double threshold, double hysteresis, int minDevices){
+		return new AlertRule(ruleId, kind, threshold, hysteresis, minDevices);
+	}
+	
+	//True when the rule is evaluated by the group, over many devices
+	public boolean isGroupRule(){
+		return kind == Kind.DEVICES_ABOVE;
+	}
+	
+	//True when the measured value raises the alert
+	boolean raises(double measured){
+		return kind == Kind.BELOW ? measured < threshold : measured > threshold;
+	}
+	
+	//True when the measured value clears a raised alert
+	boolean clears(double measured){
+		return kind == Kind.BELOW ? measured > threshold + hysteresis : measured < threshold - hysteresis;
+	}
+}
@@ -0,0 +1,103 @@
+package org.insightlab.akka.samples.iot.alerting;
+
+import java.util.Optional;
+
+import org.insightlab.akka.samples.iot.messages.alerting.AlertCleared;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertRaised;
+
+import akka.actor.ActorRef;
+
+//Rules of a single device, evaluated with each of its readings. Each rule
+//keeps only whether its alert is raised, and the previous reading is kept
+//once for the rates of change, so a reading takes constant time per rule
+//and allocates nothing while no alert changes. The AlertRaised and
+//AlertCleared are sent to the target, usually the group of the device
+public final class DeviceAlerts {
+	private final String groupId;
+	private final Optional<String> deviceId;
+	private final ActorRef target;
+	private final ActorRef owner;
+	
+	private AlertRule[] rules = new AlertRule[0];
+	private boolean[] raised = new boolean[0];
+	//Last value measured by each rule, used when a raised rule is removed
+	private double[] measured = new double[0];
+	
+	private boolean hasPrevious = false;
+	private double previousValue;
+	private long previousTimestamp;
+	
+	public DeviceAlerts(String groupId, String deviceId, ActorRef target, ActorRef owner){
+		this.groupId = groupId;
+		this.deviceId = Optional.of(deviceId);
+		this.target = target;
+		this.owner = owner;
+	}
+	
+	//Method to evaluate every rule with a new reading
+	public void record(double value, long timestamp){
+		if(rules.length > 0){
+			//Readings with the same or an older timestamp don't give a rate
+			double rate = hasPrevious && timestamp > previousTimestamp
+					? Math.abs(value - previousValue) * 1000.0 / (timestamp - previousTimestamp)
+					: Double.NaN;
+			
+			for(int i = 0; i < rules.length; i++){
+				double measure = rules[i].kind == AlertRule.Kind.RATE_OF_CHANGE ? rate : value;
+				if(Double.isNaN(measure)) continue;
+				
+				measured[i] = measure;
+				if(!raised[i] && rules[i].raises(measure)){
+					raised[i] = true;
+					target.tell(new AlertRaised(groupId, rules[i].ruleId, deviceId, measure, timestamp), owner);
+				}
+				else if(raised[i] && rules[i].clears(measure)){
+					raised[i] = false;
+					target.tell(new AlertCleared(groupId, rules[i].ruleId, deviceId, measure, timestamp), owner);
+				}
+			}
+		}
+		
+		hasPrevious = true;
+		previousValue = value;
+		previousTimestamp = timestamp;
+	}
+	
+	//Method to replace the rules. A rule that stays, by its id, keeps its
+	//state, and the raised alerts of the removed rules are cleared
+	public void setRules(AlertRule[] newRules){
+		boolean[] newRaised = new boolean[newRules.length];
+		double[] newMeasured = new double[newRules.length];
+		
+		for(int i = 0; i < rules.length; i++){
+			int j = indexOf(newRules, rules[i].ruleId);
+			if(j >= 0){
+				newRaised[j] = raised[i];
+				newMeasured[j] = measured[i];
+			}
+			else if(raised[i]){
+				target.tell(new AlertCleared(groupId, rules[i].ruleId, deviceId, measured[i],
+						System.currentTimeMillis()), owner);
+			}
+		}
+		
+		rules = newRules;
+		raised = newRaised;
+		measured = newMeasured;
+	}
+	
+	//True when an alert of the device is raised
+	public boolean anyRaised(){
+		for(boolean r : raised){
+			if(r) return true;
+		}
+		return false;
+	}
+	
+	private static int indexOf(AlertRule[] rules, String ruleId){
+		for(int i = 0; i < rules.length; i++){
+			if(rules[i].ruleId.equals(ruleId)) return i;
+		}
+		return -1;
+	}
+}
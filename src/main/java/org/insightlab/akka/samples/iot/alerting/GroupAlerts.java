@@ -0,0 +1,149 @@
+package org.insightlab.akka.samples.iot.alerting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.insightlab.akka.samples.iot.messages.alerting.AlertCleared;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertRaised;
+
+import akka.actor.ActorRef;
+
+//Alert rules and alert subscribers of a group. The rules of a single device
+//are only kept here, to be given to the devices. The rules over many devices
+//are evaluated here: each one keeps the devices above its threshold, so a
+//reading updates it in constant time
+public final class GroupAlerts {
+	private final String groupId;
+	private final ActorRef owner;
+	
+	//Every rule of the group, in the order they were added
+	private final Map<String,AlertRule> rules = new LinkedHashMap<>();
+	//State of each rule over many devices
+	private final Map<String,DevicesAbove> groupRules = new HashMap<>();
+	private final Set<ActorRef> subscribers = new HashSet<>();
+	
+	//Devices that count for a DEVICES_ABOVE rule
+	private static final class DevicesAbove{
+		final AlertRule rule;
+		final Set<String> devices;
+		boolean raised;
+		
+		DevicesAbove(AlertRule rule, Set<String> devices, boolean raised){
+			this.rule = rule;
+			this.devices = devices;
+			this.raised = raised;
+		}
+	}
+	
+	public GroupAlerts(String groupId, ActorRef owner){
+		this.groupId = groupId;
+		this.owner = owner;
+	}
+	
+	public int size(){
+		return rules.size();
+	}
+	
+	//Method to add a rule, or replace the one with the same id. A rule over
+	//many devices that replaces another keeps its devices and its alert
+	public void add(AlertRule rule, long timestamp){
+		rules.put(rule.ruleId, rule);
+		DevicesAbove state = groupRules.remove(rule.ruleId);
+		if(!rule.isGroupRule() && state != null && state.raised){
+			cleared(state, timestamp);
+		}
+		if(rule.isGroupRule()){
+			DevicesAbove replaced = state == null
+					? new DevicesAbove(rule, new HashSet<>(), false)
+					: new DevicesAbove(rule, state.devices, state.raised);
+			groupRules.put(rule.ruleId, replaced);
+			evaluate(replaced, timestamp);
+		}
+	}
+	
+	//Method to remove a rule. Returns false if there was no such rule
+	public boolean remove(String ruleId, long timestamp){
+		if(rules.remove(ruleId) == null) return false;
+		
+		DevicesAbove state = groupRules.remove(ruleId);
+		if(state != null && state.raised){
+			cleared(state, timestamp);
+		}
+		return true;
+	}
+	
+	//The rules the devices must evaluate
+	public AlertRule[] deviceRules(){
+		List<AlertRule> deviceRules = new ArrayList<>();
+		for(AlertRule rule : rules.values()){
+			if(!rule.isGroupRule()) deviceRules.add(rule);
+		}
+		return deviceRules.toArray(new AlertRule[deviceRules.size()]);
+	}
+	
+	//True when the group needs every reading of its devices
+	public boolean hasGroupRules(){
+		return !groupRules.isEmpty();
+	}
+	
+	//Method to evaluate the rules over many devices with a new reading
+	public void recorded(String deviceId, double value, long timestamp){
+		if(groupRules.isEmpty()) return;
+		
+		for(DevicesAbove state : groupRules.values()){
+			if(state.devices.contains(deviceId)){
+				if(state.rule.clears(value)) state.devices.remove(deviceId);
+			}
+			else if(state.rule.raises(value)){
+				state.devices.add(deviceId);
+			}
+			evaluate(state, timestamp);
+		}
+	}
+	
+	//Method to forget a device removed from the group
+	public void removed(String deviceId, long timestamp){
+		for(DevicesAbove state : groupRules.values()){
+			if(state.devices.remove(deviceId)) evaluate(state, timestamp);
+		}
+	}
+	
+	private void evaluate(DevicesAbove state, long timestamp){
+		int count = state.devices.size();
+		if(!state.raised && count >= state.rule.minDevices){
+			state.raised = true;
+			publish(new AlertRaised(groupId, state.rule.ruleId, Optional.empty(), count, timestamp));
+		}
+		else if(state.raised && count < state.rule.minDevices){
+			cleared(state, timestamp);
+		}
+	}
+	
+	private void cleared(DevicesAbove state, long timestamp){
+		state.raised = false;
+		publish(new AlertCleared(groupId, state.rule.ruleId, Optional.empty(), state.devices.size(), timestamp));
+	}
+	
+	//Method to add a subscriber. Returns true when it is new, so the owner must watch it
+	public boolean subscribe(ActorRef subscriber){
+		return subscribers.add(subscriber);
+	}
+	
+	//Method to remove a subscriber. Returns false if it wasn't subscribed
+	public boolean unsubscribe(ActorRef subscriber){
+		return subscribers.remove(subscriber);
+	}
+	
+	//Method to send an AlertRaised or AlertCleared to every subscriber
+	public void publish(Object event){
+		for(ActorRef subscriber : subscribers){
+			subscriber.tell(event, owner);
+		}
+	}
+}
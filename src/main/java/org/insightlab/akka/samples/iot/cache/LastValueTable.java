@@ -0,0 +1,107 @@
+package org.insightlab.akka.samples.iot.cache;
+
+import java.util.Arrays;
+
+import org.insightlab.akka.samples.iot.messages.temperature.RespondCachedTemperatures;
+import org.insightlab.akka.samples.iot.registry.SlotIndex;
+
+//Compact table with the last reading of each device of a group.
+//Every device has a slot in primitive arrays. The slots are kept dense:
+//when a device is removed, the last slot is moved to its place. The slot
+//of a device is found through a SlotIndex, so nothing is boxed or allocated
+//per device
+public final class LastValueTable {
+	//Timestamp of a device that has no reading yet
+	public static final long NO_READING = RespondCachedTemperatures.NO_READING;
+	private static final int NO_SLOT = SlotIndex.NO_SLOT;
+	
+	private final SlotIndex<String> slots = new SlotIndex<>(16);
+	private String[] deviceIds = new String[16];
+	private double[] values = new double[16];
+	private long[] timestamps = new long[16];
+	private int size = 0;
+	
+	public int size(){
+		return size;
+	}
+	
+	public boolean contains(String deviceId){
+		return slotOf(deviceId) != NO_SLOT;
+	}
+	
+	//Adds a device without reading. Nothing changes if it is already there
+	public void add(String deviceId){
+		if(slotOf(deviceId) != NO_SLOT) return;
+		
+		if(size == deviceIds.length){
+			int capacity = size*2;
+			deviceIds = Arrays.copyOf(deviceIds, capacity);
+			values = Arrays.copyOf(values, capacity);
+			timestamps = Arrays.copyOf(timestamps, capacity);
+		}
+		
+		deviceIds[size] = deviceId;
+		values[size] = Double.NaN;
+		timestamps[size] = NO_READING;
+		slots.put(deviceId, size);
+		size++;
+	}
+	
+	public void remove(String deviceId){
+		int slot = slotOf(deviceId);
+		if(slot == NO_SLOT) return;
+		
+		slots.removeSlot(slot);
+		int last = --size;
+		if(slot != last){
+			//The last device takes the place of the removed one
+			slots.move(last, slot);
+			deviceIds[slot] = deviceIds[last];
+			values[slot] = values[last];
+			timestamps[slot] = timestamps[last];
+		}
+		deviceIds[last] = null;
+	}
+	
+	//Stores the reading of a known device. Returns false for unknown devices
+	public boolean update(String deviceId, double value, long timestamp){
+		int slot = slotOf(deviceId);
+		if(slot == NO_SLOT) return false;
+		
+		values[slot] = value;
+		timestamps[slot] = timestamp;
+		return true;
+	}
+	
+	public boolean hasReading(String deviceId){
+		int slot = slotOf(deviceId);
+		return slot != NO_SLOT && timestamps[slot] != NO_READING;
+	}
+	
+	public double value(String deviceId){
+		int slot = slotOf(deviceId);
+		return slot == NO_SLOT ? Double.NaN : values[slot];
+	}
+	
+	public long timestamp(String deviceId){
+		int slot = slotOf(deviceId);
+		return slot == NO_SLOT ? NO_READING : timestamps[slot];
+	}
+	
+	//Copies of the table columns, with one entry per device
+	public String[] deviceIds(){
+		return Arrays.copyOf(deviceIds, size);
+	}
+	
+	public double[] values(){
+		return Arrays.copyOf(values, size);
+	}
+	
+	public long[] timestamps(){
+		return Arrays.copyOf(timestamps, size);
+	}
+	
+	private int slotOf(String deviceId){
+		return slots.slotOf(deviceId);
+	}
+}
@@ -0,0 +1,76 @@
+package org.insightlab.akka.samples.iot.history;
+
+//Fixed-capacity ring buffer with the most recent readings of a device.
+//Timestamps and values are kept in primitive arrays, so recording a
+//reading doesn't allocate anything. When the buffer is full, the oldest
+//reading is overwritten
+public final class TemperatureHistory {
+	private final long[] timestamps;
+	private final double[] values;
+	
+	//Position where the next reading will be written
+	private int next = 0;
+	//Number of readings currently stored
+	private int size = 0;
+	
+	public TemperatureHistory(int capacity){
+		if(capacity < 0)
+			throw new IllegalArgumentException("capacity must not be negative");
+		
+		timestamps = new long[capacity];
+		values = new double[capacity];
+	}
+	
+	public int capacity(){
+		return values.length;
+	}
+	
+	public int size(){
+		return size;
+	}
+	
+	public void record(long timestamp, double value){
+		int capacity = values.length;
+		if(capacity == 0) return;
+		
+		timestamps[next] = timestamp;
+		values[next] = value;
+		next = next+1 == capacity ? 0 : next+1;
+		if(size < capacity) size++;
+	}
+	
+	//Returns the readings with from <= timestamp <= to, in the order they were recorded
+	public Slice range(long from, long to){
+		int capacity = values.length;
+		int oldest = next-size < 0 ? next-size+capacity : next-size;
+		
+		//First we count the matches, so the result is allocated only once
+		int count = 0;
+		for(int i = 0, p = oldest; i < size; i++, p = p+1 == capacity ? 0 : p+1){
+			if(timestamps[p] >= from && timestamps[p] <= to) count++;
+		}
+		
+		long[] rangeTimestamps = new long[count];
+		double[] rangeValues = new double[count];
+		for(int i = 0, p = oldest, j = 0; j < count; i++, p = p+1 == capacity ? 0 : p+1){
+			if(timestamps[p] >= from && timestamps[p] <= to){
+				rangeTimestamps[j] = timestamps[p];
+				rangeValues[j] = values[p];
+				j++;
+			}
+		}
+		
+		return new Slice(rangeTimestamps, rangeValues);
+	}
+	
+	//Compact copy of a part of the history
+	public static final class Slice{
+		public final long[] timestamps;
+		public final double[] values;
+		
+		public Slice(long[] timestamps, double[] values){
+			this.timestamps = timestamps;
+			this.values = values;
+		}
+	}
+}
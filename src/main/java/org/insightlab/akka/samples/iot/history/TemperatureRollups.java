@@ -0,0 +1,123 @@
+package org.insightlab.akka.samples.iot.history;
+
+//Tumbling-window aggregates of the readings of a device: the count, the
+//minimum, the maximum and the sum of each window. The windows are kept in a
+//ring of primitive arrays allocated once, so recording a reading only updates
+//the current window, or starts the next one over the oldest. A window takes
+//the same memory as about one raw reading, whatever the number of readings in it
+public final class TemperatureRollups {
+	private final long windowMillis;
+	
+	//Start of each window, a multiple of windowMillis, from the oldest to the newest
+	private final long[] starts;
+	private final long[] counts;
+	private final double[] mins;
+	private final double[] maxs;
+	private final double[] sums;
+	
+	//Position where the next window will be written
+	private int next = 0;
+	//Number of windows currently stored
+	private int size = 0;
+	
+	public TemperatureRollups(long windowMillis, int capacity){
+		if(windowMillis <= 0)
+			throw new IllegalArgumentException("windowMillis must be positive");
+		if(capacity < 0)
+			throw new IllegalArgumentException("capacity must not be negative");
+		
+		this.windowMillis = windowMillis;
+		starts = new long[capacity];
+		counts = new long[capacity];
+		mins = new double[capacity];
+		maxs = new double[capacity];
+		sums = new double[capacity];
+	}
+	
+	public int capacity(){
+		return starts.length;
+	}
+	
+	public int size(){
+		return size;
+	}
+	
+	public long windowMillis(){
+		return windowMillis;
+	}
+	
+	//Method to add a reading to its window. A late reading updates its
+	//window if it is still kept, and is dropped if that window was
+	//overwritten or never started, since the windows are kept in order
+	public void record(long timestamp, double value){
+		int capacity = starts.length;
+		if(capacity == 0) return;
+		
+		long start = timestamp - Math.floorMod(timestamp, windowMillis);
+		int newest = next == 0 ? capacity-1 : next-1;
+		
+		if(size == 0 || start > starts[newest]){
+			starts[next] = start;
+			counts[next] = 1;
+			mins[next] = value;
+			maxs[next] = value;
+			sums[next] = value;
+			next = next+1 == capacity ? 0 : next+1;
+			if(size < capacity) size++;
+			return;
+		}
+		
+		//Usually the reading belongs to the newest window, so the search stops right away
+		for(int i = 0, p = newest; i < size && starts[p] >= start; i++, p = p == 0 ? capacity-1 : p-1){
+			if(starts[p] == start){
+				counts[p]++;
+				if(value < mins[p]) mins[p] = value;
+				if(value > maxs[p]) maxs[p] = value;
+				sums[p] += value;
+				return;
+			}
+		}
+	}
+	
+	//Returns the windows with from <= start <= to, from the oldest to the newest
+	public Slice range(long from, long to){
+		int capacity = starts.length;
+		int oldest = next-size < 0 ? next-size+capacity : next-size;
+		
+		//First we count the matches, so the result is allocated only once
+		int count = 0;
+		for(int i = 0, p = oldest; i < size; i++, p = p+1 == capacity ? 0 : p+1){
+			if(starts[p] >= from && starts[p] <= to) count++;
+		}
+		
+		Slice slice = new Slice(new long[count], new long[count], new double[count], new double[count], new double[count]);
+		for(int i = 0, p = oldest, j = 0; j < count; i++, p = p+1 == capacity ? 0 : p+1){
+			if(starts[p] >= from && starts[p] <= to){
+				slice.starts[j] = starts[p];
+				slice.counts[j] = counts[p];
+				slice.mins[j] = mins[p];
+				slice.maxs[j] = maxs[p];
+				slice.means[j] = sums[p] / counts[p];
+				j++;
+			}
+		}
+		return slice;
+	}
+	
+	//Compact copy of some windows. The window i starts at starts[i]
+	public static final class Slice{
+		public final long[] starts;
+		public final long[] counts;
+		public final double[] mins;
+		public final double[] maxs;
+		public final double[] means;
+		
+		public Slice(long[] starts, long[] counts, double[] mins, double[] maxs, double[] means){
+			this.starts = starts;
+			this.counts = counts;
+			this.mins = mins;
+			this.maxs = maxs;
+			this.means = means;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package org.insightlab.akka.samples.iot.ingestion;
+
+import java.util.concurrent.TimeUnit;
+
+import scala.concurrent.duration.FiniteDuration;
+
+//Immutable configuration of a TemperatureIngestion flow.
+//Each with* method returns a copy with one option changed
+public final class IngestionSettings {
+	//Readings of a group sent to the devices and not acknowledged yet
+	public static final int DEFAULT_IN_FLIGHT_PER_GROUP = 32;
+	//Groups the flow can see, since each one has its own substream
+	public static final int DEFAULT_MAX_GROUPS = 10000;
+	public static final FiniteDuration DEFAULT_ACK_TIMEOUT = new FiniteDuration(5, TimeUnit.SECONDS);
+	
+	public final int inFlightPerGroup;
+	public final int maxGroups;
+	//When an ack takes longer than this, the stream fails
+	public final FiniteDuration ackTimeout;
+	
+	private IngestionSettings(int inFlightPerGroup, int maxGroups, FiniteDuration ackTimeout){
+		this.inFlightPerGroup = inFlightPerGroup;
+		this.maxGroups = maxGroups;
+		this.ackTimeout = ackTimeout;
+	}
+	
+	//Settings with the default value of each option
+	public static IngestionSettings create(){
+		return new IngestionSettings(DEFAULT_IN_FLIGHT_PER_GROUP, DEFAULT_MAX_GROUPS, DEFAULT_ACK_TIMEOUT);
+	}
+	
+	public IngestionSettings withInFlightPerGroup(int inFlightPerGroup){
+		if(inFlightPerGroup <= 0)
+			throw new IllegalArgumentException("inFlightPerGroup must be positive");
+		
+		return new IngestionSettings(inFlightPerGroup, maxGroups, ackTimeout);
+	}
+	
+	public IngestionSettings withMaxGroups(int maxGroups){
+		if(maxGroups <= 0)
+			throw new IllegalArgumentException("maxGroups must be positive");
+		
+		return new IngestionSettings(inFlightPerGroup, maxGroups, ackTimeout);
+	}
+	
+	public IngestionSettings withAckTimeout(FiniteDuration ackTimeout){
+		if(ackTimeout.length() <= 0)
+			throw new IllegalArgumentException("ackTimeout must be positive");
+		
+		return new IngestionSettings(inFlightPerGroup, maxGroups, ackTimeout);
+	}
+}
@@ -0,0 +1,103 @@
+package org.insightlab.akka.samples.iot.ingestion;
+
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRecorded;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.pattern.PatternsCS;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.util.Timeout;
+
+//Stream stages that deliver readings to the devices through a DeviceManager.
+//Each group has its own substream, which sends at most inFlightPerGroup
+//readings without an ack. The TemperatureRecorded of each reading is the
+//demand of the substream, so when the devices fall behind the flow stops
+//pulling and the source slows down, instead of filling the mailboxes.
+//Unknown groups and devices are registered by the first reading they have
+public final class TemperatureIngestion {
+	
+	private TemperatureIngestion(){
+	}
+	
+	//Reading given to the flow
+	public static final class Reading{
+		public final String groupId;
+		public final String deviceId;
+		public final double value;
+		//Moment of the reading, in milliseconds since the epoch
+		public final long timestamp;
+		
+		public Reading(String groupId, String deviceId, double value, long timestamp){
+			this.groupId = groupId;
+			this.deviceId = deviceId;
+			this.value = value;
+			this.timestamp = timestamp;
+		}
+	}
+	
+	//Element emitted for each reading after its device answered. The reading is
+	//not recorded when a priority mailbox rejected it with a TemperatureRejected
+	public static final class Ack{
+		public final Reading reading;
+		public final boolean recorded;
+		
+		public Ack(Reading reading, boolean recorded){
+			this.reading = reading;
+			this.recorded = recorded;
+		}
+	}
+	
+	public static Flow<Reading, Ack, NotUsed> flow(ActorRef manager){
+		return flow(manager, IngestionSettings.create());
+	}
+	
+	//The acks of a group come in the order they are received, which
+	//can differ from the order of the readings of different devices.
+	//The flow remembers the devices it registered, so a new flow
+	//should be created for each stream
+	public static Flow<Reading, Ack, NotUsed> flow(ActorRef manager, IngestionSettings settings){
+		Timeout timeout = new Timeout(settings.ackTimeout);
+		//Devices already registered, for each group
+		Map<String, Map<String, Boolean>> registered = new ConcurrentHashMap<>();
+		AtomicLong requestIds = new AtomicLong();
+		
+		return Flow.<Reading>create()
+				.groupBy(settings.maxGroups, r -> r.groupId)
+				.mapAsyncUnordered(settings.inFlightPerGroup, r -> record(manager, r, registered, requestIds, timeout))
+				.mergeSubstreams();
+	}
+	
+	//Sink that completes when the source completes and every reading was acknowledged
+	public static Sink<Reading, CompletionStage<Done>> sink(ActorRef manager, IngestionSettings settings){
+		return flow(manager, settings).toMat(Sink.ignore(), Keep.right());
+	}
+	
+	//Method to send a reading to its device. The messages go through the
+	//manager, its shard and the group in the order they are sent, so the
+	//registration of a new device is handled before its first reading
+	private static CompletionStage<Ack> record(ActorRef manager, Reading r, Map<String, Map<String, Boolean>> registered,
+			AtomicLong requestIds, Timeout timeout){
+		Map<String, Boolean> devices = registered.computeIfAbsent(r.groupId, g -> new ConcurrentHashMap<>());
+		CompletionStage<Object> registration = null;
+		if(devices.putIfAbsent(r.deviceId, Boolean.TRUE) == null){
+			registration = PatternsCS.ask(manager, new RequestTrackDevice(r.groupId, r.deviceId), timeout);
+		}
+		
+		RecordTemperature message = new RecordTemperature(requestIds.incrementAndGet(), r.value, r.timestamp);
+		CompletionStage<Ack> ack = PatternsCS.ask(manager, new DeviceEnvelope(r.groupId, r.deviceId, message), timeout)
+				.thenApply(reply -> new Ack(r, reply instanceof TemperatureRecorded));
+		
+		return registration == null ? ack : registration.thenCombine(ack, (registred, a) -> a);
+	}
+}
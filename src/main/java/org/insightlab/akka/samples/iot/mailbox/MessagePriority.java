@@ -0,0 +1,52 @@
+package org.insightlab.akka.samples.iot.mailbox;
+
+import org.insightlab.akka.samples.iot.actors.Device;
+import org.insightlab.akka.samples.iot.actors.DeviceGroup;
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.temperature.PushTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadRollups;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperatureHistory;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperatureRange;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperatureBatch;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestCachedTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestGroupStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestTemperatureStream;
+
+//How the PriorityMailbox handles the messages of devices and groups
+enum MessagePriority {
+	//Reads, queries and registrations, handled before anything else. The
+	//RestoreReading is here too, so it reaches a device before the reads
+	URGENT,
+	//Writes sent by clients, which count against the write capacity
+	WRITE,
+	//Every other message, such as the writes between a group and its devices,
+	//the passivation and Terminated. They keep their order with the writes and
+	//are never discarded, since the actors depend on them
+	ORDERED;
+	
+	static MessagePriority of(Object message){
+		if(message instanceof RecordTemperature
+				|| message instanceof RecordTemperatureBatch
+				|| message instanceof PushTemperature) return WRITE;
+		
+		if(message instanceof ReadTemperature
+				|| message instanceof ReadTemperatureRange
+				|| message instanceof ReadRollups
+				|| message instanceof RequestTrackDevice
+				|| message instanceof RequestAllTemperatures
+				|| message instanceof RequestTemperatureStream
+				|| message instanceof RequestGroupStatistics
+				|| message instanceof RequestCachedTemperatures
+				|| message instanceof ReadTemperatureHistory
+				|| message instanceof DeviceGroup.RequestDeviceList
+				|| message instanceof Device.RestoreReading) return URGENT;
+		
+		//An envelope has the priority of the message it carries
+		if(message instanceof DeviceEnvelope) return of(((DeviceEnvelope) message).message);
+		return ORDERED;
+	}
+}
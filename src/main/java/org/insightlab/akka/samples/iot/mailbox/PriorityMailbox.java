@@ -0,0 +1,205 @@
+package org.insightlab.akka.samples.iot.mailbox;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperatureBatch;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureBatchRecorded;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRejected;
+import org.insightlab.akka.samples.iot.metrics.IotMetrics;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import scala.Option;
+
+//Mailbox for devices and groups that handles reads, queries and registrations
+//before the writes, so a flood of readings doesn't delay them. Because of that,
+//a read can overtake a write sent before it by the same sender.
+//The writes of the clients are bounded by write-capacity. When it is reached,
+//the overflow policy decides what happens to a new write:
+//reject answers it with TemperatureRejected (or a TemperatureBatchRecorded with
+//every outcome REJECTED), except a PushTemperature, which is just discarded,
+//and drop-oldest discards the oldest write waiting.
+//It is given to the actors with DeviceGroupSettings.withPriorityMailbox
+public final class PriorityMailbox implements MailboxType, ProducesMessageQueue<PriorityMailbox.PriorityMessageQueue> {
+	
+	public enum Overflow { REJECT, DROP_OLDEST }
+	
+	private final int writeCapacity;
+	private final Overflow overflow;
+	
+	public PriorityMailbox(ActorSystem.Settings settings, Config config){
+		this(config.getInt("write-capacity"), parseOverflow(config.getString("overflow")));
+	}
+	
+	public PriorityMailbox(int writeCapacity, Overflow overflow){
+		if(writeCapacity <= 0)
+			throw new IllegalArgumentException("write-capacity must be positive");
+		
+		this.writeCapacity = writeCapacity;
+		this.overflow = overflow;
+	}
+	
+	private static Overflow parseOverflow(String overflow){
+		switch(overflow){
+			case "reject": return Overflow.REJECT;
+			case "drop-oldest": return Overflow.DROP_OLDEST;
+			default: throw new IllegalArgumentException("overflow must be reject or drop-oldest, not " + overflow);
+		}
+	}
+	
+	@Override
+	public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system){
+		if(system.isEmpty()){
+			return new PriorityMessageQueue(writeCapacity, overflow, null, null);
+		}
+		
+		IotMetrics metrics = IotMetrics.get(system.get());
+		LongAdder discarded = !metrics.enabled ? null
+				: metrics.counter(overflow == Overflow.REJECT ? "mailbox.rejected-writes" : "mailbox.dropped-writes");
+		return new PriorityMessageQueue(writeCapacity, overflow, system.get().deadLetters(), discarded);
+	}
+	
+	public static final class PriorityMessageQueue implements MessageQueue, UnboundedMessageQueueSemantics {
+		private final ConcurrentLinkedQueue<Envelope> urgent = new ConcurrentLinkedQueue<>();
+		//The writes and every other message, in the order they arrived
+		private final ConcurrentLinkedQueue<Envelope> ordered = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size = new AtomicInteger();
+		//Writes of the clients waiting in the ordered queue
+		private final AtomicInteger writes = new AtomicInteger();
+		
+		private final int writeCapacity;
+		private final Overflow overflow;
+		//Null when the mailbox was created without a system
+		private final ActorRef deadLetters;
+		//Null when the metrics are disabled
+		private final LongAdder discarded;
+		
+		PriorityMessageQueue(int writeCapacity, Overflow overflow, ActorRef deadLetters, LongAdder discarded){
+			this.writeCapacity = writeCapacity;
+			this.overflow = overflow;
+			this.deadLetters = deadLetters;
+			this.discarded = discarded;
+		}
+		
+		@Override
+		public void enqueue(ActorRef receiver, Envelope handle){
+			switch(MessagePriority.of(handle.message())){
+				case URGENT:
+					urgent.offer(handle);
+					break;
+				case WRITE:
+					if(!reserveWrite(receiver, handle)) return;
+					ordered.offer(handle);
+					break;
+				default:
+					ordered.offer(handle);
+			}
+			size.incrementAndGet();
+		}
+		
+		//Method to take a place for a new write. It is false when
+		//the write was rejected
+		private boolean reserveWrite(ActorRef receiver, Envelope handle){
+			while(true){
+				int current = writes.get();
+				if(current < writeCapacity){
+					if(writes.compareAndSet(current, current + 1)) return true;
+				}
+				else if(overflow == Overflow.REJECT){
+					reject(receiver, handle);
+					return false;
+				}
+				else{
+					dropOldestWrite(receiver);
+				}
+			}
+		}
+		
+		private void reject(ActorRef receiver, Envelope handle){
+			if(discarded != null) discarded.increment();
+			
+			ActorRef sender = handle.sender();
+			if(sender == null || sender.equals(deadLetters)) return;
+			
+			Object message = handle.message();
+			if(message instanceof DeviceEnvelope) message = ((DeviceEnvelope) message).message;
+			
+			if(message instanceof RecordTemperature){
+				sender.tell(new TemperatureRejected(((RecordTemperature) message).requestId), receiver);
+			}
+			//A PushTemperature expects no answer, so it is only counted
+			else if(message instanceof RecordTemperatureBatch){
+				RecordTemperatureBatch batch = (RecordTemperatureBatch) message;
+				byte[] outcomes = new byte[batch.size()];
+				Arrays.fill(outcomes, TemperatureBatchRecorded.REJECTED);
+				sender.tell(new TemperatureBatchRecorded(batch.requestId, outcomes), receiver);
+			}
+		}
+		
+		//Method to discard the oldest write waiting. If the actor takes it
+		//first, nothing is discarded and the caller just tries again
+		private void dropOldestWrite(ActorRef receiver){
+			Iterator<Envelope> it = ordered.iterator();
+			while(it.hasNext()){
+				Envelope oldest = it.next();
+				if(MessagePriority.of(oldest.message()) == MessagePriority.WRITE){
+					if(ordered.remove(oldest)){
+						size.decrementAndGet();
+						writes.decrementAndGet();
+						if(discarded != null) discarded.increment();
+						if(deadLetters != null){
+							deadLetters.tell(new DeadLetter(oldest.message(), oldest.sender(), receiver), oldest.sender());
+						}
+					}
+					return;
+				}
+			}
+		}
+		
+		@Override
+		public Envelope dequeue(){
+			Envelope handle = urgent.poll();
+			if(handle == null){
+				handle = ordered.poll();
+				if(handle != null && MessagePriority.of(handle.message()) == MessagePriority.WRITE){
+					writes.decrementAndGet();
+				}
+			}
+			if(handle != null) size.decrementAndGet();
+			return handle;
+		}
+		
+		@Override
+		public int numberOfMessages(){
+			return size.get();
+		}
+		
+		@Override
+		public boolean hasMessages(){
+			return !urgent.isEmpty() || !ordered.isEmpty();
+		}
+		
+		//The messages left when the actor stops go to the dead letters
+		@Override
+		public void cleanUp(ActorRef owner, MessageQueue deadLetters){
+			Envelope handle;
+			while((handle = dequeue()) != null){
+				deadLetters.enqueue(owner, handle);
+			}
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package org.insightlab.akka.samples.iot.messages.alerting;
+
+import org.insightlab.akka.samples.iot.alerting.AlertRule;
+
+//Adds a rule to a group, or replaces the rule with the same id. The rules
+//of a single device are given to every device of the group, without restarting them
+public final class AddAlertRule {
+	public final long requestId;
+	public final AlertRule rule;
+	
+	public AddAlertRule(long requestId, AlertRule rule){
+		this.requestId = requestId;
+		this.rule = rule;
+	}
+}
@@ -0,0 +1,22 @@
+package org.insightlab.akka.samples.iot.messages.alerting;
+
+import java.util.Optional;
+
+//Sent to the alert subscribers when a raised alert is over, or its rule
+//was removed. The value is measured as in AlertRaised
+public final class AlertCleared {
+	public final String groupId;
+	public final String ruleId;
+	public final Optional<String> deviceId;
+	public final double value;
+	//Moment of the reading, in milliseconds since the epoch
+	public final long timestamp;
+	
+	public AlertCleared(String groupId, String ruleId, Optional<String> deviceId, double value, long timestamp){
+		this.groupId = groupId;
+		this.ruleId = ruleId;
+		this.deviceId = deviceId;
+		this.value = value;
+		this.timestamp = timestamp;
+	}
+}
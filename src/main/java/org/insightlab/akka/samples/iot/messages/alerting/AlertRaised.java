@@ -0,0 +1,23 @@
+package org.insightlab.akka.samples.iot.messages.alerting;
+
+import java.util.Optional;
+
+//Sent to the alert subscribers when a rule is met. The value is the
+//measure that met it: the reading, its rate of change or, for a rule over
+//many devices, the number of devices. A rule over many devices has no device id
+public final class AlertRaised {
+	public final String groupId;
+	public final String ruleId;
+	public final Optional<String> deviceId;
+	public final double value;
+	//Moment of the reading, in milliseconds since the epoch
+	public final long timestamp;
+	
+	public AlertRaised(String groupId, String ruleId, Optional<String> deviceId, double value, long timestamp){
+		this.groupId = groupId;
+		this.ruleId = ruleId;
+		this.deviceId = deviceId;
+		this.value = value;
+		this.timestamp = timestamp;
+	}
+}
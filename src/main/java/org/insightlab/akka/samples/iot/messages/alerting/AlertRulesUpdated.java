@@ -0,0 +1,12 @@
+package org.insightlab.akka.samples.iot.messages.alerting;
+
+//Answer to AddAlertRule and RemoveAlertRule, with the number of rules of the group
+public final class AlertRulesUpdated {
+	public final long requestId;
+	public final int rules;
+	
+	public AlertRulesUpdated(long requestId, int rules){
+		this.requestId = requestId;
+		this.rules = rules;
+	}
+}
@@ -0,0 +1,12 @@
+package org.insightlab.akka.samples.iot.messages.alerting;
+
+//Removes a rule from a group. Its raised alerts are cleared
+public final class RemoveAlertRule {
+	public final long requestId;
+	public final String ruleId;
+	
+	public RemoveAlertRule(long requestId, String ruleId){
+		this.requestId = requestId;
+		this.ruleId = ruleId;
+	}
+}
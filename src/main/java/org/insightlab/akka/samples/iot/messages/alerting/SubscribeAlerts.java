@@ -0,0 +1,11 @@
+package org.insightlab.akka.samples.iot.messages.alerting;
+
+//Subscribes the sender to the AlertRaised and AlertCleared of a group. It is
+//answered with a Subscribed and removed with an Unsubscribe, as the other subscriptions
+public final class SubscribeAlerts {
+	public final long requestId;
+	
+	public SubscribeAlerts(long requestId){
+		this.requestId = requestId;
+	}
+}
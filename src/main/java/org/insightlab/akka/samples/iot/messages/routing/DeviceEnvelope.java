@@ -0,0 +1,16 @@
+package org.insightlab.akka.samples.iot.messages.routing;
+
+//Delivers a message to a device through its group. The group starts
+//the device again if it was passivated, and the device answers the
+//original sender, as if the message was sent to it directly
+public final class DeviceEnvelope {
+	public final String groupId;
+	public final String deviceId;
+	public final Object message;
+	
+	public DeviceEnvelope(String groupId, String deviceId, Object message){
+		this.groupId = groupId;
+		this.deviceId = deviceId;
+		this.message = message;
+	}
+}
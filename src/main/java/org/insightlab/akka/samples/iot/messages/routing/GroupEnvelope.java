@@ -0,0 +1,14 @@
+package org.insightlab.akka.samples.iot.messages.routing;
+
+//Delivers a message to a group through the manager, such as a
+//RequestAllTemperatures. The group answers the original sender, as if
+//the message was sent to it directly, wherever the group is running
+public final class GroupEnvelope {
+	public final String groupId;
+	public final Object message;
+	
+	public GroupEnvelope(String groupId, Object message){
+		this.groupId = groupId;
+		this.message = message;
+	}
+}
@@ -0,0 +1,23 @@
+package org.insightlab.akka.samples.iot.messages.subscription;
+
+import java.util.Optional;
+
+import scala.concurrent.duration.FiniteDuration;
+
+//Subscribes the sender to the readings of a device. It can be sent to the
+//device or to its group, and the conflation works as in SubscribeGroup
+public final class SubscribeDevice {
+	public final long requestId;
+	public final String deviceId;
+	public final Optional<FiniteDuration> conflation;
+	
+	public SubscribeDevice(long requestId, String deviceId){
+		this(requestId, deviceId, Optional.empty());
+	}
+	
+	public SubscribeDevice(long requestId, String deviceId, Optional<FiniteDuration> conflation){
+		this.requestId = requestId;
+		this.deviceId = deviceId;
+		this.conflation = conflation;
+	}
+}
@@ -0,0 +1,23 @@
+package org.insightlab.akka.samples.iot.messages.subscription;
+
+import java.util.Optional;
+
+import scala.concurrent.duration.FiniteDuration;
+
+//Subscribes the sender to the readings of every device of a group. With a
+//conflation window, the sender receives at most one TemperatureUpdates per
+//window, with the latest reading of each device that changed. Without it,
+//every reading is sent right away
+public final class SubscribeGroup {
+	public final long requestId;
+	public final Optional<FiniteDuration> conflation;
+	
+	public SubscribeGroup(long requestId){
+		this(requestId, Optional.empty());
+	}
+	
+	public SubscribeGroup(long requestId, Optional<FiniteDuration> conflation){
+		this.requestId = requestId;
+		this.conflation = conflation;
+	}
+}
@@ -0,0 +1,11 @@
+package org.insightlab.akka.samples.iot.messages.subscription;
+
+//Answer to a subscription, sent by the actor that keeps it. An Unsubscribe
+//must be sent to this same actor
+public final class Subscribed {
+	public final long requestId;
+	
+	public Subscribed(long requestId){
+		this.requestId = requestId;
+	}
+}
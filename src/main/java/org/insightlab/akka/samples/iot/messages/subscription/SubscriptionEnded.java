@@ -0,0 +1,12 @@
+package org.insightlab.akka.samples.iot.messages.subscription;
+
+//Sent to a subscriber whose subscription was dropped by the actor that kept
+//it, such as a device restarted after a failure. The subscriber must
+//subscribe again to keep receiving updates
+public final class SubscriptionEnded {
+	public final long requestId;
+	
+	public SubscriptionEnded(long requestId){
+		this.requestId = requestId;
+	}
+}
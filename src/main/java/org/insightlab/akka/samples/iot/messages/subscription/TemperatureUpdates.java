@@ -0,0 +1,21 @@
+package org.insightlab.akka.samples.iot.messages.subscription;
+
+//New readings sent to a subscriber. The entry i is made by deviceIds[i],
+//values[i] and timestamps[i]. When the subscription is conflated, each
+//device appears once, with its latest reading
+public final class TemperatureUpdates {
+	//Id of the subscription request
+	public final long requestId;
+	public final String groupId;
+	public final String[] deviceIds;
+	public final double[] values;
+	public final long[] timestamps;
+	
+	public TemperatureUpdates(long requestId, String groupId, String[] deviceIds, double[] values, long[] timestamps){
+		this.requestId = requestId;
+		this.groupId = groupId;
+		this.deviceIds = deviceIds;
+		this.values = values;
+		this.timestamps = timestamps;
+	}
+}
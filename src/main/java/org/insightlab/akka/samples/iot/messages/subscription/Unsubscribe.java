@@ -0,0 +1,11 @@
+package org.insightlab.akka.samples.iot.messages.subscription;
+
+//Removes the subscription of the sender. A subscriber that stops is
+//removed without it
+public final class Unsubscribe {
+	public final long requestId;
+	
+	public Unsubscribe(long requestId){
+		this.requestId = requestId;
+	}
+}
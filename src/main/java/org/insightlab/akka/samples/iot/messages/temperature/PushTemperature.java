@@ -0,0 +1,14 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+//Fire-and-forget version of RecordTemperature, for telemetry that doesn't
+//need an answer. The device stores the reading without replying or logging
+public final class PushTemperature {
+	public final double value;
+	//Moment of the reading, in milliseconds since the epoch
+	public final long timestamp;
+	
+	public PushTemperature(double value, long timestamp){
+		this.value = value;
+		this.timestamp = timestamp;
+	}
+}
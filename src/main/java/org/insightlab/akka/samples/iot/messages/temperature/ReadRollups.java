@@ -0,0 +1,30 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+//Requests the aggregates kept by a device for the windows of a resolution
+//that start with from <= start <= to
+public final class ReadRollups {
+	
+	public enum Resolution {
+		MINUTE(60000L),
+		HOUR(3600000L);
+		
+		//Length of a window, in milliseconds
+		public final long millis;
+		
+		Resolution(long millis){
+			this.millis = millis;
+		}
+	}
+	
+	public final long requestId;
+	public final Resolution resolution;
+	public final long from;
+	public final long to;
+	
+	public ReadRollups(long requestId, Resolution resolution, long from, long to){
+		this.requestId = requestId;
+		this.resolution = resolution;
+		this.from = from;
+		this.to = to;
+	}
+}
@@ -0,0 +1,17 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+//Requests, from the history store of a group, the readings of
+//a device with from <= timestamp <= to
+public final class ReadTemperatureHistory {
+	public final long requestId;
+	public final String deviceId;
+	public final long from;
+	public final long to;
+	
+	public ReadTemperatureHistory(long requestId, String deviceId, long from, long to){
+		this.requestId = requestId;
+		this.deviceId = deviceId;
+		this.from = from;
+		this.to = to;
+	}
+}
@@ -0,0 +1,14 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+//Requests the readings kept by a device with from <= timestamp <= to
+public final class ReadTemperatureRange {
+	public final long requestId;
+	public final long from;
+	public final long to;
+	
+	public ReadTemperatureRange(long requestId, long from, long to){
+		this.requestId = requestId;
+		this.from = from;
+		this.to = to;
+	}
+}
@@ -3,9 +3,16 @@ package org.insightlab.akka.samples.iot.messages.temperature;
 public final class RecordTemperature {
 	public final double value;
 	public final long requestId;
+	//Moment of the reading, in milliseconds since the epoch
+	public final long timestamp;
 	
 	public RecordTemperature(long requestId, double value){
+		this(requestId, value, System.currentTimeMillis());
+	}
+	
+	public RecordTemperature(long requestId, double value, long timestamp){
 		this.requestId = requestId;
 		this.value = value;
+		this.timestamp = timestamp;
 	}
 }
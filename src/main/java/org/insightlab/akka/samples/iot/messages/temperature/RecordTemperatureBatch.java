@@ -0,0 +1,24 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+//Many temperature readings for devices of the same group, sent as a single message.
+//The entry i is made by deviceIds[i], values[i] and timestamps[i]
+public final class RecordTemperatureBatch {
+	public final long requestId;
+	public final String[] deviceIds;
+	public final double[] values;
+	public final long[] timestamps;
+	
+	public RecordTemperatureBatch(long requestId, String[] deviceIds, double[] values, long[] timestamps){
+		if(deviceIds.length != values.length || deviceIds.length != timestamps.length)
+			throw new IllegalArgumentException("deviceIds, values and timestamps must have the same length");
+		
+		this.requestId = requestId;
+		this.deviceIds = deviceIds;
+		this.values = values;
+		this.timestamps = timestamps;
+	}
+	
+	public int size(){
+		return deviceIds.length;
+	}
+}
@@ -0,0 +1,21 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+import java.util.Optional;
+import java.util.Set;
+
+//Requests, through the manager, a single summary of the temperatures of many groups.
+//Without a filter, every group is part of it
+public final class RequestAllGroupsStatistics {
+	public final long requestId;
+	public final Optional<Set<String>> groupIds;
+	
+	public RequestAllGroupsStatistics(long requestId){
+		this.requestId = requestId;
+		this.groupIds = Optional.empty();
+	}
+	
+	public RequestAllGroupsStatistics(long requestId, Set<String> groupIds){
+		this.requestId = requestId;
+		this.groupIds = Optional.of(groupIds);
+	}
+}
@@ -0,0 +1,21 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+import java.util.Optional;
+import java.util.Set;
+
+//Requests, through the manager, the temperatures of the devices of many groups.
+//Without a filter, every group is queried
+public final class RequestAllGroupsTemperatures {
+	public final long requestId;
+	public final Optional<Set<String>> groupIds;
+	
+	public RequestAllGroupsTemperatures(long requestId){
+		this.requestId = requestId;
+		this.groupIds = Optional.empty();
+	}
+	
+	public RequestAllGroupsTemperatures(long requestId, Set<String> groupIds){
+		this.requestId = requestId;
+		this.groupIds = Optional.of(groupIds);
+	}
+}
@@ -1,9 +1,66 @@
 package org.insightlab.akka.samples.iot.messages.temperature;
 
+import java.util.concurrent.TimeUnit;
+
+import scala.concurrent.duration.FiniteDuration;
+
+//Requests the temperatures of every device of a group. The answer comes
+//when the completeness target is met, or when the timeout expires, and the
+//devices that didn't answer by then are marked DeviceTimedOut. The target is
+//a fraction of the devices of the group or, with quorum, a number of devices
 public final class RequestAllTemperatures {
+	public static final FiniteDuration DEFAULT_TIMEOUT = new FiniteDuration(3, TimeUnit.SECONDS);
+	
 	public final long requestId;
+	public final FiniteDuration timeout;
+	//Fraction of the devices, between 0 and 1, that must answer. Ignored when there is a quorum
+	public final double completeness;
+	//Number of devices that must answer, or NO_QUORUM
+	public final int quorum;
+	
+	public static final int NO_QUORUM = -1;
 	
 	public RequestAllTemperatures(long requestId){
+		this(requestId, DEFAULT_TIMEOUT);
+	}
+	
+	public RequestAllTemperatures(long requestId, FiniteDuration timeout){
+		this(requestId, timeout, 1.0);
+	}
+	
+	public RequestAllTemperatures(long requestId, FiniteDuration timeout, double completeness){
+		this(requestId, timeout, completeness, NO_QUORUM);
+	}
+	
+	private RequestAllTemperatures(long requestId, FiniteDuration timeout, double completeness, int quorum){
+		if(timeout.length() <= 0)
+			throw new IllegalArgumentException("timeout must be positive");
+		if(completeness < 0.0 || completeness > 1.0)
+			throw new IllegalArgumentException("completeness must be between 0 and 1");
+		
 		this.requestId = requestId;
+		this.timeout = timeout;
+		this.completeness = completeness;
+		this.quorum = quorum;
+	}
+	
+	//Request answered when the given number of devices, or every device
+	//of a smaller group, answered
+	public static RequestAllTemperatures quorum(long requestId, FiniteDuration timeout, int devices){
+		if(devices < 0)
+			throw new IllegalArgumentException("devices must not be negative");
+		
+		return new RequestAllTemperatures(requestId, timeout, 1.0, devices);
+	}
+	
+	//Number of answers needed for a group with the given number of devices
+	public int requiredAnswers(int devices){
+		if(quorum != NO_QUORUM) return Math.min(quorum, devices);
+		return (int) Math.min(devices, Math.ceil(completeness * devices - 1e-9));
+	}
+	
+	//True when both requests are answered the same way, so they can share an answer
+	public boolean sameTarget(RequestAllTemperatures other){
+		return timeout.equals(other.timeout) && completeness == other.completeness && quorum == other.quorum;
 	}
 }
@@ -0,0 +1,11 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+//Requests the last readings known by a group, without asking the devices.
+//Only groups with the last value cache enabled answer it
+public final class RequestCachedTemperatures {
+	public final long requestId;
+	
+	public RequestCachedTemperatures(long requestId){
+		this.requestId = requestId;
+	}
+}
@@ -0,0 +1,23 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+import scala.concurrent.duration.FiniteDuration;
+
+//Requests a summary of the temperatures of a group, computed inside the group.
+//When the devices must be asked, the ones that didn't answer by the timeout
+//are left out of the summary
+public final class RequestGroupStatistics {
+	public final long requestId;
+	public final FiniteDuration timeout;
+	
+	public RequestGroupStatistics(long requestId){
+		this(requestId, RequestAllTemperatures.DEFAULT_TIMEOUT);
+	}
+	
+	public RequestGroupStatistics(long requestId, FiniteDuration timeout){
+		if(timeout.length() <= 0)
+			throw new IllegalArgumentException("timeout must be positive");
+		
+		this.requestId = requestId;
+		this.timeout = timeout;
+	}
+}
@@ -0,0 +1,29 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+import scala.concurrent.duration.FiniteDuration;
+
+//Requests the temperatures of every device of a group as a stream. The
+//readings are sent in TemperatureChunk messages of at most chunkSize devices,
+//as soon as the devices answer, and a TemperatureStreamCompleted ends the stream
+//when every device answered or the timeout expired. Unlike RequestAllTemperatures,
+//the whole group is never held in a single message
+public final class RequestTemperatureStream {
+	public final long requestId;
+	public final int chunkSize;
+	public final FiniteDuration timeout;
+	
+	public RequestTemperatureStream(long requestId, int chunkSize){
+		this(requestId, chunkSize, RequestAllTemperatures.DEFAULT_TIMEOUT);
+	}
+	
+	public RequestTemperatureStream(long requestId, int chunkSize, FiniteDuration timeout){
+		if(chunkSize <= 0)
+			throw new IllegalArgumentException("chunkSize must be positive");
+		if(timeout.length() <= 0)
+			throw new IllegalArgumentException("timeout must be positive");
+		
+		this.requestId = requestId;
+		this.chunkSize = chunkSize;
+		this.timeout = timeout;
+	}
+}
@@ -0,0 +1,24 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+import java.util.Set;
+
+import org.insightlab.akka.samples.iot.statistics.TemperatureStatistics;
+
+//Merged summary of the temperatures of many groups. Groups that didn't
+//answer before the deadline, or stopped, are listed in missingGroups
+public final class RespondAllGroupsStatistics {
+	public final long requestId;
+	public final TemperatureStatistics statistics;
+	public final Set<String> missingGroups;
+	
+	public RespondAllGroupsStatistics(long requestId, TemperatureStatistics statistics, Set<String> missingGroups){
+		this.requestId = requestId;
+		this.statistics = statistics;
+		this.missingGroups = missingGroups;
+	}
+	
+	//True when some group is missing from the summary
+	public boolean isPartial(){
+		return !missingGroups.isEmpty();
+	}
+}
@@ -0,0 +1,27 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.insightlab.akka.samples.iot.states.temperature.TemperatureReading;
+
+//Temperatures of many groups, indexed by group id and then by device id.
+//Groups that didn't answer before the deadline, or stopped, are listed
+//in missingGroups and have no entry in temperatures
+public final class RespondAllGroupsTemperatures {
+	public final long requestId;
+	public final Map<String, Map<String, TemperatureReading>> temperatures;
+	public final Set<String> missingGroups;
+	
+	public RespondAllGroupsTemperatures(long requestId, Map<String, Map<String, TemperatureReading>> temperatures,
+			Set<String> missingGroups){
+		this.requestId = requestId;
+		this.temperatures = temperatures;
+		this.missingGroups = missingGroups;
+	}
+	
+	//True when some group is missing from the answer
+	public boolean isPartial(){
+		return !missingGroups.isEmpty();
+	}
+}
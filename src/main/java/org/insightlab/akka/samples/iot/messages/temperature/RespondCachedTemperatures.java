@@ -0,0 +1,20 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+//Last readings known by a group. The entry i is made by deviceIds[i],
+//values[i] and timestamps[i], the moment of the reading. Devices without
+//readings have NO_READING as timestamp and NaN as value
+public final class RespondCachedTemperatures {
+	public static final long NO_READING = Long.MIN_VALUE;
+	
+	public final long requestId;
+	public final String[] deviceIds;
+	public final double[] values;
+	public final long[] timestamps;
+	
+	public RespondCachedTemperatures(long requestId, String[] deviceIds, double[] values, long[] timestamps){
+		this.requestId = requestId;
+		this.deviceIds = deviceIds;
+		this.values = values;
+		this.timestamps = timestamps;
+	}
+}
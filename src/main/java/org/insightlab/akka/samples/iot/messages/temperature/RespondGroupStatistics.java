@@ -0,0 +1,15 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+import org.insightlab.akka.samples.iot.statistics.TemperatureStatistics;
+
+//Summary of the temperatures of a group. Devices without a
+//temperature reading are not part of it
+public final class RespondGroupStatistics {
+	public final long requestId;
+	public final TemperatureStatistics statistics;
+	
+	public RespondGroupStatistics(long requestId, TemperatureStatistics statistics){
+		this.requestId = requestId;
+		this.statistics = statistics;
+	}
+}
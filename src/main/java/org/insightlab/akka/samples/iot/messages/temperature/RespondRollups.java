@@ -0,0 +1,22 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+//Aggregates of a device inside a time range, from the oldest window to the
+//newest. The window i starts at starts[i] and has counts[i] readings, whose
+//minimum, maximum and mean are mins[i], maxs[i] and means[i]
+public final class RespondRollups {
+	public final long requestId;
+	public final long[] starts;
+	public final long[] counts;
+	public final double[] mins;
+	public final double[] maxs;
+	public final double[] means;
+	
+	public RespondRollups(long requestId, long[] starts, long[] counts, double[] mins, double[] maxs, double[] means){
+		this.requestId = requestId;
+		this.starts = starts;
+		this.counts = counts;
+		this.mins = mins;
+		this.maxs = maxs;
+		this.means = means;
+	}
+}
@@ -0,0 +1,15 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+//Readings of a device inside a time range, in the order they were recorded.
+//The reading i is made by timestamps[i] and values[i]
+public final class RespondTemperatureRange {
+	public final long requestId;
+	public final long[] timestamps;
+	public final double[] values;
+	
+	public RespondTemperatureRange(long requestId, long[] timestamps, double[] values){
+		this.requestId = requestId;
+		this.timestamps = timestamps;
+		this.values = values;
+	}
+}
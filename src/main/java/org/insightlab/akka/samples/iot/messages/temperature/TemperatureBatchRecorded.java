@@ -0,0 +1,20 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+//Single answer for a RecordTemperatureBatch. The outcome i refers
+//to the entry i of the batch
+public final class TemperatureBatchRecorded {
+	//The reading was delivered to its device
+	public static final byte RECORDED = 0;
+	//The group has no device with that id, so the reading was discarded
+	public static final byte UNKNOWN_DEVICE = 1;
+	//The mailbox of the group was full of writes, so the batch was discarded
+	public static final byte REJECTED = 2;
+	
+	public final long requestId;
+	public final byte[] outcomes;
+	
+	public TemperatureBatchRecorded(long requestId, byte[] outcomes){
+		this.requestId = requestId;
+		this.outcomes = outcomes;
+	}
+}
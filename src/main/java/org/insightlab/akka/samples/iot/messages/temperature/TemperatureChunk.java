@@ -0,0 +1,20 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+import java.util.Map;
+
+import org.insightlab.akka.samples.iot.states.temperature.TemperatureReading;
+
+//Part of the answer to a RequestTemperatureStream, with the readings of the
+//devices that answered since the previous chunk. The chunks of a stream are
+//numbered from 0, in the order they are sent
+public final class TemperatureChunk {
+	public final long requestId;
+	public final int sequenceNr;
+	public final Map<String, TemperatureReading> temperatures;
+	
+	public TemperatureChunk(long requestId, int sequenceNr, Map<String, TemperatureReading> temperatures){
+		this.requestId = requestId;
+		this.sequenceNr = sequenceNr;
+		this.temperatures = temperatures;
+	}
+}
@@ -0,0 +1,11 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+//Answer for a RecordTemperature that was discarded, without being
+//handled, because the mailbox of the device was full of writes
+public final class TemperatureRejected {
+	public final long requestId;
+	
+	public TemperatureRejected(long requestId){
+		this.requestId = requestId;
+	}
+}
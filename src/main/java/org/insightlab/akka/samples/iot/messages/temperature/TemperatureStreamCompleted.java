@@ -0,0 +1,26 @@
+package org.insightlab.akka.samples.iot.messages.temperature;
+
+import java.util.Set;
+
+//Last message of the answer to a RequestTemperatureStream. It tells how many
+//chunks were sent, and the devices that didn't answer before the timeout or
+//stopped before answering, which are in no chunk
+public final class TemperatureStreamCompleted {
+	public final long requestId;
+	public final int chunks;
+	public final Set<String> timedOutDevices;
+	public final Set<String> unavailableDevices;
+	
+	public TemperatureStreamCompleted(long requestId, int chunks, Set<String> timedOutDevices,
+			Set<String> unavailableDevices){
+		this.requestId = requestId;
+		this.chunks = chunks;
+		this.timedOutDevices = timedOutDevices;
+		this.unavailableDevices = unavailableDevices;
+	}
+	
+	//True when some device is missing from the stream
+	public boolean isPartial(){
+		return !timedOutDevices.isEmpty() || !unavailableDevices.isEmpty();
+	}
+}
@@ -0,0 +1,27 @@
+package org.insightlab.akka.samples.iot.metrics;
+
+//Handling time of the messages of the actors of a kind, with a histogram
+//for each message type, named <kind>.handling.<message type>. The histogram
+//of a type is found through a ClassValue, so nothing is allocated per message
+public final class ActorMetrics {
+	
+	private final boolean enabled;
+	private final ClassValue<StripedHistogram> handlingTimes;
+	
+	ActorMetrics(IotMetrics metrics, String kind){
+		this.enabled = metrics.enabled;
+		this.handlingTimes = new ClassValue<StripedHistogram>(){
+			@Override
+			protected StripedHistogram computeValue(Class<?> type){
+				return metrics.histogram(kind + ".handling." + type.getSimpleName());
+			}
+		};
+	}
+	
+	//Records the time, in nanoseconds, an actor took to handle a message
+	public void handled(Object message, long nanos){
+		if(enabled){
+			handlingTimes.get(message.getClass()).record(nanos);
+		}
+	}
+}
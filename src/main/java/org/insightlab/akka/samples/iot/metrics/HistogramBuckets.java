@@ -0,0 +1,34 @@
+package org.insightlab.akka.samples.iot.metrics;
+
+//Bucket layout shared by the histograms, with a relative error below 1/16.
+//Values below 16 have a bucket each, then each power of two is split in
+//16 linear buckets, so a fixed number of buckets holds any positive long
+public final class HistogramBuckets {
+	
+	static final int SUB_BUCKET_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	
+	public static final int COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	
+	private HistogramBuckets(){
+	}
+	
+	//Bucket of a value. Negative values go to the first bucket
+	public static int indexOf(long value){
+		if(value < SUB_BUCKETS) return value < 0 ? 0 : (int) value;
+		
+		//The highest bit gives the power of two and the next bits the linear bucket
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	//Biggest value of a bucket
+	public static long upperBoundOf(int index){
+		if(index < SUB_BUCKETS) return index;
+		
+		int shift = index / SUB_BUCKETS - 1;
+		long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,34 @@
+package org.insightlab.akka.samples.iot.metrics;
+
+//Immutable copy of a StripedHistogram at some moment
+public final class HistogramSnapshot {
+	public final long count;
+	public final long sum;
+	public final long max;
+	private final long[] counts;
+	
+	HistogramSnapshot(long count, long sum, long max, long[] counts){
+		this.count = count;
+		this.sum = sum;
+		this.max = max;
+		this.counts = counts;
+	}
+	
+	public double mean(){
+		return count == 0 ? 0.0 : (double) sum / count;
+	}
+	
+	//Upper bound of the bucket that holds the given fraction of the
+	//values, never above the biggest value recorded
+	public long percentile(double fraction){
+		if(count == 0) return 0;
+		
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++){
+			seen += counts[i];
+			if(seen >= rank) return Math.min(HistogramBuckets.upperBoundOf(i), max);
+		}
+		return max;
+	}
+}
@@ -0,0 +1,89 @@
+package org.insightlab.akka.samples.iot.metrics;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import scala.Option;
+
+//Unbounded mailbox that keeps its own size, so its depth is known without
+//walking the queue. The depth seen by every new message is recorded in the
+//mailbox.depth histogram and the messages waiting in every instrumented
+//mailbox are counted by mailbox.queued. To use it for every actor:
+//akka.actor.default-mailbox.mailbox-type = "org.insightlab.akka.samples.iot.metrics.InstrumentedMailbox"
+public final class InstrumentedMailbox implements MailboxType, ProducesMessageQueue<InstrumentedMailbox.InstrumentedMessageQueue> {
+	
+	public InstrumentedMailbox(ActorSystem.Settings settings, Config config){
+	}
+	
+	@Override
+	public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system){
+		if(system.isEmpty() || !IotMetrics.get(system.get()).enabled){
+			return new InstrumentedMessageQueue(null, null);
+		}
+		
+		IotMetrics metrics = IotMetrics.get(system.get());
+		return new InstrumentedMessageQueue(metrics.histogram("mailbox.depth"), metrics.counter("mailbox.queued"));
+	}
+	
+	public static final class InstrumentedMessageQueue implements MessageQueue, UnboundedMessageQueueSemantics {
+		private final ConcurrentLinkedQueue<Envelope> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size = new AtomicInteger();
+		//Both are null when the metrics are disabled
+		private final StripedHistogram depth;
+		private final LongAdder queued;
+		
+		InstrumentedMessageQueue(StripedHistogram depth, LongAdder queued){
+			this.depth = depth;
+			this.queued = queued;
+		}
+		
+		@Override
+		public void enqueue(ActorRef receiver, Envelope handle){
+			queue.offer(handle);
+			int current = size.incrementAndGet();
+			if(depth != null){
+				depth.record(current);
+				queued.increment();
+			}
+		}
+		
+		@Override
+		public Envelope dequeue(){
+			Envelope handle = queue.poll();
+			if(handle != null){
+				size.decrementAndGet();
+				if(queued != null) queued.decrement();
+			}
+			return handle;
+		}
+		
+		@Override
+		public int numberOfMessages(){
+			return size.get();
+		}
+		
+		@Override
+		public boolean hasMessages(){
+			return !queue.isEmpty();
+		}
+		
+		//The messages left when the actor stops go to the dead letters
+		@Override
+		public void cleanUp(ActorRef owner, MessageQueue deadLetters){
+			Envelope handle;
+			while((handle = dequeue()) != null){
+				deadLetters.enqueue(owner, handle);
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package org.insightlab.akka.samples.iot.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.typesafe.config.Config;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.event.Logging;
+import scala.concurrent.duration.FiniteDuration;
+
+//Metrics of the IoT actors, one instance for each actor system. The metrics
+//are created on first use and kept by name, then recorded without locks or
+//allocation. They are read through JMX and, optionally, a periodic reporter.
+//The options are under iot.metrics, see reference.conf
+public final class IotMetrics implements Extension {
+	
+	public final boolean enabled;
+	
+	private final ConcurrentMap<String, StripedHistogram> histograms = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ActorMetrics> actors = new ConcurrentHashMap<>();
+	
+	IotMetrics(ExtendedActorSystem system){
+		Config config = system.settings().config().getConfig("iot.metrics");
+		this.enabled = config.getBoolean("enabled");
+		
+		if(enabled && config.getBoolean("jmx")){
+			JmxMetrics.register(this, system);
+		}
+		
+		long interval = config.getDuration("reporter.interval", TimeUnit.MILLISECONDS);
+		if(enabled && interval > 0){
+			FiniteDuration every = new FiniteDuration(interval, TimeUnit.MILLISECONDS);
+			MetricsReporter reporter = new MetricsReporter(this, config.getString("reporter.file"),
+					Logging.getLogger(system, MetricsReporter.class));
+			system.scheduler().schedule(every, every, reporter, system.dispatcher());
+		}
+	}
+	
+	//The metrics of the given actor system
+	public static IotMetrics get(ActorSystem system){
+		return Id.INSTANCE.get(system);
+	}
+	
+	public static final class Id extends AbstractExtensionId<IotMetrics> implements ExtensionIdProvider {
+		public static final Id INSTANCE = new Id();
+		
+		private Id(){
+		}
+		
+		@Override
+		public Id lookup(){
+			return INSTANCE;
+		}
+		
+		@Override
+		public IotMetrics createExtension(ExtendedActorSystem system){
+			return new IotMetrics(system);
+		}
+	}
+	
+	//The histogram with the given name. Callers keep the result, so the
+	//map is only read when a metric is created
+	public StripedHistogram histogram(String name){
+		return histograms.computeIfAbsent(name, n -> new StripedHistogram());
+	}
+	
+	public LongAdder counter(String name){
+		return counters.computeIfAbsent(name, n -> new LongAdder());
+	}
+	
+	//The handling times of the actors of a kind, such as device or group
+	public ActorMetrics actor(String kind){
+		return actors.computeIfAbsent(kind, k -> new ActorMetrics(this, k));
+	}
+	
+	//Copy of every histogram, sorted by name
+	public Map<String, HistogramSnapshot> histogramSnapshots(){
+		Map<String, HistogramSnapshot> snapshots = new TreeMap<>();
+		for(Map.Entry<String, StripedHistogram> entry : histograms.entrySet()){
+			snapshots.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return snapshots;
+	}
+	
+	//Current value of every counter, sorted by name
+	public Map<String, Long> counterValues(){
+		Map<String, Long> values = new TreeMap<>();
+		for(Map.Entry<String, LongAdder> entry : counters.entrySet()){
+			values.put(entry.getKey(), entry.getValue().sum());
+		}
+		return values;
+	}
+}
@@ -0,0 +1,127 @@
+package org.insightlab.akka.samples.iot.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import akka.actor.ActorSystem;
+
+//Exposes the metrics through JMX, as read-only attributes. Each histogram
+//gives the attributes <name>.count, .mean, .p50, .p95, .p99 and .max, and
+//each counter an attribute with its name. The metrics are created while
+//the system runs, so the attributes are listed again on every request
+final class JmxMetrics implements DynamicMBean {
+	
+	static final String[] STATISTICS = {"count", "mean", "p50", "p95", "p99", "max"};
+	
+	private final IotMetrics metrics;
+	
+	private JmxMetrics(IotMetrics metrics){
+		this.metrics = metrics;
+	}
+	
+	//Registers the metrics as org.insightlab.akka.samples.iot:type=Metrics,system=<name>
+	//until the actor system terminates
+	static void register(IotMetrics metrics, ActorSystem system){
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try{
+			ObjectName name = new ObjectName("org.insightlab.akka.samples.iot:type=Metrics,system="
+					+ ObjectName.quote(system.name()));
+			server.registerMBean(new JmxMetrics(metrics), name);
+			
+			system.registerOnTermination(() -> {
+				try{
+					server.unregisterMBean(name);
+				}
+				catch(JMException e){
+					system.log().warning("Couldn't unregister the metrics from JMX: {}", e.getMessage());
+				}
+			});
+		}
+		catch(JMException e){
+			system.log().warning("Couldn't register the metrics in JMX: {}", e.getMessage());
+		}
+	}
+	
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Long counter = metrics.counterValues().get(attribute);
+		if(counter != null) return counter;
+		
+		int separator = attribute.lastIndexOf('.');
+		if(separator > 0){
+			HistogramSnapshot h = metrics.histogramSnapshots().get(attribute.substring(0, separator));
+			if(h != null){
+				switch(attribute.substring(separator + 1)){
+				case "count": return h.count;
+				case "mean": return h.mean();
+				case "p50": return h.percentile(0.50);
+				case "p95": return h.percentile(0.95);
+				case "p99": return h.percentile(0.99);
+				case "max": return h.max;
+				}
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+	
+	@Override
+	public AttributeList getAttributes(String[] attributes){
+		AttributeList list = new AttributeList();
+		for(String attribute : attributes){
+			try{
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			}
+			catch(AttributeNotFoundException e){
+				//Unknown attributes are left out, as the DynamicMBean contract allows
+			}
+		}
+		return list;
+	}
+	
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("The metrics are read-only: " + attribute.getName());
+	}
+	
+	@Override
+	public AttributeList setAttributes(AttributeList attributes){
+		return new AttributeList();
+	}
+	
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+	
+	@Override
+	public MBeanInfo getMBeanInfo(){
+		List<MBeanAttributeInfo> attributes = new ArrayList<>();
+		for(String name : metrics.histogramSnapshots().keySet()){
+			for(String statistic : STATISTICS){
+				String type = statistic.equals("mean") ? Double.class.getName() : Long.class.getName();
+				attributes.add(new MBeanAttributeInfo(name + "." + statistic, type, statistic + " of " + name,
+						true, false, false));
+			}
+		}
+		for(Map.Entry<String, Long> counter : metrics.counterValues().entrySet()){
+			attributes.add(new MBeanAttributeInfo(counter.getKey(), Long.class.getName(), counter.getKey(),
+					true, false, false));
+		}
+		
+		return new MBeanInfo(JmxMetrics.class.getName(), "Metrics of the IoT actors",
+				attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+	}
+}
@@ -0,0 +1,59 @@
+package org.insightlab.akka.samples.iot.metrics;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Map;
+
+import akka.event.LoggingAdapter;
+
+//Writes every metric, one per line, to a file or, without a file, to the
+//log of the actor system. It runs periodically on the scheduler of the system.
+//Times are in nanoseconds and the values are totals since the system started
+final class MetricsReporter implements Runnable {
+	
+	private final IotMetrics metrics;
+	private final String file;
+	private final LoggingAdapter log;
+	
+	MetricsReporter(IotMetrics metrics, String file, LoggingAdapter log){
+		this.metrics = metrics;
+		this.file = file;
+		this.log = log;
+	}
+	
+	@Override
+	public void run(){
+		String report = report(System.currentTimeMillis());
+		if(file.isEmpty()){
+			log.info("Metrics report\n{}", report);
+			return;
+		}
+		
+		try(FileWriter writer = new FileWriter(file, true)){
+			writer.write(report);
+		}
+		catch(IOException e){
+			log.error(e, "Couldn't write the metrics to {}", file);
+		}
+	}
+	
+	String report(long timestamp){
+		StringWriter report = new StringWriter();
+		PrintWriter out = new PrintWriter(report);
+		
+		for(Map.Entry<String, HistogramSnapshot> entry : metrics.histogramSnapshots().entrySet()){
+			HistogramSnapshot h = entry.getValue();
+			out.printf(Locale.ROOT, "%d %s count=%d mean=%.1f p50=%d p95=%d p99=%d max=%d%n", timestamp, entry.getKey(),
+					h.count, h.mean(), h.percentile(0.50), h.percentile(0.95), h.percentile(0.99), h.max);
+		}
+		for(Map.Entry<String, Long> entry : metrics.counterValues().entrySet()){
+			out.printf(Locale.ROOT, "%d %s value=%d%n", timestamp, entry.getKey(), entry.getValue());
+		}
+		
+		out.flush();
+		return report.toString();
+	}
+}
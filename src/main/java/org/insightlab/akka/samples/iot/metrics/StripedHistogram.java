@@ -0,0 +1,57 @@
+package org.insightlab.akka.samples.iot.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Histogram that many threads record into at the same time. Each thread
+//writes to one of a few stripes, chosen by its id, with atomic increments,
+//so recording takes no lock and allocates nothing. The stripes are only
+//added up when a snapshot is taken
+public final class StripedHistogram {
+	
+	static final int STRIPES = stripes();
+	//Position of the count, the sum and the max of a stripe, after its buckets.
+	//The stripes are padded, so two of them don't share a cache line
+	static final int COUNT = HistogramBuckets.COUNT;
+	static final int SUM = COUNT + 1;
+	static final int MAX = COUNT + 2;
+	static final int STRIPE_LENGTH = COUNT + 16;
+	
+	private final AtomicLongArray values = new AtomicLongArray(STRIPES * STRIPE_LENGTH);
+	
+	public void record(long value){
+		if(value < 0) value = 0;
+		
+		int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_LENGTH;
+		values.incrementAndGet(stripe + HistogramBuckets.indexOf(value));
+		values.incrementAndGet(stripe + COUNT);
+		values.addAndGet(stripe + SUM, value);
+		
+		long max = values.get(stripe + MAX);
+		while(value > max && !values.compareAndSet(stripe + MAX, max, value)){
+			max = values.get(stripe + MAX);
+		}
+	}
+	
+	//Sum of the stripes. Values recorded meanwhile may be partially included
+	public HistogramSnapshot snapshot(){
+		long[] counts = new long[COUNT];
+		long count = 0;
+		long sum = 0;
+		long max = 0;
+		for(int stripe = 0; stripe < STRIPES * STRIPE_LENGTH; stripe += STRIPE_LENGTH){
+			for(int i = 0; i < COUNT; i++){
+				counts[i] += values.get(stripe + i);
+			}
+			count += values.get(stripe + COUNT);
+			sum += values.get(stripe + SUM);
+			max = Math.max(max, values.get(stripe + MAX));
+		}
+		return new HistogramSnapshot(count, sum, max, counts);
+	}
+	
+	//A power of two with about one stripe per processor
+	private static int stripes(){
+		int processors = Runtime.getRuntime().availableProcessors();
+		return Math.min(Integer.highestOneBit(processors * 2 - 1), 64);
+	}
+}
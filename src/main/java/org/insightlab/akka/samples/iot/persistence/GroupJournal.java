@@ -0,0 +1,238 @@
+package org.insightlab.akka.samples.iot.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.insightlab.akka.samples.iot.cache.LastValueTable;
+
+//Durable state of a group, kept in its own directory. Every change is
+//appended to the journal file. From time to time the whole state is
+//written to the snapshot file and the journal starts empty again, so a
+//recovery only reads the newest snapshot plus the journal tail.
+//The records are idempotent: replaying a journal over a snapshot that
+//already contains it leads to the same state.
+//A flush hands the records to the operating system but doesn't sync them
+//to the disk, since the group acknowledges every reading right after it.
+//So the acknowledged readings survive a crash of the JVM, but the ones
+//since the last snapshot may be lost if the operating system crashes.
+//Only the snapshots are synced
+public final class GroupJournal {
+	private static final String JOURNAL = "journal";
+	private static final String SNAPSHOT = "snapshot";
+	
+	private static final byte REGISTERED = 1;
+	private static final byte RECORDED = 2;
+	private static final byte REMOVED = 3;
+	
+	private final File directory;
+	private DataOutputStream journal;
+	//Number of records appended since the last snapshot
+	private int records = 0;
+	
+	public GroupJournal(File directory){
+		this.directory = directory;
+	}
+	
+	//Directory of a group inside the persistence directory. The group id
+	//is encoded, so any id gives a valid file name
+	public static File directoryOf(File root, String groupId){
+		try{
+			return new File(root, URLEncoder.encode(groupId, "UTF-8"));
+		} catch(UnsupportedEncodingException e){
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	//Id of the group kept in a directory created by directoryOf
+	public static String groupIdOf(File directory){
+		try{
+			return URLDecoder.decode(directory.getName(), "UTF-8");
+		} catch(UnsupportedEncodingException e){
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	public int recordsSinceSnapshot(){
+		return records;
+	}
+	
+	//Rebuilds the state of the group into the table, which must be empty,
+	//and opens the journal for new records
+	public void recover(LastValueTable table) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create the directory "+directory);
+		
+		File snapshot = new File(directory, SNAPSHOT);
+		if(snapshot.exists()){
+			try(DataInputStream in = open(snapshot)){
+				int size = in.readInt();
+				for(int i = 0; i < size; i++){
+					String deviceId = in.readUTF();
+					double value = in.readDouble();
+					long timestamp = in.readLong();
+					table.add(deviceId);
+					if(timestamp != LastValueTable.NO_READING) table.update(deviceId, value, timestamp);
+				}
+			}
+		}
+		
+		File journalFile = new File(directory, JOURNAL);
+		if(journalFile.exists()){
+			CountingInputStream counter = new CountingInputStream(
+					new BufferedInputStream(new FileInputStream(journalFile), 1 << 16));
+			long complete;
+			try(DataInputStream in = new DataInputStream(counter)){
+				complete = replay(in, counter, table);
+			}
+			
+			//A record cut by a crash is removed, so the new records don't follow its bytes
+			try(FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)){
+				if(channel.size() > complete) channel.truncate(complete);
+			}
+		}
+		
+		journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+	}
+	
+	//Applies every complete record. A record cut by a crash ends the replay,
+	//as does a record whose type or id is garbage, which a crash can leave
+	//at the end of the file too.
+	//Returns the length of the journal up to the end of the last complete record
+	private long replay(DataInputStream in, CountingInputStream counter, LastValueTable table) throws IOException {
+		long complete = 0L;
+		try{
+			while(true){
+				byte type = in.readByte();
+				String deviceId = in.readUTF();
+				if(type == REGISTERED){
+					table.add(deviceId);
+				}
+				else if(type == RECORDED){
+					double value = in.readDouble();
+					long timestamp = in.readLong();
+					table.update(deviceId, value, timestamp);
+				}
+				else if(type == REMOVED){
+					table.remove(deviceId);
+				}
+				else{
+					//Unknown record, so the rest of the file is the broken tail
+					return complete;
+				}
+				records++;
+				complete = counter.count;
+			}
+		} catch(EOFException | UTFDataFormatException e){
+			//End of the journal, or a broken id at its tail
+		}
+		return complete;
+	}
+	
+	public void registered(String deviceId) throws IOException {
+		journal.writeByte(REGISTERED);
+		journal.writeUTF(deviceId);
+		records++;
+	}
+	
+	public void recorded(String deviceId, double value, long timestamp) throws IOException {
+		journal.writeByte(RECORDED);
+		journal.writeUTF(deviceId);
+		journal.writeDouble(value);
+		journal.writeLong(timestamp);
+		records++;
+	}
+	
+	public void removed(String deviceId) throws IOException {
+		journal.writeByte(REMOVED);
+		journal.writeUTF(deviceId);
+		records++;
+	}
+	
+	//Sends the buffered records to the file, without syncing it to the disk
+	public void flush() throws IOException {
+		journal.flush();
+	}
+	
+	//Writes the whole state and empties the journal. The snapshot is written
+	//to a temporary file first, so a crash never leaves a broken snapshot
+	public void snapshot(LastValueTable table) throws IOException {
+		journal.flush();
+		
+		File temporary = new File(directory, SNAPSHOT+".tmp");
+		String[] deviceIds = table.deviceIds();
+		double[] values = table.values();
+		long[] timestamps = table.timestamps();
+		try(FileOutputStream file = new FileOutputStream(temporary);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))){
+			out.writeInt(deviceIds.length);
+			for(int i = 0; i < deviceIds.length; i++){
+				out.writeUTF(deviceIds[i]);
+				out.writeDouble(values[i]);
+				out.writeLong(timestamps[i]);
+			}
+			out.flush();
+			file.getFD().sync();
+		}
+		Files.move(temporary.toPath(), new File(directory, SNAPSHOT).toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		journal.close();
+		journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, JOURNAL), false)));
+		records = 0;
+	}
+	
+	public void close() throws IOException {
+		if(journal != null) journal.close();
+	}
+	
+	private static DataInputStream open(File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+	}
+	
+	//Stream that counts the bytes read through it, to know where each record ends
+	private static final class CountingInputStream extends FilterInputStream{
+		long count = 0L;
+		
+		CountingInputStream(InputStream in){
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b >= 0) count++;
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if(read > 0) count += read;
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package org.insightlab.akka.samples.iot.registry;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import akka.actor.ActorRef;
+
+//This class keeps the actors of a group, or the groups of a manager, by id.
+//Each id gets a dense int slot. Two SlotIndex find the slot of an id or of
+//a reference and keep them by slot, so nothing is allocated per entry.
+//The registry keeps one copy of each id, which the caller can share
+public final class ActorRegistry {
+	//Marks an unknown id or reference
+	public static final int NO_SLOT = SlotIndex.NO_SLOT;
+	
+	private final SlotIndex<String> ids;
+	private final SlotIndex<ActorRef> refs;
+	//Slots released by removed entries, reused before new ones
+	private int[] freeSlots;
+	private int freeCount = 0;
+	//Slots ever used. Every slot below it is either used or free
+	private int usedSlots = 0;
+	
+	public ActorRegistry(){
+		this(16);
+	}
+	
+	public ActorRegistry(int expectedSize){
+		int slots = Math.max(expectedSize, 4);
+		ids = new SlotIndex<>(slots);
+		refs = new SlotIndex<>(slots);
+		freeSlots = new int[slots];
+	}
+	
+	public int size(){
+		return ids.size();
+	}
+	
+	//Upper bound of the slots, to iterate over them. Free slots have no reference
+	public int slots(){
+		return usedSlots;
+	}
+	
+	public String idAt(int slot){
+		return ids.keyAt(slot);
+	}
+	
+	public ActorRef refAt(int slot){
+		return refs.keyAt(slot);
+	}
+	
+	public boolean contains(String id){
+		return slotOf(id) != NO_SLOT;
+	}
+	
+	//The reference of an id, or null if it isn't registered
+	public ActorRef get(String id){
+		int slot = slotOf(id);
+		return slot == NO_SLOT ? null : refs.keyAt(slot);
+	}
+	
+	//The id of a reference, or null if it isn't registered
+	public String idOf(ActorRef ref){
+		int slot = slotOf(ref);
+		return slot == NO_SLOT ? null : ids.keyAt(slot);
+	}
+	
+	public int slotOf(String id){
+		return ids.slotOf(id);
+	}
+	
+	public int slotOf(ActorRef ref){
+		return refs.slotOf(ref);
+	}
+	
+	//Method to register the reference of an id, replacing the previous one.
+	//It returns the slot of the id
+	public int put(String id, ActorRef ref){
+		int slot = slotOf(id);
+		if(slot != NO_SLOT){
+			refs.removeSlot(slot);
+			refs.put(ref, slot);
+			return slot;
+		}
+		
+		slot = freeCount > 0 ? freeSlots[--freeCount] : nextSlot();
+		ids.put(id, slot);
+		refs.put(ref, slot);
+		return slot;
+	}
+	
+	//Method to unregister a reference. It returns its id, or null if it wasn't registered
+	public String remove(ActorRef ref){
+		int slot = slotOf(ref);
+		if(slot == NO_SLOT) return null;
+		
+		String id = ids.keyAt(slot);
+		removeSlot(slot);
+		return id;
+	}
+	
+	//Method to unregister an id. It returns its reference, or null if it wasn't registered
+	public ActorRef remove(String id){
+		int slot = slotOf(id);
+		if(slot == NO_SLOT) return null;
+		
+		ActorRef ref = refs.keyAt(slot);
+		removeSlot(slot);
+		return ref;
+	}
+	
+	//Immutable copy of the registered actors, except the excluded ids,
+	//which can be read by another actor
+	public RegistrySnapshot snapshot(Set<String> excluded){
+		int size = size();
+		ActorRef[] snapshotRefs = new ActorRef[size];
+		String[] snapshotIds = new String[size];
+		int count = 0;
+		for(int slot = 0; slot < usedSlots; slot++){
+			ActorRef ref = refs.keyAt(slot);
+			if(ref != null && !excluded.contains(ids.keyAt(slot))){
+				snapshotRefs[count] = ref;
+				snapshotIds[count] = ids.keyAt(slot);
+				count++;
+			}
+		}
+		return new RegistrySnapshot(Arrays.copyOf(snapshotRefs, count), Arrays.copyOf(snapshotIds, count));
+	}
+	
+	private int nextSlot(){
+		if(usedSlots == freeSlots.length){
+			freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+		}
+		return usedSlots++;
+	}
+	
+	private void removeSlot(int slot){
+		ids.removeSlot(slot);
+		refs.removeSlot(slot);
+		freeSlots[freeCount++] = slot;
+	}
+}
@@ -0,0 +1,51 @@
+package org.insightlab.akka.samples.iot.registry;
+
+import java.util.Map;
+
+import akka.actor.ActorRef;
+
+//Immutable copy of some entries of an ActorRegistry, indexed from 0 to size-1.
+//It is handed to the queries, which find the index of an answering actor
+//with a SlotIndex of the references
+public final class RegistrySnapshot {
+	private final SlotIndex<ActorRef> refs;
+	private final String[] ids;
+	
+	RegistrySnapshot(ActorRef[] refs, String[] ids){
+		this.ids = ids;
+		this.refs = new SlotIndex<>(refs.length);
+		for(int index = 0; index < refs.length; index++){
+			this.refs.put(refs[index], index);
+		}
+	}
+	
+	//Snapshot with the entries of a map from reference to id
+	public static RegistrySnapshot of(Map<ActorRef,String> actorToId){
+		ActorRef[] refs = new ActorRef[actorToId.size()];
+		String[] ids = new String[actorToId.size()];
+		int index = 0;
+		for(Map.Entry<ActorRef,String> entry : actorToId.entrySet()){
+			refs[index] = entry.getKey();
+			ids[index] = entry.getValue();
+			index++;
+		}
+		return new RegistrySnapshot(refs, ids);
+	}
+	
+	public int size(){
+		return ids.length;
+	}
+	
+	public ActorRef refAt(int index){
+		return refs.keyAt(index);
+	}
+	
+	public String idAt(int index){
+		return ids[index];
+	}
+	
+	//The index of a reference, or ActorRegistry.NO_SLOT if it isn't in the snapshot
+	public int indexOf(ActorRef ref){
+		return refs.slotOf(ref);
+	}
+}
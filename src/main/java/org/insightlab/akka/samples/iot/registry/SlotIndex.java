@@ -0,0 +1,140 @@
+package org.insightlab.akka.samples.iot.registry;
+
+import java.util.Arrays;
+
+//Index from a key to the int slot where its owner keeps the data of the key.
+//The keys are stored in an array indexed by the slot, and an open addressing
+//table of slots, kept at most half full and with linear probing, finds the
+//slot of a key. A removal shifts the next entries of its probe sequence back,
+//so no tombstone is needed and nothing is allocated per entry.
+//The owner chooses the slots, so they can stay dense or be reused.
+//It is shared by the registries, the caches and the subscriptions
+public final class SlotIndex<K> {
+	//Marks an empty position of the table and an unknown key
+	public static final int NO_SLOT = -1;
+	
+	private Object[] keys;
+	private int[] table;
+	private int size = 0;
+	
+	public SlotIndex(int expectedSize){
+		int slots = Math.max(expectedSize, 4);
+		keys = new Object[slots];
+		table = emptyTable(tableSizeFor(slots));
+	}
+	
+	public int size(){
+		return size;
+	}
+	
+	//The key of a slot, or null if the slot isn't used
+	@SuppressWarnings("unchecked")
+	public K keyAt(int slot){
+		return slot < keys.length ? (K) keys[slot] : null;
+	}
+	
+	public int slotOf(Object key){
+		int mask = table.length - 1;
+		for(int i = mix(key.hashCode()) & mask; table[i] != NO_SLOT; i = (i + 1) & mask){
+			if(keys[table[i]].equals(key)) return table[i];
+		}
+		return NO_SLOT;
+	}
+	
+	//Method to index a key that isn't indexed yet, in a slot that isn't used
+	public void put(K key, int slot){
+		if(slot >= keys.length){
+			keys = Arrays.copyOf(keys, Math.max(keys.length * 2, slot + 1));
+		}
+		if(size + 1 > table.length / 2){
+			rehash(table.length * 2);
+		}
+		keys[slot] = key;
+		insert(table, slot, mix(key.hashCode()));
+		size++;
+	}
+	
+	//Method to remove a key. It returns its slot, or NO_SLOT if it wasn't indexed
+	public int remove(Object key){
+		int slot = slotOf(key);
+		if(slot != NO_SLOT) removeSlot(slot);
+		return slot;
+	}
+	
+	//Method to remove the key of a used slot. The next entries of the probe
+	//sequence are shifted back into the hole
+	public void removeSlot(int slot){
+		int mask = table.length - 1;
+		int hole = positionOf(slot);
+		for(int i = (hole + 1) & mask; table[i] != NO_SLOT; i = (i + 1) & mask){
+			int home = mix(keys[table[i]].hashCode()) & mask;
+			//The entry moves only if its home isn't between the hole and its position
+			boolean stays = hole <= i ? (hole < home && home <= i) : (hole < home || home <= i);
+			if(!stays){
+				table[hole] = table[i];
+				hole = i;
+			}
+		}
+		table[hole] = NO_SLOT;
+		keys[slot] = null;
+		size--;
+	}
+	
+	//Method to remove every key, keeping the memory for the next ones
+	public void clear(){
+		Arrays.fill(table, NO_SLOT);
+		Arrays.fill(keys, null);
+		size = 0;
+	}
+	
+	//Method to move the key of a used slot to a slot that isn't used
+	public void move(int from, int to){
+		table[positionOf(from)] = to;
+		if(to >= keys.length){
+			keys = Arrays.copyOf(keys, Math.max(keys.length * 2, to + 1));
+		}
+		keys[to] = keys[from];
+		keys[from] = null;
+	}
+	
+	//Position of a used slot in the table, found from its key
+	private int positionOf(int slot){
+		int mask = table.length - 1;
+		int i = mix(keys[slot].hashCode()) & mask;
+		while(table[i] != slot) i = (i + 1) & mask;
+		return i;
+	}
+	
+	private void rehash(int length){
+		int[] rehashed = emptyTable(length);
+		for(int slot = 0; slot < keys.length; slot++){
+			if(keys[slot] != null) insert(rehashed, slot, mix(keys[slot].hashCode()));
+		}
+		table = rehashed;
+	}
+	
+	private static void insert(int[] table, int slot, int hash){
+		int mask = table.length - 1;
+		int i = hash & mask;
+		while(table[i] != NO_SLOT) i = (i + 1) & mask;
+		table[i] = slot;
+	}
+	
+	private static int[] emptyTable(int length){
+		int[] table = new int[length];
+		Arrays.fill(table, NO_SLOT);
+		return table;
+	}
+	
+	private static int tableSizeFor(int entries){
+		int length = 8;
+		while(length < entries * 2) length <<= 1;
+		return length;
+	}
+	
+	//Spreads the bits of a hash code, since the table uses only the low bits
+	private static int mix(int hash){
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,864 @@
+package org.insightlab.akka.samples.iot.serialization;
+
+import java.io.NotSerializableException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.insightlab.akka.samples.iot.actors.DeviceGroup.ReplyDeviceList;
+import org.insightlab.akka.samples.iot.actors.DeviceGroup.RequestDeviceList;
+import org.insightlab.akka.samples.iot.alerting.AlertRule;
+import org.insightlab.akka.samples.iot.messages.alerting.AddAlertRule;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertCleared;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertRaised;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertRulesUpdated;
+import org.insightlab.akka.samples.iot.messages.alerting.RemoveAlertRule;
+import org.insightlab.akka.samples.iot.messages.alerting.SubscribeAlerts;
+import org.insightlab.akka.samples.iot.messages.registration.DeviceRegistred;
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.routing.GroupEnvelope;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscribeDevice;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscribeGroup;
+import org.insightlab.akka.samples.iot.messages.subscription.Subscribed;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscriptionEnded;
+import org.insightlab.akka.samples.iot.messages.subscription.TemperatureUpdates;
+import org.insightlab.akka.samples.iot.messages.subscription.Unsubscribe;
+import org.insightlab.akka.samples.iot.messages.temperature.PushTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadRollups;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperatureHistory;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperatureRange;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperatureBatch;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestCachedTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestGroupStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestTemperatureStream;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondCachedTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondGroupStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondRollups;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperatureRange;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureBatchRecorded;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureChunk;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRecorded;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRejected;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureStreamCompleted;
+import org.insightlab.akka.samples.iot.states.temperature.DeviceNotAvailable;
+import org.insightlab.akka.samples.iot.states.temperature.DeviceTimedOut;
+import org.insightlab.akka.samples.iot.states.temperature.Temperature;
+import org.insightlab.akka.samples.iot.states.temperature.TemperatureNotAvailable;
+import org.insightlab.akka.samples.iot.states.temperature.TemperatureReading;
+import org.insightlab.akka.samples.iot.statistics.TemperatureStatistics;
+
+import akka.serialization.SerializerWithStringManifest;
+import scala.concurrent.duration.FiniteDuration;
+
+//Serializer of the IoT messages and temperature readings, bound to them in
+//reference.conf. Each type has a short manifest and a hand-written layout
+//(see WireWriter), which is much smaller and faster than Java serialization.
+//A DeviceEnvelope or GroupEnvelope carries its message with the same format,
+//so it must be one of the types of this serializer too
+public final class IotSerializer extends SerializerWithStringManifest {
+	public static final int IDENTIFIER = 3417;
+	
+	//Manifest of each type
+	static final String REQUEST_TRACK_DEVICE = "td";
+	static final String DEVICE_REGISTRED = "dr";
+	static final String DEVICE_ENVELOPE = "de";
+	static final String GROUP_ENVELOPE = "ge";
+	static final String READ_TEMPERATURE = "rt";
+	static final String READ_TEMPERATURE_HISTORY = "rh";
+	static final String READ_TEMPERATURE_RANGE = "rr";
+	static final String READ_ROLLUPS = "ru";
+	static final String RECORD_TEMPERATURE = "wt";
+	static final String RECORD_TEMPERATURE_BATCH = "wb";
+	static final String PUSH_TEMPERATURE = "wp";
+	static final String TEMPERATURE_RECORDED = "wr";
+	static final String TEMPERATURE_REJECTED = "wj";
+	static final String TEMPERATURE_BATCH_RECORDED = "br";
+	static final String REQUEST_ALL_TEMPERATURES = "qt";
+	static final String REQUEST_TEMPERATURE_STREAM = "qz";
+	static final String REQUEST_CACHED_TEMPERATURES = "qc";
+	static final String REQUEST_GROUP_STATISTICS = "qs";
+	static final String REQUEST_ALL_GROUPS_TEMPERATURES = "qgt";
+	static final String REQUEST_ALL_GROUPS_STATISTICS = "qgs";
+	static final String REQUEST_DEVICE_LIST = "ql";
+	static final String RESPOND_TEMPERATURE = "at";
+	static final String RESPOND_TEMPERATURE_RANGE = "ar";
+	static final String RESPOND_ROLLUPS = "au";
+	static final String RESPOND_ALL_TEMPERATURES = "aa";
+	static final String TEMPERATURE_CHUNK = "az";
+	static final String TEMPERATURE_STREAM_COMPLETED = "azc";
+	static final String RESPOND_CACHED_TEMPERATURES = "ac";
+	static final String RESPOND_GROUP_STATISTICS = "as";
+	static final String RESPOND_ALL_GROUPS_TEMPERATURES = "agt";
+	static final String RESPOND_ALL_GROUPS_STATISTICS = "ags";
+	static final String REPLY_DEVICE_LIST = "al";
+	static final String SUBSCRIBE_GROUP = "sg";
+	static final String SUBSCRIBE_DEVICE = "sd";
+	static final String SUBSCRIBED = "ss";
+	static final String UNSUBSCRIBE = "su";
+	static final String SUBSCRIPTION_ENDED = "se";
+	static final String TEMPERATURE_UPDATES = "tu";
+	static final String ADD_ALERT_RULE = "la";
+	static final String REMOVE_ALERT_RULE = "lr";
+	static final String ALERT_RULES_UPDATED = "lu";
+	static final String SUBSCRIBE_ALERTS = "ls";
+	static final String ALERT_RAISED = "lh";
+	static final String ALERT_CLEARED = "lc";
+	static final String TEMPERATURE = "t";
+	static final String TEMPERATURE_NOT_AVAILABLE = "tn";
+	static final String DEVICE_NOT_AVAILABLE = "dn";
+	static final String DEVICE_TIMED_OUT = "do";
+	
+	//Tag of each TemperatureReading inside the answers
+	private static final byte TAG_TEMPERATURE = 0;
+	private static final byte TAG_TEMPERATURE_NOT_AVAILABLE = 1;
+	private static final byte TAG_DEVICE_NOT_AVAILABLE = 2;
+	private static final byte TAG_DEVICE_TIMED_OUT = 3;
+	
+	private static final Map<Class<?>, String> MANIFESTS = new HashMap<>();
+	static{
+		MANIFESTS.put(RequestTrackDevice.class, REQUEST_TRACK_DEVICE);
+		MANIFESTS.put(DeviceRegistred.class, DEVICE_REGISTRED);
+		MANIFESTS.put(DeviceEnvelope.class, DEVICE_ENVELOPE);
+		MANIFESTS.put(GroupEnvelope.class, GROUP_ENVELOPE);
+		MANIFESTS.put(ReadTemperature.class, READ_TEMPERATURE);
+		MANIFESTS.put(ReadTemperatureHistory.class, READ_TEMPERATURE_HISTORY);
+		MANIFESTS.put(ReadTemperatureRange.class, READ_TEMPERATURE_RANGE);
+		MANIFESTS.put(ReadRollups.class, READ_ROLLUPS);
+		MANIFESTS.put(RecordTemperature.class, RECORD_TEMPERATURE);
+		MANIFESTS.put(RecordTemperatureBatch.class, RECORD_TEMPERATURE_BATCH);
+		MANIFESTS.put(PushTemperature.class, PUSH_TEMPERATURE);
+		MANIFESTS.put(TemperatureRecorded.class, TEMPERATURE_RECORDED);
+		MANIFESTS.put(TemperatureRejected.class, TEMPERATURE_REJECTED);
+		MANIFESTS.put(TemperatureBatchRecorded.class, TEMPERATURE_BATCH_RECORDED);
+		MANIFESTS.put(RequestAllTemperatures.class, REQUEST_ALL_TEMPERATURES);
+		MANIFESTS.put(RequestTemperatureStream.class, REQUEST_TEMPERATURE_STREAM);
+		MANIFESTS.put(RequestCachedTemperatures.class, REQUEST_CACHED_TEMPERATURES);
+		MANIFESTS.put(RequestGroupStatistics.class, REQUEST_GROUP_STATISTICS);
+		MANIFESTS.put(RequestAllGroupsTemperatures.class, REQUEST_ALL_GROUPS_TEMPERATURES);
+		MANIFESTS.put(RequestAllGroupsStatistics.class, REQUEST_ALL_GROUPS_STATISTICS);
+		MANIFESTS.put(RequestDeviceList.class, REQUEST_DEVICE_LIST);
+		MANIFESTS.put(RespondTemperature.class, RESPOND_TEMPERATURE);
+		MANIFESTS.put(RespondTemperatureRange.class, RESPOND_TEMPERATURE_RANGE);
+		MANIFESTS.put(RespondRollups.class, RESPOND_ROLLUPS);
+		MANIFESTS.put(RespondAllTemperatures.class, RESPOND_ALL_TEMPERATURES);
+		MANIFESTS.put(TemperatureChunk.class, TEMPERATURE_CHUNK);
+		MANIFESTS.put(TemperatureStreamCompleted.class, TEMPERATURE_STREAM_COMPLETED);
+		MANIFESTS.put(RespondCachedTemperatures.class, RESPOND_CACHED_TEMPERATURES);
+		MANIFESTS.put(RespondGroupStatistics.class, RESPOND_GROUP_STATISTICS);
+		MANIFESTS.put(RespondAllGroupsTemperatures.class, RESPOND_ALL_GROUPS_TEMPERATURES);
+		MANIFESTS.put(RespondAllGroupsStatistics.class, RESPOND_ALL_GROUPS_STATISTICS);
+		MANIFESTS.put(ReplyDeviceList.class, REPLY_DEVICE_LIST);
+		MANIFESTS.put(SubscribeGroup.class, SUBSCRIBE_GROUP);
+		MANIFESTS.put(SubscribeDevice.class, SUBSCRIBE_DEVICE);
+		MANIFESTS.put(Subscribed.class, SUBSCRIBED);
+		MANIFESTS.put(Unsubscribe.class, UNSUBSCRIBE);
+		MANIFESTS.put(SubscriptionEnded.class, SUBSCRIPTION_ENDED);
+		MANIFESTS.put(TemperatureUpdates.class, TEMPERATURE_UPDATES);
+		MANIFESTS.put(AddAlertRule.class, ADD_ALERT_RULE);
+		MANIFESTS.put(RemoveAlertRule.class, REMOVE_ALERT_RULE);
+		MANIFESTS.put(AlertRulesUpdated.class, ALERT_RULES_UPDATED);
+		MANIFESTS.put(SubscribeAlerts.class, SUBSCRIBE_ALERTS);
+		MANIFESTS.put(AlertRaised.class, ALERT_RAISED);
+		MANIFESTS.put(AlertCleared.class, ALERT_CLEARED);
+		MANIFESTS.put(Temperature.class, TEMPERATURE);
+		MANIFESTS.put(TemperatureNotAvailable.class, TEMPERATURE_NOT_AVAILABLE);
+		MANIFESTS.put(DeviceNotAvailable.class, DEVICE_NOT_AVAILABLE);
+		MANIFESTS.put(DeviceTimedOut.class, DEVICE_TIMED_OUT);
+	}
+	
+	@Override
+	public int identifier(){
+		return IDENTIFIER;
+	}
+	
+	@Override
+	public String manifest(Object o){
+		String manifest = MANIFESTS.get(o.getClass());
+		if(manifest == null)
+			throw new IllegalArgumentException("Can't serialize objects of " + o.getClass());
+		
+		return manifest;
+	}
+	
+	@Override
+	public byte[] toBinary(Object o){
+		WireWriter out = new WireWriter(32);
+		write(o, manifest(o), out);
+		return out.toByteArray();
+	}
+	
+	@Override
+	public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+		WireReader in = new WireReader(bytes);
+		Object o = read(manifest, in);
+		if(!in.finished())
+			throw new NotSerializableException("Unexpected bytes after " + manifest);
+		
+		return o;
+	}
+	
+	//Method to write the fields of a message, in the order they are read
+	private static void write(Object o, String manifest, WireWriter out){
+		switch(manifest){
+			case REQUEST_TRACK_DEVICE:{
+				RequestTrackDevice m = (RequestTrackDevice) o;
+				out.writeString(m.groupId);
+				out.writeString(m.deviceId);
+				break;
+			}
+			case DEVICE_REGISTRED:
+			case TEMPERATURE_NOT_AVAILABLE:
+			case DEVICE_NOT_AVAILABLE:
+			case DEVICE_TIMED_OUT:
+				break;
+			case DEVICE_ENVELOPE:{
+				DeviceEnvelope m = (DeviceEnvelope) o;
+				out.writeString(m.groupId);
+				out.writeString(m.deviceId);
+				writeEnvelopedMessage(m.message, out);
+				break;
+			}
+			case GROUP_ENVELOPE:{
+				GroupEnvelope m = (GroupEnvelope) o;
+				out.writeString(m.groupId);
+				writeEnvelopedMessage(m.message, out);
+				break;
+			}
+			case READ_TEMPERATURE:
+				out.writeLong(((ReadTemperature) o).requestId);
+				break;
+			case READ_TEMPERATURE_HISTORY:{
+				ReadTemperatureHistory m = (ReadTemperatureHistory) o;
+				out.writeLong(m.requestId);
+				out.writeString(m.deviceId);
+				out.writeLong(m.from);
+				out.writeLong(m.to);
+				break;
+			}
+			case READ_TEMPERATURE_RANGE:{
+				ReadTemperatureRange m = (ReadTemperatureRange) o;
+				out.writeLong(m.requestId);
+				out.writeLong(m.from);
+				out.writeLong(m.to);
+				break;
+			}
+			case READ_ROLLUPS:{
+				ReadRollups m = (ReadRollups) o;
+				out.writeLong(m.requestId);
+				out.writeCount(m.resolution.ordinal());
+				out.writeLong(m.from);
+				out.writeLong(m.to);
+				break;
+			}
+			case RECORD_TEMPERATURE:{
+				RecordTemperature m = (RecordTemperature) o;
+				out.writeLong(m.requestId);
+				out.writeDouble(m.value);
+				out.writeLong(m.timestamp);
+				break;
+			}
+			case RECORD_TEMPERATURE_BATCH:{
+				RecordTemperatureBatch m = (RecordTemperatureBatch) o;
+				out.writeLong(m.requestId);
+				out.writeStrings(m.deviceIds);
+				out.writeDoubles(m.values);
+				out.writeDeltas(m.timestamps);
+				break;
+			}
+			case PUSH_TEMPERATURE:{
+				PushTemperature m = (PushTemperature) o;
+				out.writeDouble(m.value);
+				out.writeLong(m.timestamp);
+				break;
+			}
+			case TEMPERATURE_RECORDED:
+				out.writeLong(((TemperatureRecorded) o).requestId);
+				break;
+			case TEMPERATURE_REJECTED:
+				out.writeLong(((TemperatureRejected) o).requestId);
+				break;
+			case TEMPERATURE_BATCH_RECORDED:{
+				TemperatureBatchRecorded m = (TemperatureBatchRecorded) o;
+				out.writeLong(m.requestId);
+				out.writeCount(m.outcomes.length);
+				out.writeBytes(m.outcomes);
+				break;
+			}
+			case REQUEST_ALL_TEMPERATURES:{
+				RequestAllTemperatures m = (RequestAllTemperatures) o;
+				out.writeLong(m.requestId);
+				out.writeLong(m.timeout.toNanos());
+				out.writeDouble(m.completeness);
+				out.writeLong(m.quorum);
+				break;
+			}
+			case REQUEST_TEMPERATURE_STREAM:{
+				RequestTemperatureStream m = (RequestTemperatureStream) o;
+				out.writeLong(m.requestId);
+				out.writeCount(m.chunkSize);
+				out.writeLong(m.timeout.toNanos());
+				break;
+			}
+			case REQUEST_CACHED_TEMPERATURES:
+				out.writeLong(((RequestCachedTemperatures) o).requestId);
+				break;
+			case REQUEST_GROUP_STATISTICS:{
+				RequestGroupStatistics m = (RequestGroupStatistics) o;
+				out.writeLong(m.requestId);
+				out.writeLong(m.timeout.toNanos());
+				break;
+			}
+			case REQUEST_ALL_GROUPS_TEMPERATURES:{
+				RequestAllGroupsTemperatures m = (RequestAllGroupsTemperatures) o;
+				out.writeLong(m.requestId);
+				writeGroupFilter(m.groupIds, out);
+				break;
+			}
+			case REQUEST_ALL_GROUPS_STATISTICS:{
+				RequestAllGroupsStatistics m = (RequestAllGroupsStatistics) o;
+				out.writeLong(m.requestId);
+				writeGroupFilter(m.groupIds, out);
+				break;
+			}
+			case RESPOND_TEMPERATURE:{
+				RespondTemperature m = (RespondTemperature) o;
+				out.writeLong(m.requestId);
+				out.writeBoolean(m.value.isPresent());
+				if(m.value.isPresent()) out.writeDouble(m.value.get());
+				break;
+			}
+			case RESPOND_TEMPERATURE_RANGE:{
+				RespondTemperatureRange m = (RespondTemperatureRange) o;
+				out.writeLong(m.requestId);
+				out.writeDeltas(m.timestamps);
+				out.writeDoubles(m.values);
+				break;
+			}
+			case RESPOND_ROLLUPS:{
+				RespondRollups m = (RespondRollups) o;
+				out.writeLong(m.requestId);
+				out.writeDeltas(m.starts);
+				out.writeDeltas(m.counts);
+				out.writeDoubles(m.mins);
+				out.writeDoubles(m.maxs);
+				out.writeDoubles(m.means);
+				break;
+			}
+			case RESPOND_ALL_TEMPERATURES:{
+				RespondAllTemperatures m = (RespondAllTemperatures) o;
+				out.writeLong(m.requestId);
+				writeReadings(m.temperatures, out);
+				break;
+			}
+			case TEMPERATURE_CHUNK:{
+				TemperatureChunk m = (TemperatureChunk) o;
+				out.writeLong(m.requestId);
+				out.writeCount(m.sequenceNr);
+				writeReadings(m.temperatures, out);
+				break;
+			}
+			case TEMPERATURE_STREAM_COMPLETED:{
+				TemperatureStreamCompleted m = (TemperatureStreamCompleted) o;
+				out.writeLong(m.requestId);
+				out.writeCount(m.chunks);
+				writeSet(m.timedOutDevices, out);
+				writeSet(m.unavailableDevices, out);
+				break;
+			}
+			case RESPOND_CACHED_TEMPERATURES:{
+				RespondCachedTemperatures m = (RespondCachedTemperatures) o;
+				out.writeLong(m.requestId);
+				out.writeStrings(m.deviceIds);
+				out.writeDoubles(m.values);
+				out.writeDeltas(m.timestamps);
+				break;
+			}
+			case RESPOND_GROUP_STATISTICS:{
+				RespondGroupStatistics m = (RespondGroupStatistics) o;
+				out.writeLong(m.requestId);
+				writeStatistics(m.statistics, out);
+				break;
+			}
+			case RESPOND_ALL_GROUPS_TEMPERATURES:{
+				RespondAllGroupsTemperatures m = (RespondAllGroupsTemperatures) o;
+				out.writeLong(m.requestId);
+				out.writeCount(m.temperatures.size());
+				for(Map.Entry<String, Map<String, TemperatureReading>> entry : m.temperatures.entrySet()){
+					out.writeString(entry.getKey());
+					writeReadings(entry.getValue(), out);
+				}
+				writeSet(m.missingGroups, out);
+				break;
+			}
+			case RESPOND_ALL_GROUPS_STATISTICS:{
+				RespondAllGroupsStatistics m = (RespondAllGroupsStatistics) o;
+				out.writeLong(m.requestId);
+				writeStatistics(m.statistics, out);
+				writeSet(m.missingGroups, out);
+				break;
+			}
+			case REQUEST_DEVICE_LIST:
+				out.writeLong(((RequestDeviceList) o).requestId);
+				break;
+			case REPLY_DEVICE_LIST:{
+				ReplyDeviceList m = (ReplyDeviceList) o;
+				out.writeLong(m.requestId);
+				writeSet(m.ids, out);
+				break;
+			}
+			case SUBSCRIBE_GROUP:{
+				SubscribeGroup m = (SubscribeGroup) o;
+				out.writeLong(m.requestId);
+				writeConflation(m.conflation, out);
+				break;
+			}
+			case SUBSCRIBE_DEVICE:{
+				SubscribeDevice m = (SubscribeDevice) o;
+				out.writeLong(m.requestId);
+				out.writeString(m.deviceId);
+				writeConflation(m.conflation, out);
+				break;
+			}
+			case SUBSCRIBED:
+				out.writeLong(((Subscribed) o).requestId);
+				break;
+			case UNSUBSCRIBE:
+				out.writeLong(((Unsubscribe) o).requestId);
+				break;
+			case SUBSCRIPTION_ENDED:
+				out.writeLong(((SubscriptionEnded) o).requestId);
+				break;
+			case TEMPERATURE_UPDATES:{
+				TemperatureUpdates m = (TemperatureUpdates) o;
+				out.writeLong(m.requestId);
+				out.writeString(m.groupId);
+				out.writeStrings(m.deviceIds);
+				out.writeDoubles(m.values);
+				out.writeDeltas(m.timestamps);
+				break;
+			}
+			case ADD_ALERT_RULE:{
+				AddAlertRule m = (AddAlertRule) o;
+				out.writeLong(m.requestId);
+				writeRule(m.rule, out);
+				break;
+			}
+			case REMOVE_ALERT_RULE:{
+				RemoveAlertRule m = (RemoveAlertRule) o;
+				out.writeLong(m.requestId);
+				out.writeString(m.ruleId);
+				break;
+			}
+			case ALERT_RULES_UPDATED:{
+				AlertRulesUpdated m = (AlertRulesUpdated) o;
+				out.writeLong(m.requestId);
+				out.writeCount(m.rules);
+				break;
+			}
+			case SUBSCRIBE_ALERTS:
+				out.writeLong(((SubscribeAlerts) o).requestId);
+				break;
+			case ALERT_RAISED:{
+				AlertRaised m = (AlertRaised) o;
+				writeAlert(m.groupId, m.ruleId, m.deviceId, m.value, m.timestamp, out);
+				break;
+			}
+			case ALERT_CLEARED:{
+				AlertCleared m = (AlertCleared) o;
+				writeAlert(m.groupId, m.ruleId, m.deviceId, m.value, m.timestamp, out);
+				break;
+			}
+			case TEMPERATURE:
+				out.writeDouble(((Temperature) o).value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown manifest " + manifest);
+		}
+	}
+	
+	//Method to read a message written by write
+	private static Object read(String manifest, WireReader in) throws NotSerializableException {
+		switch(manifest){
+			case REQUEST_TRACK_DEVICE:
+				return new RequestTrackDevice(in.readString(), in.readString());
+			case DEVICE_REGISTRED:
+				return new DeviceRegistred();
+			case DEVICE_ENVELOPE:{
+				String groupId = in.readString();
+				String deviceId = in.readString();
+				return new DeviceEnvelope(groupId, deviceId, readEnvelopedMessage(in));
+			}
+			case GROUP_ENVELOPE:{
+				String groupId = in.readString();
+				return new GroupEnvelope(groupId, readEnvelopedMessage(in));
+			}
+			case READ_TEMPERATURE:
+				return new ReadTemperature(in.readLong());
+			case READ_TEMPERATURE_HISTORY:
+				return new ReadTemperatureHistory(in.readLong(), in.readString(), in.readLong(), in.readLong());
+			case READ_TEMPERATURE_RANGE:
+				return new ReadTemperatureRange(in.readLong(), in.readLong(), in.readLong());
+			case READ_ROLLUPS:{
+				long requestId = in.readLong();
+				int resolution = in.readCount();
+				if(resolution >= ReadRollups.Resolution.values().length)
+					throw new NotSerializableException("Unknown rollup resolution " + resolution);
+				
+				long from = in.readLong();
+				return new ReadRollups(requestId, ReadRollups.Resolution.values()[resolution], from, in.readLong());
+			}
+			case RECORD_TEMPERATURE:{
+				long requestId = in.readLong();
+				double value = in.readDouble();
+				return new RecordTemperature(requestId, value, in.readLong());
+			}
+			case PUSH_TEMPERATURE:{
+				double value = in.readDouble();
+				return new PushTemperature(value, in.readLong());
+			}
+			case RECORD_TEMPERATURE_BATCH:{
+				long requestId = in.readLong();
+				String[] deviceIds = in.readStrings();
+				double[] values = in.readDoubles();
+				long[] timestamps = in.readDeltas();
+				try{
+					return new RecordTemperatureBatch(requestId, deviceIds, values, timestamps);
+				} catch(IllegalArgumentException e){
+					throw new NotSerializableException(e.getMessage());
+				}
+			}
+			case TEMPERATURE_RECORDED:
+				return new TemperatureRecorded(in.readLong());
+			case TEMPERATURE_REJECTED:
+				return new TemperatureRejected(in.readLong());
+			case TEMPERATURE_BATCH_RECORDED:{
+				long requestId = in.readLong();
+				byte[] outcomes = new byte[in.readCount()];
+				for(int i = 0; i < outcomes.length; i++){
+					outcomes[i] = in.readByte();
+				}
+				return new TemperatureBatchRecorded(requestId, outcomes);
+			}
+			case REQUEST_ALL_TEMPERATURES:{
+				long requestId = in.readLong();
+				FiniteDuration timeout = new FiniteDuration(in.readLong(), TimeUnit.NANOSECONDS);
+				double completeness = in.readDouble();
+				int quorum = (int) in.readLong();
+				return quorum == RequestAllTemperatures.NO_QUORUM
+						? new RequestAllTemperatures(requestId, timeout, completeness)
+						: RequestAllTemperatures.quorum(requestId, timeout, quorum);
+			}
+			case REQUEST_TEMPERATURE_STREAM:{
+				long requestId = in.readLong();
+				int chunkSize = in.readCount();
+				return new RequestTemperatureStream(requestId, chunkSize,
+						new FiniteDuration(in.readLong(), TimeUnit.NANOSECONDS));
+			}
+			case REQUEST_CACHED_TEMPERATURES:
+				return new RequestCachedTemperatures(in.readLong());
+			case REQUEST_GROUP_STATISTICS:{
+				long requestId = in.readLong();
+				return new RequestGroupStatistics(requestId, new FiniteDuration(in.readLong(), TimeUnit.NANOSECONDS));
+			}
+			case REQUEST_ALL_GROUPS_TEMPERATURES:{
+				long requestId = in.readLong();
+				Optional<Set<String>> groupIds = readGroupFilter(in);
+				return groupIds.isPresent() ? new RequestAllGroupsTemperatures(requestId, groupIds.get())
+						: new RequestAllGroupsTemperatures(requestId);
+			}
+			case REQUEST_ALL_GROUPS_STATISTICS:{
+				long requestId = in.readLong();
+				Optional<Set<String>> groupIds = readGroupFilter(in);
+				return groupIds.isPresent() ? new RequestAllGroupsStatistics(requestId, groupIds.get())
+						: new RequestAllGroupsStatistics(requestId);
+			}
+			case RESPOND_TEMPERATURE:{
+				long requestId = in.readLong();
+				Optional<Double> value = in.readBoolean() ? Optional.of(in.readDouble()) : Optional.empty();
+				return new RespondTemperature(requestId, value);
+			}
+			case RESPOND_TEMPERATURE_RANGE:
+				return new RespondTemperatureRange(in.readLong(), in.readDeltas(), in.readDoubles());
+			case RESPOND_ROLLUPS:{
+				long requestId = in.readLong();
+				long[] starts = in.readDeltas();
+				long[] counts = in.readDeltas();
+				double[] mins = in.readDoubles();
+				double[] maxs = in.readDoubles();
+				return new RespondRollups(requestId, starts, counts, mins, maxs, in.readDoubles());
+			}
+			case RESPOND_ALL_TEMPERATURES:
+				return new RespondAllTemperatures(in.readLong(), readReadings(in));
+			case TEMPERATURE_CHUNK:{
+				long requestId = in.readLong();
+				int sequenceNr = in.readCount();
+				return new TemperatureChunk(requestId, sequenceNr, readReadings(in));
+			}
+			case TEMPERATURE_STREAM_COMPLETED:{
+				long requestId = in.readLong();
+				int chunks = in.readCount();
+				Set<String> timedOut = readSet(in);
+				return new TemperatureStreamCompleted(requestId, chunks, timedOut, readSet(in));
+			}
+			case RESPOND_CACHED_TEMPERATURES:
+				return new RespondCachedTemperatures(in.readLong(), in.readStrings(), in.readDoubles(), in.readDeltas());
+			case RESPOND_GROUP_STATISTICS:
+				return new RespondGroupStatistics(in.readLong(), readStatistics(in));
+			case RESPOND_ALL_GROUPS_TEMPERATURES:{
+				long requestId = in.readLong();
+				int groups = in.readCount();
+				Map<String, Map<String, TemperatureReading>> temperatures = new HashMap<>(capacityFor(groups));
+				for(int i = 0; i < groups; i++){
+					temperatures.put(in.readString(), readReadings(in));
+				}
+				return new RespondAllGroupsTemperatures(requestId, temperatures, readSet(in));
+			}
+			case RESPOND_ALL_GROUPS_STATISTICS:
+				return new RespondAllGroupsStatistics(in.readLong(), readStatistics(in), readSet(in));
+			case REQUEST_DEVICE_LIST:
+				return new RequestDeviceList(in.readLong());
+			case REPLY_DEVICE_LIST:
+				return new ReplyDeviceList(in.readLong(), readSet(in));
+			case SUBSCRIBE_GROUP:
+				return new SubscribeGroup(in.readLong(), readConflation(in));
+			case SUBSCRIBE_DEVICE:{
+				long requestId = in.readLong();
+				String deviceId = in.readString();
+				return new SubscribeDevice(requestId, deviceId, readConflation(in));
+			}
+			case SUBSCRIBED:
+				return new Subscribed(in.readLong());
+			case UNSUBSCRIBE:
+				return new Unsubscribe(in.readLong());
+			case SUBSCRIPTION_ENDED:
+				return new SubscriptionEnded(in.readLong());
+			case TEMPERATURE_UPDATES:{
+				long requestId = in.readLong();
+				String groupId = in.readString();
+				String[] deviceIds = in.readStrings();
+				double[] values = in.readDoubles();
+				return new TemperatureUpdates(requestId, groupId, deviceIds, values, in.readDeltas());
+			}
+			case ADD_ALERT_RULE:
+				return new AddAlertRule(in.readLong(), readRule(in));
+			case REMOVE_ALERT_RULE:
+				return new RemoveAlertRule(in.readLong(), in.readString());
+			case ALERT_RULES_UPDATED:
+				return new AlertRulesUpdated(in.readLong(), in.readCount());
+			case SUBSCRIBE_ALERTS:
+				return new SubscribeAlerts(in.readLong());
+			case ALERT_RAISED:{
+				String groupId = in.readString();
+				String ruleId = in.readString();
+				Optional<String> deviceId = in.readBoolean() ? Optional.of(in.readString()) : Optional.empty();
+				double value = in.readDouble();
+				return new AlertRaised(groupId, ruleId, deviceId, value, in.readLong());
+			}
+			case ALERT_CLEARED:{
+				String groupId = in.readString();
+				String ruleId = in.readString();
+				Optional<String> deviceId = in.readBoolean() ? Optional.of(in.readString()) : Optional.empty();
+				double value = in.readDouble();
+				return new AlertCleared(groupId, ruleId, deviceId, value, in.readLong());
+			}
+			case TEMPERATURE:
+				return new Temperature(in.readDouble());
+			case TEMPERATURE_NOT_AVAILABLE:
+				return new TemperatureNotAvailable();
+			case DEVICE_NOT_AVAILABLE:
+				return new DeviceNotAvailable();
+			case DEVICE_TIMED_OUT:
+				return new DeviceTimedOut();
+			default:
+				throw new NotSerializableException("Unknown manifest " + manifest);
+		}
+	}
+	
+	//The message of an envelope is its manifest followed by its fields.
+	//Envelopes inside envelopes are not allowed
+	private static void writeEnvelopedMessage(Object message, WireWriter out){
+		String manifest = MANIFESTS.get(message.getClass());
+		if(manifest == null || manifest.equals(DEVICE_ENVELOPE) || manifest.equals(GROUP_ENVELOPE))
+			throw new IllegalArgumentException("Can't serialize an envelope with " + message.getClass());
+		
+		out.writeString(manifest);
+		write(message, manifest, out);
+	}
+	
+	private static Object readEnvelopedMessage(WireReader in) throws NotSerializableException {
+		String manifest = in.readString();
+		if(manifest.equals(DEVICE_ENVELOPE) || manifest.equals(GROUP_ENVELOPE))
+			throw new NotSerializableException("Envelope inside an envelope");
+		
+		return read(manifest, in);
+	}
+	
+	//Each reading is a tag, followed by the value for a Temperature
+	private static void writeReadings(Map<String, TemperatureReading> readings, WireWriter out){
+		out.writeCount(readings.size());
+		for(Map.Entry<String, TemperatureReading> entry : readings.entrySet()){
+			out.writeString(entry.getKey());
+			TemperatureReading reading = entry.getValue();
+			if(reading instanceof Temperature){
+				out.writeByte(TAG_TEMPERATURE);
+				out.writeDouble(((Temperature) reading).value);
+			}
+			else if(reading instanceof TemperatureNotAvailable){
+				out.writeByte(TAG_TEMPERATURE_NOT_AVAILABLE);
+			}
+			else if(reading instanceof DeviceNotAvailable){
+				out.writeByte(TAG_DEVICE_NOT_AVAILABLE);
+			}
+			else if(reading instanceof DeviceTimedOut){
+				out.writeByte(TAG_DEVICE_TIMED_OUT);
+			}
+			else{
+				throw new IllegalArgumentException("Can't serialize readings of " + reading.getClass());
+			}
+		}
+	}
+	
+	private static Map<String, TemperatureReading> readReadings(WireReader in) throws NotSerializableException {
+		int size = in.readCount();
+		Map<String, TemperatureReading> readings = new HashMap<>(capacityFor(size));
+		for(int i = 0; i < size; i++){
+			String deviceId = in.readString();
+			byte tag = in.readByte();
+			switch(tag){
+				case TAG_TEMPERATURE:
+					readings.put(deviceId, new Temperature(in.readDouble()));
+					break;
+				case TAG_TEMPERATURE_NOT_AVAILABLE:
+					readings.put(deviceId, new TemperatureNotAvailable());
+					break;
+				case TAG_DEVICE_NOT_AVAILABLE:
+					readings.put(deviceId, new DeviceNotAvailable());
+					break;
+				case TAG_DEVICE_TIMED_OUT:
+					readings.put(deviceId, new DeviceTimedOut());
+					break;
+				default:
+					throw new NotSerializableException("Unknown reading tag " + tag);
+			}
+		}
+		return readings;
+	}
+	
+	//The bucket indexes are increasing, so they are written as deltas
+	private static void writeStatistics(TemperatureStatistics statistics, WireWriter out){
+		out.writeLong(statistics.count);
+		out.writeDouble(statistics.min);
+		out.writeDouble(statistics.max);
+		out.writeDouble(statistics.sum);
+		
+		int used = statistics.usedBuckets();
+		out.writeCount(used);
+		long previous = 0L;
+		for(int i = 0; i < used; i++){
+			out.writeLong(statistics.bucketAt(i) - previous);
+			out.writeLong(statistics.countAt(i));
+			previous = statistics.bucketAt(i);
+		}
+	}
+	
+	private static TemperatureStatistics readStatistics(WireReader in) throws NotSerializableException {
+		long count = in.readLong();
+		double min = in.readDouble();
+		double max = in.readDouble();
+		double sum = in.readDouble();
+		
+		int used = in.readCount();
+		long[] buckets = new long[used];
+		long[] bucketCounts = new long[used];
+		long previous = 0L;
+		for(int i = 0; i < used; i++){
+			previous += in.readLong();
+			buckets[i] = previous;
+			bucketCounts[i] = in.readLong();
+		}
+		return TemperatureStatistics.restore(count, min, max, sum, buckets, bucketCounts);
+	}
+	
+	private static void writeGroupFilter(Optional<Set<String>> groupIds, WireWriter out){
+		out.writeBoolean(groupIds.isPresent());
+		if(groupIds.isPresent()) writeSet(groupIds.get(), out);
+	}
+	
+	private static Optional<Set<String>> readGroupFilter(WireReader in) throws NotSerializableException {
+		return in.readBoolean() ? Optional.of(readSet(in)) : Optional.empty();
+	}
+	
+	//A conflation window is written in nanoseconds
+	private static void writeConflation(Optional<FiniteDuration> conflation, WireWriter out){
+		out.writeBoolean(conflation.isPresent());
+		if(conflation.isPresent()) out.writeLong(conflation.get().toNanos());
+	}
+	
+	private static Optional<FiniteDuration> readConflation(WireReader in) throws NotSerializableException {
+		return in.readBoolean() ? Optional.of(new FiniteDuration(in.readLong(), TimeUnit.NANOSECONDS)) : Optional.empty();
+	}
+	
+	//The kind of a rule is written as its position in AlertRule.Kind
+	private static void writeRule(AlertRule rule, WireWriter out){
+		out.writeString(rule.ruleId);
+		out.writeCount(rule.kind.ordinal());
+		out.writeDouble(rule.threshold);
+		out.writeDouble(rule.hysteresis);
+		out.writeCount(rule.minDevices);
+	}
+	
+	private static AlertRule readRule(WireReader in) throws NotSerializableException {
+		String ruleId = in.readString();
+		int kind = in.readCount();
+		if(kind >= AlertRule.Kind.values().length)
+			throw new NotSerializableException("Unknown alert rule kind " + kind);
+		
+		double threshold = in.readDouble();
+		double hysteresis = in.readDouble();
+		return AlertRule.restore(ruleId, AlertRule.Kind.values()[kind], threshold, hysteresis, in.readCount());
+	}
+	
+	private static void writeAlert(String groupId, String ruleId, Optional<String> deviceId,
+			double value, long timestamp, WireWriter out){
+		out.writeString(groupId);
+		out.writeString(ruleId);
+		out.writeBoolean(deviceId.isPresent());
+		if(deviceId.isPresent()) out.writeString(deviceId.get());
+		out.writeDouble(value);
+		out.writeLong(timestamp);
+	}
+	
+	private static void writeSet(Set<String> values, WireWriter out){
+		out.writeCount(values.size());
+		for(String value : values){
+			out.writeString(value);
+		}
+	}
+	
+	private static Set<String> readSet(WireReader in) throws NotSerializableException {
+		int size = in.readCount();
+		Set<String> values = new HashSet<>(capacityFor(size));
+		for(int i = 0; i < size; i++){
+			values.add(in.readString());
+		}
+		return values;
+	}
+	
+	//Initial capacity of a hash map that holds size entries without resizing
+	private static int capacityFor(int size){
+		return (int) (size / 0.75f) + 1;
+	}
+}
@@ -0,0 +1,102 @@
+package org.insightlab.akka.samples.iot.serialization;
+
+import java.io.NotSerializableException;
+import java.nio.charset.StandardCharsets;
+
+//Reads the wire format written by WireWriter. A truncated or corrupted
+//message gives a NotSerializableException, as expected by Akka
+final class WireReader {
+	private final byte[] buffer;
+	private int position = 0;
+	
+	WireReader(byte[] buffer){
+		this.buffer = buffer;
+	}
+	
+	byte readByte() throws NotSerializableException {
+		require(1);
+		return buffer[position++];
+	}
+	
+	boolean readBoolean() throws NotSerializableException {
+		return readByte() != 0;
+	}
+	
+	int readCount() throws NotSerializableException {
+		long value = readVarint();
+		if(value < 0 || value > Integer.MAX_VALUE)
+			throw new NotSerializableException("Invalid length " + value);
+		
+		return (int) value;
+	}
+	
+	long readLong() throws NotSerializableException {
+		long value = readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	double readDouble() throws NotSerializableException {
+		require(8);
+		long bits = 0L;
+		for(int i = 0; i < 8; i++){
+			bits = (bits << 8) | (buffer[position++] & 0xFF);
+		}
+		return Double.longBitsToDouble(bits);
+	}
+	
+	String readString() throws NotSerializableException {
+		int length = readCount();
+		require(length);
+		String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+		position += length;
+		return value;
+	}
+	
+	long[] readDeltas() throws NotSerializableException {
+		long[] values = new long[readCount()];
+		long previous = 0L;
+		for(int i = 0; i < values.length; i++){
+			previous += readLong();
+			values[i] = previous;
+		}
+		return values;
+	}
+	
+	double[] readDoubles() throws NotSerializableException {
+		int length = readCount();
+		require(length * 8L);
+		double[] values = new double[length];
+		for(int i = 0; i < length; i++){
+			values[i] = readDouble();
+		}
+		return values;
+	}
+	
+	String[] readStrings() throws NotSerializableException {
+		String[] values = new String[readCount()];
+		for(int i = 0; i < values.length; i++){
+			values[i] = readString();
+		}
+		return values;
+	}
+	
+	//True when every byte was read, so nothing was left behind
+	boolean finished(){
+		return position == buffer.length;
+	}
+	
+	private long readVarint() throws NotSerializableException {
+		long value = 0L;
+		for(int shift = 0; shift < 64; shift += 7){
+			byte b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return value;
+		}
+		throw new NotSerializableException("Invalid varint");
+	}
+	
+	private void require(long bytes) throws NotSerializableException {
+		if(position + bytes > buffer.length)
+			throw new NotSerializableException("Unexpected end of message");
+	}
+}
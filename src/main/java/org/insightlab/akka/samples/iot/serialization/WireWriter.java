@@ -0,0 +1,99 @@
+package org.insightlab.akka.samples.iot.serialization;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+//Growable buffer for the wire format of the IotSerializer. Counts and
+//lengths are unsigned varints, other longs are zigzag varints, so small
+//negative numbers stay small too, and doubles are fixed 64 bits
+final class WireWriter {
+	private byte[] buffer;
+	private int position = 0;
+	
+	WireWriter(int initialCapacity){
+		buffer = new byte[initialCapacity];
+	}
+	
+	void writeByte(int value){
+		ensure(1);
+		buffer[position++] = (byte) value;
+	}
+	
+	void writeBoolean(boolean value){
+		writeByte(value ? 1 : 0);
+	}
+	
+	//A count or a length, which is never negative
+	void writeCount(int value){
+		writeVarint(value & 0xFFFFFFFFL);
+	}
+	
+	void writeLong(long value){
+		writeVarint((value << 1) ^ (value >> 63));
+	}
+	
+	void writeDouble(double value){
+		ensure(8);
+		long bits = Double.doubleToRawLongBits(value);
+		for(int shift = 56; shift >= 0; shift -= 8){
+			buffer[position++] = (byte) (bits >>> shift);
+		}
+	}
+	
+	void writeString(String value){
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeCount(bytes.length);
+		writeBytes(bytes);
+	}
+	
+	void writeBytes(byte[] bytes){
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		position += bytes.length;
+	}
+	
+	//Timestamps are written as the difference to the previous one,
+	//which takes one or two bytes for readings close in time
+	void writeDeltas(long[] values){
+		writeCount(values.length);
+		long previous = 0L;
+		for(long value : values){
+			writeLong(value - previous);
+			previous = value;
+		}
+	}
+	
+	void writeDoubles(double[] values){
+		writeCount(values.length);
+		ensure(values.length * 8);
+		for(double value : values){
+			writeDouble(value);
+		}
+	}
+	
+	void writeStrings(String[] values){
+		writeCount(values.length);
+		for(String value : values){
+			writeString(value);
+		}
+	}
+	
+	byte[] toByteArray(){
+		return Arrays.copyOf(buffer, position);
+	}
+	
+	private void writeVarint(long value){
+		ensure(10);
+		while((value & ~0x7FL) != 0){
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+	
+	private void ensure(int bytes){
+		if(position + bytes > buffer.length){
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+		}
+	}
+}
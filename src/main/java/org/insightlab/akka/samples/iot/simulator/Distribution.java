@@ -0,0 +1,50 @@
+package org.insightlab.akka.samples.iot.simulator;
+
+import java.util.Random;
+
+//How the readings of the target rate are spread over time. The simulator
+//asks, at every tick, how many readings must be sent
+public enum Distribution {
+	//The same number of readings at every tick
+	CONSTANT,
+	//Independent arrivals, so the number of readings of a tick is a Poisson sample
+	POISSON,
+	//All the readings of ten ticks are sent at once, in the first of them
+	BURSTY;
+	
+	static final int BURST_TICKS = 10;
+	
+	//Number of readings for a tick, given the expected number. The
+	//fractional part of the expected number is drawn, so the mean is kept
+	int readingsFor(long tick, double expected, Random random){
+		switch(this){
+		case POISSON:
+			return poisson(expected, random);
+		case BURSTY:
+			return tick % BURST_TICKS == 0 ? round(expected * BURST_TICKS, random) : 0;
+		default:
+			return round(expected, random);
+		}
+	}
+	
+	private static int round(double expected, Random random){
+		int whole = (int) expected;
+		return random.nextDouble() < expected - whole ? whole + 1 : whole;
+	}
+	
+	//Knuth's method for small means, the normal approximation for big ones
+	private static int poisson(double mean, Random random){
+		if(mean > 30){
+			return Math.max(0, (int) Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+		}
+		
+		double limit = Math.exp(-mean);
+		double product = random.nextDouble();
+		int count = 0;
+		while(product > limit){
+			product *= random.nextDouble();
+			count++;
+		}
+		return count;
+	}
+}
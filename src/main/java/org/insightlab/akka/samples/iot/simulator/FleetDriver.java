@@ -0,0 +1,245 @@
+package org.insightlab.akka.samples.iot.simulator;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.insightlab.akka.samples.iot.messages.registration.DeviceRegistred;
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRecorded;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Kill;
+import akka.actor.Props;
+import scala.concurrent.duration.FiniteDuration;
+
+//This class plays the fleet. It registers every device through the manager,
+//then sends readings at the target rate, keeps a number of group queries
+//running and kills devices, until the duration ends and the report is completed.
+//The request id of the readings and queries is the time they were sent, so
+//the latency of an answer needs no lookup
+public class FleetDriver extends AbstractActor {
+	
+	static final FiniteDuration TICK = new FiniteDuration(10, TimeUnit.MILLISECONDS);
+	//Time a killed device waits before registering again, so its group
+	//handles the termination first
+	static final FiniteDuration RECONNECT_DELAY = new FiniteDuration(100, TimeUnit.MILLISECONDS);
+	
+	final SimulatorSettings settings;
+	final ActorRef manager;
+	final CompletableFuture<SimulationReport> report;
+	final Random random;
+	
+	//The actor of each device, or null while it isn't registered
+	final ActorRef[] deviceActors;
+	int registered = 0;
+	
+	boolean running = false;
+	long tick = 0;
+	long registrationStart;
+	long start;
+	Cancellable ticks;
+	Cancellable crashTicks;
+	
+	long readingsSent = 0;
+	long readingsRecorded = 0;
+	long queriesAnswered = 0;
+	long partialQueries = 0;
+	long crashes = 0;
+	final LatencyHistogram recordLatency = new LatencyHistogram();
+	final LatencyHistogram queryLatency = new LatencyHistogram();
+	
+	public FleetDriver(SimulatorSettings settings, ActorRef manager, CompletableFuture<SimulationReport> report){
+		this.settings = settings;
+		this.manager = manager;
+		this.report = report;
+		this.random = new Random(settings.seed);
+		this.deviceActors = new ActorRef[settings.groups * settings.devicesPerGroup];
+	}
+	
+	//This static method is used to create an actor indirectly
+	public static Props props(SimulatorSettings settings, ActorRef manager, CompletableFuture<SimulationReport> report){
+		return Props.create(FleetDriver.class, settings, manager, report);
+	}
+	
+	//Helper message classes of the schedules
+	private static final class Tick{
+	}
+	
+	private static final class CrashTick{
+	}
+	
+	private static final class Finish{
+	}
+	
+	private static final class Reconnect{
+		final int index;
+		
+		Reconnect(int index){
+			this.index = index;
+		}
+	}
+	
+	//The device ids carry the index of the device, so the actor
+	//that answers a registration tells which device it is
+	private String groupId(int index){
+		return "group" + index / settings.devicesPerGroup;
+	}
+	
+	private String deviceId(int index){
+		return "d" + index;
+	}
+	
+	//The groups name the actor of a device as device-<deviceId>
+	private static int indexOf(ActorRef deviceActor){
+		return Integer.parseInt(deviceActor.path().name().substring("device-d".length()));
+	}
+	
+	//This method executes when the actor starts
+	@Override
+	public void preStart(){
+		System.out.println("Registering " + deviceActors.length + " devices");
+		registrationStart = System.nanoTime();
+		for(int index = 0; index < deviceActors.length; index++){
+			manager.tell(new RequestTrackDevice(groupId(index), deviceId(index)), getSelf());
+		}
+	}
+	
+	//This method executes when the actor stops
+	@Override
+	public void postStop(){
+		if(ticks != null) ticks.cancel();
+		if(crashTicks != null) crashTicks.cancel();
+	}
+	
+	private void onRegistered(DeviceRegistred r){
+		int index = indexOf(getSender());
+		if(deviceActors[index] == null){
+			deviceActors[index] = getSender();
+			registered++;
+		}
+		
+		if(!running && start == 0 && registered == deviceActors.length){
+			startSimulation();
+		}
+	}
+	
+	private void startSimulation(){
+		System.out.println("Sending readings for " + settings.durationSeconds + " seconds");
+		running = true;
+		start = System.nanoTime();
+		
+		ticks = schedule(new Tick());
+		if(settings.crashRate > 0){
+			crashTicks = schedule(new CrashTick());
+		}
+		getContext().getSystem().scheduler().scheduleOnce(new FiniteDuration(settings.durationSeconds, TimeUnit.SECONDS),
+				getSelf(), new Finish(), getContext().dispatcher(), getSelf());
+		
+		for(int i = 0; i < settings.concurrentQueries; i++){
+			sendQuery();
+		}
+	}
+	
+	private Cancellable schedule(Object message){
+		return getContext().getSystem().scheduler().schedule(TICK, TICK, getSelf(), message,
+				getContext().dispatcher(), getSelf());
+	}
+	
+	//Method to send the readings of a tick to random devices. Killed
+	//devices miss their readings until they register again
+	private void onTick(Tick t){
+		double expected = settings.rate * TICK.toNanos() / 1e9;
+		int readings = settings.distribution.readingsFor(tick++, expected, random);
+		
+		for(int i = 0; i < readings; i++){
+			ActorRef deviceActor = deviceActors[random.nextInt(deviceActors.length)];
+			if(deviceActor == null) continue;
+			
+			deviceActor.tell(new RecordTemperature(System.nanoTime(), 20.0 + 5.0 * random.nextGaussian()), getSelf());
+			readingsSent++;
+		}
+	}
+	
+	private void onRecorded(TemperatureRecorded r){
+		if(!running) return;
+		
+		recordLatency.record(System.nanoTime() - r.requestId);
+		readingsRecorded++;
+	}
+	
+	private void sendQuery(){
+		String groupId = "group" + random.nextInt(settings.groups);
+		manager.tell(new RequestAllGroupsTemperatures(System.nanoTime(), Collections.singleton(groupId)), getSelf());
+	}
+	
+	//Method to keep the number of running queries, sending a new one for each answer
+	private void onQueryAnswered(RespondAllGroupsTemperatures r){
+		if(!running) return;
+		
+		queryLatency.record(System.nanoTime() - r.requestId);
+		queriesAnswered++;
+		if(r.isPartial()) partialQueries++;
+		sendQuery();
+	}
+	
+	//Method to kill random devices. They register again after a moment
+	private void onCrashTick(CrashTick t){
+		double expected = settings.crashRate * TICK.toNanos() / 1e9;
+		int kills = Distribution.CONSTANT.readingsFor(tick, expected, random);
+		
+		for(int i = 0; i < kills; i++){
+			int index = random.nextInt(deviceActors.length);
+			if(deviceActors[index] == null) continue;
+			
+			deviceActors[index].tell(Kill.getInstance(), getSelf());
+			deviceActors[index] = null;
+			registered--;
+			crashes++;
+			scheduleReconnect(index);
+		}
+	}
+	
+	//The registration is sent again until the device answers, since
+	//the group may still forward it to the killed actor
+	private void onReconnect(Reconnect r){
+		if(deviceActors[r.index] != null) return;
+		
+		manager.tell(new RequestTrackDevice(groupId(r.index), deviceId(r.index)), getSelf());
+		scheduleReconnect(r.index);
+	}
+	
+	private void scheduleReconnect(int index){
+		getContext().getSystem().scheduler().scheduleOnce(RECONNECT_DELAY, getSelf(), new Reconnect(index),
+				getContext().dispatcher(), getSelf());
+	}
+	
+	private void onFinish(Finish f){
+		running = false;
+		long elapsed = System.nanoTime() - start;
+		
+		report.complete(new SimulationReport(start - registrationStart, elapsed, readingsSent, readingsRecorded,
+				recordLatency, queriesAnswered, partialQueries, queryLatency, crashes));
+		getContext().stop(getSelf());
+	}
+	
+	//At this method we define, for each message pattern, the behavior of the actor
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(DeviceRegistred.class, this::onRegistered)
+				.match(Tick.class, this::onTick)
+				.match(TemperatureRecorded.class, this::onRecorded)
+				.match(RespondAllGroupsTemperatures.class, this::onQueryAnswered)
+				.match(CrashTick.class, this::onCrashTick)
+				.match(Reconnect.class, this::onReconnect)
+				.match(Finish.class, this::onFinish)
+				.build();
+	}
+}
@@ -0,0 +1,40 @@
+package org.insightlab.akka.samples.iot.simulator;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.insightlab.akka.samples.iot.actors.DeviceGroupSettings;
+import org.insightlab.akka.samples.iot.actors.DeviceManager;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+
+//Here we have the simulator's main code. It runs a fleet against a
+//DeviceManager and prints the throughput and the latencies at the end.
+//The options are given as arguments, for example:
+//groups=100 devices=1000 rate=50000 distribution=poisson duration=60 queries=4 crashes=2
+public class FleetSimulator {
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		SimulatorSettings settings = SimulatorSettings.parse(args);
+		
+		//The actors log at info for every message, so only warnings are logged
+		ActorSystem system = ActorSystem.create("fleet-simulator",
+				ConfigFactory.parseString("akka.loglevel = WARNING").withFallback(ConfigFactory.load()));
+		
+		try{
+			System.out.println("Simulating " + settings);
+			
+			ActorRef manager = system.actorOf(DeviceManager.props(DeviceGroupSettings.create(), settings.shards),
+					"device-manager");
+			CompletableFuture<SimulationReport> report = new CompletableFuture<>();
+			system.actorOf(FleetDriver.props(settings, manager, report), "fleet-driver");
+			
+			System.out.print(report.get());
+		}
+		finally{
+			system.terminate();
+		}
+	}
+}
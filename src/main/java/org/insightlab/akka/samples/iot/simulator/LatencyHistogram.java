@@ -0,0 +1,42 @@
+package org.insightlab.akka.samples.iot.simulator;
+
+import org.insightlab.akka.samples.iot.metrics.HistogramBuckets;
+
+//Histogram of latencies in nanoseconds, with the buckets of the metrics,
+//so the memory doesn't depend on how many latencies are recorded.
+//It is used by a single actor, so it isn't thread safe
+public final class LatencyHistogram {
+	
+	private final long[] counts = new long[HistogramBuckets.COUNT];
+	private long count;
+	private long max;
+	
+	public void record(long nanos){
+		if(nanos < 0) nanos = 0;
+		
+		counts[HistogramBuckets.indexOf(nanos)]++;
+		count++;
+		if(nanos > max) max = nanos;
+	}
+	
+	public long count(){
+		return count;
+	}
+	
+	public long max(){
+		return max;
+	}
+	
+	//Upper bound of the bucket that holds the given fraction of the latencies
+	public long percentile(double fraction){
+		if(count == 0) return 0;
+		
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++){
+			seen += counts[i];
+			if(seen >= rank) return Math.min(HistogramBuckets.upperBoundOf(i), max);
+		}
+		return max;
+	}
+}
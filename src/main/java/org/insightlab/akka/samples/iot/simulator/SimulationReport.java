@@ -0,0 +1,55 @@
+package org.insightlab.akka.samples.iot.simulator;
+
+import java.util.Locale;
+
+//Results of a simulation, sent by the FleetDriver when it finishes
+public final class SimulationReport {
+	public final long registrationNanos;
+	public final long elapsedNanos;
+	public final long readingsSent;
+	public final long readingsRecorded;
+	public final LatencyHistogram recordLatency;
+	public final long queriesAnswered;
+	public final long partialQueries;
+	public final LatencyHistogram queryLatency;
+	public final long crashes;
+	
+	public SimulationReport(long registrationNanos, long elapsedNanos, long readingsSent, long readingsRecorded,
+			LatencyHistogram recordLatency, long queriesAnswered, long partialQueries, LatencyHistogram queryLatency,
+			long crashes){
+		this.registrationNanos = registrationNanos;
+		this.elapsedNanos = elapsedNanos;
+		this.readingsSent = readingsSent;
+		this.readingsRecorded = readingsRecorded;
+		this.recordLatency = recordLatency;
+		this.queriesAnswered = queriesAnswered;
+		this.partialQueries = partialQueries;
+		this.queryLatency = queryLatency;
+		this.crashes = crashes;
+	}
+	
+	//Recorded readings per second while the readings were sent
+	public double throughput(){
+		return readingsRecorded / (elapsedNanos / 1e9);
+	}
+	
+	@Override
+	public String toString(){
+		StringBuilder report = new StringBuilder();
+		report.append(String.format(Locale.ROOT, "registration   %.2f s%n", registrationNanos / 1e9));
+		report.append(String.format(Locale.ROOT, "readings       %d sent, %d recorded, %.0f/s sustained%n",
+				readingsSent, readingsRecorded, throughput()));
+		report.append(latencies("record", recordLatency));
+		report.append(String.format(Locale.ROOT, "queries        %d answered, %d partial, %.1f/s%n",
+				queriesAnswered, partialQueries, queriesAnswered / (elapsedNanos / 1e9)));
+		report.append(latencies("query", queryLatency));
+		report.append(String.format(Locale.ROOT, "crashes        %d%n", crashes));
+		return report.toString();
+	}
+	
+	private static String latencies(String name, LatencyHistogram histogram){
+		return String.format(Locale.ROOT, "%-14s p50 %.3f ms, p95 %.3f ms, p99 %.3f ms, max %.3f ms%n", name + " latency",
+				histogram.percentile(0.50) / 1e6, histogram.percentile(0.95) / 1e6,
+				histogram.percentile(0.99) / 1e6, histogram.max() / 1e6);
+	}
+}
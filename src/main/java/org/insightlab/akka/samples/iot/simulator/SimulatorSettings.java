@@ -0,0 +1,84 @@
+package org.insightlab.akka.samples.iot.simulator;
+
+import java.util.Locale;
+
+//Immutable configuration of a simulation, read from arguments like
+//groups=100 devices=1000 rate=50000. Missing options keep their default
+public final class SimulatorSettings {
+	//Number of groups and of devices in each group
+	public final int groups;
+	public final int devicesPerGroup;
+	//Target number of readings per second, for the whole fleet
+	public final double rate;
+	public final Distribution distribution;
+	//How long the readings are sent, in seconds, after every device is registered
+	public final int durationSeconds;
+	//Number of group queries waiting for an answer at any time
+	public final int concurrentQueries;
+	//Devices killed per second. Each one registers again a moment later
+	public final double crashRate;
+	//Number of shards of the DeviceManager
+	public final int shards;
+	public final long seed;
+	
+	private SimulatorSettings(int groups, int devicesPerGroup, double rate, Distribution distribution, int durationSeconds,
+			int concurrentQueries, double crashRate, int shards, long seed){
+		this.groups = groups;
+		this.devicesPerGroup = devicesPerGroup;
+		this.rate = rate;
+		this.distribution = distribution;
+		this.durationSeconds = durationSeconds;
+		this.concurrentQueries = concurrentQueries;
+		this.crashRate = crashRate;
+		this.shards = shards;
+		this.seed = seed;
+	}
+	
+	public static SimulatorSettings parse(String[] args){
+		int groups = 10;
+		int devicesPerGroup = 100;
+		double rate = 1000;
+		Distribution distribution = Distribution.CONSTANT;
+		int durationSeconds = 30;
+		int concurrentQueries = 2;
+		double crashRate = 0;
+		int shards = Runtime.getRuntime().availableProcessors();
+		long seed = System.nanoTime();
+		
+		for(String arg : args){
+			int separator = arg.indexOf('=');
+			if(separator < 0)
+				throw new IllegalArgumentException("Expected option=value but got " + arg);
+			
+			String value = arg.substring(separator + 1);
+			switch(arg.substring(0, separator)){
+			case "groups": groups = Integer.parseInt(value); break;
+			case "devices": devicesPerGroup = Integer.parseInt(value); break;
+			case "rate": rate = Double.parseDouble(value); break;
+			case "distribution": distribution = Distribution.valueOf(value.toUpperCase(Locale.ROOT)); break;
+			case "duration": durationSeconds = Integer.parseInt(value); break;
+			case "queries": concurrentQueries = Integer.parseInt(value); break;
+			case "crashes": crashRate = Double.parseDouble(value); break;
+			case "shards": shards = Integer.parseInt(value); break;
+			case "seed": seed = Long.parseLong(value); break;
+			default: throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+		
+		if(groups <= 0 || devicesPerGroup <= 0)
+			throw new IllegalArgumentException("groups and devices must be positive");
+		if(rate < 0 || crashRate < 0 || concurrentQueries < 0 || durationSeconds <= 0)
+			throw new IllegalArgumentException("rate, crashes, queries and duration must not be negative");
+		
+		return new SimulatorSettings(groups, devicesPerGroup, rate, distribution, durationSeconds,
+				concurrentQueries, crashRate, shards, seed);
+	}
+	
+	@Override
+	public String toString(){
+		return String.format(Locale.ROOT,
+				"groups=%d devices=%d rate=%.0f distribution=%s duration=%d queries=%d crashes=%.2f shards=%d seed=%d",
+				groups, devicesPerGroup, rate, distribution.name().toLowerCase(Locale.ROOT), durationSeconds,
+				concurrentQueries, crashRate, shards, seed);
+	}
+}
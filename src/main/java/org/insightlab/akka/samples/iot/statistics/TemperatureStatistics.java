@@ -0,0 +1,155 @@
+package org.insightlab.akka.samples.iot.statistics;
+
+import java.util.Arrays;
+
+//Immutable summary of many temperatures: count, min, max, mean and a
+//sparse histogram used for the percentiles. The histogram has buckets
+//of RESOLUTION degrees and keeps only the non-empty ones, so a group
+//summary stays small and two summaries can be merged without losing precision
+public final class TemperatureStatistics {
+	//Width of each histogram bucket, in degrees. Percentiles are exact up to half of it
+	public static final double RESOLUTION = 0.1;
+	
+	public static final TemperatureStatistics EMPTY = new TemperatureStatistics(
+			0L, Double.NaN, Double.NaN, 0.0, new long[0], new long[0]);
+	
+	public final long count;
+	public final double min;
+	public final double max;
+	public final double sum;
+	//Index of each non-empty bucket, in increasing order, and how many temperatures it holds
+	final long[] buckets;
+	final long[] bucketCounts;
+	
+	TemperatureStatistics(long count, double min, double max, double sum, long[] buckets, long[] bucketCounts){
+		this.count = count;
+		this.min = min;
+		this.max = max;
+		this.sum = sum;
+		this.buckets = buckets;
+		this.bucketCounts = bucketCounts;
+	}
+	
+	//Summary with the given state, as kept by the accessors of the buckets.
+	//It is used to read a summary sent by another system
+	public static TemperatureStatistics restore(long count, double min, double max, double sum,
+			long[] buckets, long[] bucketCounts){
+		if(buckets.length != bucketCounts.length)
+			throw new IllegalArgumentException("buckets and bucketCounts must have the same length");
+		
+		return count == 0 ? EMPTY : new TemperatureStatistics(count, min, max, sum, buckets, bucketCounts);
+	}
+	
+	//Summarizes the first length temperatures of the array, which is not changed
+	public static TemperatureStatistics of(double[] values, int length){
+		if(length == 0) return EMPTY;
+		
+		double[] sorted = Arrays.copyOf(values, length);
+		Arrays.sort(sorted);
+		
+		double sum = 0.0;
+		long[] buckets = new long[length];
+		long[] bucketCounts = new long[length];
+		int used = 0;
+		for(double value : sorted){
+			sum += value;
+			long bucket = bucketOf(value);
+			if(used > 0 && buckets[used-1] == bucket){
+				bucketCounts[used-1]++;
+			}
+			else{
+				buckets[used] = bucket;
+				bucketCounts[used] = 1;
+				used++;
+			}
+		}
+		
+		return new TemperatureStatistics(length, sorted[0], sorted[length-1], sum,
+				Arrays.copyOf(buckets, used), Arrays.copyOf(bucketCounts, used));
+	}
+	
+	//Combines two summaries, as if they were computed over all the temperatures
+	public static TemperatureStatistics merge(TemperatureStatistics a, TemperatureStatistics b){
+		if(a.count == 0) return b;
+		if(b.count == 0) return a;
+		
+		long[] buckets = new long[a.buckets.length + b.buckets.length];
+		long[] bucketCounts = new long[buckets.length];
+		int i = 0, j = 0, used = 0;
+		while(i < a.buckets.length || j < b.buckets.length){
+			if(j == b.buckets.length || (i < a.buckets.length && a.buckets[i] < b.buckets[j])){
+				buckets[used] = a.buckets[i];
+				bucketCounts[used++] = a.bucketCounts[i++];
+			}
+			else if(i == a.buckets.length || b.buckets[j] < a.buckets[i]){
+				buckets[used] = b.buckets[j];
+				bucketCounts[used++] = b.bucketCounts[j++];
+			}
+			else{
+				buckets[used] = a.buckets[i];
+				bucketCounts[used++] = a.bucketCounts[i++] + b.bucketCounts[j++];
+			}
+		}
+		
+		return new TemperatureStatistics(a.count + b.count, Math.min(a.min, b.min), Math.max(a.max, b.max),
+				a.sum + b.sum, Arrays.copyOf(buckets, used), Arrays.copyOf(bucketCounts, used));
+	}
+	
+	//Number of non-empty buckets of the histogram
+	public int usedBuckets(){
+		return buckets.length;
+	}
+	
+	//Index of the bucket i, in increasing order
+	public long bucketAt(int i){
+		return buckets[i];
+	}
+	
+	//How many temperatures the bucket i holds
+	public long countAt(int i){
+		return bucketCounts[i];
+	}
+	
+	public double mean(){
+		return count == 0 ? Double.NaN : sum / count;
+	}
+	
+	//Temperature below which the given fraction (between 0 and 1) of the
+	//temperatures are, using the nearest rank
+	public double percentile(double fraction){
+		if(count == 0) return Double.NaN;
+		
+		long rank = Math.max(1L, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for(int i = 0; i < buckets.length; i++){
+			seen += bucketCounts[i];
+			if(seen >= rank){
+				//The center of the bucket can't be outside the real limits
+				return Math.min(max, Math.max(min, buckets[i] * RESOLUTION));
+			}
+		}
+		return max;
+	}
+	
+	public double p50(){
+		return percentile(0.50);
+	}
+	
+	public double p95(){
+		return percentile(0.95);
+	}
+	
+	public double p99(){
+		return percentile(0.99);
+	}
+	
+	private static long bucketOf(double value){
+		return Math.round(value / RESOLUTION);
+	}
+	
+	@Override
+	public String toString(){
+		return String.format("count=%d min=%.2f max=%.2f mean=%.2f p50=%.2f p95=%.2f p99=%.2f",
+				count, min, max, mean(), p50(), p95(), p99());
+	}
+}
@@ -0,0 +1,206 @@
+package org.insightlab.akka.samples.iot.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import org.insightlab.akka.samples.iot.history.TemperatureHistory;
+import org.insightlab.akka.samples.iot.registry.SlotIndex;
+
+//Columnar history of the readings of one group, kept outside the heap in
+//memory-mapped segment files. Readings are appended to the newest segment.
+//When it is full, a new one is created and the segments that fall out of
+//the retention period are deleted. The devices are stored as slots, whose
+//ids are kept, in order, in the devices file. The slot of a device is found
+//through a SlotIndex, without boxing.
+//The store is not thread safe: it belongs to the group actor
+public final class HistoryStore {
+	private static final String DEVICES = "devices";
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final int NO_SLOT = SlotIndex.NO_SLOT;
+	
+	private final File directory;
+	private final HistoryStoreSettings settings;
+	
+	//Slot of each device. Slots are never removed, so they are numbered in order
+	private final SlotIndex<String> slots = new SlotIndex<>(16);
+	private final DataOutputStream devices;
+	//Segments from the oldest to the newest
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	//Expired segment files that couldn't be deleted yet
+	private final List<File> expiredFiles = new ArrayList<>();
+	private long nextSegment = 0;
+	private long newestTimestamp = Long.MIN_VALUE;
+	
+	public HistoryStore(File directory, HistoryStoreSettings settings) throws IOException {
+		this.directory = directory;
+		this.settings = settings;
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create the directory "+directory);
+		
+		File devicesFile = new File(directory, DEVICES);
+		if(devicesFile.exists()){
+			try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(devicesFile)))){
+				while(true) slots.put(in.readUTF(), slots.size());
+			} catch(EOFException e){
+				//End of the devices file
+			}
+		}
+		devices = new DataOutputStream(new FileOutputStream(devicesFile, true));
+		
+		File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX));
+		Arrays.sort(files, (a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)));
+		for(File file : files){
+			Segment segment = Segment.open(file);
+			segments.addLast(segment);
+			nextSegment = sequenceOf(file) + 1;
+			if(segment.count() > 0) newestTimestamp = Math.max(newestTimestamp, segment.maxTimestamp());
+		}
+	}
+	
+	//Directory of a group inside the store directory
+	public static File directoryOf(HistoryStoreSettings settings, String groupId){
+		return new File(settings.directory, encode(groupId));
+	}
+	
+	private static String encode(String groupId){
+		try{
+			return URLEncoder.encode(groupId, "UTF-8");
+		} catch(UnsupportedEncodingException e){
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static long sequenceOf(File file){
+		return Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length()));
+	}
+	
+	public int segmentCount(){
+		return segments.size();
+	}
+	
+	public void append(String deviceId, long timestamp, double value) throws IOException {
+		Segment segment = segments.peekLast();
+		if(segment == null || segment.isFull()){
+			segment = rollOver();
+		}
+		
+		segment.append(slotOf(deviceId), timestamp, value);
+		if(timestamp > newestTimestamp) newestTimestamp = timestamp;
+	}
+	
+	//Readings of the device with from <= timestamp <= to, from the oldest
+	//segment to the newest, read straight from the mapped pages
+	public TemperatureHistory.Slice range(String deviceId, long from, long to){
+		SliceBuilder builder = new SliceBuilder();
+		int slot = slots.slotOf(deviceId);
+		if(slot != NO_SLOT){
+			for(Segment segment : segments){
+				if(segment.count() == 0 || segment.maxTimestamp() < from || segment.minTimestamp() > to) continue;
+				
+				segment.scan(slot, from, to, builder);
+			}
+		}
+		return builder.build();
+	}
+	
+	//Growable pair of columns that receives the readings of a scan
+	private static final class SliceBuilder implements Segment.ReadingVisitor{
+		private long[] timestamps = new long[16];
+		private double[] values = new double[16];
+		private int size = 0;
+		
+		@Override
+		public void visit(long timestamp, double value){
+			if(size == timestamps.length){
+				timestamps = Arrays.copyOf(timestamps, size*2);
+				values = Arrays.copyOf(values, size*2);
+			}
+			timestamps[size] = timestamp;
+			values[size] = value;
+			size++;
+		}
+		
+		TemperatureHistory.Slice build(){
+			return new TemperatureHistory.Slice(Arrays.copyOf(timestamps, size), Arrays.copyOf(values, size));
+		}
+	}
+	
+	//Slot of a device, added to the devices file if it is new
+	private int slotOf(String deviceId) throws IOException {
+		int slot = slots.slotOf(deviceId);
+		if(slot != NO_SLOT) return slot;
+		
+		devices.writeUTF(deviceId);
+		devices.flush();
+		slot = slots.size();
+		slots.put(deviceId, slot);
+		return slot;
+	}
+	
+	//Creates the next segment and deletes the ones outside the retention period
+	private Segment rollOver() throws IOException {
+		if(!segments.isEmpty()) segments.peekLast().force();
+		
+		long oldestKept = newestTimestamp == Long.MIN_VALUE ? Long.MIN_VALUE : newestTimestamp - settings.retentionMillis;
+		while(!segments.isEmpty() && segments.peekFirst().maxTimestamp() < oldestKept){
+			//The file is unmapped before it is deleted, since a mapped file
+			//can't be deleted on every platform
+			Segment expired = segments.pollFirst();
+			expired.close();
+			expiredFiles.add(expired.file);
+		}
+		deleteExpiredFiles();
+		
+		Segment segment = Segment.create(new File(directory, SEGMENT_PREFIX + nextSegment++), settings.segmentCapacity);
+		segments.addLast(segment);
+		return segment;
+	}
+	
+	//Method to delete the expired segment files. A file that can't be deleted
+	//now doesn't fail the append: it is tried again on the next roll over,
+	//and if the store is reopened first, it expires again
+	private void deleteExpiredFiles(){
+		for(Iterator<File> it = expiredFiles.iterator(); it.hasNext();){
+			try{
+				Files.deleteIfExists(it.next().toPath());
+				it.remove();
+			} catch(IOException e){
+				//Kept for the next try
+			}
+		}
+	}
+	
+	//Number of expired segment files that are still waiting to be deleted
+	public int pendingDeletes(){
+		return expiredFiles.size();
+	}
+	
+	public void close() throws IOException {
+		try{
+			for(Segment segment : segments){
+				segment.force();
+				segment.close();
+			}
+			segments.clear();
+			deleteExpiredFiles();
+		}
+		finally{
+			devices.close();
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package org.insightlab.akka.samples.iot.storage;
+
+import java.io.File;
+
+//Configuration of the history store of the groups
+public final class HistoryStoreSettings {
+	//Largest segment that still fits in a single MappedByteBuffer
+	public static final int MAX_SEGMENT_CAPACITY = (Integer.MAX_VALUE - 8) / 20;
+	
+	//Each group keeps its segments in a sub-directory of this one
+	public final File directory;
+	//Number of readings in each segment file
+	public final int segmentCapacity;
+	//Segments whose newest reading is older than this, in milliseconds,
+	//compared to the newest reading of the store, are deleted
+	public final long retentionMillis;
+	
+	public HistoryStoreSettings(File directory, int segmentCapacity, long retentionMillis){
+		if(segmentCapacity <= 0 || segmentCapacity > MAX_SEGMENT_CAPACITY)
+			throw new IllegalArgumentException("segmentCapacity must be between 1 and "+MAX_SEGMENT_CAPACITY);
+		if(retentionMillis <= 0)
+			throw new IllegalArgumentException("retentionMillis must be positive");
+		
+		this.directory = directory;
+		this.segmentCapacity = segmentCapacity;
+		this.retentionMillis = retentionMillis;
+	}
+}
@@ -0,0 +1,193 @@
+package org.insightlab.akka.samples.iot.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+//A file with a fixed number of readings stored by column: first all the
+//timestamps, then all the values and then the slot of the device of each
+//reading. The file is accessed through a MappedByteBuffer, so reads and
+//writes go straight to the mapped pages, without heap copies.
+//A sparse index keeps the smallest and largest timestamp of each block
+//of readings, so range scans skip the blocks outside the range
+final class Segment {
+	private static final int MAGIC = 0x10754e47;
+	//Magic number and number of readings
+	private static final int HEADER = 8;
+	//Number of readings described by each entry of the sparse index
+	static final int BLOCK = 1024;
+	
+	final File file;
+	final int capacity;
+	private final MappedByteBuffer buffer;
+	private final int valuesOffset;
+	private final int slotsOffset;
+	
+	private int count;
+	private final long[] blockMin;
+	private final long[] blockMax;
+	
+	private Segment(File file, int capacity, MappedByteBuffer buffer){
+		this.file = file;
+		this.capacity = capacity;
+		this.buffer = buffer;
+		this.valuesOffset = HEADER + 8*capacity;
+		this.slotsOffset = valuesOffset + 8*capacity;
+		
+		int blocks = (capacity + BLOCK - 1) / BLOCK;
+		blockMin = new long[blocks];
+		blockMax = new long[blocks];
+	}
+	
+	//Creates an empty segment file
+	static Segment create(File file, int capacity) throws IOException {
+		Segment segment = new Segment(file, capacity, map(file, sizeOf(capacity)));
+		segment.buffer.putInt(0, MAGIC);
+		segment.buffer.putInt(4, 0);
+		return segment;
+	}
+	
+	//Opens an existing segment file and rebuilds its sparse index
+	static Segment open(File file) throws IOException {
+		long size = file.length();
+		int capacity = (int) ((size - HEADER) / 20);
+		MappedByteBuffer buffer = map(file, size);
+		if(buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a segment file: "+file);
+		
+		Segment segment = new Segment(file, capacity, buffer);
+		int count = buffer.getInt(4);
+		for(int i = 0; i < count; i++){
+			segment.index(i, segment.timestamp(i));
+		}
+		segment.count = count;
+		return segment;
+	}
+	
+	private static long sizeOf(int capacity){
+		return HEADER + 20L*capacity;
+	}
+	
+	private static MappedByteBuffer map(File file, long size) throws IOException {
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()){
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+	
+	int count(){
+		return count;
+	}
+	
+	boolean isFull(){
+		return count == capacity;
+	}
+	
+	long minTimestamp(){
+		long min = Long.MAX_VALUE;
+		for(int b = 0; b*BLOCK < count; b++) min = Math.min(min, blockMin[b]);
+		return min;
+	}
+	
+	long maxTimestamp(){
+		long max = Long.MIN_VALUE;
+		for(int b = 0; b*BLOCK < count; b++) max = Math.max(max, blockMax[b]);
+		return max;
+	}
+	
+	void append(int slot, long timestamp, double value){
+		int i = count;
+		buffer.putLong(HEADER + 8*i, timestamp);
+		buffer.putDouble(valuesOffset + 8*i, value);
+		buffer.putInt(slotsOffset + 4*i, slot);
+		index(i, timestamp);
+		
+		//The count is written last, so a reading is visible only when complete
+		count = i+1;
+		buffer.putInt(4, count);
+	}
+	
+	private void index(int i, long timestamp){
+		int b = i / BLOCK;
+		if(i % BLOCK == 0){
+			blockMin[b] = timestamp;
+			blockMax[b] = timestamp;
+		}
+		else{
+			if(timestamp < blockMin[b]) blockMin[b] = timestamp;
+			if(timestamp > blockMax[b]) blockMax[b] = timestamp;
+		}
+	}
+	
+	long timestamp(int i){
+		return buffer.getLong(HEADER + 8*i);
+	}
+	
+	double value(int i){
+		return buffer.getDouble(valuesOffset + 8*i);
+	}
+	
+	int slot(int i){
+		return buffer.getInt(slotsOffset + 4*i);
+	}
+	
+	//Calls the visitor for each reading of the device inside the range,
+	//skipping the blocks that can't have any
+	void scan(int slot, long from, long to, ReadingVisitor visitor){
+		for(int b = 0; b*BLOCK < count; b++){
+			if(blockMax[b] < from || blockMin[b] > to) continue;
+			
+			int end = Math.min(count, (b+1)*BLOCK);
+			for(int i = b*BLOCK; i < end; i++){
+				if(slot(i) != slot) continue;
+				
+				long timestamp = timestamp(i);
+				if(timestamp >= from && timestamp <= to) visitor.visit(timestamp, value(i));
+			}
+		}
+	}
+	
+	//Writes the changed pages to the disk
+	void force(){
+		buffer.force();
+	}
+	
+	//Unmaps the file, so it can be deleted. The segment can't be used after
+	//this: an access to an unmapped buffer crashes the JVM
+	void close(){
+		unmap(buffer);
+	}
+	
+	//Method to release the mapping now, instead of waiting for the buffer to
+	//be collected. It uses Unsafe.invokeCleaner on Java 9 and later and the
+	//cleaner of the buffer on Java 8. If neither is available, the mapping
+	//is released by the garbage collector
+	private static void unmap(MappedByteBuffer buffer){
+		try{
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner;
+			try{
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			} catch(NoSuchMethodException e){
+				Method cleanerOf = buffer.getClass().getMethod("cleaner");
+				cleanerOf.setAccessible(true);
+				Object cleaner = cleanerOf.invoke(buffer);
+				if(cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+				return;
+			}
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		} catch(ReflectiveOperationException | RuntimeException e){
+			//Left to the garbage collector
+		}
+	}
+	
+	interface ReadingVisitor{
+		void visit(long timestamp, double value);
+	}
+}
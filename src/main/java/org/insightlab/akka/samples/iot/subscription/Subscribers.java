@@ -0,0 +1,158 @@
+package org.insightlab.akka.samples.iot.subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.insightlab.akka.samples.iot.messages.subscription.SubscriptionEnded;
+import org.insightlab.akka.samples.iot.messages.subscription.TemperatureUpdates;
+import org.insightlab.akka.samples.iot.registry.SlotIndex;
+
+import akka.actor.ActorRef;
+import akka.actor.Scheduler;
+import scala.concurrent.ExecutionContext;
+import scala.concurrent.duration.FiniteDuration;
+
+//Subscribers to the readings of a group or of a device, kept by the actor
+//that owns them. A subscriber without conflation receives each reading
+//right away. A conflated one receives the first reading right away and,
+//from then on, at most one update per window, with the latest reading of
+//each device that changed. So a slow subscriber holds at most one pending
+//reading per device, instead of an unbounded queue of updates.
+//The owner must watch the subscribers and hand its Flush messages back
+public final class Subscribers {
+	private final String groupId;
+	private final ActorRef owner;
+	private final Scheduler scheduler;
+	private final ExecutionContext dispatcher;
+	
+	private final Map<ActorRef,Subscription> subscriptions = new HashMap<>();
+	
+	public Subscribers(String groupId, ActorRef owner, Scheduler scheduler, ExecutionContext dispatcher){
+		this.groupId = groupId;
+		this.owner = owner;
+		this.scheduler = scheduler;
+		this.dispatcher = dispatcher;
+	}
+	
+	//Helper message class the owner receives at the end of a window. It
+	//belongs to a subscription, so it is ignored once the subscription is replaced
+	public static final class Flush{
+		final ActorRef subscriber;
+		final Subscription subscription;
+		
+		Flush(ActorRef subscriber, Subscription subscription){
+			this.subscriber = subscriber;
+			this.subscription = subscription;
+		}
+	}
+	
+	//State of a subscriber. The pending readings are kept in arrays, and a
+	//SlotIndex finds the position of each device without boxing it. Both
+	//are reused from a window to the next
+	private static final class Subscription{
+		final long requestId;
+		final Optional<FiniteDuration> window;
+		
+		final SlotIndex<String> positions = new SlotIndex<>(4);
+		String[] deviceIds = new String[4];
+		double[] values = new double[4];
+		long[] timestamps = new long[4];
+		int pending = 0;
+		//True while a window is running, so the readings must wait for its end
+		boolean windowOpen = false;
+		
+		Subscription(long requestId, Optional<FiniteDuration> window){
+			this.requestId = requestId;
+			this.window = window;
+		}
+		
+		void keep(String deviceId, double value, long timestamp){
+			int position = positions.slotOf(deviceId);
+			if(position == SlotIndex.NO_SLOT){
+				if(pending == deviceIds.length){
+					deviceIds = Arrays.copyOf(deviceIds, pending * 2);
+					values = Arrays.copyOf(values, pending * 2);
+					timestamps = Arrays.copyOf(timestamps, pending * 2);
+				}
+				position = pending++;
+				positions.put(deviceId, position);
+				deviceIds[position] = deviceId;
+			}
+			values[position] = value;
+			timestamps[position] = timestamp;
+		}
+	}
+	
+	public boolean isEmpty(){
+		return subscriptions.isEmpty();
+	}
+	
+	//Method to add a subscriber, or to replace its subscription.
+	//Returns true when the subscriber is new, so the owner must watch it
+	public boolean add(ActorRef subscriber, long requestId, Optional<FiniteDuration> conflation){
+		return subscriptions.put(subscriber, new Subscription(requestId, conflation)) == null;
+	}
+	
+	//Method to remove a subscriber. Returns false if it wasn't subscribed
+	public boolean remove(ActorRef subscriber){
+		return subscriptions.remove(subscriber) != null;
+	}
+	
+	//Method to drop every subscription, telling each subscriber with a
+	//SubscriptionEnded. Returns the subscribers, so the owner can unwatch them
+	public List<ActorRef> endAll(){
+		List<ActorRef> ended = new ArrayList<>(subscriptions.keySet());
+		for(Map.Entry<ActorRef,Subscription> entry : subscriptions.entrySet()){
+			entry.getKey().tell(new SubscriptionEnded(entry.getValue().requestId), owner);
+		}
+		subscriptions.clear();
+		return ended;
+	}
+	
+	//Method to tell every subscriber about a new reading
+	public void changed(String deviceId, double value, long timestamp){
+		if(subscriptions.isEmpty()) return;
+		
+		for(Map.Entry<ActorRef,Subscription> entry : subscriptions.entrySet()){
+			Subscription s = entry.getValue();
+			if(s.windowOpen){
+				s.keep(deviceId, value, timestamp);
+				continue;
+			}
+			
+			entry.getKey().tell(new TemperatureUpdates(s.requestId, groupId,
+					new String[]{deviceId}, new double[]{value}, new long[]{timestamp}), owner);
+			if(s.window.isPresent()){
+				s.windowOpen = true;
+				scheduleFlush(entry.getKey(), s);
+			}
+		}
+	}
+	
+	//Method to end the window of a subscriber. The readings kept meanwhile
+	//are sent together and start a new window. Without them, the window closes
+	public void flush(Flush f){
+		Subscription s = subscriptions.get(f.subscriber);
+		if(s != f.subscription) return;
+		
+		if(s.pending == 0){
+			s.windowOpen = false;
+			return;
+		}
+		
+		f.subscriber.tell(new TemperatureUpdates(s.requestId, groupId, Arrays.copyOf(s.deviceIds, s.pending),
+				Arrays.copyOf(s.values, s.pending), Arrays.copyOf(s.timestamps, s.pending)), owner);
+		Arrays.fill(s.deviceIds, 0, s.pending, null);
+		s.positions.clear();
+		s.pending = 0;
+		scheduleFlush(f.subscriber, s);
+	}
+	
+	private void scheduleFlush(ActorRef subscriber, Subscription s){
+		scheduler.scheduleOnce(s.window.get(), owner, new Flush(subscriber, s), dispatcher, ActorRef.noSender());
+	}
+}
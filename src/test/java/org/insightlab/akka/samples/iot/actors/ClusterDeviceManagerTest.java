@@ -0,0 +1,209 @@
+package org.insightlab.akka.samples.iot.actors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.insightlab.akka.samples.iot.messages.registration.DeviceRegistred;
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.routing.GroupEnvelope;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRecorded;
+import org.insightlab.akka.samples.iot.states.temperature.Temperature;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.Cluster;
+import akka.cluster.Member;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ShardRegion;
+import akka.testkit.TestKit;
+import scala.Function0;
+import scala.concurrent.Await;
+import scala.concurrent.duration.FiniteDuration;
+
+//Two cluster nodes in the same JVM, each one with its own ActorSystem
+//bound to a free port of localhost
+public class ClusterDeviceManagerTest {
+	static final FiniteDuration TIMEOUT = new FiniteDuration(15, TimeUnit.SECONDS);
+	static final int GROUPS = 10;
+	
+	ActorSystem node1;
+	ActorSystem node2;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Before
+	public void setUp(){
+		node1 = ActorSystem.create("iot-cluster", ClusterDeviceManager.nodeConfig("127.0.0.1", 0));
+		node2 = ActorSystem.create("iot-cluster", ClusterDeviceManager.nodeConfig("127.0.0.1", 0));
+		
+		Cluster.get(node1).join(Cluster.get(node1).selfAddress());
+		Cluster.get(node2).join(Cluster.get(node1).selfAddress());
+		TestKit probe = new TestKit(node1);
+		probe.awaitAssert(new Function0<Object>() {
+			
+			@Override
+			public Object apply() {
+				assertEquals(2, upMembers(node1));
+				assertEquals(2, upMembers(node2));
+				return null;
+			}
+		}, TIMEOUT, probe.awaitAssert$default$3());
+	}
+	
+	@After
+	public void tearDown(){
+		TestKit.shutdownActorSystem(node2, TestKit.shutdownActorSystem$default$2(), true);
+		TestKit.shutdownActorSystem(node1, TestKit.shutdownActorSystem$default$2(), true);
+	}
+	
+	private static int upMembers(ActorSystem node){
+		int up = 0;
+		for(Member member : Cluster.get(node).state().getMembers()){
+			if(member.status().equals(MemberStatus.up())) up++;
+		}
+		return up;
+	}
+	
+	//Waits until the shard regions of both nodes are known, so the
+	//groups are placed on both nodes
+	private void awaitRegions(TestKit probe){
+		ActorRef region = ClusterSharding.get(node1).shardRegion(ClusterDeviceManager.GROUP_TYPE);
+		probe.awaitAssert(new Function0<Object>() {
+			
+			@Override
+			public Object apply() {
+				region.tell(ShardRegion.getCurrentRegionsInstance(), probe.testActor());
+				assertEquals(2, probe.expectMsgClass(ShardRegion.CurrentRegions.class).getRegions().size());
+				return null;
+			}
+		}, TIMEOUT, probe.awaitAssert$default$3());
+	}
+	
+	@Test
+	public void testRegisterAndReadDevicesOnBothNodes(){
+		DeviceGroupSettings settings = DeviceGroupSettings.create();
+		ActorRef manager1 = node1.actorOf(ClusterDeviceManager.props(settings), "manager");
+		ActorRef manager2 = node2.actorOf(ClusterDeviceManager.props(settings), "manager");
+		TestKit probe1 = new TestKit(node1);
+		TestKit probe2 = new TestKit(node2);
+		awaitRegions(probe1);
+		
+		//The devices are registered through the second node
+		List<ActorRef> deviceActors = new ArrayList<>();
+		for(int g = 0; g < GROUPS; g++){
+			for(int d = 0; d < 2; d++){
+				manager2.tell(new RequestTrackDevice("group"+g, "device"+d), probe2.testActor());
+				probe2.expectMsgClass(TIMEOUT, DeviceRegistred.class);
+				deviceActors.add(probe2.lastSender());
+			}
+		}
+		//Some groups run on each node
+		assertTrue(deviceActors.stream().anyMatch(a -> a.path().address().hasLocalScope()));
+		assertTrue(deviceActors.stream().anyMatch(a -> a.path().address().hasGlobalScope()));
+		
+		for(int i = 0; i < deviceActors.size(); i++){
+			deviceActors.get(i).tell(new RecordTemperature(i, i), probe2.testActor());
+			assertEquals(i, probe2.expectMsgClass(TIMEOUT, TemperatureRecorded.class).requestId);
+		}
+		
+		//The readings are queried through the first node
+		manager1.tell(new DeviceEnvelope("group3", "device1", new ReadTemperature(1L)), probe1.testActor());
+		assertEquals(7.0, probe1.expectMsgClass(TIMEOUT, RespondTemperature.class).value.get(), 0.0);
+		
+		for(int g = 0; g < GROUPS; g++){
+			manager1.tell(new GroupEnvelope("group"+g, new RequestAllTemperatures(g)), probe1.testActor());
+			RespondAllTemperatures response = probe1.expectMsgClass(TIMEOUT, RespondAllTemperatures.class);
+			assertEquals(g, response.requestId);
+			assertEquals(new Temperature(2*g), response.temperatures.get("device0"));
+			assertEquals(new Temperature(2*g+1), response.temperatures.get("device1"));
+		}
+	}
+	
+	@Test
+	public void testQueryAllGroupsOfBothNodes(){
+		DeviceGroupSettings settings = DeviceGroupSettings.create();
+		ActorRef manager1 = node1.actorOf(ClusterDeviceManager.props(settings), "manager");
+		ActorRef manager2 = node2.actorOf(ClusterDeviceManager.props(settings), "manager");
+		TestKit probe1 = new TestKit(node1);
+		TestKit probe2 = new TestKit(node2);
+		awaitRegions(probe1);
+		
+		for(int g = 0; g < GROUPS; g++){
+			manager2.tell(new RequestTrackDevice("group"+g, "device"), probe2.testActor());
+			probe2.expectMsgClass(TIMEOUT, DeviceRegistred.class);
+			probe2.lastSender().tell(new RecordTemperature(g, g), probe2.testActor());
+			probe2.expectMsgClass(TIMEOUT, TemperatureRecorded.class);
+		}
+		
+		//The groups run on both nodes, and the first node answers for all of them
+		manager1.tell(new RequestAllGroupsTemperatures(1L), probe1.testActor());
+		RespondAllGroupsTemperatures all = probe1.expectMsgClass(TIMEOUT, RespondAllGroupsTemperatures.class);
+		assertEquals(1L, all.requestId);
+		assertFalse(all.isPartial());
+		assertEquals(GROUPS, all.temperatures.size());
+		for(int g = 0; g < GROUPS; g++){
+			assertEquals(new Temperature(g), all.temperatures.get("group"+g).get("device"));
+		}
+		
+		//Unknown group ids are ignored, as without the cluster
+		manager1.tell(new RequestAllGroupsStatistics(2L,
+				Stream.of("group1", "group2", "unknown").collect(Collectors.toSet())), probe1.testActor());
+		RespondAllGroupsStatistics statistics = probe1.expectMsgClass(TIMEOUT, RespondAllGroupsStatistics.class);
+		assertEquals(2L, statistics.requestId);
+		assertFalse(statistics.isPartial());
+		assertEquals(2L, statistics.statistics.count);
+		assertEquals(1.5, statistics.statistics.mean(), 1e-9);
+	}
+	
+	@Test
+	public void testMoveGroupsWhenANodeLeaves() throws Exception {
+		DeviceGroupSettings settings = DeviceGroupSettings.create().withPersistence(folder.newFolder());
+		ActorRef manager1 = node1.actorOf(ClusterDeviceManager.props(settings), "manager");
+		node2.actorOf(ClusterDeviceManager.props(settings), "manager");
+		TestKit probe1 = new TestKit(node1);
+		awaitRegions(probe1);
+		
+		for(int g = 0; g < GROUPS; g++){
+			manager1.tell(new RequestTrackDevice("group"+g, "device"), probe1.testActor());
+			probe1.expectMsgClass(TIMEOUT, DeviceRegistred.class);
+			probe1.lastSender().tell(new RecordTemperature(g, g), probe1.testActor());
+			probe1.expectMsgClass(TIMEOUT, TemperatureRecorded.class);
+		}
+		
+		//The second node leaves and its groups start again on the first one,
+		//recovered from the shared persistence directory
+		Cluster.get(node2).registerOnMemberRemoved(() -> node2.terminate());
+		Cluster.get(node2).leave(Cluster.get(node2).selfAddress());
+		Await.ready(node2.whenTerminated(), TIMEOUT);
+		
+		for(int g = 0; g < GROUPS; g++){
+			manager1.tell(new GroupEnvelope("group"+g, new RequestAllTemperatures(g)), probe1.testActor());
+			RespondAllTemperatures response = probe1.expectMsgClass(TIMEOUT, RespondAllTemperatures.class);
+			assertEquals(new Temperature(g), response.temperatures.get("device"));
+		}
+	}
+}
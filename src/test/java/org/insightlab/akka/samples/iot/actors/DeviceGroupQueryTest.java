@@ -2,6 +2,7 @@ package org.insightlab.akka.samples.iot.actors;
 
 import static org.junit.Assert.*;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -10,6 +11,11 @@ import java.util.concurrent.TimeUnit;
 import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperature;
 import org.insightlab.akka.samples.iot.messages.temperature.RespondAllTemperatures;
 import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureChunk;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureStreamCompleted;
+import org.insightlab.akka.samples.iot.metrics.HistogramSnapshot;
+import org.insightlab.akka.samples.iot.metrics.IotMetrics;
+import org.insightlab.akka.samples.iot.registry.RegistrySnapshot;
 import org.insightlab.akka.samples.iot.states.temperature.DeviceNotAvailable;
 import org.insightlab.akka.samples.iot.states.temperature.DeviceTimedOut;
 import org.insightlab.akka.samples.iot.states.temperature.Temperature;
@@ -45,8 +51,8 @@ public class DeviceGroupQueryTest {
 		actorToDevice.put(device1.testActor(),"device1");
 		actorToDevice.put(device2.testActor(),"device2");
 		
-		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
-				actorToDevice, 1L, requester.testActor(), new FiniteDuration(3, TimeUnit.SECONDS)));
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(RegistrySnapshot.of(actorToDevice), Collections.emptyMap(),
+				1L, requester.testActor(), DeviceGroupQueryOptions.all(new FiniteDuration(3, TimeUnit.SECONDS))));
 		
 		assertEquals(0L, device1.expectMsgClass(ReadTemperature.class).requestId);
 		assertEquals(0L, device2.expectMsgClass(ReadTemperature.class).requestId);
@@ -75,8 +81,8 @@ public class DeviceGroupQueryTest {
 		actorToDevice.put(device1.testActor(),"device1");
 		actorToDevice.put(device2.testActor(),"device2");
 		
-		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
-				actorToDevice, 1L, requester.testActor(), new FiniteDuration(3, TimeUnit.SECONDS)));
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(RegistrySnapshot.of(actorToDevice), Collections.emptyMap(),
+				1L, requester.testActor(), DeviceGroupQueryOptions.all(new FiniteDuration(3, TimeUnit.SECONDS))));
 		
 		assertEquals(0L, device1.expectMsgClass(ReadTemperature.class).requestId);
 		assertEquals(0L, device2.expectMsgClass(ReadTemperature.class).requestId);
@@ -105,8 +111,8 @@ public class DeviceGroupQueryTest {
 		actorToDevice.put(device1.testActor(),"device1");
 		actorToDevice.put(device2.testActor(),"device2");
 		
-		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
-				actorToDevice, 1L, requester.testActor(), new FiniteDuration(3, TimeUnit.SECONDS)));
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(RegistrySnapshot.of(actorToDevice), Collections.emptyMap(),
+				1L, requester.testActor(), DeviceGroupQueryOptions.all(new FiniteDuration(3, TimeUnit.SECONDS))));
 		
 		assertEquals(0L, device1.expectMsgClass(ReadTemperature.class).requestId);
 		assertEquals(0L, device2.expectMsgClass(ReadTemperature.class).requestId);
@@ -124,6 +130,34 @@ public class DeviceGroupQueryTest {
 		assertTrue(expectedTemperatures.equals(response.temperatures));
 	}
 	
+	@Test
+	public void testReturnReadingGivenByTheGroupIfDeviceIsPassivatedBeforeAnswering(){
+		TestKit requester = new TestKit(system);
+		
+		TestKit device1 = new TestKit(system);
+		TestKit device2 = new TestKit(system);
+		
+		Map<ActorRef,String> actorToDevice = new HashMap<>();
+		actorToDevice.put(device1.testActor(),"device1");
+		actorToDevice.put(device2.testActor(),"device2");
+		
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(RegistrySnapshot.of(actorToDevice), Collections.emptyMap(),
+				1L, requester.testActor(), DeviceGroupQueryOptions.all(new FiniteDuration(3, TimeUnit.SECONDS))));
+		
+		assertEquals(0L, device1.expectMsgClass(ReadTemperature.class).requestId);
+		assertEquals(0L, device2.expectMsgClass(ReadTemperature.class).requestId);
+		
+		//The group passivates device2, which stops without reading the request
+		queryActor.tell(new DeviceGroupQuery.DevicePassivating(device2.testActor(), new Temperature(2.0)), ActorRef.noSender());
+		queryActor.tell(new RespondTemperature(0L,  Optional.of(1.0)), device1.testActor());
+		device2.testActor().tell(PoisonPill.getInstance(), ActorRef.noSender());
+		
+		Map<String, TemperatureReading> expectedTemperatures = new HashMap<>();
+		expectedTemperatures.put("device1", new Temperature(1.0));
+		expectedTemperatures.put("device2", new Temperature(2.0));
+		assertEquals(expectedTemperatures, requester.expectMsgClass(RespondAllTemperatures.class).temperatures);
+	}
+	
 	@Test
 	public void testReturnTemperatureReadingEvenIfDeviceStopsAfterAnswering(){
 		TestKit requester = new TestKit(system);
@@ -135,8 +169,8 @@ public class DeviceGroupQueryTest {
 		actorToDevice.put(device1.testActor(),"device1");
 		actorToDevice.put(device2.testActor(),"device2");
 		
-		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
-				actorToDevice, 1L, requester.testActor(), new FiniteDuration(3, TimeUnit.SECONDS)));
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(RegistrySnapshot.of(actorToDevice), Collections.emptyMap(),
+				1L, requester.testActor(), DeviceGroupQueryOptions.all(new FiniteDuration(3, TimeUnit.SECONDS))));
 		
 		assertEquals(0L, device1.expectMsgClass(ReadTemperature.class).requestId);
 		assertEquals(0L, device2.expectMsgClass(ReadTemperature.class).requestId);
@@ -166,8 +200,8 @@ public class DeviceGroupQueryTest {
 		actorToDevice.put(device1.testActor(),"device1");
 		actorToDevice.put(device2.testActor(),"device2");
 		
-		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
-				actorToDevice, 1L, requester.testActor(), new FiniteDuration(3, TimeUnit.SECONDS)));
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(RegistrySnapshot.of(actorToDevice), Collections.emptyMap(),
+				1L, requester.testActor(), DeviceGroupQueryOptions.all(new FiniteDuration(3, TimeUnit.SECONDS))));
 		
 		assertEquals(0L, device1.expectMsgClass(ReadTemperature.class).requestId);
 		assertEquals(0L, device2.expectMsgClass(ReadTemperature.class).requestId);
@@ -185,5 +219,119 @@ public class DeviceGroupQueryTest {
 
 		assertTrue(expectedTemperatures.equals(response.temperatures));
 	}
-
+	
+	@Test
+	public void testReturnAsSoonAsRequiredDevicesAnswer(){
+		TestKit requester = new TestKit(system);
+		
+		TestKit device1 = new TestKit(system);
+		TestKit device2 = new TestKit(system);
+		TestKit device3 = new TestKit(system);
+		
+		Map<ActorRef,String> actorToDevice = new HashMap<>();
+		actorToDevice.put(device1.testActor(),"device1");
+		actorToDevice.put(device2.testActor(),"device2");
+		actorToDevice.put(device3.testActor(),"device3");
+		
+		Map<String,TemperatureReading> knownReadings = new HashMap<>();
+		knownReadings.put("device4", new Temperature(4.0));
+		
+		//The known reading counts, so two answers complete the three required
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(RegistrySnapshot.of(actorToDevice), knownReadings, 1L, requester.testActor(),
+				DeviceGroupQueryOptions.all(new FiniteDuration(10, TimeUnit.SECONDS)).withRequiredAnswers(3)));
+		
+		device1.expectMsgClass(ReadTemperature.class);
+		device2.expectMsgClass(ReadTemperature.class);
+		device3.expectMsgClass(ReadTemperature.class);
+		
+		queryActor.tell(new RespondTemperature(0L,  Optional.of(1.0)), device1.testActor());
+		queryActor.tell(new RespondTemperature(0L,  Optional.empty()), device2.testActor());
+		
+		RespondAllTemperatures response = requester.expectMsgClass(
+				FiniteDuration.create(1,  TimeUnit.SECONDS),RespondAllTemperatures.class);
+		
+		Map<String, TemperatureReading> expectedTemperatures = new HashMap<>();
+		expectedTemperatures.put("device1", new Temperature(1.0));
+		expectedTemperatures.put("device2", new TemperatureNotAvailable());
+		expectedTemperatures.put("device3", new DeviceTimedOut());
+		expectedTemperatures.put("device4", new Temperature(4.0));
+		
+		assertTrue(expectedTemperatures.equals(response.temperatures));
+	}
+	
+	@Test
+	public void testStreamChunksAsDevicesAnswer(){
+		TestKit requester = new TestKit(system);
+		TestKit[] devices = new TestKit[4];
+		Map<ActorRef,String> actorToDevice = new HashMap<>();
+		for(int i = 0; i < devices.length; i++){
+			devices[i] = new TestKit(system);
+			actorToDevice.put(devices[i].testActor(), "device"+(i+1));
+		}
+		
+		Map<String,TemperatureReading> knownReadings = new HashMap<>();
+		knownReadings.put("device5", new Temperature(5.0));
+		
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(RegistrySnapshot.of(actorToDevice), knownReadings, 1L, requester.testActor(),
+				DeviceGroupQueryOptions.stream(new FiniteDuration(1, TimeUnit.SECONDS), 2)));
+		for(TestKit device : devices){
+			device.expectMsgClass(ReadTemperature.class);
+		}
+		
+		//The first chunk comes while the other devices still have to answer
+		queryActor.tell(new RespondTemperature(0L, Optional.of(1.0)), devices[0].testActor());
+		TemperatureChunk first = requester.expectMsgClass(TemperatureChunk.class);
+		assertEquals(1L, first.requestId);
+		assertEquals(0, first.sequenceNr);
+		Map<String, TemperatureReading> expectedFirst = new HashMap<>();
+		expectedFirst.put("device1", new Temperature(1.0));
+		expectedFirst.put("device5", new Temperature(5.0));
+		assertEquals(expectedFirst, first.temperatures);
+		
+		devices[1].testActor().tell(PoisonPill.getInstance(), ActorRef.noSender());
+		queryActor.tell(new RespondTemperature(0L, Optional.empty()), devices[2].testActor());
+		
+		//At the timeout, the last chunk is sent with the devices missing from the stream
+		TemperatureChunk last = requester.expectMsgClass(FiniteDuration.create(3, TimeUnit.SECONDS), TemperatureChunk.class);
+		assertEquals(1, last.sequenceNr);
+		assertEquals(Collections.singletonMap("device3", new TemperatureNotAvailable()), last.temperatures);
+		TemperatureStreamCompleted completed = requester.expectMsgClass(TemperatureStreamCompleted.class);
+		assertEquals(2, completed.chunks);
+		assertEquals(Collections.singleton("device4"), completed.timedOutDevices);
+		assertEquals(Collections.singleton("device2"), completed.unavailableDevices);
+		assertTrue(completed.isPartial());
+	}
+	
+	@Test
+	public void testRecordLatencyAndUnavailableDevices(){
+		IotMetrics metrics = IotMetrics.get(system);
+		long queries = latencyCount(metrics);
+		long unavailable = metrics.counterValues().getOrDefault("group-query.unavailable-devices", 0L);
+		
+		TestKit requester = new TestKit(system);
+		TestKit device1 = new TestKit(system);
+		TestKit device2 = new TestKit(system);
+		
+		Map<ActorRef,String> actorToDevice = new HashMap<>();
+		actorToDevice.put(device1.testActor(),"device1");
+		actorToDevice.put(device2.testActor(),"device2");
+		
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(RegistrySnapshot.of(actorToDevice), Collections.emptyMap(),
+				1L, requester.testActor(), DeviceGroupQueryOptions.all(new FiniteDuration(3, TimeUnit.SECONDS))));
+		
+		device1.expectMsgClass(ReadTemperature.class);
+		device2.expectMsgClass(ReadTemperature.class);
+		
+		queryActor.tell(new RespondTemperature(0L,  Optional.of(1.0)), device1.testActor());
+		device2.testActor().tell(PoisonPill.getInstance(), ActorRef.noSender());
+		requester.expectMsgClass(RespondAllTemperatures.class);
+		
+		assertEquals(queries + 1, latencyCount(metrics));
+		assertEquals(unavailable + 1, (long) metrics.counterValues().get("group-query.unavailable-devices"));
+	}
+	
+	private static long latencyCount(IotMetrics metrics){
+		HistogramSnapshot latency = metrics.histogramSnapshots().get("group-query.latency");
+		return latency == null ? 0 : latency.count;
+	}
 }
@@ -1,37 +1,87 @@
 package org.insightlab.akka.samples.iot.actors;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotEquals;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.insightlab.akka.samples.iot.alerting.AlertRule;
+import org.insightlab.akka.samples.iot.messages.alerting.AddAlertRule;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertCleared;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertRaised;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertRulesUpdated;
+import org.insightlab.akka.samples.iot.messages.alerting.RemoveAlertRule;
+import org.insightlab.akka.samples.iot.messages.alerting.SubscribeAlerts;
 import org.insightlab.akka.samples.iot.messages.registration.DeviceRegistred;
 import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscribeDevice;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscribeGroup;
+import org.insightlab.akka.samples.iot.messages.subscription.Subscribed;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscriptionEnded;
+import org.insightlab.akka.samples.iot.messages.subscription.TemperatureUpdates;
+import org.insightlab.akka.samples.iot.messages.subscription.Unsubscribe;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadRollups;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperatureHistory;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperatureRange;
 import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperatureBatch;
 import org.insightlab.akka.samples.iot.messages.temperature.RequestAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestCachedTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestGroupStatistics;
 import org.insightlab.akka.samples.iot.messages.temperature.RespondAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondCachedTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondGroupStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondRollups;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperatureRange;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureBatchRecorded;
 import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRecorded;
+import org.insightlab.akka.samples.iot.metrics.HistogramSnapshot;
+import org.insightlab.akka.samples.iot.metrics.IotMetrics;
+import org.insightlab.akka.samples.iot.states.temperature.DeviceTimedOut;
 import org.insightlab.akka.samples.iot.states.temperature.Temperature;
 import org.insightlab.akka.samples.iot.states.temperature.TemperatureNotAvailable;
 import org.insightlab.akka.samples.iot.states.temperature.TemperatureReading;
+import org.insightlab.akka.samples.iot.statistics.TemperatureStatistics;
+import org.insightlab.akka.samples.iot.storage.HistoryStoreSettings;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import akka.actor.ActorIdentity;
 import akka.actor.ActorRef;
+import akka.actor.ActorSelection;
 import akka.actor.ActorSystem;
+import akka.actor.Identify;
 import akka.actor.PoisonPill;
+import akka.actor.Terminated;
 import akka.testkit.TestKit;
 import scala.Function0;
+import scala.concurrent.duration.FiniteDuration;
 
 public class DeviceGroupTest {
 	static ActorSystem system;
 	TestKit probe;
 	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
 	@BeforeClass
 	public static void setUpClass(){
 		system = ActorSystem.create("iot-test-system");
@@ -172,4 +222,597 @@ public class DeviceGroupTest {
 		assertTrue(expectedTemperatures.equals(response.temperatures));
 
 	}
+	
+	@Test
+	public void testRecordTemperatureBatch(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		
+		groupActor.tell(new RequestTrackDevice("group", "device1"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		
+		groupActor.tell(new RequestTrackDevice("group", "device2"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		
+		groupActor.tell(new RecordTemperatureBatch(0L,
+				new String[]{"device1", "device2", "unknown", "device1"},
+				new double[]{1.0, 2.0, 3.0, 4.0},
+				new long[]{10L, 10L, 10L, 20L}), probe.testActor());
+		
+		TemperatureBatchRecorded ack = probe.expectMsgClass(TemperatureBatchRecorded.class);
+		assertEquals(0L, ack.requestId);
+		assertArrayEquals(new byte[]{
+				TemperatureBatchRecorded.RECORDED,
+				TemperatureBatchRecorded.RECORDED,
+				TemperatureBatchRecorded.UNKNOWN_DEVICE,
+				TemperatureBatchRecorded.RECORDED}, ack.outcomes);
+		
+		groupActor.tell(new RequestAllTemperatures(1L), probe.testActor());
+		RespondAllTemperatures response = probe.expectMsgClass(RespondAllTemperatures.class);
+		assertEquals(1L, response.requestId);
+		
+		Map<String, TemperatureReading> expectedTemperatures = new HashMap<>();
+		expectedTemperatures.put("device1", new Temperature(4.0));
+		expectedTemperatures.put("device2", new Temperature(2.0));
+		
+		assertTrue(expectedTemperatures.equals(response.temperatures));
+	}
+	
+	@Test
+	public void testAnswerCachedTemperaturesPushedByDevices(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group",
+				DeviceGroupSettings.create().withLastValueCache(true)));
+		
+		groupActor.tell(new RequestTrackDevice("group", "device1"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor1 = probe.lastSender();
+		
+		groupActor.tell(new RequestTrackDevice("group", "device2"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		
+		groupActor.tell(new RequestTrackDevice("group", "device3"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		
+		deviceActor1.tell(new RecordTemperature(0L, 1.0, 100L), probe.testActor());
+		assertEquals(0L, probe.expectMsgClass(TemperatureRecorded.class).requestId);
+		
+		groupActor.tell(new RecordTemperatureBatch(1L, new String[]{"device2"},
+				new double[]{2.0}, new long[]{200L}), probe.testActor());
+		probe.expectMsgClass(TemperatureBatchRecorded.class);
+		
+		groupActor.tell(new RequestCachedTemperatures(2L), probe.testActor());
+		RespondCachedTemperatures response = probe.expectMsgClass(RespondCachedTemperatures.class);
+		assertEquals(2L, response.requestId);
+		
+		Map<String, Double> values = new HashMap<>();
+		Map<String, Long> timestamps = new HashMap<>();
+		for(int i = 0; i < response.deviceIds.length; i++){
+			values.put(response.deviceIds[i], response.values[i]);
+			timestamps.put(response.deviceIds[i], response.timestamps[i]);
+		}
+		
+		assertEquals(3, values.size());
+		assertEquals(1.0, values.get("device1"), 0.0);
+		assertEquals(100L, (long) timestamps.get("device1"));
+		assertEquals(2.0, values.get("device2"), 0.0);
+		assertEquals(200L, (long) timestamps.get("device2"));
+		assertEquals(RespondCachedTemperatures.NO_READING, (long) timestamps.get("device3"));
+	}
+	
+	@Test
+	public void testSummarizeTemperaturesInsideGroup(){
+		summarizeTemperatures(DeviceGroupSettings.create());
+		summarizeTemperatures(DeviceGroupSettings.create().withLastValueCache(true));
+	}
+	
+	private void summarizeTemperatures(DeviceGroupSettings settings){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group", settings));
+		
+		String[] deviceIds = new String[100];
+		double[] values = new double[100];
+		long[] timestamps = new long[100];
+		for(int i = 0; i < 100; i++){
+			deviceIds[i] = "device"+i;
+			values[i] = i+1;
+			groupActor.tell(new RequestTrackDevice("group", deviceIds[i]), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+		}
+		groupActor.tell(new RequestTrackDevice("group", "silent"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		
+		groupActor.tell(new RecordTemperatureBatch(0L, deviceIds, values, timestamps), probe.testActor());
+		probe.expectMsgClass(TemperatureBatchRecorded.class);
+		
+		groupActor.tell(new RequestGroupStatistics(1L), probe.testActor());
+		RespondGroupStatistics response = probe.expectMsgClass(RespondGroupStatistics.class);
+		assertEquals(1L, response.requestId);
+		
+		TemperatureStatistics statistics = response.statistics;
+		assertEquals(100L, statistics.count);
+		assertEquals(1.0, statistics.min, 0.0);
+		assertEquals(100.0, statistics.max, 0.0);
+		assertEquals(50.5, statistics.mean(), 1e-9);
+		assertEquals(50.0, statistics.p50(), TemperatureStatistics.RESOLUTION);
+		assertEquals(95.0, statistics.p95(), TemperatureStatistics.RESOLUTION);
+		assertEquals(99.0, statistics.p99(), TemperatureStatistics.RESOLUTION);
+	}
+	
+	@Test
+	public void testReadHistoryFromStoreWithRetention() throws IOException {
+		//Segments of four readings, keeping the ones newer than 300 ms before the newest reading
+		HistoryStoreSettings store = new HistoryStoreSettings(folder.newFolder(), 4, 300L);
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group",
+				DeviceGroupSettings.create().withHistoryStore(store)));
+		
+		groupActor.tell(new RequestTrackDevice("group", "device1"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor1 = probe.lastSender();
+		
+		groupActor.tell(new RequestTrackDevice("group", "device2"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		
+		for(int i = 0; i < 12; i++){
+			deviceActor1.tell(new RecordTemperature(i, i, i*100L), probe.testActor());
+			probe.expectMsgClass(TemperatureRecorded.class);
+		}
+		groupActor.tell(new RecordTemperatureBatch(12L, new String[]{"device2"},
+				new double[]{50.0}, new long[]{1150L}), probe.testActor());
+		probe.expectMsgClass(TemperatureBatchRecorded.class);
+		
+		//The segments with the readings until 300 and until 700 were deleted
+		//when the third and the fourth segments were created
+		groupActor.tell(new ReadTemperatureHistory(13L, "device1", 0L, 5000L), probe.testActor());
+		RespondTemperatureRange all = probe.expectMsgClass(RespondTemperatureRange.class);
+		assertEquals(13L, all.requestId);
+		assertArrayEquals(new long[]{800L, 900L, 1000L, 1100L}, all.timestamps);
+		
+		groupActor.tell(new ReadTemperatureHistory(14L, "device1", 650L, 950L), probe.testActor());
+		RespondTemperatureRange range = probe.expectMsgClass(RespondTemperatureRange.class);
+		assertArrayEquals(new double[]{8.0, 9.0}, range.values, 0.0);
+		
+		groupActor.tell(new ReadTemperatureHistory(15L, "device2", 0L, 5000L), probe.testActor());
+		RespondTemperatureRange other = probe.expectMsgClass(RespondTemperatureRange.class);
+		assertArrayEquals(new long[]{1150L}, other.timestamps);
+	}
+	
+	@Test
+	public void testPassivateIdleDevicesAndActivateThemAgain(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group",
+				DeviceGroupSettings.create().withPassivation(new FiniteDuration(200, TimeUnit.MILLISECONDS))));
+		
+		groupActor.tell(new RequestTrackDevice("group", "device1"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor1 = probe.lastSender();
+		
+		groupActor.tell(new RequestTrackDevice("group", "device2"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor2 = probe.lastSender();
+		
+		groupActor.tell(new DeviceEnvelope("group", "device1", new RecordTemperature(0L, 1.0)), probe.testActor());
+		assertEquals(0L, probe.expectMsgClass(TemperatureRecorded.class).requestId);
+		
+		//Both devices stop after being idle, but they are still part of the group
+		probe.watch(deviceActor1);
+		probe.watch(deviceActor2);
+		Set<ActorRef> terminated = new HashSet<>();
+		terminated.add(probe.expectMsgClass(Terminated.class).getActor());
+		terminated.add(probe.expectMsgClass(Terminated.class).getActor());
+		assertEquals(Stream.of(deviceActor1, deviceActor2).collect(Collectors.toSet()), terminated);
+		
+		groupActor.tell(new DeviceGroup.RequestDeviceList(1L), probe.testActor());
+		assertEquals(Stream.of("device1","device2").collect(Collectors.toSet()),
+				probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).ids);
+		
+		groupActor.tell(new RequestAllTemperatures(2L), probe.testActor());
+		Map<String, TemperatureReading> expectedTemperatures = new HashMap<>();
+		expectedTemperatures.put("device1", new Temperature(1.0));
+		expectedTemperatures.put("device2", new TemperatureNotAvailable());
+		assertEquals(expectedTemperatures, probe.expectMsgClass(RespondAllTemperatures.class).temperatures);
+		
+		//The next message starts the device again, with its last reading
+		groupActor.tell(new DeviceEnvelope("group", "device1", new ReadTemperature(3L)), probe.testActor());
+		RespondTemperature response = probe.expectMsgClass(RespondTemperature.class);
+		assertEquals(3L, response.requestId);
+		assertEquals(Optional.of(1.0), response.value);
+		
+		groupActor.tell(new RequestTrackDevice("group", "device2"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		assertNotEquals(deviceActor2, probe.lastSender());
+	}
+	
+	@Test
+	public void testKeepRollupsOfPassivatedDevices(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group", DeviceGroupSettings.create()
+				.withPassivation(new FiniteDuration(200, TimeUnit.MILLISECONDS)).withRollups(5, 2)));
+		
+		groupActor.tell(new RequestTrackDevice("group", "device"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor = probe.lastSender();
+		long[] timestamps = {60000L, 70000L, 130000L};
+		for(int i = 0; i < timestamps.length; i++){
+			groupActor.tell(new DeviceEnvelope("group", "device", new RecordTemperature(i, i + 1.0, timestamps[i])),
+					probe.testActor());
+			probe.expectMsgClass(TemperatureRecorded.class);
+		}
+		
+		probe.watch(deviceActor);
+		probe.expectTerminated(deviceActor, probe.expectTerminated$default$2());
+		
+		//The device starts again with the rollups it handed over, and keeps adding to them
+		groupActor.tell(new DeviceEnvelope("group", "device", new RecordTemperature(3L, 5.0, 140000L)),
+				probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		groupActor.tell(new DeviceEnvelope("group", "device",
+				new ReadRollups(4L, ReadRollups.Resolution.MINUTE, 0L, 120000L)), probe.testActor());
+		RespondRollups minutes = probe.expectMsgClass(RespondRollups.class);
+		assertArrayEquals(new long[]{60000L, 120000L}, minutes.starts);
+		assertArrayEquals(new long[]{2L, 2L}, minutes.counts);
+		assertArrayEquals(new double[]{1.5, 4.0}, minutes.means, 1e-9);
+		system.stop(groupActor);
+	}
+	
+	@Test
+	public void testKeepHistoryOfPassivatedDevices(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group",
+				DeviceGroupSettings.create().withPassivation(new FiniteDuration(200, TimeUnit.MILLISECONDS))));
+		
+		groupActor.tell(new RequestTrackDevice("group", "device"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor = probe.lastSender();
+		for(int i = 0; i < 3; i++){
+			groupActor.tell(new DeviceEnvelope("group", "device", new RecordTemperature(i, i, 100L * (i+1))),
+					probe.testActor());
+			probe.expectMsgClass(TemperatureRecorded.class);
+		}
+		
+		probe.watch(deviceActor);
+		probe.expectTerminated(deviceActor, probe.expectTerminated$default$2());
+		
+		//The device starts again with the history it handed over
+		groupActor.tell(new DeviceEnvelope("group", "device", new ReadTemperatureRange(3L, 0L, 1000L)),
+				probe.testActor());
+		RespondTemperatureRange range = probe.expectMsgClass(RespondTemperatureRange.class);
+		assertArrayEquals(new long[]{100L, 200L, 300L}, range.timestamps);
+		assertArrayEquals(new double[]{0.0, 1.0, 2.0}, range.values, 0.0);
+		system.stop(groupActor);
+	}
+	
+	@Test
+	public void testAnswerQueriesThatRacePassivationWithTheLastReading(){
+		DeviceGroupSettings settings = DeviceGroupSettings.create().withPassivation(new FiniteDuration(1, TimeUnit.HOURS));
+		
+		//The query asks the device before or after the Passivate, depending on
+		//the scheduling, so the race is run a few times
+		for(int i = 0; i < 20; i++){
+			ActorRef groupActor = system.actorOf(DeviceGroup.props("group", settings));
+			groupActor.tell(new RequestTrackDevice("group", "device"), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+			ActorRef deviceActor = probe.lastSender();
+			groupActor.tell(new DeviceEnvelope("group", "device", new RecordTemperature(0L, 1.0)), probe.testActor());
+			probe.expectMsgClass(TemperatureRecorded.class);
+			
+			groupActor.tell(new RequestAllTemperatures(1L), probe.testActor());
+			groupActor.tell(new DeviceGroup.DeviceIdle("device", 1.0, 100L), deviceActor);
+			
+			assertEquals(new Temperature(1.0), probe.expectMsgClass(RespondAllTemperatures.class).temperatures.get("device"));
+			system.stop(groupActor);
+		}
+	}
+	
+	@Test
+	public void testShareCollectionBetweenConcurrentRequests(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		LongAdder coalesced = IotMetrics.get(system).counter("group.coalesced-queries");
+		
+		for(int i = 1; i <= 2; i++){
+			groupActor.tell(new RequestTrackDevice("group", "device"+i), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+			probe.lastSender().tell(new RecordTemperature(0L, i), probe.testActor());
+			probe.expectMsgClass(TemperatureRecorded.class);
+		}
+		
+		//The requests that arrive before a collection ends wait for it
+		TestKit[] requesters = new TestKit[5];
+		for(int i = 0; i < requesters.length; i++){
+			requesters[i] = new TestKit(system);
+		}
+		long before = coalesced.sum();
+		long collectionsBefore = collections();
+		for(int i = 0; i < requesters.length; i++){
+			groupActor.tell(new RequestAllTemperatures(i), requesters[i].testActor());
+		}
+		
+		Map<String, TemperatureReading> expectedTemperatures = new HashMap<>();
+		expectedTemperatures.put("device1", new Temperature(1.0));
+		expectedTemperatures.put("device2", new Temperature(2.0));
+		for(int i = 0; i < requesters.length; i++){
+			RespondAllTemperatures response = requesters[i].expectMsgClass(RespondAllTemperatures.class);
+			assertEquals(i, response.requestId);
+			assertEquals(expectedTemperatures, response.temperatures);
+		}
+		//Every request either started a collection or shared one
+		long collections = collections() - collectionsBefore;
+		assertTrue(collections < requesters.length);
+		assertEquals(requesters.length - collections, coalesced.sum() - before);
+	}
+	
+	@Test
+	public void testAnswerWaitingRequestsWhenCollectionStops(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		groupActor.tell(new RequestTrackDevice("group", "device"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor = probe.lastSender();
+		
+		//The device is kept busy, so the collection still waits for it when its query stops
+		TestKit recorder = new TestKit(system);
+		for(int i = 0; i < 20000; i++){
+			deviceActor.tell(new RecordTemperature(i, 1.0), recorder.testActor());
+		}
+		TestKit[] requesters = {new TestKit(system), new TestKit(system)};
+		for(int i = 0; i < requesters.length; i++){
+			groupActor.tell(new RequestAllTemperatures(i), requesters[i].testActor());
+		}
+		
+		//The queries are the children without a name
+		ActorSelection queries = system.actorSelection(groupActor.path().child("$*"));
+		probe.awaitAssert(new Function0<Object>() {
+			
+			@Override
+			public Object apply() {
+				queries.tell(new Identify(0L), probe.testActor());
+				assertTrue(probe.expectMsgClass(ActorIdentity.class).getActorRef().isPresent());
+				return null;
+			}
+		}, probe.awaitAssert$default$2(), probe.awaitAssert$default$3());
+		queries.tell(PoisonPill.getInstance(), ActorRef.noSender());
+		
+		for(int i = 0; i < requesters.length; i++){
+			RespondAllTemperatures response = requesters[i].expectMsgClass(RespondAllTemperatures.class);
+			assertEquals(i, response.requestId);
+			assertEquals(Collections.singletonMap("device", new DeviceTimedOut()), response.temperatures);
+		}
+		system.stop(groupActor);
+	}
+	
+	private static long collections(){
+		HistogramSnapshot latency = IotMetrics.get(system).histogramSnapshots().get("group-query.latency");
+		return latency == null ? 0 : latency.count;
+	}
+	
+	@Test
+	public void testCollectSeparatelyForDifferentTargets(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		LongAdder coalesced = IotMetrics.get(system).counter("group.coalesced-queries");
+		
+		for(int i = 1; i <= 2; i++){
+			groupActor.tell(new RequestTrackDevice("group", "device"+i), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+		}
+		
+		TestKit quorumRequester = new TestKit(system);
+		long before = coalesced.sum();
+		groupActor.tell(new RequestAllTemperatures(1L), probe.testActor());
+		groupActor.tell(RequestAllTemperatures.quorum(2L, new FiniteDuration(1, TimeUnit.SECONDS), 1),
+				quorumRequester.testActor());
+		
+		assertEquals(2, probe.expectMsgClass(RespondAllTemperatures.class).temperatures.size());
+		RespondAllTemperatures quorum = quorumRequester.expectMsgClass(RespondAllTemperatures.class);
+		assertEquals(2L, quorum.requestId);
+		assertEquals(2, quorum.temperatures.size());
+		assertEquals(0L, coalesced.sum() - before);
+	}
+	
+	@Test
+	public void testConflateUpdatesPerSubscriber(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		ActorRef[] deviceActors = new ActorRef[2];
+		for(int i = 0; i < deviceActors.length; i++){
+			groupActor.tell(new RequestTrackDevice("group", "device"+(i+1)), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+			deviceActors[i] = probe.lastSender();
+		}
+		
+		TestKit everyReading = new TestKit(system);
+		TestKit conflated = new TestKit(system);
+		groupActor.tell(new SubscribeGroup(1L), everyReading.testActor());
+		everyReading.expectMsgClass(Subscribed.class);
+		groupActor.tell(new SubscribeGroup(2L, Optional.of(new FiniteDuration(1, TimeUnit.SECONDS))),
+				conflated.testActor());
+		conflated.expectMsgClass(Subscribed.class);
+		
+		double[] values = {1.0, 2.0, 3.0, 4.0};
+		int[] devices = {0, 0, 1, 0};
+		for(int i = 0; i < values.length; i++){
+			deviceActors[devices[i]].tell(new RecordTemperature(i, values[i]), probe.testActor());
+			probe.expectMsgClass(TemperatureRecorded.class);
+		}
+		
+		for(int i = 0; i < values.length; i++){
+			TemperatureUpdates updates = everyReading.expectMsgClass(TemperatureUpdates.class);
+			assertArrayEquals(new double[]{values[i]}, updates.values, 0.0);
+		}
+		
+		//The first reading comes right away, the others are merged until the window ends
+		TemperatureUpdates first = conflated.expectMsgClass(TemperatureUpdates.class);
+		assertEquals(2L, first.requestId);
+		assertArrayEquals(new double[]{1.0}, first.values, 0.0);
+		TemperatureUpdates merged = conflated.expectMsgClass(TemperatureUpdates.class);
+		assertArrayEquals(new String[]{"device1", "device2"}, merged.deviceIds);
+		assertArrayEquals(new double[]{4.0, 3.0}, merged.values, 0.0);
+		
+		//After an Unsubscribe, nothing more is sent
+		groupActor.tell(new Unsubscribe(3L), everyReading.testActor());
+		deviceActors[1].tell(new RecordTemperature(5L, 5.0), probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		assertArrayEquals(new double[]{5.0}, conflated.expectMsgClass(TemperatureUpdates.class).values, 0.0);
+		everyReading.expectNoMessage(new FiniteDuration(200, TimeUnit.MILLISECONDS));
+	}
+	
+	@Test
+	public void testRaiseAndClearDeviceAlertsWithHysteresis(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		groupActor.tell(new RequestTrackDevice("group", "device1"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor = probe.lastSender();
+		
+		TestKit listener = new TestKit(system);
+		groupActor.tell(new SubscribeAlerts(1L), listener.testActor());
+		listener.expectMsgClass(Subscribed.class);
+		groupActor.tell(new AddAlertRule(2L, AlertRule.above("hot", 30.0, 2.0)), probe.testActor());
+		assertEquals(1, probe.expectMsgClass(AlertRulesUpdated.class).rules);
+		groupActor.tell(new AddAlertRule(3L, AlertRule.rateOfChange("jump", 5.0, 1.0)), probe.testActor());
+		assertEquals(2, probe.expectMsgClass(AlertRulesUpdated.class).rules);
+		
+		//Inside the hysteresis the alert stays raised, and a change of 10 degrees in a second is too fast
+		double[] values = {25.0, 31.0, 29.0, 27.0, 37.0};
+		long[] timestamps = {0L, 10000L, 20000L, 30000L, 31000L};
+		for(int i = 0; i < values.length; i++){
+			deviceActor.tell(new RecordTemperature(i, values[i], timestamps[i]), probe.testActor());
+			probe.expectMsgClass(TemperatureRecorded.class);
+		}
+		
+		AlertRaised hot = listener.expectMsgClass(AlertRaised.class);
+		assertEquals("hot", hot.ruleId);
+		assertEquals(Optional.of("device1"), hot.deviceId);
+		assertEquals(10000L, hot.timestamp);
+		AlertCleared cooled = listener.expectMsgClass(AlertCleared.class);
+		assertEquals(27.0, cooled.value, 0.0);
+		assertEquals("hot", listener.expectMsgClass(AlertRaised.class).ruleId);
+		AlertRaised jump = listener.expectMsgClass(AlertRaised.class);
+		assertEquals("jump", jump.ruleId);
+		assertEquals(10.0, jump.value, 0.0);
+		
+		//Removing a rule at runtime clears its raised alert
+		groupActor.tell(new RemoveAlertRule(4L, "hot"), probe.testActor());
+		assertEquals(1, probe.expectMsgClass(AlertRulesUpdated.class).rules);
+		assertEquals("hot", listener.expectMsgClass(AlertCleared.class).ruleId);
+		deviceActor.tell(new RecordTemperature(5L, 40.0, 41000L), probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		assertEquals("jump", listener.expectMsgClass(AlertCleared.class).ruleId);
+		listener.expectNoMessage(new FiniteDuration(200, TimeUnit.MILLISECONDS));
+	}
+	
+	@Test
+	public void testKeepAlertRulesAfterDeviceRestart(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		groupActor.tell(new RequestTrackDevice("group", "device1"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor = probe.lastSender();
+		
+		TestKit listener = new TestKit(system);
+		groupActor.tell(new SubscribeAlerts(1L), listener.testActor());
+		listener.expectMsgClass(Subscribed.class);
+		groupActor.tell(new AddAlertRule(2L, AlertRule.above("hot", 30.0, 2.0)), probe.testActor());
+		probe.expectMsgClass(AlertRulesUpdated.class);
+		
+		//A batch without readings makes the device fail, so it is restarted
+		deviceActor.tell(new Device.RecordReadings(new double[0], new long[0]), probe.testActor());
+		restarted(groupActor, deviceActor);
+		
+		deviceActor.tell(new RecordTemperature(3L, 35.0), probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		assertEquals("hot", listener.expectMsgClass(AlertRaised.class).ruleId);
+	}
+	
+	@Test
+	public void testKeepGroupSubscriptionAndEndDeviceSubscriptionAfterDeviceRestart(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		groupActor.tell(new RequestTrackDevice("group", "device1"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor = probe.lastSender();
+		
+		TestKit groupSubscriber = new TestKit(system);
+		groupActor.tell(new SubscribeGroup(1L), groupSubscriber.testActor());
+		groupSubscriber.expectMsgClass(Subscribed.class);
+		TestKit deviceSubscriber = new TestKit(system);
+		groupActor.tell(new SubscribeDevice(2L, "device1"), deviceSubscriber.testActor());
+		deviceSubscriber.expectMsgClass(Subscribed.class);
+		
+		deviceActor.tell(new Device.RecordReadings(new double[0], new long[0]), probe.testActor());
+		restarted(groupActor, deviceActor);
+		
+		//The subscription kept by the device is ended, the one kept by the group still gets the readings
+		assertEquals(2L, deviceSubscriber.expectMsgClass(SubscriptionEnded.class).requestId);
+		deviceActor.tell(new RecordTemperature(3L, 21.0), probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		assertArrayEquals(new double[]{21.0}, groupSubscriber.expectMsgClass(TemperatureUpdates.class).values, 0.0);
+		deviceSubscriber.expectNoMessage(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+	}
+	
+	//Method to wait until a restarted device got back its state from the
+	//group. The device asks for it before handling the read, and the group
+	//answers before handling the device list
+	private void restarted(ActorRef groupActor, ActorRef deviceActor){
+		deviceActor.tell(new ReadTemperature(100L), probe.testActor());
+		probe.expectMsgClass(RespondTemperature.class);
+		groupActor.tell(new DeviceGroup.RequestDeviceList(101L), probe.testActor());
+		probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class);
+	}
+	
+	@Test
+	public void testRaiseAlertWhenEnoughDevicesAreAbove(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		ActorRef[] deviceActors = new ActorRef[3];
+		for(int i = 0; i < deviceActors.length; i++){
+			groupActor.tell(new RequestTrackDevice("group", "device"+(i+1)), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+			deviceActors[i] = probe.lastSender();
+		}
+		
+		TestKit listener = new TestKit(system);
+		groupActor.tell(new SubscribeAlerts(1L), listener.testActor());
+		listener.expectMsgClass(Subscribed.class);
+		groupActor.tell(new AddAlertRule(2L, AlertRule.devicesAbove("crowd", 30.0, 1.0, 2)), probe.testActor());
+		probe.expectMsgClass(AlertRulesUpdated.class);
+		
+		deviceActors[0].tell(new RecordTemperature(3L, 35.0), probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		listener.expectNoMessage(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+		
+		//The batch readings count too, and the second device above raises the alert
+		groupActor.tell(new RecordTemperatureBatch(4L, new String[]{"device2"},
+				new double[]{32.0}, new long[]{System.currentTimeMillis()}), probe.testActor());
+		probe.expectMsgClass(TemperatureBatchRecorded.class);
+		AlertRaised crowd = listener.expectMsgClass(AlertRaised.class);
+		assertEquals(Optional.empty(), crowd.deviceId);
+		assertEquals(2.0, crowd.value, 0.0);
+		
+		//A device stops counting only below the hysteresis
+		deviceActors[0].tell(new RecordTemperature(5L, 29.5), probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		listener.expectNoMessage(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+		deviceActors[0].tell(new RecordTemperature(6L, 28.0), probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		assertEquals(1.0, listener.expectMsgClass(AlertCleared.class).value, 0.0);
+	}
+	
+	@Test
+	public void testReuseRecentCollectionUntilDevicesChange(){
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group",
+				DeviceGroupSettings.create().withQueryResultTtl(new FiniteDuration(1, TimeUnit.MINUTES))));
+		
+		groupActor.tell(new RequestTrackDevice("group", "device1"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor = probe.lastSender();
+		deviceActor.tell(new RecordTemperature(0L, 1.0), probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		
+		groupActor.tell(new RequestAllTemperatures(1L), probe.testActor());
+		assertEquals(new Temperature(1.0), probe.expectMsgClass(RespondAllTemperatures.class).temperatures.get("device1"));
+		
+		//Inside the TTL, the last result is reused
+		deviceActor.tell(new RecordTemperature(0L, 2.0), probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		groupActor.tell(new RequestAllTemperatures(2L), probe.testActor());
+		RespondAllTemperatures cached = probe.expectMsgClass(RespondAllTemperatures.class);
+		assertEquals(2L, cached.requestId);
+		assertEquals(new Temperature(1.0), cached.temperatures.get("device1"));
+		
+		//A new device makes the group collect again
+		groupActor.tell(new RequestTrackDevice("group", "device2"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		groupActor.tell(new RequestAllTemperatures(3L), probe.testActor());
+		RespondAllTemperatures collected = probe.expectMsgClass(RespondAllTemperatures.class);
+		assertEquals(new Temperature(2.0), collected.temperatures.get("device1"));
+		assertEquals(new TemperatureNotAvailable(), collected.temperatures.get("device2"));
+	}
 }
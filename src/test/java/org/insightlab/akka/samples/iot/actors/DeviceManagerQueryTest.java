@@ -0,0 +1,139 @@
+package org.insightlab.akka.samples.iot.actors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.insightlab.akka.samples.iot.messages.routing.GroupEnvelope;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestGroupStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondGroupStatistics;
+import org.insightlab.akka.samples.iot.states.temperature.Temperature;
+import org.insightlab.akka.samples.iot.states.temperature.TemperatureReading;
+import org.insightlab.akka.samples.iot.statistics.TemperatureStatistics;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.testkit.TestKit;
+import scala.concurrent.duration.FiniteDuration;
+
+public class DeviceManagerQueryTest {
+
+	static ActorSystem system;
+	
+	@BeforeClass
+	public static void setUpClass(){
+		system = ActorSystem.create("iot-test-system");
+	}
+	
+	@Test
+	public void testMergeTemperaturesFromAllGroups(){
+		TestKit requester = new TestKit(system);
+		
+		TestKit group1 = new TestKit(system);
+		TestKit group2 = new TestKit(system);
+		
+		Map<ActorRef,String> actorToGroup = new HashMap<>();
+		actorToGroup.put(group1.testActor(), "group1");
+		actorToGroup.put(group2.testActor(), "group2");
+		
+		ActorRef queryActor = system.actorOf(DeviceManagerQuery.props(
+				actorToGroup, 1L, requester.testActor(), new FiniteDuration(3, TimeUnit.SECONDS)));
+		
+		long request1 = group1.expectMsgClass(RequestAllTemperatures.class).requestId;
+		long request2 = group2.expectMsgClass(RequestAllTemperatures.class).requestId;
+		
+		Map<String, TemperatureReading> temperatures1 = new HashMap<>();
+		temperatures1.put("device1", new Temperature(1.0));
+		Map<String, TemperatureReading> temperatures2 = new HashMap<>();
+		temperatures2.put("device2", new Temperature(2.0));
+		
+		//The answers of the groups come from their own query actors
+		queryActor.tell(new RespondAllTemperatures(request1, temperatures1), ActorRef.noSender());
+		queryActor.tell(new RespondAllTemperatures(request2, temperatures2), ActorRef.noSender());
+		
+		RespondAllGroupsTemperatures response = requester.expectMsgClass(RespondAllGroupsTemperatures.class);
+		assertEquals(1L, response.requestId);
+		assertFalse(response.isPartial());
+		
+		Map<String, Map<String, TemperatureReading>> expectedTemperatures = new HashMap<>();
+		expectedTemperatures.put("group1", temperatures1);
+		expectedTemperatures.put("group2", temperatures2);
+		
+		assertTrue(expectedTemperatures.equals(response.temperatures));
+	}
+	
+	@Test
+	public void testReportGroupsThatTimeOutOrStop(){
+		TestKit requester = new TestKit(system);
+		
+		TestKit group1 = new TestKit(system);
+		TestKit group2 = new TestKit(system);
+		TestKit group3 = new TestKit(system);
+		
+		Map<ActorRef,String> actorToGroup = new HashMap<>();
+		actorToGroup.put(group1.testActor(), "group1");
+		actorToGroup.put(group2.testActor(), "group2");
+		actorToGroup.put(group3.testActor(), "group3");
+		
+		ActorRef queryActor = system.actorOf(DeviceManagerQuery.props(
+				actorToGroup, 1L, requester.testActor(), new FiniteDuration(1, TimeUnit.SECONDS)));
+		
+		long request1 = group1.expectMsgClass(RequestAllTemperatures.class).requestId;
+		group2.expectMsgClass(RequestAllTemperatures.class);
+		group3.expectMsgClass(RequestAllTemperatures.class);
+		
+		Map<String, TemperatureReading> temperatures1 = new HashMap<>();
+		temperatures1.put("device1", new Temperature(1.0));
+		queryActor.tell(new RespondAllTemperatures(request1, temperatures1), ActorRef.noSender());
+		group3.testActor().tell(PoisonPill.getInstance(), ActorRef.noSender());
+		
+		RespondAllGroupsTemperatures response = requester.expectMsgClass(
+				FiniteDuration.create(3, TimeUnit.SECONDS), RespondAllGroupsTemperatures.class);
+		assertEquals(1L, response.requestId);
+		assertTrue(response.isPartial());
+		assertEquals(Collections.singletonMap("group1", temperatures1), response.temperatures);
+		assertEquals(2, response.missingGroups.size());
+		assertTrue(response.missingGroups.contains("group2"));
+		assertTrue(response.missingGroups.contains("group3"));
+	}
+	
+	@Test
+	public void testRouteRequestsToGroupsKnownById(){
+		TestKit requester = new TestKit(system);
+		TestKit router = new TestKit(system);
+		
+		ActorRef queryActor = system.actorOf(DeviceManagerQuery.routedProps(
+				Stream.of("group1", "group2").collect(Collectors.toSet()), router.testActor(),
+				1L, requester.testActor(), new FiniteDuration(1, TimeUnit.SECONDS), true));
+		
+		//Each group is reached through the router, and only the first one answers
+		GroupEnvelope first = router.expectMsgClass(GroupEnvelope.class);
+		GroupEnvelope second = router.expectMsgClass(GroupEnvelope.class);
+		assertEquals(Stream.of("group1", "group2").collect(Collectors.toSet()),
+				Stream.of(first.groupId, second.groupId).collect(Collectors.toSet()));
+		long request = ((RequestGroupStatistics) first.message).requestId;
+		queryActor.tell(new RespondGroupStatistics(request, TemperatureStatistics.of(new double[]{1.0, 3.0}, 2)),
+				ActorRef.noSender());
+		
+		RespondAllGroupsStatistics response = requester.expectMsgClass(
+				FiniteDuration.create(3, TimeUnit.SECONDS), RespondAllGroupsStatistics.class);
+		assertEquals(1L, response.requestId);
+		assertEquals(2L, response.statistics.count);
+		assertEquals(Collections.singleton(second.groupId), response.missingGroups);
+	}
+
+}
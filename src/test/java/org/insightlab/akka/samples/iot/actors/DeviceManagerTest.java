@@ -1,18 +1,35 @@
 package org.insightlab.akka.samples.iot.actors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.insightlab.akka.samples.iot.messages.registration.DeviceRegistred;
 import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.routing.GroupEnvelope;
 import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsTemperatures;
 import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRecorded;
+import org.insightlab.akka.samples.iot.states.temperature.Temperature;
+import org.insightlab.akka.samples.iot.states.temperature.TemperatureNotAvailable;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
@@ -25,6 +42,9 @@ public class DeviceManagerTest {
 	static ActorSystem system;
 	TestKit probe;
 	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
 	@BeforeClass
 	public static void setUpClass(){
 		system = ActorSystem.create("iot-test-system");
@@ -91,5 +111,175 @@ public class DeviceManagerTest {
 		
 		assertEquals(deviceActor1, deviceActor2);
 	}
+	
+	@Test
+	public void testCollectTemperaturesFromSelectedGroups(){
+		ActorRef manageActor = system.actorOf(DeviceManager.props());
+		
+		manageActor.tell(new RequestTrackDevice("group1", "device1"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor1 = probe.lastSender();
+		
+		manageActor.tell(new RequestTrackDevice("group2", "device2"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		ActorRef deviceActor2 = probe.lastSender();
+		
+		deviceActor1.tell(new RecordTemperature(0L, 1.0), probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		
+		deviceActor2.tell(new RecordTemperature(1L, 2.0), probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		
+		manageActor.tell(new RequestAllGroupsTemperatures(2L), probe.testActor());
+		RespondAllGroupsTemperatures all = probe.expectMsgClass(RespondAllGroupsTemperatures.class);
+		assertEquals(2L, all.requestId);
+		assertFalse(all.isPartial());
+		assertEquals(Stream.of("group1","group2").collect(Collectors.toSet()), all.temperatures.keySet());
+		assertEquals(new Temperature(2.0), all.temperatures.get("group2").get("device2"));
+		
+		manageActor.tell(new RequestAllGroupsTemperatures(3L,
+				Stream.of("group1","unknown").collect(Collectors.toSet())), probe.testActor());
+		RespondAllGroupsTemperatures filtered = probe.expectMsgClass(RespondAllGroupsTemperatures.class);
+		assertEquals(3L, filtered.requestId);
+		assertEquals(Collections.singleton("group1"), filtered.temperatures.keySet());
+		assertEquals(new Temperature(1.0), filtered.temperatures.get("group1").get("device1"));
+	}
+	
+	@Test
+	public void testFindNewGroupRightAfterRegistration(){
+		ActorRef manageActor = system.actorOf(DeviceManager.props(DeviceGroupSettings.create(), 4));
+		
+		//Each query is sent as soon as the device of a new group is registered
+		for(int i = 0; i < 20; i++){
+			manageActor.tell(new RequestTrackDevice("group"+i, "device"), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+			
+			manageActor.tell(new RequestAllGroupsTemperatures(i), probe.testActor());
+			RespondAllGroupsTemperatures all = probe.expectMsgClass(RespondAllGroupsTemperatures.class);
+			assertEquals(i + 1, all.temperatures.size());
+			assertTrue(all.temperatures.containsKey("group"+i));
+		}
+	}
+	
+	@Test
+	public void testMergeStatisticsFromManyGroups(){
+		ActorRef manageActor = system.actorOf(DeviceManager.props());
+		
+		for(int i = 1; i <= 4; i++){
+			manageActor.tell(new RequestTrackDevice("group"+(i%2), "device"+i), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+			
+			probe.lastSender().tell(new RecordTemperature(i, i*10.0), probe.testActor());
+			probe.expectMsgClass(TemperatureRecorded.class);
+		}
+		
+		manageActor.tell(new RequestAllGroupsStatistics(5L), probe.testActor());
+		RespondAllGroupsStatistics response = probe.expectMsgClass(RespondAllGroupsStatistics.class);
+		assertEquals(5L, response.requestId);
+		assertFalse(response.isPartial());
+		assertEquals(4L, response.statistics.count);
+		assertEquals(10.0, response.statistics.min, 0.0);
+		assertEquals(40.0, response.statistics.max, 0.0);
+		assertEquals(25.0, response.statistics.mean(), 1e-9);
+		assertEquals(20.0, response.statistics.p50(), 1e-9);
+		
+		manageActor.tell(new RequestAllGroupsStatistics(6L, Collections.singleton("group0")), probe.testActor());
+		RespondAllGroupsStatistics filtered = probe.expectMsgClass(RespondAllGroupsStatistics.class);
+		assertEquals(2L, filtered.statistics.count);
+		assertEquals(20.0, filtered.statistics.min, 0.0);
+		assertEquals(40.0, filtered.statistics.max, 0.0);
+	}
+	
+	@Test
+	public void testRecoverDevicesAndReadingsAfterRestart() throws IOException {
+		File directory = folder.newFolder();
+		DeviceGroupSettings settings = DeviceGroupSettings.create()
+				.withPersistence(directory)
+				.withSnapshotInterval(3);
+		
+		ActorRef manageActor = system.actorOf(DeviceManager.props(settings));
+		
+		for(int i = 1; i <= 3; i++){
+			manageActor.tell(new RequestTrackDevice("group"+(i%2), "device"+i), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+			if(i < 3){
+				probe.lastSender().tell(new RecordTemperature(i, i*10.0), probe.testActor());
+				probe.expectMsgClass(TemperatureRecorded.class);
+			}
+		}
+		
+		//The groups journal the readings pushed by the devices, so we wait
+		//for the groups to handle them before stopping everything
+		manageActor.tell(new RequestAllGroupsTemperatures(3L), probe.testActor());
+		probe.expectMsgClass(RespondAllGroupsTemperatures.class);
+		
+		probe.watch(manageActor);
+		manageActor.tell(PoisonPill.getInstance(), ActorRef.noSender());
+		probe.expectTerminated(manageActor, probe.expectTerminated$default$2());
+		
+		ActorRef recoveredActor = system.actorOf(DeviceManager.props(settings));
+		recoveredActor.tell(new RequestAllGroupsTemperatures(4L), probe.testActor());
+		RespondAllGroupsTemperatures response = probe.expectMsgClass(RespondAllGroupsTemperatures.class);
+		
+		assertFalse(response.isPartial());
+		assertEquals(Stream.of("group0","group1").collect(Collectors.toSet()), response.temperatures.keySet());
+		assertEquals(new Temperature(10.0), response.temperatures.get("group1").get("device1"));
+		assertEquals(new Temperature(20.0), response.temperatures.get("group0").get("device2"));
+		assertEquals(new TemperatureNotAvailable(), response.temperatures.get("group1").get("device3"));
+	}
+	
+	@Test
+	public void testKeepGroupsWhenShardsAreAddedAndRemoved() {
+		ActorRef manageActor = system.actorOf(DeviceManager.props(DeviceGroupSettings.create(), 2));
+		
+		ActorRef[] deviceActors = new ActorRef[8];
+		for(int i = 0; i < deviceActors.length; i++){
+			manageActor.tell(new RequestTrackDevice("group"+i, "device"), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+			deviceActors[i] = probe.lastSender();
+		}
+		
+		manageActor.tell(new DeviceManager.AddShard(0L), probe.testActor());
+		DeviceManager.ShardsUpdated added = probe.expectMsgClass(DeviceManager.ShardsUpdated.class);
+		assertEquals(0L, added.requestId);
+		assertEquals(3, added.shards);
+		
+		//The groups moved to other shards are the same, so the devices are too
+		for(int i = 0; i < deviceActors.length; i++){
+			manageActor.tell(new RequestTrackDevice("group"+i, "device"), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+			assertEquals(deviceActors[i], probe.lastSender());
+		}
+		
+		for(long requestId = 1L; requestId <= 3L; requestId++){
+			manageActor.tell(new DeviceManager.RemoveShard(requestId), probe.testActor());
+			assertEquals(Math.max(1, 3-(int) requestId), probe.expectMsgClass(DeviceManager.ShardsUpdated.class).shards);
+		}
+		
+		for(int i = 0; i < deviceActors.length; i++){
+			manageActor.tell(new RequestTrackDevice("group"+i, "device"), probe.testActor());
+			probe.expectMsgClass(DeviceRegistred.class);
+			assertEquals(deviceActors[i], probe.lastSender());
+		}
+		
+		manageActor.tell(new RequestAllGroupsTemperatures(4L), probe.testActor());
+		assertEquals(deviceActors.length, probe.expectMsgClass(RespondAllGroupsTemperatures.class).temperatures.size());
+	}
+	
+	@Test
+	public void testRouteEnvelopesToGroupsAndDevices() {
+		ActorRef manageActor = system.actorOf(DeviceManager.props());
+		
+		manageActor.tell(new RequestTrackDevice("group", "device"), probe.testActor());
+		probe.expectMsgClass(DeviceRegistred.class);
+		
+		manageActor.tell(new DeviceEnvelope("group", "device", new RecordTemperature(1L, 22.0)), probe.testActor());
+		assertEquals(1L, probe.expectMsgClass(TemperatureRecorded.class).requestId);
+		
+		manageActor.tell(new GroupEnvelope("group", new RequestAllTemperatures(2L)), probe.testActor());
+		RespondAllTemperatures response = probe.expectMsgClass(RespondAllTemperatures.class);
+		assertEquals(2L, response.requestId);
+		assertEquals(new Temperature(22.0), response.temperatures.get("device"));
+	}
 
 }
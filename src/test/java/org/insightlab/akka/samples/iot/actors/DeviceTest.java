@@ -1,14 +1,26 @@
 package org.insightlab.akka.samples.iot.actors;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.lang.management.ManagementFactory;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import org.insightlab.akka.samples.iot.messages.registration.DeviceRegistred;
 import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscribeDevice;
+import org.insightlab.akka.samples.iot.messages.subscription.Subscribed;
+import org.insightlab.akka.samples.iot.messages.subscription.TemperatureUpdates;
+import org.insightlab.akka.samples.iot.messages.temperature.PushTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadRollups;
 import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperatureRange;
 import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondRollups;
 import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperatureRange;
 import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRecorded;
 import org.junit.After;
 import org.junit.Before;
@@ -16,7 +28,15 @@ import org.junit.Test;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.actor.Terminated;
+import akka.testkit.TestActorRef;
 import akka.testkit.TestKit;
+import scala.PartialFunction;
+import scala.concurrent.duration.FiniteDuration;
+import scala.runtime.BoxedUnit;
+
+import com.sun.management.ThreadMXBean;
 
 public class DeviceTest {
 	ActorSystem system;
@@ -76,4 +96,123 @@ public class DeviceTest {
 		probe.expectNoMsg();
 	}
 
+	@Test
+	public void testReplyWithReadingsInsideRange(){
+		ActorRef deviceActor = system.actorOf(Device.props("group", "device",
+				DeviceGroupSettings.create().withHistoryCapacity(3)));
+		
+		for(int i = 1; i <= 4; i++){
+			deviceActor.tell(new RecordTemperature(i, i*10.0, i*100L), probe.testActor());
+			assertEquals(i, probe.expectMsgClass(TemperatureRecorded.class).requestId);
+		}
+		
+		//The first reading was overwritten, since the history keeps only three
+		deviceActor.tell(new ReadTemperatureRange(5L, 0L, 300L), probe.testActor());
+		RespondTemperatureRange response1 = probe.expectMsgClass(RespondTemperatureRange.class);
+		assertEquals(5L, response1.requestId);
+		assertArrayEquals(new long[]{200L, 300L}, response1.timestamps);
+		assertArrayEquals(new double[]{20.0, 30.0}, response1.values, 0.0);
+		
+		deviceActor.tell(new ReadTemperatureRange(6L, 500L, 600L), probe.testActor());
+		RespondTemperatureRange response2 = probe.expectMsgClass(RespondTemperatureRange.class);
+		assertEquals(6L, response2.requestId);
+		assertEquals(0, response2.values.length);
+	}
+	
+	@Test
+	public void testReplyWithRollupsInsideRange(){
+		ActorRef deviceActor = system.actorOf(Device.props("group", "device",
+				DeviceGroupSettings.create().withRollups(2, 1)));
+		
+		//Three minutes of readings, the last one arriving late for the second minute
+		double[] values = {10.0, 20.0, 30.0, 5.0, 40.0, 15.0};
+		long[] timestamps = {0L, 30000L, 60000L, 90000L, 120000L, 100000L};
+		for(int i = 0; i < values.length; i++){
+			deviceActor.tell(new PushTemperature(values[i], timestamps[i]), probe.testActor());
+		}
+		
+		//The first minute was overwritten, since only two are kept
+		deviceActor.tell(new ReadRollups(1L, ReadRollups.Resolution.MINUTE, 0L, 120000L), probe.testActor());
+		RespondRollups minutes = probe.expectMsgClass(RespondRollups.class);
+		assertEquals(1L, minutes.requestId);
+		assertArrayEquals(new long[]{60000L, 120000L}, minutes.starts);
+		assertArrayEquals(new long[]{3L, 1L}, minutes.counts);
+		assertArrayEquals(new double[]{5.0, 40.0}, minutes.mins, 0.0);
+		assertArrayEquals(new double[]{30.0, 40.0}, minutes.maxs, 0.0);
+		assertArrayEquals(new double[]{50.0/3, 40.0}, minutes.means, 1e-9);
+		
+		deviceActor.tell(new ReadRollups(2L, ReadRollups.Resolution.HOUR, 0L, 0L), probe.testActor());
+		RespondRollups hours = probe.expectMsgClass(RespondRollups.class);
+		assertArrayEquals(new long[]{6L}, hours.counts);
+		assertArrayEquals(new double[]{20.0}, hours.means, 1e-9);
+	}
+	
+	@Test
+	public void testStorePushedTemperatureWithoutReply(){
+		ActorRef deviceActor = system.actorOf(Device.props("group", "device"));
+		
+		deviceActor.tell(new PushTemperature(24.0, 100L), probe.testActor());
+		deviceActor.tell(new ReadTemperature(1L), probe.testActor());
+		
+		//The first answer is the read, since the push isn't answered
+		RespondTemperature response = probe.expectMsgClass(RespondTemperature.class);
+		assertEquals(Optional.of(24.0), response.value);
+		probe.expectNoMessage(new FiniteDuration(200, TimeUnit.MILLISECONDS));
+	}
+	
+	@Test
+	public void testSendReadingsToSubscribersUntilTheyLeave(){
+		ActorRef deviceActor = system.actorOf(Device.props("group", "device"));
+		TestKit subscriber = new TestKit(system);
+		TestKit deadLetters = new TestKit(system);
+		system.eventStream().subscribe(deadLetters.testActor(), DeadLetter.class);
+		
+		deviceActor.tell(new SubscribeDevice(1L, "device"), subscriber.testActor());
+		assertEquals(1L, subscriber.expectMsgClass(Subscribed.class).requestId);
+		
+		deviceActor.tell(new PushTemperature(24.0, 100L), probe.testActor());
+		TemperatureUpdates updates = subscriber.expectMsgClass(TemperatureUpdates.class);
+		assertEquals(1L, updates.requestId);
+		assertArrayEquals(new String[]{"device"}, updates.deviceIds);
+		assertArrayEquals(new double[]{24.0}, updates.values, 0.0);
+		
+		//A stopped subscriber is removed, so nothing more is sent to it
+		system.stop(subscriber.testActor());
+		probe.watch(subscriber.testActor());
+		probe.expectMsgClass(Terminated.class);
+		//The device may learn about the stop a moment after the probe
+		probe.expectNoMessage(new FiniteDuration(200, TimeUnit.MILLISECONDS));
+		deviceActor.tell(new RecordTemperature(2L, 25.0), probe.testActor());
+		probe.expectMsgClass(TemperatureRecorded.class);
+		deadLetters.expectNoMessage(new FiniteDuration(1, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testPushTemperatureWithoutAllocating(){
+		TestActorRef<Device> deviceActor = TestActorRef.create(system, Device.props("group", "device"));
+		Device device = deviceActor.underlyingActor();
+		PartialFunction<Object, BoxedUnit> receive = device.createReceive().onMessage();
+		PushTemperature push = new PushTemperature(24.0, 100L);
+		
+		//The readings go through aroundReceive, as the ActorCell does, so the
+		//handling time metrics are measured too. TestActorRef.receive would
+		//allocate an Envelope of its own for each reading
+		//The first readings let the JIT compile the path
+		for(int i = 0; i < 200000; i++){
+			device.aroundReceive(receive, push);
+		}
+		
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		int readings = 100000;
+		long before = threads.getThreadAllocatedBytes(threadId);
+		for(int i = 0; i < readings; i++){
+			device.aroundReceive(receive, push);
+		}
+		long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+		
+		//Less than a byte per reading, which is what measuring itself may allocate
+		assertTrue("Allocated " + allocated + " bytes", allocated < readings);
+	}
+
 }
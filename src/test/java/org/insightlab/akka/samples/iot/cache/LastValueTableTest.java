@@ -0,0 +1,52 @@
+package org.insightlab.akka.samples.iot.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LastValueTableTest {
+	@Test
+	public void testFindReadingsAfterManyChanges(){
+		LastValueTable table = new LastValueTable();
+		Map<String, Long> expected = new HashMap<>();
+		Random random = new Random(11);
+		
+		for(int step = 0; step < 20000; step++){
+			String id = "device" + random.nextInt(300);
+			switch(random.nextInt(3)){
+			case 0:
+				table.add(id);
+				expected.putIfAbsent(id, LastValueTable.NO_READING);
+				break;
+			case 1:
+				table.remove(id);
+				expected.remove(id);
+				break;
+			default:
+				long timestamp = step;
+				assertEquals(expected.containsKey(id), table.update(id, step, timestamp));
+				if(expected.containsKey(id)) expected.put(id, timestamp);
+			}
+			assertEquals(expected.size(), table.size());
+		}
+		
+		for(int i = 0; i < 300; i++){
+			String id = "device" + i;
+			Long timestamp = expected.get(id);
+			assertEquals(timestamp != null, table.contains(id));
+			assertEquals(timestamp == null ? LastValueTable.NO_READING : timestamp.longValue(), table.timestamp(id));
+			if(timestamp != null && timestamp != LastValueTable.NO_READING){
+				assertTrue(table.hasReading(id));
+				assertEquals(timestamp.doubleValue(), table.value(id), 0.0);
+			}else{
+				assertFalse(table.hasReading(id));
+			}
+		}
+	}
+}
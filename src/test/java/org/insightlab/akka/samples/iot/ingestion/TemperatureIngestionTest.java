@@ -0,0 +1,104 @@
+package org.insightlab.akka.samples.iot.ingestion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import org.insightlab.akka.samples.iot.actors.DeviceManager;
+import org.insightlab.akka.samples.iot.messages.registration.DeviceRegistred;
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRecorded;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRejected;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.testkit.TestKit;
+import scala.concurrent.duration.FiniteDuration;
+
+public class TemperatureIngestionTest {
+	static ActorSystem system;
+	static Materializer materializer;
+	
+	@BeforeClass
+	public static void setUpClass(){
+		system = ActorSystem.create("iot-ingestion-test-system");
+		materializer = ActorMaterializer.create(system);
+	}
+	
+	@AfterClass
+	public static void tearDownClass(){
+		TestKit.shutdownActorSystem(system, TestKit.shutdownActorSystem$default$2(), true);
+	}
+	
+	@Test
+	public void testRecordReadingsThroughTheManager() throws Exception {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+		
+		CompletionStage<List<TemperatureIngestion.Ack>> acks = Source.range(0, 599)
+				.map(i -> new TemperatureIngestion.Reading("group"+(i % 3), "device"+(i % 4), i, i))
+				.via(TemperatureIngestion.flow(managerActor, IngestionSettings.create().withInFlightPerGroup(8)))
+				.runWith(Sink.seq(), materializer);
+		
+		List<TemperatureIngestion.Ack> result = acks.toCompletableFuture().get(10, TimeUnit.SECONDS);
+		assertEquals(600, result.size());
+		for(TemperatureIngestion.Ack ack : result){
+			assertTrue(ack.recorded);
+		}
+		
+		//The readings of each device were recorded in order, so the last one is kept
+		TestKit probe = new TestKit(system);
+		managerActor.tell(new DeviceEnvelope("group2", "device3", new ReadTemperature(1L)), probe.testActor());
+		RespondTemperature response = probe.expectMsgClass(RespondTemperature.class);
+		assertEquals(Optional.of(599.0), response.value);
+	}
+	
+	@Test
+	public void testWaitForTheAcksOfAGroup() throws Exception {
+		TestKit manager = new TestKit(system);
+		
+		CompletionStage<List<TemperatureIngestion.Ack>> acks = Source.range(1, 4)
+				.map(i -> new TemperatureIngestion.Reading("group", "device", i, i))
+				.via(TemperatureIngestion.flow(manager.testActor(), IngestionSettings.create().withInFlightPerGroup(2)))
+				.runWith(Sink.seq(), materializer);
+		
+		//The first reading of a device registers it
+		assertEquals("device", manager.expectMsgClass(RequestTrackDevice.class).deviceId);
+		ActorRef registration = manager.lastSender();
+		manager.expectMsgClass(DeviceEnvelope.class);
+		ActorRef first = manager.lastSender();
+		manager.expectMsgClass(DeviceEnvelope.class);
+		ActorRef second = manager.lastSender();
+		manager.expectNoMessage(new FiniteDuration(200, TimeUnit.MILLISECONDS));
+		
+		//A new reading is sent only after an ack
+		registration.tell(new DeviceRegistred(), ActorRef.noSender());
+		first.tell(new TemperatureRecorded(1L), ActorRef.noSender());
+		DeviceEnvelope third = manager.expectMsgClass(DeviceEnvelope.class);
+		assertEquals(3.0, ((RecordTemperature) third.message).value, 0.0);
+		manager.lastSender().tell(new TemperatureRejected(3L), ActorRef.noSender());
+		second.tell(new TemperatureRecorded(2L), ActorRef.noSender());
+		manager.expectMsgClass(DeviceEnvelope.class);
+		manager.lastSender().tell(new TemperatureRecorded(4L), ActorRef.noSender());
+		
+		List<TemperatureIngestion.Ack> result = acks.toCompletableFuture().get(3, TimeUnit.SECONDS);
+		assertEquals(4, result.size());
+		for(TemperatureIngestion.Ack ack : result){
+			assertEquals(ack.reading.value != 3.0, ack.recorded);
+		}
+	}
+}
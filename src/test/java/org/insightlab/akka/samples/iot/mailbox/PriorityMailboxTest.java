@@ -0,0 +1,132 @@
+package org.insightlab.akka.samples.iot.mailbox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.insightlab.akka.samples.iot.actors.Device;
+import org.insightlab.akka.samples.iot.actors.DeviceGroupSettings;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperatureBatch;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureBatchRecorded;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRecorded;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureRejected;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.dispatch.Envelope;
+import akka.dispatch.MessageQueue;
+import akka.testkit.TestKit;
+import scala.Option;
+import scala.concurrent.duration.FiniteDuration;
+
+public class PriorityMailboxTest {
+	static ActorSystem system;
+	
+	@BeforeClass
+	public static void setUpClass(){
+		system = ActorSystem.create("iot-mailbox-test-system");
+	}
+	
+	@AfterClass
+	public static void tearDownClass(){
+		TestKit.shutdownActorSystem(system, TestKit.shutdownActorSystem$default$2(), true);
+	}
+	
+	private static MessageQueue queue(int writeCapacity, PriorityMailbox.Overflow overflow){
+		return new PriorityMailbox(writeCapacity, overflow).create(Option.empty(), Option.apply(system));
+	}
+	
+	@Test
+	public void testHandleReadsBeforeWrites(){
+		TestKit probe = new TestKit(system);
+		MessageQueue queue = queue(10, PriorityMailbox.Overflow.REJECT);
+		
+		queue.enqueue(probe.testActor(), new Envelope(new RecordTemperature(1L, 20.0), probe.testActor()));
+		queue.enqueue(probe.testActor(), new Envelope(new RecordTemperature(2L, 21.0), probe.testActor()));
+		queue.enqueue(probe.testActor(), new Envelope(new ReadTemperature(3L), probe.testActor()));
+		queue.enqueue(probe.testActor(), new Envelope(
+				new DeviceEnvelope("group", "device", new ReadTemperature(4L)), probe.testActor()));
+		assertEquals(4, queue.numberOfMessages());
+		
+		assertEquals(3L, ((ReadTemperature) queue.dequeue().message()).requestId);
+		assertEquals(4L, ((ReadTemperature) ((DeviceEnvelope) queue.dequeue().message()).message).requestId);
+		//The writes keep their order
+		assertEquals(1L, ((RecordTemperature) queue.dequeue().message()).requestId);
+		assertEquals(2L, ((RecordTemperature) queue.dequeue().message()).requestId);
+		assertNull(queue.dequeue());
+		assertFalse(queue.hasMessages());
+	}
+	
+	@Test
+	public void testRejectWritesOverTheCapacity(){
+		TestKit probe = new TestKit(system);
+		MessageQueue queue = queue(2, PriorityMailbox.Overflow.REJECT);
+		
+		queue.enqueue(probe.testActor(), new Envelope(new RecordTemperature(1L, 20.0), probe.testActor()));
+		queue.enqueue(probe.testActor(), new Envelope(
+				new RecordTemperatureBatch(2L, new String[]{"a", "b"}, new double[]{1.0, 2.0}, new long[]{1L, 2L}), probe.testActor()));
+		queue.enqueue(probe.testActor(), new Envelope(new RecordTemperature(3L, 22.0), probe.testActor()));
+		queue.enqueue(probe.testActor(), new Envelope(
+				new RecordTemperatureBatch(4L, new String[]{"a", "b"}, new double[]{1.0, 2.0}, new long[]{1L, 2L}), probe.testActor()));
+		//Messages that are not writes are never rejected
+		queue.enqueue(probe.testActor(), new Envelope(new ReadTemperature(5L), probe.testActor()));
+		
+		assertEquals(3L, probe.expectMsgClass(TemperatureRejected.class).requestId);
+		TemperatureBatchRecorded rejected = probe.expectMsgClass(TemperatureBatchRecorded.class);
+		assertEquals(4L, rejected.requestId);
+		assertArrayEquals(new byte[]{TemperatureBatchRecorded.REJECTED, TemperatureBatchRecorded.REJECTED}, rejected.outcomes);
+		assertEquals(3, queue.numberOfMessages());
+		
+		//A write taken by the actor leaves room for a new one
+		queue.dequeue();
+		queue.dequeue();
+		queue.enqueue(probe.testActor(), new Envelope(new RecordTemperature(6L, 23.0), probe.testActor()));
+		probe.expectNoMessage(new FiniteDuration(200, TimeUnit.MILLISECONDS));
+		assertEquals(2, queue.numberOfMessages());
+	}
+	
+	@Test
+	public void testDropTheOldestWrite(){
+		TestKit probe = new TestKit(system);
+		system.eventStream().subscribe(probe.testActor(), DeadLetter.class);
+		MessageQueue queue = queue(2, PriorityMailbox.Overflow.DROP_OLDEST);
+		
+		for(long i = 1; i <= 3; i++){
+			queue.enqueue(probe.testActor(), new Envelope(new RecordTemperature(i, 20.0), probe.testActor()));
+		}
+		
+		DeadLetter dropped = probe.expectMsgClass(DeadLetter.class);
+		assertEquals(1L, ((RecordTemperature) dropped.message()).requestId);
+		assertEquals(2, queue.numberOfMessages());
+		assertEquals(2L, ((RecordTemperature) queue.dequeue().message()).requestId);
+		assertEquals(3L, ((RecordTemperature) queue.dequeue().message()).requestId);
+		system.eventStream().unsubscribe(probe.testActor());
+	}
+	
+	@Test
+	public void testDeviceWithPriorityMailbox(){
+		TestKit probe = new TestKit(system);
+		ActorRef deviceActor = system.actorOf(Device.props("group", "device",
+				DeviceGroupSettings.create().withPriorityMailbox(true)));
+		
+		deviceActor.tell(new RecordTemperature(1L, 24.0), probe.testActor());
+		assertEquals(1L, probe.expectMsgClass(TemperatureRecorded.class).requestId);
+		
+		deviceActor.tell(new ReadTemperature(2L), probe.testActor());
+		RespondTemperature response = probe.expectMsgClass(RespondTemperature.class);
+		assertEquals(2L, response.requestId);
+		assertEquals(Optional.of(24.0), response.value);
+	}
+}
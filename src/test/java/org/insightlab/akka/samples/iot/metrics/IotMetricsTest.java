@@ -0,0 +1,88 @@
+package org.insightlab.akka.samples.iot.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.insightlab.akka.samples.iot.actors.Device;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperature;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.TestKit;
+import scala.Function0;
+
+public class IotMetricsTest {
+	static ActorSystem system;
+	
+	@BeforeClass
+	public static void setUpClass(){
+		system = ActorSystem.create("iot-metrics-test-system");
+	}
+	
+	@AfterClass
+	public static void tearDownClass(){
+		TestKit.shutdownActorSystem(system, TestKit.shutdownActorSystem$default$2(), true);
+	}
+	
+	@Test
+	public void testMergeStripesOfConcurrentRecords() throws InterruptedException {
+		StripedHistogram histogram = new StripedHistogram();
+		
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++){
+			threads[t] = new Thread(() -> {
+				for(long value = 1; value <= 1000; value++){
+					histogram.record(value);
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads){
+			thread.join();
+		}
+		
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(4000, snapshot.count);
+		assertEquals(1000, snapshot.max);
+		assertEquals(500.5, snapshot.mean(), 0.0);
+		//The buckets have a relative error below 1/16
+		assertTrue(Math.abs(snapshot.percentile(0.5) - 500) <= 500 / 16);
+		assertTrue(Math.abs(snapshot.percentile(0.99) - 990) <= 990 / 16);
+		assertEquals(1000, snapshot.percentile(1.0));
+	}
+	
+	@Test
+	public void testRecordHandlingTimeAndMailboxDepth(){
+		IotMetrics metrics = IotMetrics.get(system);
+		TestKit probe = new TestKit(system);
+		ActorRef deviceActor = system.actorOf(Device.props("group", "device")
+				.withMailbox("iot.instrumented-mailbox"));
+		
+		for(long i = 0; i < 10; i++){
+			deviceActor.tell(new ReadTemperature(i), probe.testActor());
+		}
+		for(int i = 0; i < 10; i++){
+			probe.expectMsgClass(RespondTemperature.class);
+		}
+		
+		//The handling time is recorded right after the answer is sent
+		probe.awaitAssert(new Function0<Object>() {
+			
+			@Override
+			public Object apply() {
+				assertEquals(10, metrics.histogramSnapshots().get("device.handling.ReadTemperature").count);
+				return null;
+			}
+		}, probe.awaitAssert$default$2(), probe.awaitAssert$default$3());
+		assertEquals(10, metrics.histogramSnapshots().get("mailbox.depth").count);
+		assertEquals(Long.valueOf(0), metrics.counterValues().get("mailbox.queued"));
+		
+		String report = new MetricsReporter(metrics, "", system.log()).report(0L);
+		assertTrue(report.contains("0 device.handling.ReadTemperature count=10 "));
+		assertTrue(report.contains("0 mailbox.queued value=0"));
+	}
+}
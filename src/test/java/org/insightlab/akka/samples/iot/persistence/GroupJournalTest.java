@@ -0,0 +1,81 @@
+package org.insightlab.akka.samples.iot.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.insightlab.akka.samples.iot.cache.LastValueTable;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GroupJournalTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testRecoverTwiceAfterTornFirstRecord() throws IOException {
+		File directory = folder.newFolder("group");
+		
+		//A crash left only the type and half the id length of the first record
+		try(FileOutputStream out = new FileOutputStream(new File(directory, "journal"))){
+			out.write(new byte[]{2, 0});
+		}
+		
+		GroupJournal journal = new GroupJournal(directory);
+		LastValueTable first = new LastValueTable();
+		journal.recover(first);
+		assertEquals(0, first.size());
+		
+		journal.registered("device1");
+		journal.recorded("device1", 21.5, 100L);
+		journal.flush();
+		journal.close();
+		
+		//The torn bytes were dropped, so the new records are read as they were written
+		GroupJournal recovered = new GroupJournal(directory);
+		LastValueTable second = new LastValueTable();
+		recovered.recover(second);
+		recovered.close();
+		
+		assertEquals(1, second.size());
+		assertTrue(second.hasReading("device1"));
+		assertEquals(21.5, second.value("device1"), 0.0);
+		assertEquals(2, recovered.recordsSinceSnapshot());
+		assertFalse(second.contains("device2"));
+	}
+	
+	@Test
+	public void testRecoverAfterTornRecordWithUnknownType() throws IOException {
+		File directory = folder.newFolder("group");
+		GroupJournal journal = new GroupJournal(directory);
+		journal.recover(new LastValueTable());
+		journal.registered("device1");
+		journal.flush();
+		journal.close();
+		
+		//A crash left a garbage byte where the next record starts
+		try(FileOutputStream out = new FileOutputStream(new File(directory, "journal"), true)){
+			out.write(new byte[]{77, 0, 3});
+		}
+		
+		GroupJournal reopened = new GroupJournal(directory);
+		LastValueTable first = new LastValueTable();
+		reopened.recover(first);
+		assertTrue(first.contains("device1"));
+		reopened.recorded("device1", 19.0, 200L);
+		reopened.flush();
+		reopened.close();
+		
+		GroupJournal recovered = new GroupJournal(directory);
+		LastValueTable second = new LastValueTable();
+		recovered.recover(second);
+		recovered.close();
+		assertEquals(19.0, second.value("device1"), 0.0);
+		assertEquals(200L, second.timestamp("device1"));
+	}
+}
@@ -0,0 +1,105 @@
+package org.insightlab.akka.samples.iot.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.TestKit;
+
+public class ActorRegistryTest {
+	static ActorSystem system;
+	static ActorRef[] actors = new ActorRef[500];
+	
+	@BeforeClass
+	public static void setUpClass(){
+		system = ActorSystem.create("iot-registry-test-system");
+		for(int i = 0; i < actors.length; i++){
+			actors[i] = system.actorOf(Props.empty());
+		}
+	}
+	
+	@AfterClass
+	public static void tearDownClass(){
+		TestKit.shutdownActorSystem(system, TestKit.shutdownActorSystem$default$2(), true);
+	}
+	
+	@Test
+	public void testFindIdsAndRefsAfterManyChanges(){
+		ActorRegistry registry = new ActorRegistry(4);
+		Map<String, ActorRef> expected = new HashMap<>();
+		Random random = new Random(7);
+		
+		for(int step = 0; step < 20000; step++){
+			int i = random.nextInt(actors.length);
+			String id = "device" + i;
+			switch(random.nextInt(3)){
+			case 0:
+				registry.put(id, actors[i]);
+				expected.put(id, actors[i]);
+				break;
+			case 1:
+				assertEquals(expected.remove(id) != null ? id : null, registry.remove(actors[i]));
+				break;
+			default:
+				assertEquals(expected.remove(id), registry.remove(id));
+			}
+		}
+		
+		assertEquals(expected.size(), registry.size());
+		for(int i = 0; i < actors.length; i++){
+			String id = "device" + i;
+			assertEquals(expected.get(id), registry.get(id));
+			assertEquals(expected.containsKey(id) ? id : null, registry.idOf(actors[i]));
+		}
+	}
+	
+	@Test
+	public void testReplaceTheRefOfAnId(){
+		ActorRegistry registry = new ActorRegistry();
+		int slot = registry.put("device", actors[0]);
+		
+		assertEquals(slot, registry.put("device", actors[1]));
+		assertEquals(1, registry.size());
+		assertEquals(actors[1], registry.get("device"));
+		assertNull(registry.idOf(actors[0]));
+		assertEquals("device", registry.idOf(actors[1]));
+	}
+	
+	@Test
+	public void testSnapshotWithoutExcludedIds(){
+		ActorRegistry registry = new ActorRegistry();
+		for(int i = 0; i < 10; i++){
+			registry.put("device" + i, actors[i]);
+		}
+		registry.remove("device3");
+		
+		RegistrySnapshot snapshot = registry.snapshot(Collections.singleton("device5"));
+		registry.remove("device0");
+		
+		assertEquals(8, snapshot.size());
+		Set<String> ids = new HashSet<>();
+		for(int index = 0; index < snapshot.size(); index++){
+			ids.add(snapshot.idAt(index));
+			assertEquals(index, snapshot.indexOf(snapshot.refAt(index)));
+		}
+		assertTrue(ids.contains("device0"));
+		assertFalse(ids.contains("device3"));
+		assertFalse(ids.contains("device5"));
+		assertEquals(ActorRegistry.NO_SLOT, snapshot.indexOf(actors[5]));
+	}
+}
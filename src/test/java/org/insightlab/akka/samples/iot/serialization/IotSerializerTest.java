@@ -0,0 +1,282 @@
+package org.insightlab.akka.samples.iot.serialization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.NotSerializableException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.insightlab.akka.samples.iot.actors.DeviceGroup;
+import org.insightlab.akka.samples.iot.alerting.AlertRule;
+import org.insightlab.akka.samples.iot.messages.alerting.AddAlertRule;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertCleared;
+import org.insightlab.akka.samples.iot.messages.alerting.AlertRaised;
+import org.insightlab.akka.samples.iot.messages.alerting.RemoveAlertRule;
+import org.insightlab.akka.samples.iot.messages.registration.DeviceRegistred;
+import org.insightlab.akka.samples.iot.messages.registration.RequestTrackDevice;
+import org.insightlab.akka.samples.iot.messages.routing.DeviceEnvelope;
+import org.insightlab.akka.samples.iot.messages.routing.GroupEnvelope;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscribeDevice;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscribeGroup;
+import org.insightlab.akka.samples.iot.messages.subscription.SubscriptionEnded;
+import org.insightlab.akka.samples.iot.messages.subscription.TemperatureUpdates;
+import org.insightlab.akka.samples.iot.messages.temperature.PushTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadRollups;
+import org.insightlab.akka.samples.iot.messages.temperature.ReadTemperatureHistory;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RecordTemperatureBatch;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllGroupsTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestGroupStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RequestTemperatureStream;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsStatistics;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllGroupsTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondAllTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondCachedTemperatures;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondRollups;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperature;
+import org.insightlab.akka.samples.iot.messages.temperature.RespondTemperatureRange;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureBatchRecorded;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureChunk;
+import org.insightlab.akka.samples.iot.messages.temperature.TemperatureStreamCompleted;
+import org.insightlab.akka.samples.iot.states.temperature.DeviceNotAvailable;
+import org.insightlab.akka.samples.iot.states.temperature.DeviceTimedOut;
+import org.insightlab.akka.samples.iot.states.temperature.Temperature;
+import org.insightlab.akka.samples.iot.states.temperature.TemperatureNotAvailable;
+import org.insightlab.akka.samples.iot.states.temperature.TemperatureReading;
+import org.insightlab.akka.samples.iot.statistics.TemperatureStatistics;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.testkit.TestKit;
+import scala.concurrent.duration.FiniteDuration;
+
+public class IotSerializerTest {
+	static ActorSystem system;
+	final IotSerializer serializer = new IotSerializer();
+	
+	@BeforeClass
+	public static void setUpClass(){
+		system = ActorSystem.create("iot-serialization-test-system");
+	}
+	
+	@AfterClass
+	public static void tearDownClass(){
+		TestKit.shutdownActorSystem(system, TestKit.shutdownActorSystem$default$2(), true);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> T roundTrip(T message) throws NotSerializableException {
+		return (T) serializer.fromBinary(serializer.toBinary(message), serializer.manifest(message));
+	}
+	
+	@Test
+	public void testRoundTripOfWrites() throws NotSerializableException {
+		RecordTemperature record = roundTrip(new RecordTemperature(-7L, 21.5, 1514764800000L));
+		assertEquals(-7L, record.requestId);
+		assertEquals(21.5, record.value, 0.0);
+		assertEquals(1514764800000L, record.timestamp);
+		
+		PushTemperature push = roundTrip(new PushTemperature(21.5, 1514764800000L));
+		assertEquals(21.5, push.value, 0.0);
+		assertEquals(1514764800000L, push.timestamp);
+		
+		RecordTemperatureBatch batch = roundTrip(new RecordTemperatureBatch(3L, new String[]{"a", "b\u00e9"},
+				new double[]{1.5, Double.NaN}, new long[]{1514764800000L, 1514764799000L}));
+		assertArrayEquals(new String[]{"a", "b\u00e9"}, batch.deviceIds);
+		assertArrayEquals(new double[]{1.5, Double.NaN}, batch.values, 0.0);
+		assertArrayEquals(new long[]{1514764800000L, 1514764799000L}, batch.timestamps);
+		
+		TemperatureBatchRecorded recorded = roundTrip(new TemperatureBatchRecorded(3L,
+				new byte[]{TemperatureBatchRecorded.RECORDED, TemperatureBatchRecorded.UNKNOWN_DEVICE}));
+		assertArrayEquals(new byte[]{TemperatureBatchRecorded.RECORDED, TemperatureBatchRecorded.UNKNOWN_DEVICE},
+				recorded.outcomes);
+		
+		RequestTrackDevice track = roundTrip(new RequestTrackDevice("group", "device"));
+		assertEquals("group", track.groupId);
+		assertEquals("device", track.deviceId);
+		assertTrue(roundTrip(new DeviceRegistred()) instanceof DeviceRegistred);
+		
+		DeviceEnvelope envelope = roundTrip(new DeviceEnvelope("group", "device", new RecordTemperature(1L, 2.0, 3L)));
+		assertEquals("device", envelope.deviceId);
+		assertEquals(2.0, ((RecordTemperature) envelope.message).value, 0.0);
+		GroupEnvelope groupEnvelope = roundTrip(new GroupEnvelope("group", new RequestAllTemperatures(4L)));
+		assertEquals(4L, ((RequestAllTemperatures) groupEnvelope.message).requestId);
+	}
+	
+	@Test
+	public void testRoundTripOfDeviceLists() throws NotSerializableException {
+		GroupEnvelope request = roundTrip(new GroupEnvelope("group", new DeviceGroup.RequestDeviceList(5L)));
+		assertEquals(5L, ((DeviceGroup.RequestDeviceList) request.message).requestId);
+		
+		Set<String> ids = new HashSet<>(Arrays.asList("a", "b\u00e9"));
+		DeviceGroup.ReplyDeviceList reply = roundTrip(new DeviceGroup.ReplyDeviceList(5L, ids));
+		assertEquals(5L, reply.requestId);
+		assertEquals(ids, reply.ids);
+		assertEquals(Collections.emptySet(), roundTrip(new DeviceGroup.ReplyDeviceList(6L, Collections.emptySet())).ids);
+	}
+	
+	@Test
+	public void testRoundTripOfCompletenessTargets() throws NotSerializableException {
+		FiniteDuration timeout = new FiniteDuration(250, TimeUnit.MILLISECONDS);
+		
+		RequestAllTemperatures fraction = roundTrip(new RequestAllTemperatures(1L, timeout, 0.95));
+		assertEquals(timeout, fraction.timeout);
+		assertEquals(0.95, fraction.completeness, 0.0);
+		assertEquals(RequestAllTemperatures.NO_QUORUM, fraction.quorum);
+		
+		RequestAllTemperatures quorum = roundTrip(RequestAllTemperatures.quorum(2L, timeout, 3));
+		assertEquals(3, quorum.quorum);
+		assertTrue(quorum.sameTarget(RequestAllTemperatures.quorum(5L, timeout, 3)));
+		
+		RequestGroupStatistics statistics = roundTrip(new RequestGroupStatistics(6L, timeout));
+		assertEquals(6L, statistics.requestId);
+		assertEquals(timeout, statistics.timeout);
+		assertEquals(RequestAllTemperatures.DEFAULT_TIMEOUT, roundTrip(new RequestGroupStatistics(7L)).timeout);
+	}
+	
+	@Test
+	public void testRoundTripOfSubscriptions() throws NotSerializableException {
+		FiniteDuration window = new FiniteDuration(100, TimeUnit.MILLISECONDS);
+		assertEquals(Optional.of(window), roundTrip(new SubscribeGroup(1L, Optional.of(window))).conflation);
+		
+		SubscribeDevice device = roundTrip(new SubscribeDevice(2L, "device"));
+		assertEquals("device", device.deviceId);
+		assertFalse(device.conflation.isPresent());
+		
+		TemperatureUpdates updates = roundTrip(new TemperatureUpdates(3L, "group", new String[]{"a", "b"},
+				new double[]{1.0, 2.0}, new long[]{1514764800000L, 1514764799000L}));
+		assertEquals("group", updates.groupId);
+		assertArrayEquals(new String[]{"a", "b"}, updates.deviceIds);
+		assertArrayEquals(new long[]{1514764800000L, 1514764799000L}, updates.timestamps);
+		assertEquals(4L, roundTrip(new SubscriptionEnded(4L)).requestId);
+	}
+	
+	@Test
+	public void testRoundTripOfTemperatureStreams() throws NotSerializableException {
+		RequestTemperatureStream request = roundTrip(new RequestTemperatureStream(1L, 500,
+				new FiniteDuration(2, TimeUnit.SECONDS)));
+		assertEquals(500, request.chunkSize);
+		assertEquals(new FiniteDuration(2, TimeUnit.SECONDS), request.timeout);
+		
+		Map<String, TemperatureReading> readings = new HashMap<>();
+		readings.put("a", new Temperature(1.0));
+		readings.put("b", new TemperatureNotAvailable());
+		TemperatureChunk chunk = roundTrip(new TemperatureChunk(1L, 3, readings));
+		assertEquals(3, chunk.sequenceNr);
+		assertEquals(readings, chunk.temperatures);
+		
+		TemperatureStreamCompleted completed = roundTrip(new TemperatureStreamCompleted(1L, 4,
+				Collections.singleton("c"), Collections.emptySet()));
+		assertEquals(4, completed.chunks);
+		assertEquals(Collections.singleton("c"), completed.timedOutDevices);
+		assertTrue(completed.unavailableDevices.isEmpty());
+	}
+	
+	@Test
+	public void testRoundTripOfAlerts() throws NotSerializableException {
+		AlertRule rule = roundTrip(new AddAlertRule(1L, AlertRule.devicesAbove("crowd", 30.0, 1.5, 3))).rule;
+		assertEquals("crowd", rule.ruleId);
+		assertEquals(AlertRule.Kind.DEVICES_ABOVE, rule.kind);
+		assertEquals(1.5, rule.hysteresis, 0.0);
+		assertEquals(3, rule.minDevices);
+		assertEquals("crowd", roundTrip(new RemoveAlertRule(2L, "crowd")).ruleId);
+		
+		AlertRaised raised = roundTrip(new AlertRaised("group", "hot", Optional.of("device"), 31.0, 1514764800000L));
+		assertEquals(Optional.of("device"), raised.deviceId);
+		assertEquals(31.0, raised.value, 0.0);
+		assertEquals(1514764800000L, raised.timestamp);
+		assertFalse(roundTrip(new AlertCleared("group", "crowd", Optional.empty(), 2.0, 0L)).deviceId.isPresent());
+	}
+	
+	@Test
+	public void testRoundTripOfQueries() throws NotSerializableException {
+		ReadTemperatureHistory history = roundTrip(new ReadTemperatureHistory(1L, "device", Long.MIN_VALUE, Long.MAX_VALUE));
+		assertEquals(Long.MIN_VALUE, history.from);
+		assertEquals(Long.MAX_VALUE, history.to);
+		
+		assertFalse(roundTrip(new RequestAllGroupsTemperatures(2L)).groupIds.isPresent());
+		Set<String> groupIds = new HashSet<>(Arrays.asList("g1", "g2"));
+		assertEquals(groupIds, roundTrip(new RequestAllGroupsStatistics(2L, groupIds)).groupIds.get());
+		
+		assertEquals(Optional.of(20.0), roundTrip(new RespondTemperature(4L, Optional.of(20.0))).value);
+		assertEquals(Optional.empty(), roundTrip(new RespondTemperature(4L, Optional.empty())).value);
+		
+		RespondTemperatureRange range = roundTrip(new RespondTemperatureRange(5L, new long[]{10L, 20L}, new double[]{1.0, 2.0}));
+		assertArrayEquals(new long[]{10L, 20L}, range.timestamps);
+		assertArrayEquals(new double[]{1.0, 2.0}, range.values, 0.0);
+		
+		ReadRollups read = roundTrip(new ReadRollups(6L, ReadRollups.Resolution.HOUR, 0L, 3600000L));
+		assertEquals(ReadRollups.Resolution.HOUR, read.resolution);
+		assertEquals(3600000L, read.to);
+		RespondRollups rollups = roundTrip(new RespondRollups(7L, new long[]{0L, 60000L}, new long[]{3L, 1L},
+				new double[]{1.0, 4.0}, new double[]{3.0, 4.0}, new double[]{2.0, 4.0}));
+		assertArrayEquals(new long[]{0L, 60000L}, rollups.starts);
+		assertArrayEquals(new long[]{3L, 1L}, rollups.counts);
+		assertArrayEquals(new double[]{2.0, 4.0}, rollups.means, 0.0);
+		
+		RespondCachedTemperatures cached = roundTrip(new RespondCachedTemperatures(6L, new String[]{"a", "b"},
+				new double[]{1.0, Double.NaN}, new long[]{100L, RespondCachedTemperatures.NO_READING}));
+		assertArrayEquals(new long[]{100L, RespondCachedTemperatures.NO_READING}, cached.timestamps);
+	}
+	
+	@Test
+	public void testRoundTripOfReadingsAndStatistics() throws NotSerializableException {
+		Map<String, TemperatureReading> readings = new HashMap<>();
+		readings.put("d1", new Temperature(21.0));
+		readings.put("d2", new TemperatureNotAvailable());
+		readings.put("d3", new DeviceNotAvailable());
+		readings.put("d4", new DeviceTimedOut());
+		assertEquals(readings, roundTrip(new RespondAllTemperatures(7L, readings)).temperatures);
+		
+		Map<String, Map<String, TemperatureReading>> groups = new HashMap<>();
+		groups.put("group", readings);
+		RespondAllGroupsTemperatures all = roundTrip(new RespondAllGroupsTemperatures(8L, groups,
+				new HashSet<>(Arrays.asList("missing"))));
+		assertEquals(groups, all.temperatures);
+		assertEquals(new HashSet<>(Arrays.asList("missing")), all.missingGroups);
+		
+		TemperatureStatistics statistics = TemperatureStatistics.of(new double[]{-3.0, 18.2, 18.25, 40.0}, 4);
+		TemperatureStatistics copy = roundTrip(new RespondAllGroupsStatistics(9L, statistics, new HashSet<>())).statistics;
+		assertEquals(statistics.toString(), copy.toString());
+		assertEquals(statistics.usedBuckets(), copy.usedBuckets());
+		assertEquals(TemperatureStatistics.EMPTY.count,
+				roundTrip(new RespondAllGroupsStatistics(9L, TemperatureStatistics.EMPTY, new HashSet<>())).statistics.count);
+	}
+	
+	@Test(expected = NotSerializableException.class)
+	public void testRejectTruncatedMessages() throws NotSerializableException {
+		byte[] bytes = serializer.toBinary(new RecordTemperature(1L, 2.0, 3L));
+		serializer.fromBinary(Arrays.copyOf(bytes, bytes.length - 1), IotSerializer.RECORD_TEMPERATURE);
+	}
+	
+	@Test
+	public void testBindTheMessagesToTheSerializer(){
+		Serialization serialization = (Serialization) SerializationExtension.apply(system);
+		
+		Serializer forRecord = serialization.findSerializerFor(new RecordTemperature(1L, 2.0));
+		assertEquals(IotSerializer.IDENTIFIER, forRecord.identifier());
+		Serializer forReading = serialization.findSerializerFor(new Temperature(2.0));
+		assertEquals(IotSerializer.IDENTIFIER, forReading.identifier());
+		Serializer forDeviceList = serialization.findSerializerFor(new DeviceGroup.RequestDeviceList(1L));
+		assertEquals(IotSerializer.IDENTIFIER, forDeviceList.identifier());
+		
+		//Much smaller than Java serialization of the same fields
+		assertTrue(serializer.toBinary(new RecordTemperature(1L, 2.0, 1514764800000L)).length <= 16);
+	}
+}
@@ -0,0 +1,56 @@
+package org.insightlab.akka.samples.iot.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.insightlab.akka.samples.iot.history.TemperatureHistory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HistoryStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testDeleteExpiredSegmentFiles() throws IOException {
+		File directory = folder.newFolder("group");
+		HistoryStore store = new HistoryStore(directory, new HistoryStoreSettings(folder.getRoot(), 10, 50));
+		
+		for(long timestamp = 0; timestamp < 100; timestamp++){
+			store.append("device1", timestamp, timestamp);
+		}
+		
+		//The last roll over, at 90, kept only the segments with readings
+		//at or after 89 - 50, so the ones starting at 0, 10 and 20 are gone
+		assertEquals(7, store.segmentCount());
+		assertEquals(0, store.pendingDeletes());
+		assertEquals(7, directory.listFiles((dir, name) -> name.startsWith("segment-")).length);
+		assertEquals(70, store.range("device1", 0, 99).timestamps.length);
+		store.close();
+	}
+	
+	@Test
+	public void testFindDeviceSlotsAfterReopening() throws IOException {
+		File directory = folder.newFolder("group");
+		HistoryStoreSettings settings = new HistoryStoreSettings(folder.getRoot(), 1000, 1000);
+		HistoryStore store = new HistoryStore(directory, settings);
+		for(int i = 0; i < 100; i++){
+			store.append("device"+i, i, i);
+		}
+		store.close();
+		
+		HistoryStore reopened = new HistoryStore(directory, settings);
+		reopened.append("device7", 200, 7.5);
+		for(int i = 0; i < 100; i++){
+			TemperatureHistory.Slice slice = reopened.range("device"+i, 0, 100);
+			assertArrayEquals(new long[]{i}, slice.timestamps);
+		}
+		assertArrayEquals(new double[]{7.0, 7.5}, reopened.range("device7", 0, 200).values, 0.0);
+		assertEquals(0, reopened.range("unknown", 0, 200).timestamps.length);
+		reopened.close();
+	}
+}